@@ -0,0 +1,37 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive.benchmarks;
+
+import ru.tinkoff.invest.openapi.reactive.EndpointGroup;
+import ru.tinkoff.invest.openapi.reactive.RateLimitRegistry;
+
+final class Benchmarks {
+
+    private Benchmarks() {
+    }
+
+    /**
+     * Реестр с заведомо недостижимыми лимитами: замеры не должны ждать разрешений.
+     */
+    static RateLimitRegistry unlimited() {
+        RateLimitRegistry.Builder builder = RateLimitRegistry.builder();
+        for (EndpointGroup group : EndpointGroup.values()) {
+            builder.rate(group, 1e12);
+        }
+        return builder.build();
+    }
+}
@@ -0,0 +1,147 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.model.rest.*;
+import ru.tinkoff.invest.openapi.reactive.*;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Пропускная способность одного вызова каждого метода реактивных контекстов поверх заглушки.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ContextCallBenchmark {
+
+    private static final OffsetDateTime FROM = OffsetDateTime.of(2021, 1, 4, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final OffsetDateTime TO = FROM.plusDays(1);
+
+    private ReactiveMarketContext market;
+    private ReactiveOrdersContext orders;
+    private ReactiveOrdersListContext ordersList;
+    private ReactivePortfolioContext portfolio;
+    private ReactiveOperationsContext operations;
+    private ReactiveUserContext user;
+    private ReactiveSandboxContext sandbox;
+
+    private LimitOrderRequest limitOrder;
+    private MarketOrderRequest marketOrder;
+
+    @Setup
+    public void setUp() {
+        OpenApi openApi = StubOpenApi.create(10, 10);
+        RateLimitRegistry rateLimits = Benchmarks.unlimited();
+        market = new ReactiveMarketContext(openApi, rateLimits);
+        orders = new ReactiveOrdersContext(openApi, rateLimits);
+        ordersList = new ReactiveOrdersListContext(openApi, rateLimits);
+        portfolio = new ReactivePortfolioContext(openApi, rateLimits);
+        operations = new ReactiveOperationsContext(openApi, rateLimits);
+        user = new ReactiveUserContext(openApi, rateLimits);
+        sandbox = new ReactiveSandboxContext(openApi, rateLimits);
+        limitOrder = new LimitOrderRequest().lots(1).operation(OperationType.BUY).price(new BigDecimal("100.00"));
+        marketOrder = new MarketOrderRequest().lots(1).operation(OperationType.BUY);
+    }
+
+    @Benchmark
+    public Long getMarketStocks() {
+        return market.getMarketStocks().count().block();
+    }
+
+    @Benchmark
+    public Orderbook getMarketOrderbook() {
+        return market.getMarketOrderbook("BBG0", 20).block();
+    }
+
+    @Benchmark
+    public Long getMarketCandles() {
+        return market.getMarketCandles("BBG0", FROM, TO, CandleResolution._1MIN).count().block();
+    }
+
+    @Benchmark
+    public Long searchMarketInstrumentsByTicker() {
+        return market.searchMarketInstrumentsByTicker("T0").count().block();
+    }
+
+    @Benchmark
+    public SearchMarketInstrument searchMarketInstrumentByFigi() {
+        return market.searchMarketInstrumentByFigi("BBG0").block();
+    }
+
+    @Benchmark
+    public PlacedLimitOrder placeLimitOrder() {
+        return orders.placeLimitOrder("BBG0", limitOrder, null).block();
+    }
+
+    @Benchmark
+    public PlacedMarketOrder placeMarketOrder() {
+        return orders.placeMarketOrder("BBG0", marketOrder, null).block();
+    }
+
+    @Benchmark
+    public Void cancelOrder() {
+        return orders.cancelOrder("1", null).block();
+    }
+
+    @Benchmark
+    public Long getOrders() {
+        return ordersList.getOrders(null).count().block();
+    }
+
+    @Benchmark
+    public Long getPortfolio() {
+        return portfolio.getPortfolio(null).count().block();
+    }
+
+    @Benchmark
+    public Long getPortfolioCurrencies() {
+        return portfolio.getPortfolioCurrencies(null).count().block();
+    }
+
+    @Benchmark
+    public Long getOperations() {
+        return operations.getOperations(FROM, TO, null, null).count().block();
+    }
+
+    @Benchmark
+    public Long getAccounts() {
+        return user.getAccounts().count().block();
+    }
+
+    @Benchmark
+    public SandboxAccount performRegistration() {
+        return sandbox.performRegistration(new SandboxRegisterRequest()).block();
+    }
+}
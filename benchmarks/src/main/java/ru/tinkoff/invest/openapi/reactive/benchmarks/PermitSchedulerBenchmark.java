@@ -0,0 +1,70 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.tinkoff.invest.openapi.reactive.PermitScheduler;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Накладные расходы выдачи разрешений при конкуренции потоков. Лимит задан заведомо недостижимым,
+ * чтобы замерялась только синхронизация, а не ожидание.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PermitSchedulerBenchmark {
+
+    private final PermitScheduler permits = new PermitScheduler(1e12);
+
+    @Benchmark
+    @Threads(1)
+    public Void acquire1() {
+        return permits.acquire().block();
+    }
+
+    @Benchmark
+    @Threads(4)
+    public Void acquire4() {
+        return permits.acquire().block();
+    }
+
+    @Benchmark
+    @Threads(16)
+    public Void acquire16() {
+        return permits.acquire().block();
+    }
+
+    @Benchmark
+    @Threads(64)
+    public Void acquire64() {
+        return permits.acquire().block();
+    }
+}
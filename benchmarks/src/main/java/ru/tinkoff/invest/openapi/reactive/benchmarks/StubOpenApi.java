@@ -0,0 +1,371 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive.benchmarks;
+
+import ru.tinkoff.invest.openapi.MarketContext;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.OperationsContext;
+import ru.tinkoff.invest.openapi.OrdersContext;
+import ru.tinkoff.invest.openapi.PortfolioContext;
+import ru.tinkoff.invest.openapi.SandboxContext;
+import ru.tinkoff.invest.openapi.StreamingContext;
+import ru.tinkoff.invest.openapi.UserContext;
+import ru.tinkoff.invest.openapi.model.rest.*;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Function;
+
+/**
+ * Заглушка {@link OpenApi}, мгновенно возвращающая заранее подготовленные ответы.
+ *
+ * Ответы строятся один раз при создании, поэтому замеры не зависят от сети и включают только накладные
+ * расходы реактивной обёртки. В отличие от имитатора брокера, заглушка не ведёт состояние счёта и
+ * не синхронизирует вызовы.
+ */
+public final class StubOpenApi extends OpenApi {
+
+    private final Function<CompletableFuture<Object>, CompletableFuture<Object>> decorator;
+    private final MarketInstrumentList instruments;
+    private final SearchMarketInstrument instrument;
+    private final Orderbook orderbook;
+    private final Candles candles;
+    private final List<Order> orders;
+    private final PlacedLimitOrder placedLimitOrder;
+    private final PlacedMarketOrder placedMarketOrder;
+    private final Portfolio portfolio;
+    private final Currencies currencies;
+    private final Operations operations;
+    private final UserAccounts accounts;
+    private final SandboxAccount sandboxAccount;
+
+    private final MarketContext marketContext = new StubMarketContext();
+    private final OrdersContext ordersContext = new StubOrdersContext();
+    private final PortfolioContext portfolioContext = new StubPortfolioContext();
+    private final OperationsContext operationsContext = new StubOperationsContext();
+    private final UserContext userContext = new StubUserContext();
+    private final SandboxContext sandboxContext = new StubSandboxContext();
+
+    /**
+     * @param instruments Количество инструментов в ответах справочника.
+     * @param candles Количество свечей в ответе на запрос свечей.
+     */
+    public static OpenApi create(int instruments, int candles) {
+        return create(instruments, candles, Function.identity());
+    }
+
+    /**
+     * @param decorator Обёртка над готовыми ответами, например для имитации задержек или ограничений.
+     */
+    public static OpenApi create(int instruments,
+                                 int candles,
+                                 Function<CompletableFuture<Object>, CompletableFuture<Object>> decorator) {
+        return new StubOpenApi(instruments, candles, decorator);
+    }
+
+    private StubOpenApi(int instrumentCount,
+                        int candleCount,
+                        Function<CompletableFuture<Object>, CompletableFuture<Object>> decorator) {
+        super("stub", true);
+        this.decorator = decorator;
+
+        List<MarketInstrument> instrumentList = new ArrayList<>(instrumentCount);
+        for (int i = 0; i < instrumentCount; i++) {
+            instrumentList.add(new MarketInstrument()
+                    .figi("BBG" + i)
+                    .ticker("T" + i)
+                    .isin("RU" + i)
+                    .name("Instrument " + i)
+                    .lot(1)
+                    .minPriceIncrement(new BigDecimal("0.01"))
+                    .currency(Currency.RUB)
+                    .type(InstrumentType.STOCK));
+        }
+        this.instruments = new MarketInstrumentList()
+                .total(BigDecimal.valueOf(instrumentCount))
+                .instruments(instrumentList);
+        this.instrument = new SearchMarketInstrument()
+                .figi("BBG0").ticker("T0").isin("RU0").name("Instrument 0").lot(1).currency(Currency.RUB)
+                .type(InstrumentType.STOCK);
+
+        OffsetDateTime start = OffsetDateTime.of(2021, 1, 4, 7, 0, 0, 0, ZoneOffset.UTC);
+        List<Candle> candleList = new ArrayList<>(candleCount);
+        for (int i = 0; i < candleCount; i++) {
+            candleList.add(new Candle()
+                    .figi("BBG0")
+                    .interval(CandleResolution._1MIN)
+                    .time(start.plusMinutes(i))
+                    .o(BigDecimal.valueOf(100 + i % 10))
+                    .c(BigDecimal.valueOf(101 + i % 10))
+                    .h(BigDecimal.valueOf(102 + i % 10))
+                    .l(BigDecimal.valueOf(99 + i % 10))
+                    .v(10 + i % 100));
+        }
+        this.candles = new Candles().figi("BBG0").interval(CandleResolution._1MIN).candles(candleList);
+
+        List<OrderResponse> bids = new ArrayList<>();
+        List<OrderResponse> asks = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            bids.add(new OrderResponse().price(BigDecimal.valueOf(10000 - i, 2)).quantity(10 + i));
+            asks.add(new OrderResponse().price(BigDecimal.valueOf(10001 + i, 2)).quantity(10 + i));
+        }
+        this.orderbook = new Orderbook()
+                .figi("BBG0").depth(20).bids(bids).asks(asks).tradeStatus(TradeStatus.NORMALTRADING)
+                .minPriceIncrement(new BigDecimal("0.01")).lastPrice(new BigDecimal("100.00"));
+
+        this.orders = Collections.singletonList(new Order()
+                .orderId("1").figi("BBG0").operation(OperationType.BUY).status(OrderStatus.NEW)
+                .requestedLots(1).executedLots(0).type(OrderType.LIMIT).price(new BigDecimal("100.00")));
+        this.placedLimitOrder = new PlacedLimitOrder()
+                .orderId("1").operation(OperationType.BUY).status(OrderStatus.NEW).requestedLots(1).executedLots(0);
+        this.placedMarketOrder = new PlacedMarketOrder()
+                .orderId("2").operation(OperationType.BUY).status(OrderStatus.FILL).requestedLots(1).executedLots(1);
+        this.portfolio = new Portfolio().positions(Collections.singletonList(new PortfolioPosition()
+                .figi("BBG0").ticker("T0").name("Instrument 0").instrumentType(InstrumentType.STOCK)
+                .balance(BigDecimal.TEN).lots(10)));
+        this.currencies = new Currencies().currencies(Collections.singletonList(
+                new CurrencyPosition().currency(Currency.RUB).balance(new BigDecimal("100000"))));
+        this.operations = new Operations().operations(Collections.singletonList(new Operation()
+                .id("1").figi("BBG0").status(OperationStatus.DONE).operationType(OperationTypeWithCommission.BUY)
+                .currency(Currency.RUB).payment(new BigDecimal("-100")).price(new BigDecimal("100"))
+                .quantity(1).date(start).isMarginCall(false)));
+        this.accounts = new UserAccounts().accounts(Collections.singletonList(new UserAccount()
+                .brokerAccountType(BrokerAccountType.TINKOFF).brokerAccountId("stub")));
+        this.sandboxAccount = new SandboxAccount()
+                .brokerAccountType(BrokerAccountType.TINKOFF).brokerAccountId("stub");
+    }
+
+    @Override
+    public SandboxContext getSandboxContext() {
+        return sandboxContext;
+    }
+
+    @Override
+    public OrdersContext getOrdersContext() {
+        return ordersContext;
+    }
+
+    @Override
+    public PortfolioContext getPortfolioContext() {
+        return portfolioContext;
+    }
+
+    @Override
+    public MarketContext getMarketContext() {
+        return marketContext;
+    }
+
+    @Override
+    public OperationsContext getOperationsContext() {
+        return operationsContext;
+    }
+
+    @Override
+    public UserContext getUserContext() {
+        return userContext;
+    }
+
+    @Override
+    public StreamingContext getStreamingContext() {
+        throw new UnsupportedOperationException("StubOpenApi does not support streaming");
+    }
+
+    @Override
+    public void close() {
+    }
+
+    @Override
+    public String toString() {
+        return "StubOpenApi";
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> CompletableFuture<T> respond(T response) {
+        return (CompletableFuture<T>) (CompletableFuture<?>) decorator.apply(CompletableFuture.completedFuture(response));
+    }
+
+    private final class StubMarketContext implements MarketContext {
+
+        @Override
+        public String getPath() {
+            return "market";
+        }
+
+        @Override
+        public CompletableFuture<MarketInstrumentList> getMarketStocks() {
+            return respond(instruments);
+        }
+
+        @Override
+        public CompletableFuture<MarketInstrumentList> getMarketBonds() {
+            return respond(instruments);
+        }
+
+        @Override
+        public CompletableFuture<MarketInstrumentList> getMarketEtfs() {
+            return respond(instruments);
+        }
+
+        @Override
+        public CompletableFuture<MarketInstrumentList> getMarketCurrencies() {
+            return respond(instruments);
+        }
+
+        @Override
+        public CompletableFuture<Optional<Orderbook>> getMarketOrderbook(String figi, int depth) {
+            return respond(Optional.of(orderbook));
+        }
+
+        @Override
+        public CompletableFuture<Optional<Candles>> getMarketCandles(String figi,
+                                                                    OffsetDateTime from,
+                                                                    OffsetDateTime to,
+                                                                    CandleResolution interval) {
+            return respond(Optional.of(candles));
+        }
+
+        @Override
+        public CompletableFuture<MarketInstrumentList> searchMarketInstrumentsByTicker(String ticker) {
+            return respond(instruments);
+        }
+
+        @Override
+        public CompletableFuture<Optional<SearchMarketInstrument>> searchMarketInstrumentByFigi(String figi) {
+            return respond(Optional.of(instrument));
+        }
+    }
+
+    private final class StubOrdersContext implements OrdersContext {
+
+        @Override
+        public String getPath() {
+            return "orders";
+        }
+
+        @Override
+        public CompletableFuture<List<Order>> getOrders(String brokerAccountId) {
+            return respond(orders);
+        }
+
+        @Override
+        public CompletableFuture<PlacedLimitOrder> placeLimitOrder(String figi,
+                                                                   LimitOrderRequest limitOrder,
+                                                                   String brokerAccountId) {
+            return respond(placedLimitOrder);
+        }
+
+        @Override
+        public CompletableFuture<PlacedMarketOrder> placeMarketOrder(String figi,
+                                                                     MarketOrderRequest marketOrder,
+                                                                     String brokerAccountId) {
+            return respond(placedMarketOrder);
+        }
+
+        @Override
+        public CompletableFuture<Void> cancelOrder(String orderId, String brokerAccountId) {
+            return respond(null);
+        }
+    }
+
+    private final class StubPortfolioContext implements PortfolioContext {
+
+        @Override
+        public String getPath() {
+            return "portfolio";
+        }
+
+        @Override
+        public CompletableFuture<Portfolio> getPortfolio(String brokerAccountId) {
+            return respond(portfolio);
+        }
+
+        @Override
+        public CompletableFuture<Currencies> getPortfolioCurrencies(String brokerAccountId) {
+            return respond(currencies);
+        }
+    }
+
+    private final class StubOperationsContext implements OperationsContext {
+
+        @Override
+        public String getPath() {
+            return "operations";
+        }
+
+        @Override
+        public CompletableFuture<Operations> getOperations(OffsetDateTime from,
+                                                           OffsetDateTime to,
+                                                           String figi,
+                                                           String brokerAccountId) {
+            return respond(operations);
+        }
+    }
+
+    private final class StubUserContext implements UserContext {
+
+        @Override
+        public String getPath() {
+            return "user";
+        }
+
+        @Override
+        public CompletableFuture<UserAccounts> getAccounts() {
+            return respond(accounts);
+        }
+    }
+
+    private final class StubSandboxContext implements SandboxContext {
+
+        @Override
+        public String getPath() {
+            return "sandbox";
+        }
+
+        @Override
+        public CompletableFuture<SandboxAccount> performRegistration(SandboxRegisterRequest registerRequest) {
+            return respond(sandboxAccount);
+        }
+
+        @Override
+        public CompletableFuture<Void> setCurrencyBalance(SandboxSetCurrencyBalanceRequest balanceRequest,
+                                                          String brokerAccountId) {
+            return respond(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> setPositionBalance(SandboxSetPositionBalanceRequest balanceRequest,
+                                                          String brokerAccountId) {
+            return respond(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> removeAccount(String brokerAccountId) {
+            return respond(null);
+        }
+
+        @Override
+        public CompletableFuture<Void> clearAll(String brokerAccountId) {
+            return respond(null);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+import ru.tinkoff.invest.openapi.reactive.EndpointGroup;
+import ru.tinkoff.invest.openapi.reactive.RateLimitRegistry;
+import ru.tinkoff.invest.openapi.reactive.ReactiveMarketContext;
+import ru.tinkoff.invest.openapi.reactive.UniverseScanner;
+
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Полное время загрузки свечей по множеству инструментов через заглушку, которая отвечает с задержкой
+ * и возвращает 429 при превышении своей частоты запросов. Лимит клиента настроен адаптивным и чуть выше
+ * лимита заглушки, поэтому замер включает и ожидание разрешений, и повторы после отказов.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 1)
+@Measurement(iterations = 3)
+@Fork(1)
+public class UniverseScanBenchmark {
+
+    private static final OffsetDateTime FROM = OffsetDateTime.of(2021, 1, 4, 0, 0, 0, 0, ZoneOffset.UTC);
+    private static final OffsetDateTime TO = FROM.plusDays(2);
+    private static final long LATENCY_MILLIS = 20;
+    private static final double STUB_RATE = 200;
+    private static final double CLIENT_RATE = 250;
+
+    @Param({"200"})
+    public int instruments;
+
+    @Param({"1", "8", "32"})
+    public int concurrency;
+
+    private UniverseScanner scanner;
+    private List<String> figis;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        Throttle throttle = new Throttle(STUB_RATE);
+        OpenApi openApi = StubOpenApi.create(10, 100, response -> throttle.tryAcquire()
+                ? response.thenApplyAsync(r -> r, CompletableFuture.delayedExecutor(LATENCY_MILLIS, TimeUnit.MILLISECONDS))
+                : CompletableFuture.failedFuture(new IllegalStateException("429 Too Many Requests")));
+        RateLimitRegistry.Builder builder = RateLimitRegistry.builder()
+                .adaptive(Duration.ofMillis(200), 10);
+        for (EndpointGroup group : EndpointGroup.values()) {
+            builder.rate(group, CLIENT_RATE);
+        }
+        scanner = new UniverseScanner(new ReactiveMarketContext(openApi, builder.build()), null, concurrency);
+        figis = new ArrayList<>(instruments);
+        for (int i = 0; i < instruments; i++) {
+            figis.add("BBG" + i);
+        }
+    }
+
+    @Benchmark
+    public Long scan() {
+        return scanner.scan(figis, FROM, TO, CandleResolution._1MIN).count().block();
+    }
+
+    /**
+     * Ограничение заглушки: фиксированное окно в одну секунду.
+     */
+    private static final class Throttle {
+
+        private final double rate;
+        private long windowStart;
+        private int count;
+
+        private Throttle(double rate) {
+            this.rate = rate;
+        }
+
+        synchronized boolean tryAcquire() {
+            long second = System.nanoTime() / TimeUnit.SECONDS.toNanos(1);
+            if (second != windowStart) {
+                windowStart = second;
+                count = 0;
+            }
+            return ++count <= rate;
+        }
+    }
+}
@@ -0,0 +1,72 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive.benchmarks;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+import ru.tinkoff.invest.openapi.reactive.ReactiveMarketContext;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Разворачивание больших списков инструментов и свечей в {@code Flux}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class UnwrapBenchmark {
+
+    private static final OffsetDateTime FROM = OffsetDateTime.of(2021, 1, 4, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    @Param({"100", "1500", "10000"})
+    public int size;
+
+    private ReactiveMarketContext market;
+
+    @Setup
+    public void setUp() {
+        market = new ReactiveMarketContext(StubOpenApi.create(size, size), Benchmarks.unlimited());
+    }
+
+    @Benchmark
+    public void getMarketStocks(Blackhole blackhole) {
+        market.getMarketStocks().doOnNext(blackhole::consume).blockLast();
+    }
+
+    @Benchmark
+    public void getMarketCandles(Blackhole blackhole) {
+        market.getMarketCandles("BBG0", FROM, FROM.plusDays(1), CandleResolution._1MIN)
+                .doOnNext(blackhole::consume)
+                .blockLast();
+    }
+}
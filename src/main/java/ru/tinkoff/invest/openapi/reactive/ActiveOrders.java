@@ -0,0 +1,429 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import ru.tinkoff.invest.openapi.model.rest.LimitOrderRequest;
+import ru.tinkoff.invest.openapi.model.rest.MarketOrderRequest;
+import ru.tinkoff.invest.openapi.model.rest.Order;
+import ru.tinkoff.invest.openapi.model.rest.OrderStatus;
+import ru.tinkoff.invest.openapi.model.rest.OrderType;
+import ru.tinkoff.invest.openapi.model.rest.PlacedLimitOrder;
+import ru.tinkoff.invest.openapi.model.rest.PlacedMarketOrder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Локальный реестр активных заявок одного брокерского счёта.
+ *
+ * Реестр обновляется непосредственно по результатам размещения и отзыва заявок, сделанных через него,
+ * а со списком заявок на сервере сверяется редко: после сверки без расхождений интервал удваивается
+ * до максимального, при расхождении или подозрении на него (например, при ошибке отзыва) сверка
+ * выполняется сразу, а интервал сбрасывается до минимального. Чтение выполняется без блокировок.
+ */
+public class ActiveOrders implements Disposable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ActiveOrders.class);
+
+    private static final Set<OrderStatus> ACTIVE = EnumSet.of(
+            OrderStatus.NEW,
+            OrderStatus.PARTIALLYFILL,
+            OrderStatus.PENDINGNEW,
+            OrderStatus.PENDINGCANCEL,
+            OrderStatus.PENDINGREPLACE);
+
+    /**
+     * Вид изменения заявки.
+     */
+    public enum ChangeType {
+        /** Заявка появилась в реестре. */
+        ADDED,
+        /** Изменилось состояние заявки. */
+        UPDATED,
+        /** Заявка перестала быть активной. */
+        REMOVED
+    }
+
+    /**
+     * Изменение состояния заявки.
+     */
+    public static final class Change {
+        private final ChangeType type;
+        private final Order order;
+        private final boolean reconciled;
+
+        Change(ChangeType type, Order order, boolean reconciled) {
+            this.type = type;
+            this.order = order;
+            this.reconciled = reconciled;
+        }
+
+        @NotNull
+        public ChangeType getType() {
+            return type;
+        }
+
+        /**
+         * @return Последнее известное состояние заявки.
+         */
+        @NotNull
+        public Order getOrder() {
+            return order;
+        }
+
+        /**
+         * @return true, если изменение обнаружено сверкой с сервером, а не по результату собственного вызова.
+         */
+        public boolean isReconciled() {
+            return reconciled;
+        }
+    }
+
+    private final ReactiveOrdersContext orders;
+    private final ReactiveOrdersListContext ordersList;
+    private final String brokerAccountId;
+    private final Duration minReconcileInterval;
+    private final Duration maxReconcileInterval;
+    private final Scheduler scheduler;
+
+    private final ConcurrentMap<String, Tracked> byId = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Map<String, Order>> byFigi = new ConcurrentHashMap<>();
+    private final Sinks.Many<Change> changes = Sinks.many().multicast().directBestEffort();
+    private final Sinks.Many<Boolean> suspicions = Sinks.many().multicast().directBestEffort();
+    /** Время локального удаления заявок, которые ещё могут прийти в ответе сверки, отправленной раньше. */
+    private final Map<String, Long> tombstones = new HashMap<>();
+    private long lastMergedStart = System.nanoTime() - Long.MAX_VALUE / 2;
+
+    private volatile Duration reconcileInterval;
+    private volatile boolean suspected = true;
+    private volatile Disposable reconciler;
+
+    public ActiveOrders(@NotNull ReactiveOrdersContext orders,
+                        @NotNull ReactiveOrdersListContext ordersList,
+                        @Nullable String brokerAccountId) {
+        this(orders, ordersList, brokerAccountId, Duration.ofSeconds(5), Duration.ofMinutes(2), Schedulers.parallel());
+    }
+
+    /**
+     * @param orders               Контекст заявок.
+     * @param ordersList           Контекст списка заявок для сверки.
+     * @param brokerAccountId      Идентификатор брокерского счёта.
+     * @param minReconcileInterval Интервал сверки после обнаруженного расхождения.
+     * @param maxReconcileInterval Наибольший интервал сверки.
+     * @param scheduler            Планировщик таймеров сверки.
+     */
+    public ActiveOrders(@NotNull ReactiveOrdersContext orders,
+                        @NotNull ReactiveOrdersListContext ordersList,
+                        @Nullable String brokerAccountId,
+                        @NotNull Duration minReconcileInterval,
+                        @NotNull Duration maxReconcileInterval,
+                        @NotNull Scheduler scheduler) {
+        this.orders = orders;
+        this.ordersList = ordersList;
+        this.brokerAccountId = brokerAccountId;
+        this.minReconcileInterval = minReconcileInterval;
+        this.maxReconcileInterval = maxReconcileInterval;
+        this.scheduler = scheduler;
+        this.reconcileInterval = minReconcileInterval;
+    }
+
+    /**
+     * Запуск фоновой сверки. Первая сверка выполняется сразу.
+     *
+     * @return Этот же реестр.
+     */
+    @NotNull
+    public synchronized ActiveOrders start() {
+        if (reconciler == null) {
+            reconciler = Mono.defer(() -> suspected
+                            ? Mono.empty()
+                            : Mono.delay(reconcileInterval, scheduler).then().or(suspicions.asFlux().next().then()))
+                    .then(Mono.defer(this::reconcile).then().onErrorResume(e -> {
+                        logger.warn("Active orders reconciliation failed", e);
+                        suspected = true;
+                        return Mono.delay(minReconcileInterval, scheduler).then();
+                    }))
+                    .repeat()
+                    .subscribe();
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if (reconciler != null) {
+            reconciler.dispose();
+            reconciler = null;
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        Disposable current = reconciler;
+        return current == null || current.isDisposed();
+    }
+
+    /**
+     * Размещение лимитной заявки с учётом её в реестре.
+     *
+     * @param figi Идентификатор инструмента.
+     * @param limitOrder Параметры отправляемой заявки.
+     *
+     * @return Размещённая заявка.
+     */
+    @NotNull
+    public Mono<PlacedLimitOrder> placeLimitOrder(@NotNull String figi, @NotNull LimitOrderRequest limitOrder) {
+        return orders.placeLimitOrder(figi, limitOrder, brokerAccountId)
+                .doOnNext(placed -> apply(new Order()
+                        .orderId(placed.getOrderId())
+                        .figi(figi)
+                        .operation(placed.getOperation())
+                        .status(placed.getStatus())
+                        .requestedLots(placed.getRequestedLots())
+                        .executedLots(placed.getExecutedLots())
+                        .type(OrderType.LIMIT)
+                        .price(limitOrder.getPrice())))
+                .doOnError(e -> suspect());
+    }
+
+    /**
+     * Размещение рыночной заявки с учётом её в реестре.
+     *
+     * @param figi Идентификатор инструмента.
+     * @param marketOrder Параметры отправляемой заявки.
+     *
+     * @return Размещённая заявка.
+     */
+    @NotNull
+    public Mono<PlacedMarketOrder> placeMarketOrder(@NotNull String figi, @NotNull MarketOrderRequest marketOrder) {
+        return orders.placeMarketOrder(figi, marketOrder, brokerAccountId)
+                .doOnNext(placed -> apply(new Order()
+                        .orderId(placed.getOrderId())
+                        .figi(figi)
+                        .operation(placed.getOperation())
+                        .status(placed.getStatus())
+                        .requestedLots(placed.getRequestedLots())
+                        .executedLots(placed.getExecutedLots())
+                        .type(OrderType.MARKET)))
+                .doOnError(e -> suspect());
+    }
+
+    /**
+     * Отзыв лимитной заявки с удалением её из реестра.
+     * Ошибка отзыва считается подозрением на расхождение и запускает внеочередную сверку.
+     *
+     * @param orderId Идентификатор заявки.
+     *
+     * @return Ничего.
+     */
+    @NotNull
+    public Mono<Void> cancelOrder(@NotNull String orderId) {
+        return orders.cancelOrder(orderId, brokerAccountId)
+                .doOnSuccess(ignored -> remove(orderId, false))
+                .doOnError(e -> suspect());
+    }
+
+    /**
+     * Поиск активной заявки.
+     *
+     * @param orderId Идентификатор заявки.
+     *
+     * @return Заявка или null, если активной заявки с таким идентификатором нет.
+     */
+    @Nullable
+    public Order getOrder(@NotNull String orderId) {
+        Tracked tracked = byId.get(orderId);
+        return tracked == null ? null : tracked.order;
+    }
+
+    /**
+     * Активные заявки по инструменту.
+     *
+     * @param figi Идентификатор инструмента.
+     *
+     * @return Заявки.
+     */
+    @NotNull
+    public Collection<Order> getOrders(@NotNull String figi) {
+        Map<String, Order> orders = byFigi.get(figi);
+        return orders == null ? Collections.emptyList() : Collections.unmodifiableCollection(orders.values());
+    }
+
+    /**
+     * @return Все активные заявки.
+     */
+    @NotNull
+    public List<Order> getOrders() {
+        List<Order> result = new ArrayList<>(byId.size());
+        byId.values().forEach(tracked -> result.add(tracked.order));
+        return result;
+    }
+
+    /**
+     * Поток изменений реестра. Подписчик получает изменения, произошедшие после подписки.
+     *
+     * @return Поток изменений.
+     */
+    @NotNull
+    public Flux<Change> changes() {
+        return changes.asFlux();
+    }
+
+    /**
+     * Сообщение о подозрении на расхождение с сервером: ближайшая сверка выполняется без ожидания.
+     */
+    public void suspect() {
+        suspected = true;
+        // Подозрения сообщаются из разных потоков, а одновременный вызов tryEmitNext теряет сигнал.
+        // Блокировка реестра здесь не подходит: получатель сигнала сразу запускает сверку.
+        synchronized (suspicions) {
+            suspicions.tryEmitNext(Boolean.TRUE);
+        }
+    }
+
+    /**
+     * Сверка реестра со списком активных заявок на сервере.
+     *
+     * @return Количество обнаруженных расхождений.
+     */
+    @NotNull
+    public Mono<Integer> reconcile() {
+        return Mono.defer(() -> {
+            long startedAt = System.nanoTime();
+            suspected = false;
+            return ordersList.getOrders(brokerAccountId)
+                    .collectList()
+                    .map(actual -> {
+                        int drift = merge(actual, startedAt);
+                        reconcileInterval = drift > 0
+                                ? minReconcileInterval
+                                : min(reconcileInterval.multipliedBy(2), maxReconcileInterval);
+                        logger.debug("Reconciled {} active orders, {} differences, next in {}",
+                                actual.size(), drift, reconcileInterval);
+                        return drift;
+                    });
+        });
+    }
+
+    private synchronized int merge(List<Order> actual, long startedAt) {
+        if (startedAt - lastMergedStart < 0) {
+            // Ответ более ранней сверки пришёл после более поздней.
+            return 0;
+        }
+        lastMergedStart = startedAt;
+        int drift = 0;
+        Map<String, Order> server = new HashMap<>();
+        for (Order order : actual) {
+            server.put(order.getOrderId(), order);
+            Tracked local = byId.get(order.getOrderId());
+            Long removedAt = tombstones.get(order.getOrderId());
+            // Локальные изменения после отправки запроса новее ответа сервера.
+            if (local != null ? local.sinceNanos - startedAt > 0 : removedAt != null && removedAt - startedAt > 0) {
+                continue;
+            }
+            if (local == null || !same(local.order, order)) {
+                put(order, true);
+                drift++;
+            }
+        }
+        for (Tracked local : new ArrayList<>(byId.values())) {
+            // Заявки, размещённые после отправки запроса, могли ещё не попасть в ответ.
+            if (!server.containsKey(local.order.getOrderId()) && local.sinceNanos - startedAt < 0) {
+                remove(local.order.getOrderId(), true);
+                drift++;
+            }
+        }
+        // Удаления до отправки запроса уже отражены в ответе сервера.
+        tombstones.values().removeIf(removedAt -> removedAt - startedAt < 0);
+        return drift;
+    }
+
+    private synchronized void apply(Order order) {
+        if (ACTIVE.contains(order.getStatus())) {
+            put(order, false);
+        } else {
+            if (byId.containsKey(order.getOrderId())) {
+                remove(order.getOrderId(), false);
+            } else {
+                tombstones.put(order.getOrderId(), System.nanoTime());
+                changes.tryEmitNext(new Change(ChangeType.REMOVED, order, false));
+            }
+        }
+    }
+
+    private synchronized void put(Order order, boolean reconciled) {
+        Tracked previous = byId.put(order.getOrderId(), new Tracked(order, System.nanoTime()));
+        byFigi.computeIfAbsent(order.getFigi(), key -> new ConcurrentHashMap<>()).put(order.getOrderId(), order);
+        changes.tryEmitNext(new Change(previous == null ? ChangeType.ADDED : ChangeType.UPDATED, order, reconciled));
+    }
+
+    private synchronized void remove(String orderId, boolean reconciled) {
+        if (!reconciled) {
+            tombstones.put(orderId, System.nanoTime());
+        }
+        Tracked removed = byId.remove(orderId);
+        if (removed == null) {
+            return;
+        }
+        Map<String, Order> orders = byFigi.get(removed.order.getFigi());
+        if (orders != null) {
+            orders.remove(orderId);
+        }
+        changes.tryEmitNext(new Change(ChangeType.REMOVED, removed.order, reconciled));
+    }
+
+    private static boolean same(Order a, Order b) {
+        return a.getStatus() == b.getStatus()
+                && Objects.equals(a.getExecutedLots(), b.getExecutedLots())
+                && Objects.equals(a.getRequestedLots(), b.getRequestedLots())
+                && (a.getPrice() == null ? b.getPrice() == null : b.getPrice() != null && a.getPrice().compareTo(b.getPrice()) == 0);
+    }
+
+    private static Duration min(Duration a, Duration b) {
+        return a.compareTo(b) <= 0 ? a : b;
+    }
+
+    private static final class Tracked {
+        final Order order;
+        final long sinceNanos;
+
+        Tracked(Order order, long sinceNanos) {
+            this.order = order;
+            this.sinceNanos = sinceNanos;
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.util.retry.Retry;
+
+import java.time.Duration;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Подстройка ограничения частоты группы под фактические лимиты брокера (AIMD).
+ *
+ * При ответе брокера о превышении лимита частота уменьшается в {@code decreaseFactor} раз, но не чаще
+ * одного раза за период проверки: одновременные отказы одной волны считаются одним сигналом. Запрос
+ * прозрачно повторяется с новым разрешением. После периода без ограничений частота увеличивается на
+ * фиксированный шаг, пока не достигнет заданного потолка.
+ */
+public class AdaptiveRateController {
+
+    private static final Logger logger = LoggerFactory.getLogger(AdaptiveRateController.class);
+
+    /**
+     * Признак ошибки превышения лимита по умолчанию: HTTP 429 в сообщении или имени исключения
+     * где-либо в цепочке причин.
+     */
+    public static final Predicate<Throwable> DEFAULT_THROTTLING_PREDICATE = error -> {
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            String text = (e.getClass().getSimpleName() + ' ' + e.getMessage()).toLowerCase(Locale.ROOT);
+            if (text.contains("429") || text.contains("too many requests") || text.contains("too_many_requests")
+                    || text.contains("toomanyrequests")) {
+                return true;
+            }
+        }
+        return false;
+    };
+
+    private final EndpointGroup group;
+    private final PermitScheduler permits;
+    private final Scheduler clock;
+    private final double ceiling;
+    private final double floor;
+    private final double decreaseFactor;
+    private final double increaseStep;
+    private final long probeIntervalNanos;
+    private final Predicate<Throwable> isThrottling;
+    private final int maxRetries;
+
+    private double rate;
+    private long lastAdjustmentNanos;
+    private long lastDecreaseNanos;
+
+    AdaptiveRateController(EndpointGroup group,
+                           PermitScheduler permits,
+                           Scheduler clock,
+                           double ceiling,
+                           Duration probeInterval,
+                           Predicate<Throwable> isThrottling,
+                           int maxRetries) {
+        this.group = group;
+        this.permits = permits;
+        this.clock = clock;
+        this.ceiling = ceiling;
+        this.floor = ceiling / 20;
+        this.decreaseFactor = 0.5;
+        this.increaseStep = ceiling / 10;
+        this.probeIntervalNanos = probeInterval.toNanos();
+        this.isThrottling = isThrottling;
+        this.maxRetries = maxRetries;
+        this.rate = ceiling;
+        this.lastAdjustmentNanos = clock.now(TimeUnit.NANOSECONDS);
+        this.lastDecreaseNanos = lastAdjustmentNanos - probeIntervalNanos;
+    }
+
+    /**
+     * Текущее ограничение частоты.
+     *
+     * @return Количество запросов в секунду.
+     */
+    public synchronized double getRate() {
+        return rate;
+    }
+
+    /**
+     * Подключение подстройки к одной попытке запроса: успех и отказ по лимиту учитываются,
+     * отказ по лимиту приводит к повтору с повторным получением разрешения.
+     *
+     * @param attempt Попытка запроса, включающая получение разрешения.
+     *
+     * @return Запрос с повторами.
+     */
+    @NotNull
+    public <R> Mono<R> apply(@NotNull Mono<R> attempt) {
+        return attempt
+                .doOnSuccess(r -> onSuccess())
+                .doOnError(isThrottling, e -> onThrottled())
+                .retryWhen(Retry.max(maxRetries).filter(isThrottling));
+    }
+
+    void onThrottled() {
+        double updated;
+        synchronized (this) {
+            long now = clock.now(TimeUnit.NANOSECONDS);
+            lastAdjustmentNanos = now;
+            if (now - lastDecreaseNanos < probeIntervalNanos) {
+                return;
+            }
+            lastDecreaseNanos = now;
+            updated = Math.max(floor, rate * decreaseFactor);
+            if (updated == rate) {
+                return;
+            }
+            logger.info("Throttled by broker, lowering {} rate from {} to {}", group, rate, updated);
+            rate = updated;
+        }
+        permits.setRate(updated);
+    }
+
+    void onSuccess() {
+        double updated;
+        synchronized (this) {
+            long now = clock.now(TimeUnit.NANOSECONDS);
+            if (rate >= ceiling || now - lastAdjustmentNanos < probeIntervalNanos) {
+                return;
+            }
+            updated = Math.min(ceiling, rate + increaseStep);
+            logger.debug("Probing {} rate up from {} to {}", group, rate, updated);
+            rate = updated;
+            lastAdjustmentNanos = now;
+        }
+        permits.setRate(updated);
+    }
+}
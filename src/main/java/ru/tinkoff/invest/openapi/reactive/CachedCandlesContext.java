@@ -0,0 +1,118 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Получение свечей через локальное хранилище: с сервера запрашиваются только отсутствующие отрезки.
+ */
+public class CachedCandlesContext implements CandleSource {
+
+    private static final Logger logger = LoggerFactory.getLogger(CachedCandlesContext.class);
+
+    private final CandleSource source;
+    private final CandleStore store;
+
+    public CachedCandlesContext(@NotNull CandleSource source, @NotNull CandleStore store) {
+        this.source = source;
+        this.store = store;
+    }
+
+    /**
+     * Асинхронное получение исторических данных по свечам с дозагрузкой недостающих отрезков.
+     *
+     * @param figi     Идентификатор инструмента.
+     * @param from     Начальный момент рассматриваемого отрезка временного интервала.
+     * @param to       Конечный момент рассматриваемого отрезка временного интервала.
+     * @param interval Разрешающий интервал свечей.
+     *
+     * @return Данные по свечам инструмента в порядке времени.
+     */
+    @Override
+    @NotNull
+    public Flux<Candle> getMarketCandles(@NotNull String figi,
+                                         @NotNull OffsetDateTime from,
+                                         @NotNull OffsetDateTime to,
+                                         @NotNull CandleResolution interval) {
+        return Flux.defer(() -> {
+            // Незакрытую свечу не сохраняем, иначе она навсегда останется в хранилище в неполном виде.
+            OffsetDateTime settled = OffsetDateTime.now(ZoneOffset.UTC).minus(CandleResolutions.duration(interval));
+            OffsetDateTime storedTo = to.isAfter(settled) ? settled : to;
+            return Mono.fromCallable(() -> store.missing(figi, interval, from, to))
+                    .subscribeOn(Schedulers.boundedElastic())
+                    .flatMapMany(Flux::fromIterable)
+                    .concatMapIterable(gap -> CandleResolutions.windows(time(gap[0]), time(gap[1]), interval))
+                    .concatMap(window -> fetch(figi, window[0], window[1], interval, storedTo))
+                    .collectList()
+                    .flatMapMany(unsettled -> Flux.concat(
+                            store.read(figi, interval, from, storedTo).subscribeOn(Schedulers.boundedElastic()),
+                            Flux.fromIterable(unsettled)));
+        });
+    }
+
+    /**
+     * Загружает отрезок и сохраняет закрытые свечи.
+     *
+     * @return Незакрытые свечи, которые не попали в хранилище.
+     */
+    private Flux<Candle> fetch(String figi,
+                               OffsetDateTime from,
+                               OffsetDateTime to,
+                               CandleResolution interval,
+                               OffsetDateTime storedTo) {
+        logger.debug("Fetching missing candles for {} {} [{}, {})", figi, interval, from, to);
+        OffsetDateTime coveredTo = to.isAfter(storedTo) ? storedTo : to;
+        return source.getMarketCandles(figi, from, to, interval)
+                .collectList()
+                .publishOn(Schedulers.boundedElastic())
+                .flatMapIterable(candles -> {
+                    List<Candle> settled = new ArrayList<>(candles.size());
+                    List<Candle> unsettled = new ArrayList<>();
+                    for (Candle candle : candles) {
+                        (candle.getTime().isBefore(coveredTo) ? settled : unsettled).add(candle);
+                    }
+                    if (coveredTo.isAfter(from)) {
+                        try {
+                            store.append(figi, interval, settled, from, coveredTo);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }
+                    return unsettled;
+                });
+    }
+
+    private static OffsetDateTime time(long millis) {
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+}
@@ -0,0 +1,211 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Построение свечей старших интервалов из потока свечей младшего интервала за один проход.
+ *
+ * Каждая входная свеча обрабатывается за O(1) для каждого целевого интервала. Повторное получение
+ * свечи с тем же временем (обновление незакрытой свечи в живом потоке) заменяет её вклад, а не добавляет
+ * его повторно, поэтому один и тот же этап работает и на истории, и на живых данных. Поток может
+ * содержать свечи нескольких инструментов. Целевой интервал должен быть кратен интервалу входных свечей
+ * (см. {@link CandleResolutions#isMultipleOf}), иначе поток завершается с {@link IllegalArgumentException}.
+ */
+public final class CandleAggregator {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandleAggregator.class);
+
+    private static final ZoneId MOSCOW = ZoneId.of("Europe/Moscow");
+
+    private CandleAggregator() {
+    }
+
+    /**
+     * Построение закрытых свечей старших интервалов по московскому времени.
+     *
+     * @param candles Свечи младшего интервала в порядке времени.
+     * @param targets Целевые интервалы.
+     *
+     * @return Свечи целевых интервалов; свеча выдаётся, когда приходит свеча следующего отрезка,
+     * а последние незакрытые свечи — при завершении входного потока.
+     */
+    @NotNull
+    public static Flux<Candle> aggregate(@NotNull Flux<Candle> candles, @NotNull Set<CandleResolution> targets) {
+        return aggregate(candles, targets, MOSCOW, false);
+    }
+
+    /**
+     * Построение свечей старших интервалов.
+     *
+     * @param candles Свечи младшего интервала в порядке времени.
+     * @param targets Целевые интервалы.
+     * @param zone Часовой пояс, в котором отсчитываются дни, недели и месяцы.
+     * @param partial Выдавать текущее состояние незакрытой свечи после каждой входной свечи. Обновления
+     *                одной свечи имеют одинаковое время, как и в живом потоке брокера.
+     *
+     * @return Свечи целевых интервалов.
+     */
+    @NotNull
+    public static Flux<Candle> aggregate(@NotNull Flux<Candle> candles,
+                                         @NotNull Set<CandleResolution> targets,
+                                         @NotNull ZoneId zone,
+                                         boolean partial) {
+        Set<CandleResolution> resolutions = EnumSet.copyOf(targets);
+        return Flux.defer(() -> {
+            Map<String, Bucket[]> buckets = new HashMap<>();
+            return candles
+                    .concatMapIterable(candle -> accept(buckets, resolutions, zone, partial, candle))
+                    .concatWith(Flux.defer(() -> partial ? Flux.empty() : Flux.fromIterable(flush(buckets.values()))));
+        });
+    }
+
+    private static List<Candle> accept(Map<String, Bucket[]> buckets,
+                                       Set<CandleResolution> resolutions,
+                                       ZoneId zone,
+                                       boolean partial,
+                                       Candle candle) {
+        Bucket[] figiBuckets = buckets.computeIfAbsent(candle.getFigi(), figi -> {
+            Bucket[] created = new Bucket[resolutions.size()];
+            int i = 0;
+            for (CandleResolution resolution : resolutions) {
+                if (candle.getInterval() != null && !CandleResolutions.isMultipleOf(resolution, candle.getInterval())) {
+                    throw new IllegalArgumentException("Candle resolution " + resolution
+                            + " is not a whole multiple of " + candle.getInterval());
+                }
+                created[i++] = new Bucket(figi, resolution);
+            }
+            return created;
+        });
+        List<Candle> out = new ArrayList<>(1);
+        for (Bucket bucket : figiBuckets) {
+            OffsetDateTime start = CandleResolutions.bucketStart(candle.getTime(), bucket.resolution, zone);
+            if (bucket.start != null && start.isBefore(bucket.start)
+                    || bucket.lastTime != null && candle.getTime().isBefore(bucket.lastTime)) {
+                logger.debug("Skipping out-of-order candle {} at {}", candle.getFigi(), candle.getTime());
+                continue;
+            }
+            if (bucket.start != null && start.isAfter(bucket.start)) {
+                if (!partial) {
+                    out.add(bucket.toCandle());
+                }
+                bucket.reset();
+            }
+            bucket.add(start, candle);
+            if (partial) {
+                out.add(bucket.toCandle());
+            }
+        }
+        return out;
+    }
+
+    private static List<Candle> flush(Collection<Bucket[]> buckets) {
+        List<Candle> out = new ArrayList<>();
+        for (Bucket[] figiBuckets : buckets) {
+            for (Bucket bucket : figiBuckets) {
+                if (bucket.start != null) {
+                    out.add(bucket.toCandle());
+                }
+            }
+        }
+        return out;
+    }
+
+    /**
+     * Состояние незакрытой свечи: вклад всех входных свечей, кроме последней, хранится отдельно от
+     * последней, чтобы её обновление не требовало пересчёта всего отрезка.
+     */
+    private static final class Bucket {
+        final String figi;
+        final CandleResolution resolution;
+
+        OffsetDateTime start;
+        OffsetDateTime lastTime;
+        Candle last;
+        BigDecimal open;
+        BigDecimal high;
+        BigDecimal low;
+        long volume;
+
+        Bucket(String figi, CandleResolution resolution) {
+            this.figi = figi;
+            this.resolution = resolution;
+        }
+
+        void add(OffsetDateTime start, Candle candle) {
+            this.start = start;
+            if (last != null && !candle.getTime().equals(lastTime)) {
+                open = open == null ? last.getO() : open;
+                high = high == null ? last.getH() : high.max(last.getH());
+                low = low == null ? last.getL() : low.min(last.getL());
+                volume += last.getV();
+            }
+            last = candle;
+            lastTime = candle.getTime();
+        }
+
+        void reset() {
+            start = null;
+            last = null;
+            open = null;
+            high = null;
+            low = null;
+            volume = 0;
+        }
+
+        Candle toCandle() {
+            return new Candle()
+                    .figi(figi)
+                    .interval(resolution)
+                    .time(start)
+                    .o(open == null ? last.getO() : open)
+                    .c(last.getC())
+                    .h(high == null ? last.getH() : high.max(last.getH()))
+                    .l(low == null ? last.getL() : low.min(last.getL()))
+                    .v(clampVolume(volume + last.getV()));
+        }
+
+        /**
+         * Объём свечи в модели брокера — int; объём длинного отрезка по ликвидному инструменту может
+         * его превысить, и тогда он ограничивается наибольшим значением, а не переполняется.
+         */
+        private int clampVolume(long total) {
+            if (total > Integer.MAX_VALUE) {
+                logger.warn("Volume {} of {} {} candle at {} exceeds int range, clamped", total, figi, resolution, start);
+                return Integer.MAX_VALUE;
+            }
+            return (int) total;
+        }
+    }
+}
@@ -0,0 +1,145 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+
+import java.time.OffsetDateTime;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Загрузка длинной истории свечей окнами, допустимыми для одного запроса.
+ *
+ * Окна запрашиваются параллельно с ограничением, свечи отдаются строго в порядке времени. В памяти
+ * одновременно находится не больше окон, чем допустимо параллельных запросов.
+ */
+public class CandleHistoryLoader {
+
+    private static final Logger logger = LoggerFactory.getLogger(CandleHistoryLoader.class);
+
+    private final CandleSource source;
+    private final int concurrency;
+
+    public CandleHistoryLoader(@NotNull CandleSource source, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        }
+        this.source = source;
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Загрузка истории свечей за произвольный отрезок времени.
+     *
+     * @param figi     Идентификатор инструмента.
+     * @param from     Начальный момент отрезка.
+     * @param to       Конечный момент отрезка.
+     * @param interval Разрешающий интервал свечей.
+     *
+     * @return Свечи в порядке времени.
+     */
+    @NotNull
+    public Flux<Candle> load(@NotNull String figi,
+                             @NotNull OffsetDateTime from,
+                             @NotNull OffsetDateTime to,
+                             @NotNull CandleResolution interval) {
+        return load(figi, from, to, interval, progress -> { });
+    }
+
+    /**
+     * Загрузка истории свечей с отчётом о ходе загрузки. Для продолжения прерванной загрузки
+     * следует повторить вызов, передав {@link Progress#getCompletedUntil()} в качестве начала отрезка.
+     *
+     * @param figi     Идентификатор инструмента.
+     * @param from     Начальный момент отрезка.
+     * @param to       Конечный момент отрезка.
+     * @param interval Разрешающий интервал свечей.
+     * @param progress Получатель отчётов, вызывается после выдачи всех свечей очередного окна.
+     *
+     * @return Свечи в порядке времени.
+     */
+    @NotNull
+    public Flux<Candle> load(@NotNull String figi,
+                             @NotNull OffsetDateTime from,
+                             @NotNull OffsetDateTime to,
+                             @NotNull CandleResolution interval,
+                             @NotNull Consumer<Progress> progress) {
+        return Flux.defer(() -> {
+            List<OffsetDateTime[]> windows = CandleResolutions.windows(from, to, interval);
+            logger.debug("Loading {} {} [{}, {}) in {} windows", figi, interval, from, to, windows.size());
+            return Flux.range(0, windows.size())
+                    .flatMapSequential(i -> source.getMarketCandles(figi, windows.get(i)[0], windows.get(i)[1], interval)
+                            .filter(c -> !c.getTime().isBefore(windows.get(i)[0]) && c.getTime().isBefore(windows.get(i)[1]))
+                            .collectList()
+                            .map(candles -> new Window(i, candles)), concurrency, 1)
+                    .concatMap(window -> Flux.fromIterable(window.candles)
+                            .doOnComplete(() -> progress.accept(new Progress(
+                                    window.index + 1, windows.size(), windows.get(window.index)[1]))));
+        });
+    }
+
+    /**
+     * Ход загрузки истории.
+     */
+    public static final class Progress {
+
+        private final int completedWindows;
+        private final int totalWindows;
+        private final OffsetDateTime completedUntil;
+
+        private Progress(int completedWindows, int totalWindows, OffsetDateTime completedUntil) {
+            this.completedWindows = completedWindows;
+            this.totalWindows = totalWindows;
+            this.completedUntil = completedUntil;
+        }
+
+        public int getCompletedWindows() {
+            return completedWindows;
+        }
+
+        public int getTotalWindows() {
+            return totalWindows;
+        }
+
+        /**
+         * Момент, до которого все свечи уже выданы.
+         *
+         * @return Конец последнего завершённого окна.
+         */
+        @NotNull
+        public OffsetDateTime getCompletedUntil() {
+            return completedUntil;
+        }
+    }
+
+    private static final class Window {
+
+        private final int index;
+        private final List<Candle> candles;
+
+        private Window(int index, List<Candle> candles) {
+            this.index = index;
+            this.candles = candles;
+        }
+    }
+}
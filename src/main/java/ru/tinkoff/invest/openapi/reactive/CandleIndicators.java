@@ -0,0 +1,443 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Скользящие индикаторы по свечам.
+ *
+ * Каждый индикатор обновляется за O(1) на свечу: окна хранятся в кольцевых буферах примитивов, суммы
+ * ведутся нарастающим итогом и раз в длину окна пересчитываются по буферу заново, чтобы ошибка
+ * округления не накапливалась на длинных потоках (амортизированно это тоже O(1)). Свеча с тем же временем, что и предыдущая,
+ * считается обновлением незакрытой свечи и заменяет её вклад, поэтому индикаторы одинаково работают
+ * на истории и на живом потоке, в том числе после {@link CandleAggregator} с промежуточными значениями.
+ *
+ * Индикаторы не потокобезопасны: один экземпляр обновляется из одного потока, например в {@code doOnNext}.
+ */
+public final class CandleIndicators {
+
+    private CandleIndicators() {
+    }
+
+    /**
+     * Базовый класс индикатора.
+     */
+    public abstract static class Indicator {
+        private OffsetDateTime lastTime;
+
+        /**
+         * Учёт свечи.
+         *
+         * @param candle Очередная свеча или обновление последней.
+         *
+         * @return Значение индикатора или NaN, если данных ещё недостаточно.
+         */
+        public final double update(@NotNull Candle candle) {
+            if (candle.getTime().equals(lastTime)) {
+                revise(candle);
+            } else {
+                append(candle);
+                lastTime = candle.getTime();
+            }
+            return getValue();
+        }
+
+        /**
+         * @return Значение индикатора или NaN, если данных ещё недостаточно.
+         */
+        public abstract double getValue();
+
+        public boolean isReady() {
+            return !Double.isNaN(getValue());
+        }
+
+        abstract void append(Candle candle);
+
+        abstract void revise(Candle candle);
+    }
+
+    /**
+     * Простое скользящее среднее цены закрытия.
+     */
+    public static final class Sma extends Indicator {
+        private final Ring window;
+        private double sum;
+        private int updates;
+
+        public Sma(int period) {
+            this.window = new Ring(period);
+        }
+
+        @Override
+        void append(Candle candle) {
+            double close = candle.getC().doubleValue();
+            sum += close - window.push(close);
+            resync();
+        }
+
+        @Override
+        void revise(Candle candle) {
+            double close = candle.getC().doubleValue();
+            sum += close - window.replaceLast(close);
+            resync();
+        }
+
+        private void resync() {
+            if (++updates >= window.capacity()) {
+                updates = 0;
+                sum = window.sum(0);
+            }
+        }
+
+        @Override
+        public double getValue() {
+            return window.isFull() ? sum / window.capacity() : Double.NaN;
+        }
+    }
+
+    /**
+     * Экспоненциальное скользящее среднее цены закрытия. Первое значение — простое среднее за период.
+     */
+    public static final class Ema extends Indicator {
+        private final int period;
+        private final double alpha;
+        private long count;
+        private double seed;
+        private double last;
+        private double previous = Double.NaN;
+        private double value = Double.NaN;
+
+        public Ema(int period) {
+            this(period, 2.0 / (period + 1));
+        }
+
+        private Ema(int period, double alpha) {
+            this.period = period;
+            this.alpha = alpha;
+        }
+
+        @Override
+        void append(Candle candle) {
+            appendValue(candle.getC().doubleValue());
+        }
+
+        @Override
+        void revise(Candle candle) {
+            reviseValue(candle.getC().doubleValue());
+        }
+
+        void appendValue(double x) {
+            previous = value;
+            count++;
+            last = x;
+            if (count <= period) {
+                seed += x;
+            }
+            value = compute(x);
+        }
+
+        void reviseValue(double x) {
+            if (count == 0) {
+                appendValue(x);
+                return;
+            }
+            if (count <= period) {
+                seed += x - last;
+            }
+            last = x;
+            value = compute(x);
+        }
+
+        private double compute(double x) {
+            if (count < period) {
+                return Double.NaN;
+            }
+            if (count == period) {
+                return seed / period;
+            }
+            return previous + alpha * (x - previous);
+        }
+
+        @Override
+        public double getValue() {
+            return value;
+        }
+    }
+
+    /**
+     * Средневзвешенная по объёму типичная цена (максимум + минимум + закрытие) / 3 за скользящее окно.
+     */
+    public static final class Vwap extends Indicator {
+        private final Ring priceVolume;
+        private final Ring volume;
+        private double priceVolumeSum;
+        private double volumeSum;
+        private int updates;
+
+        public Vwap(int period) {
+            this.priceVolume = new Ring(period);
+            this.volume = new Ring(period);
+        }
+
+        @Override
+        void append(Candle candle) {
+            double v = candle.getV();
+            double pv = typical(candle) * v;
+            priceVolumeSum += pv - priceVolume.push(pv);
+            volumeSum += v - volume.push(v);
+            resync();
+        }
+
+        @Override
+        void revise(Candle candle) {
+            double v = candle.getV();
+            double pv = typical(candle) * v;
+            priceVolumeSum += pv - priceVolume.replaceLast(pv);
+            volumeSum += v - volume.replaceLast(v);
+            resync();
+        }
+
+        private void resync() {
+            if (++updates >= volume.capacity()) {
+                updates = 0;
+                priceVolumeSum = priceVolume.sum(0);
+                volumeSum = volume.sum(0);
+            }
+        }
+
+        @Override
+        public double getValue() {
+            return volume.isFull() && volumeSum > 0 ? priceVolumeSum / volumeSum : Double.NaN;
+        }
+
+        private static double typical(Candle candle) {
+            return (candle.getH().doubleValue() + candle.getL().doubleValue() + candle.getC().doubleValue()) / 3;
+        }
+    }
+
+    /**
+     * Средний истинный диапазон со сглаживанием Уайлдера.
+     */
+    public static final class Atr extends Indicator {
+        private final Ema smoothing;
+        private double close = Double.NaN;
+        private double previousClose = Double.NaN;
+
+        public Atr(int period) {
+            this.smoothing = new Ema(period, 1.0 / period);
+        }
+
+        @Override
+        void append(Candle candle) {
+            previousClose = close;
+            close = candle.getC().doubleValue();
+            smoothing.appendValue(trueRange(candle));
+        }
+
+        @Override
+        void revise(Candle candle) {
+            close = candle.getC().doubleValue();
+            smoothing.reviseValue(trueRange(candle));
+        }
+
+        private double trueRange(Candle candle) {
+            double high = candle.getH().doubleValue();
+            double low = candle.getL().doubleValue();
+            if (Double.isNaN(previousClose)) {
+                return high - low;
+            }
+            return Math.max(high - low, Math.max(Math.abs(high - previousClose), Math.abs(low - previousClose)));
+        }
+
+        @Override
+        public double getValue() {
+            return smoothing.getValue();
+        }
+    }
+
+    /**
+     * Полосы Боллинджера: простое среднее цены закрытия и полосы на заданном числе стандартных отклонений.
+     * Значением индикатора считается средняя линия.
+     */
+    public static final class Bollinger extends Indicator {
+        private final Ring window;
+        private final double width;
+        /**
+         * Опорное значение: суммы ведутся по отклонениям от него, чтобы дисперсия не терялась в разности
+         * больших чисел.
+         */
+        private double shift;
+        private double sum;
+        private double sumOfSquares;
+        private int updates;
+
+        /**
+         * @param period Длина окна.
+         * @param width Ширина полос в стандартных отклонениях, обычно 2.
+         */
+        public Bollinger(int period, double width) {
+            this.window = new Ring(period);
+            this.width = width;
+        }
+
+        @Override
+        void append(Candle candle) {
+            double close = candle.getC().doubleValue();
+            boolean evicts = window.isFull();
+            double evicted = window.push(close);
+            add(close);
+            if (evicts) {
+                remove(evicted);
+            }
+            resync();
+        }
+
+        @Override
+        void revise(Candle candle) {
+            double close = candle.getC().doubleValue();
+            double replaced = window.replaceLast(close);
+            add(close);
+            remove(replaced);
+            resync();
+        }
+
+        private void add(double value) {
+            double d = value - shift;
+            sum += d;
+            sumOfSquares += d * d;
+        }
+
+        private void remove(double value) {
+            double d = value - shift;
+            sum -= d;
+            sumOfSquares -= d * d;
+        }
+
+        /**
+         * Точный пересчёт сумм по буферу раз в длину окна; опорное значение переносится на текущее среднее.
+         */
+        private void resync() {
+            if (++updates >= window.capacity()) {
+                updates = 0;
+                shift = window.sum(0) / window.size();
+                sum = window.sum(shift);
+                sumOfSquares = window.sumOfSquares(shift);
+            }
+        }
+
+        @Override
+        public double getValue() {
+            return window.isFull() ? shift + sum / window.capacity() : Double.NaN;
+        }
+
+        public double getUpper() {
+            return getValue() + width * deviation();
+        }
+
+        public double getLower() {
+            return getValue() - width * deviation();
+        }
+
+        private double deviation() {
+            double mean = sum / window.capacity();
+            // Разность сумм может уйти чуть ниже нуля из-за округлений.
+            return Math.sqrt(Math.max(0, sumOfSquares / window.capacity() - mean * mean));
+        }
+    }
+
+    /**
+     * Кольцевой буфер фиксированной длины.
+     */
+    static final class Ring {
+        private final double[] values;
+        private int next;
+        private int size;
+
+        Ring(int capacity) {
+            if (capacity <= 0) {
+                throw new IllegalArgumentException("Period must be positive: " + capacity);
+            }
+            this.values = new double[capacity];
+        }
+
+        /**
+         * @return Вытесненное значение или 0, если буфер ещё не заполнен.
+         */
+        double push(double value) {
+            double evicted = size == values.length ? values[next] : 0;
+            values[next] = value;
+            next = next + 1 == values.length ? 0 : next + 1;
+            if (size < values.length) {
+                size++;
+            }
+            return evicted;
+        }
+
+        /**
+         * @return Заменённое значение или 0, если буфер пуст.
+         */
+        double replaceLast(double value) {
+            if (size == 0) {
+                push(value);
+                return 0;
+            }
+            int last = next == 0 ? values.length - 1 : next - 1;
+            double replaced = values[last];
+            values[last] = value;
+            return replaced;
+        }
+
+        boolean isFull() {
+            return size == values.length;
+        }
+
+        int size() {
+            return size;
+        }
+
+        /**
+         * @return Сумма отклонений хранимых значений от {@code shift}.
+         */
+        double sum(double shift) {
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                sum += values[i] - shift;
+            }
+            return sum;
+        }
+
+        /**
+         * @return Сумма квадратов отклонений хранимых значений от {@code shift}.
+         */
+        double sumOfSquares(double shift) {
+            double sum = 0;
+            for (int i = 0; i < size; i++) {
+                double d = values[i] - shift;
+                sum += d * d;
+            }
+            return sum;
+        }
+
+        int capacity() {
+            return values.length;
+        }
+    }
+}
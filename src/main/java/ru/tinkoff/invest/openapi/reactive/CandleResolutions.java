@@ -0,0 +1,174 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+
+import java.time.DayOfWeek;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.Period;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAdjusters;
+import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Вспомогательные методы для работы с интервалами свечей.
+ */
+public final class CandleResolutions {
+
+    private CandleResolutions() {
+    }
+
+    /**
+     * Длительность одной свечи. Для месячных свечей берётся верхняя оценка в 31 день.
+     *
+     * @param resolution Разрешающий интервал свечей.
+     *
+     * @return Длительность свечи.
+     */
+    @NotNull
+    public static Duration duration(@NotNull CandleResolution resolution) {
+        switch (resolution) {
+            case _1MIN: return Duration.ofMinutes(1);
+            case _2MIN: return Duration.ofMinutes(2);
+            case _3MIN: return Duration.ofMinutes(3);
+            case _5MIN: return Duration.ofMinutes(5);
+            case _10MIN: return Duration.ofMinutes(10);
+            case _15MIN: return Duration.ofMinutes(15);
+            case _30MIN: return Duration.ofMinutes(30);
+            case HOUR: return Duration.ofHours(1);
+            case DAY: return Duration.ofDays(1);
+            case WEEK: return Duration.ofDays(7);
+            case MONTH: return Duration.ofDays(31);
+            default: throw new IllegalArgumentException("Unknown candle resolution: " + resolution);
+        }
+    }
+
+    /**
+     * Проверка, что каждая свеча целевого интервала целиком составляется из свечей исходного интервала.
+     * Недели не делятся на месяцы, поэтому из недельных свечей строятся только недельные.
+     *
+     * @param target Целевой интервал.
+     * @param source Исходный интервал.
+     *
+     * @return true, если целевой интервал кратен исходному.
+     */
+    public static boolean isMultipleOf(@NotNull CandleResolution target, @NotNull CandleResolution source) {
+        if (target == source) {
+            return true;
+        }
+        switch (source) {
+            case WEEK:
+            case MONTH:
+                return false;
+            case DAY:
+                return target == CandleResolution.WEEK || target == CandleResolution.MONTH;
+            default:
+                return duration(target).toMinutes() % duration(source).toMinutes() == 0;
+        }
+    }
+
+    /**
+     * Максимальная длина отрезка времени, который брокер отдаёт за один запрос свечей.
+     *
+     * @param resolution Разрешающий интервал свечей.
+     *
+     * @return Максимальная длина отрезка.
+     */
+    @NotNull
+    public static TemporalAmount maxRequestRange(@NotNull CandleResolution resolution) {
+        switch (resolution) {
+            case _1MIN:
+            case _2MIN:
+            case _3MIN:
+            case _5MIN:
+            case _10MIN:
+            case _15MIN:
+            case _30MIN:
+                return Duration.ofDays(1);
+            case HOUR: return Duration.ofDays(7);
+            case DAY: return Period.ofYears(1);
+            case WEEK: return Period.ofYears(2);
+            case MONTH: return Period.ofYears(10);
+            default: throw new IllegalArgumentException("Unknown candle resolution: " + resolution);
+        }
+    }
+
+    /**
+     * Разбиение отрезка [from, to) на окна, допустимые для одного запроса свечей.
+     *
+     * @param from Начало отрезка.
+     * @param to Конец отрезка.
+     * @param resolution Разрешающий интервал свечей.
+     *
+     * @return Последовательные окна в виде пар [начало, конец).
+     */
+    @NotNull
+    public static List<OffsetDateTime[]> windows(@NotNull OffsetDateTime from,
+                                                 @NotNull OffsetDateTime to,
+                                                 @NotNull CandleResolution resolution) {
+        TemporalAmount step = maxRequestRange(resolution);
+        List<OffsetDateTime[]> windows = new ArrayList<>();
+        OffsetDateTime start = from;
+        while (start.isBefore(to)) {
+            OffsetDateTime end = start.plus(step);
+            if (end.isAfter(to)) {
+                end = to;
+            }
+            windows.add(new OffsetDateTime[] {start, end});
+            start = end;
+        }
+        return windows;
+    }
+
+    /**
+     * Начало свечи заданного интервала, в которую попадает момент времени. Внутридневные интервалы
+     * отсчитываются от начала часа, дни, недели (с понедельника) и месяцы — в заданном часовом поясе.
+     *
+     * @param time Момент времени.
+     * @param resolution Разрешающий интервал свечей.
+     * @param zone Часовой пояс торгового календаря.
+     *
+     * @return Начало свечи.
+     */
+    @NotNull
+    public static OffsetDateTime bucketStart(@NotNull OffsetDateTime time,
+                                             @NotNull CandleResolution resolution,
+                                             @NotNull ZoneId zone) {
+        ZonedDateTime local = time.atZoneSameInstant(zone);
+        switch (resolution) {
+            case DAY:
+                return local.truncatedTo(ChronoUnit.DAYS).toOffsetDateTime();
+            case WEEK:
+                return local.truncatedTo(ChronoUnit.DAYS)
+                        .with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY)).toOffsetDateTime();
+            case MONTH:
+                return local.truncatedTo(ChronoUnit.DAYS).withDayOfMonth(1).toOffsetDateTime();
+            default:
+                long minutes = duration(resolution).toMinutes();
+                ZonedDateTime hour = local.truncatedTo(ChronoUnit.HOURS);
+                long offset = ChronoUnit.MINUTES.between(hour, local) / minutes * minutes;
+                return hour.plusMinutes(offset).toOffsetDateTime();
+        }
+    }
+}
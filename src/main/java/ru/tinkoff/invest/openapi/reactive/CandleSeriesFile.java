@@ -0,0 +1,363 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Файл свечей одного инструмента и одного интервала.
+ *
+ * Файл состоит из заголовка и последовательности дописываемых блоков. Блок свечей хранит столбцы
+ * примитивных значений (время, цены открытия/закрытия/максимума/минимума, объём), блок покрытия хранит
+ * отрезок времени, данные за который уже загружены. Длина подтверждённой части файла записывается в
+ * заголовок после записи блоков, поэтому читатели видят только целиком записанные блоки.
+ */
+class CandleSeriesFile implements Closeable {
+
+    private static final int MAGIC = 0x54434431;
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 16;
+    private static final int LENGTH_OFFSET = 8;
+
+    private static final int CANDLES_BLOCK = 1;
+    private static final int COVERAGE_BLOCK = 2;
+    private static final int BLOCK_HEADER_SIZE = 8;
+    private static final int CANDLE_COLUMNS = 6;
+    /** Наибольшая длина одного отображения: буфер адресуется int. */
+    private static final long MAX_SEGMENT_SIZE = Integer.MAX_VALUE;
+
+    private final FileChannel channel;
+    private final MappedByteBuffer header;
+    private final ReentrantLock writeLock = new ReentrantLock();
+    private final long maxSegmentSize;
+    private final Object mappingLock = new Object();
+    private volatile Segment[] segments = new Segment[0];
+
+    CandleSeriesFile(Path file) throws IOException {
+        this(file, MAX_SEGMENT_SIZE);
+    }
+
+    /**
+     * @param maxSegmentSize Наибольшая длина одного отображения; меньше предельной — только в тестах.
+     */
+    CandleSeriesFile(Path file, long maxSegmentSize) throws IOException {
+        this.maxSegmentSize = maxSegmentSize;
+        this.channel = FileChannel.open(file,
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try (FileLock lock = channel.lock()) {
+            if (channel.size() < HEADER_SIZE) {
+                ByteBuffer init = ByteBuffer.allocate(HEADER_SIZE);
+                init.putInt(MAGIC).putInt(VERSION).putLong(HEADER_SIZE).flip();
+                channel.write(init, 0);
+                channel.force(true);
+            }
+        }
+        this.header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_SIZE);
+        if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            channel.close();
+            throw new IOException("Not a candle series file: " + file);
+        }
+    }
+
+    /**
+     * Дописывает свечи и отмечает отрезок [from, to) как загруженный одной транзакцией.
+     */
+    void append(List<Candle> candles, long coveredFrom, long coveredTo) throws IOException {
+        writeLock.lock();
+        try (FileLock lock = channel.lock()) {
+            long length = header.getLong(LENGTH_OFFSET);
+            int n = candles.size();
+            ByteBuffer block = ByteBuffer.allocate(
+                    (n > 0 ? BLOCK_HEADER_SIZE + n * CANDLE_COLUMNS * Long.BYTES : 0) + BLOCK_HEADER_SIZE + 2 * Long.BYTES);
+            if (n > 0) {
+                block.putInt(CANDLES_BLOCK).putInt(n);
+                for (Candle c : candles) {
+                    block.putLong(c.getTime().toInstant().toEpochMilli());
+                }
+                for (Candle c : candles) {
+                    block.putDouble(c.getO().doubleValue());
+                }
+                for (Candle c : candles) {
+                    block.putDouble(c.getC().doubleValue());
+                }
+                for (Candle c : candles) {
+                    block.putDouble(c.getH().doubleValue());
+                }
+                for (Candle c : candles) {
+                    block.putDouble(c.getL().doubleValue());
+                }
+                for (Candle c : candles) {
+                    block.putLong(c.getV());
+                }
+            }
+            block.putInt(COVERAGE_BLOCK).putInt(1).putLong(coveredFrom).putLong(coveredTo);
+            block.flip();
+            long position = length;
+            while (block.hasRemaining()) {
+                position += channel.write(block, position);
+            }
+            channel.force(false);
+            VarHandle.releaseFence();
+            header.putLong(LENGTH_OFFSET, position);
+            header.force();
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * Чтение свечей из отрезка [from, to), упорядоченных по времени. При совпадении времени побеждает
+     * более поздняя запись.
+     */
+    Columns read(long from, long to) throws IOException {
+        Columns result = new Columns();
+        for (Segment segment : segments()) {
+            ByteBuffer data = segment.data;
+            int position = 0;
+            while (position < data.limit()) {
+                int type = data.getInt(position);
+                int n = data.getInt(position + 4);
+                int base = position + BLOCK_HEADER_SIZE;
+                if (type == CANDLES_BLOCK) {
+                    int column = n * Long.BYTES;
+                    for (int i = 0; i < n; i++) {
+                        long time = data.getLong(base + i * Long.BYTES);
+                        if (time >= from && time < to) {
+                            int offset = base + i * Long.BYTES;
+                            result.add(time,
+                                    data.getDouble(offset + column),
+                                    data.getDouble(offset + 2 * column),
+                                    data.getDouble(offset + 3 * column),
+                                    data.getDouble(offset + 4 * column),
+                                    data.getLong(offset + 5 * column));
+                        }
+                    }
+                }
+                position += (int) blockSize(type, n);
+            }
+        }
+        result.sortAndDeduplicate();
+        return result;
+    }
+
+    /**
+     * Вычисление отрезков внутри [from, to), данные за которые ещё не загружены.
+     */
+    List<long[]> missing(long from, long to) throws IOException {
+        List<long[]> covered = new ArrayList<>();
+        for (Segment segment : segments()) {
+            ByteBuffer data = segment.data;
+            int position = 0;
+            while (position < data.limit()) {
+                int type = data.getInt(position);
+                int n = data.getInt(position + 4);
+                int base = position + BLOCK_HEADER_SIZE;
+                if (type == COVERAGE_BLOCK) {
+                    for (int i = 0; i < n; i++) {
+                        covered.add(new long[] {data.getLong(base + i * 16), data.getLong(base + i * 16 + 8)});
+                    }
+                }
+                position += (int) blockSize(type, n);
+            }
+        }
+        covered.sort((a, b) -> Long.compare(a[0], b[0]));
+        List<long[]> gaps = new ArrayList<>();
+        long cursor = from;
+        for (long[] range : covered) {
+            if (range[1] <= cursor) {
+                continue;
+            }
+            if (range[0] >= to) {
+                break;
+            }
+            if (range[0] > cursor) {
+                gaps.add(new long[] {cursor, range[0]});
+            }
+            cursor = Math.max(cursor, range[1]);
+        }
+        if (cursor < to) {
+            gaps.add(new long[] {cursor, to});
+        }
+        return gaps;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Отображения подтверждённой части файла. Отображение переиспользуется между чтениями и
+     * перестраивается, только если файл вырос; хвост дописывается к последнему отображению, пока оно
+     * не превысит предел одного буфера, после чего начинается следующее. Границы отображений всегда
+     * совпадают с границами блоков, поэтому блок целиком лежит в одном буфере.
+     */
+    private Segment[] segments() throws IOException {
+        long length = header.getLong(LENGTH_OFFSET);
+        VarHandle.acquireFence();
+        Segment[] current = segments;
+        if (end(current) >= length) {
+            return current;
+        }
+        synchronized (mappingLock) {
+            current = segments;
+            long mapped = end(current);
+            while (mapped < length) {
+                Segment last = current.length == 0 ? null : current[current.length - 1];
+                boolean extend = last != null && length - last.start <= maxSegmentSize;
+                long start = extend ? last.start : mapped;
+                long end = length - start <= maxSegmentSize ? length : boundary(start, length);
+                Segment segment = new Segment(start, channel.map(FileChannel.MapMode.READ_ONLY, start, end - start));
+                if (extend) {
+                    current = current.clone();
+                    current[current.length - 1] = segment;
+                } else {
+                    current = Arrays.copyOf(current, current.length + 1);
+                    current[current.length - 1] = segment;
+                }
+                mapped = end;
+            }
+            segments = current;
+            return current;
+        }
+    }
+
+    /**
+     * @return Конец последнего целого блока, укладывающегося в одно отображение от {@code start}.
+     */
+    private long boundary(long start, long length) throws IOException {
+        ByteBuffer blockHeader = ByteBuffer.allocate(BLOCK_HEADER_SIZE);
+        long position = start;
+        while (position < length) {
+            blockHeader.clear();
+            while (blockHeader.hasRemaining()) {
+                if (channel.read(blockHeader, position + blockHeader.position()) < 0) {
+                    throw new IOException("Unexpected end of candle series file at " + position);
+                }
+            }
+            long next = position + blockSize(blockHeader.getInt(0), blockHeader.getInt(4));
+            if (next - start > maxSegmentSize && position > start) {
+                break;
+            }
+            position = next;
+        }
+        return position;
+    }
+
+    private static long end(Segment[] segments) {
+        if (segments.length == 0) {
+            return HEADER_SIZE;
+        }
+        Segment last = segments[segments.length - 1];
+        return last.start + last.data.capacity();
+    }
+
+    private static long blockSize(int type, int n) {
+        return BLOCK_HEADER_SIZE + (long) n * (type == CANDLES_BLOCK ? CANDLE_COLUMNS : 2) * Long.BYTES;
+    }
+
+    /**
+     * Отображение части файла, начиная с границы блока.
+     */
+    private static final class Segment {
+        final long start;
+        final MappedByteBuffer data;
+
+        Segment(long start, MappedByteBuffer data) {
+            this.start = start;
+            this.data = data;
+        }
+    }
+
+    /**
+     * Столбцы прочитанных свечей.
+     */
+    static final class Columns {
+
+        int size;
+        long[] time = new long[64];
+        double[] open = new double[64];
+        double[] close = new double[64];
+        double[] high = new double[64];
+        double[] low = new double[64];
+        long[] volume = new long[64];
+
+        private void add(long t, double o, double c, double h, double l, long v) {
+            if (size == time.length) {
+                int capacity = size * 2;
+                time = Arrays.copyOf(time, capacity);
+                open = Arrays.copyOf(open, capacity);
+                close = Arrays.copyOf(close, capacity);
+                high = Arrays.copyOf(high, capacity);
+                low = Arrays.copyOf(low, capacity);
+                volume = Arrays.copyOf(volume, capacity);
+            }
+            time[size] = t;
+            open[size] = o;
+            close[size] = c;
+            high[size] = h;
+            low[size] = l;
+            volume[size] = v;
+            size++;
+        }
+
+        private void sortAndDeduplicate() {
+            boolean sorted = true;
+            for (int i = 1; i < size && sorted; i++) {
+                sorted = time[i - 1] < time[i];
+            }
+            if (sorted) {
+                return;
+            }
+            Integer[] order = new Integer[size];
+            for (int i = 0; i < size; i++) {
+                order[i] = i;
+            }
+            // Сортировка устойчивая, поэтому среди свечей с одинаковым временем последней останется самая свежая.
+            Arrays.sort(order, (a, b) -> Long.compare(time[a], time[b]));
+            Columns sortedColumns = new Columns();
+            for (int k = 0; k < size; k++) {
+                int i = order[k];
+                if (sortedColumns.size > 0 && sortedColumns.time[sortedColumns.size - 1] == time[i]) {
+                    sortedColumns.size--;
+                }
+                sortedColumns.add(time[i], open[i], close[i], high[i], low[i], volume[i]);
+            }
+            size = sortedColumns.size;
+            time = sortedColumns.time;
+            open = sortedColumns.open;
+            close = sortedColumns.close;
+            high = sortedColumns.high;
+            low = sortedColumns.low;
+            volume = sortedColumns.volume;
+        }
+    }
+}
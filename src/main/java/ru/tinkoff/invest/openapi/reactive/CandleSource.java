@@ -0,0 +1,46 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import reactor.core.publisher.Flux;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+
+import java.time.OffsetDateTime;
+
+/**
+ * Источник исторических данных по свечам.
+ */
+public interface CandleSource {
+
+    /**
+     * Асинхронное получение исторических данных по свечам.
+     *
+     * @param figi     Идентификатор инструмента.
+     * @param from     Начальный момент рассматриваемого отрезка временного интервала.
+     * @param to       Конечный момент рассматриваемого отрезка временного интервала.
+     * @param interval Разрешающий интервал свечей.
+     *
+     * @return Данные по свечам инструмента.
+     */
+    @NotNull
+    Flux<Candle> getMarketCandles(@NotNull String figi,
+                                  @NotNull OffsetDateTime from,
+                                  @NotNull OffsetDateTime to,
+                                  @NotNull CandleResolution interval);
+}
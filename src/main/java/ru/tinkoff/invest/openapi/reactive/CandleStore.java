@@ -0,0 +1,162 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import reactor.core.publisher.Flux;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Локальное хранилище свечей на диске: по одному файлу на инструмент и интервал.
+ *
+ * Данные сохраняются между перезапусками. Запись в файл выполняется одним писателем,
+ * читатели работают параллельно с ним без блокировок.
+ */
+public class CandleStore implements Closeable {
+
+    private final Path directory;
+    private final ConcurrentMap<String, CandleSeriesFile> series = new ConcurrentHashMap<>();
+
+    public CandleStore(@NotNull Path directory) throws IOException {
+        this.directory = Files.createDirectories(directory);
+    }
+
+    /**
+     * Поиск ещё не загруженных отрезков времени.
+     *
+     * @param figi Идентификатор инструмента.
+     * @param interval Разрешающий интервал свечей.
+     * @param from Начало отрезка, включительно.
+     * @param to Конец отрезка, не включительно.
+     *
+     * @return Список отрезков [from, to) в миллисекундах от начала эпохи.
+     */
+    @NotNull
+    public List<long[]> missing(@NotNull String figi,
+                                @NotNull CandleResolution interval,
+                                @NotNull OffsetDateTime from,
+                                @NotNull OffsetDateTime to) throws IOException {
+        return series(figi, interval).missing(toMillis(from), toMillis(to));
+    }
+
+    /**
+     * Сохранение свечей, загруженных за отрезок [from, to).
+     *
+     * @param figi Идентификатор инструмента.
+     * @param interval Разрешающий интервал свечей.
+     * @param candles Свечи.
+     * @param from Начало загруженного отрезка.
+     * @param to Конец загруженного отрезка.
+     */
+    public void append(@NotNull String figi,
+                       @NotNull CandleResolution interval,
+                       @NotNull List<Candle> candles,
+                       @NotNull OffsetDateTime from,
+                       @NotNull OffsetDateTime to) throws IOException {
+        series(figi, interval).append(candles, toMillis(from), toMillis(to));
+    }
+
+    /**
+     * Чтение сохранённых свечей за отрезок [from, to) в порядке времени.
+     *
+     * @param figi Идентификатор инструмента.
+     * @param interval Разрешающий интервал свечей.
+     * @param from Начало отрезка.
+     * @param to Конец отрезка.
+     *
+     * @return Свечи.
+     */
+    @NotNull
+    public Flux<Candle> read(@NotNull String figi,
+                             @NotNull CandleResolution interval,
+                             @NotNull OffsetDateTime from,
+                             @NotNull OffsetDateTime to) {
+        return Flux.defer(() -> {
+            CandleSeriesFile.Columns columns;
+            try {
+                columns = series(figi, interval).read(toMillis(from), toMillis(to));
+            } catch (IOException e) {
+                return Flux.error(e);
+            }
+            return Flux.range(0, columns.size).map(i -> new Candle()
+                    .figi(figi)
+                    .interval(interval)
+                    .time(OffsetDateTime.ofInstant(Instant.ofEpochMilli(columns.time[i]), ZoneOffset.UTC))
+                    .o(BigDecimal.valueOf(columns.open[i]))
+                    .c(BigDecimal.valueOf(columns.close[i]))
+                    .h(BigDecimal.valueOf(columns.high[i]))
+                    .l(BigDecimal.valueOf(columns.low[i]))
+                    .v(toInt(columns.volume[i])));
+        });
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (CandleSeriesFile file : series.values()) {
+            try {
+                file.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        series.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private CandleSeriesFile series(String figi, CandleResolution interval) throws IOException {
+        try {
+            return series.computeIfAbsent(figi + '/' + interval, key -> {
+                try {
+                    return new CandleSeriesFile(directory.resolve(figi + '-' + interval + ".candles"));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Объём хранится как long, а в модели брокера это int: значения вне диапазона ограничиваются явно,
+     * а не обрезаются приведением.
+     */
+    private static int toInt(long volume) {
+        return (int) Math.max(Integer.MIN_VALUE, Math.min(Integer.MAX_VALUE, volume));
+    }
+
+    private static long toMillis(OffsetDateTime time) {
+        return time.toInstant().toEpochMilli();
+    }
+}
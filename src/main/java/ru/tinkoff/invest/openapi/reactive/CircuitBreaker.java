@@ -0,0 +1,193 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Размыкатель цепи группы методов API.
+ *
+ * После {@code failureThreshold} подряд сбоев, похожих на недоступность брокера, цепь размыкается, и
+ * запросы группы завершаются {@link CircuitOpenException} без обращения к брокеру и без ожидания
+ * разрешений. По истечении {@code openDuration} пропускается не более {@code trialCalls} пробных
+ * запросов: если все они успешны, цепь замыкается, при сбое любого из них — снова размыкается.
+ *
+ * Ошибки, которые не признаны сбоем (например, отказ по лимиту или отклонённая заявка), показывают,
+ * что брокер отвечает, и учитываются как успех.
+ */
+public class CircuitBreaker {
+
+    private static final Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+    private static final Pattern SERVER_ERROR = Pattern.compile(
+            "(http|status|code)\\D{0,3}5\\d\\d|internal server error|bad gateway|service unavailable|gateway timeout",
+            Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Признак сбоя транспорта: ошибка ввода-вывода, истечение времени ожидания HTTP-клиента или ответ 5xx
+     * где-либо в цепочке причин.
+     */
+    static final Predicate<Throwable> TRANSPORT_FAILURE = error -> {
+        for (Throwable e = error; e != null; e = e.getCause() == e ? null : e.getCause()) {
+            if (e instanceof IOException || e instanceof TimeoutException) {
+                return true;
+            }
+            if (e.getMessage() != null && SERVER_ERROR.matcher(e.getMessage()).find()) {
+                return true;
+            }
+        }
+        return false;
+    };
+
+    /**
+     * Признак сбоя по умолчанию: сбой транспорта. Ошибки бизнес-логики брокера (недостаточно средств, неверная
+     * заявка) и истечение крайнего срока на стороне клиента сбоем не считаются: короткий срок вызывающего
+     * кода или долгое ожидание разрешения не говорят о недоступности брокера.
+     */
+    public static final Predicate<Throwable> DEFAULT_FAILURE_PREDICATE = TRANSPORT_FAILURE;
+
+    /**
+     * Состояние цепи.
+     */
+    public enum State {
+        /** Запросы выполняются. */
+        CLOSED,
+        /** Запросы отклоняются. */
+        OPEN,
+        /** Выполняются пробные запросы. */
+        HALF_OPEN
+    }
+
+    private final EndpointGroup group;
+    private final int failureThreshold;
+    private final long openNanos;
+    private final int trialCalls;
+    private final Predicate<Throwable> isFailure;
+
+    private volatile State state = State.CLOSED;
+    private volatile long openedAt;
+    private long generation;
+    private int consecutiveFailures;
+    private int trialsInFlight;
+    private int trialSuccesses;
+
+    CircuitBreaker(@NotNull EndpointGroup group,
+                   int failureThreshold,
+                   @NotNull Duration openDuration,
+                   int trialCalls,
+                   @NotNull Predicate<Throwable> isFailure) {
+        if (failureThreshold < 1 || trialCalls < 1) {
+            throw new IllegalArgumentException("failureThreshold and trialCalls must be positive");
+        }
+        this.group = group;
+        this.failureThreshold = failureThreshold;
+        this.openNanos = openDuration.toNanos();
+        this.trialCalls = trialCalls;
+        this.isFailure = isFailure;
+    }
+
+    /**
+     * @return Текущее состояние цепи.
+     */
+    @NotNull
+    public State getState() {
+        return state;
+    }
+
+    /**
+     * Быстрая проверка без блокировки: цепь разомкнута и время ожидания ещё не истекло.
+     */
+    boolean isOpen() {
+        return state == State.OPEN && System.nanoTime() - openedAt < openNanos;
+    }
+
+    /**
+     * Допуск запроса к брокеру.
+     *
+     * @return Номер периода состояния, который передаётся в {@link #onSuccess}, {@link #onFailure}
+     * и {@link #onCancel}, или -1, если запрос отклонён.
+     */
+    synchronized long tryAcquire() {
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < openNanos) {
+                return -1;
+            }
+            transition(State.HALF_OPEN);
+        }
+        if (state == State.HALF_OPEN) {
+            if (trialsInFlight >= trialCalls) {
+                return -1;
+            }
+            trialsInFlight++;
+        }
+        return generation;
+    }
+
+    synchronized void onSuccess(long ticket) {
+        if (ticket != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN) {
+            trialsInFlight--;
+            if (++trialSuccesses >= trialCalls) {
+                transition(State.CLOSED);
+            }
+        } else {
+            consecutiveFailures = 0;
+        }
+    }
+
+    synchronized void onFailure(long ticket, @NotNull Throwable error) {
+        if (!isFailure.test(error)) {
+            onSuccess(ticket);
+            return;
+        }
+        if (ticket != generation) {
+            return;
+        }
+        if (state == State.HALF_OPEN || ++consecutiveFailures >= failureThreshold) {
+            logger.warn("Opening circuit for {} after {}", group, error.toString());
+            transition(State.OPEN);
+        }
+    }
+
+    synchronized void onCancel(long ticket) {
+        if (ticket == generation && state == State.HALF_OPEN) {
+            trialsInFlight--;
+        }
+    }
+
+    private void transition(State next) {
+        logger.info("Circuit for {} is {}", group, next);
+        generation++;
+        consecutiveFailures = 0;
+        trialsInFlight = 0;
+        trialSuccesses = 0;
+        if (next == State.OPEN) {
+            openedAt = System.nanoTime();
+        }
+        state = next;
+    }
+}
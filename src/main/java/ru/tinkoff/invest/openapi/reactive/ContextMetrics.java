@@ -0,0 +1,100 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Точка подключения метрик вызовов реактивных контекстов, например к Micrometer.
+ *
+ * Имена метрик и тегов ниже — стабильный контракт: реализация должна регистрировать метрики именно под ними.
+ * Все методы по умолчанию ничего не делают; при {@link #NOOP} контексты не добавляют обработку вовсе.
+ */
+public interface ContextMetrics {
+
+    /** Таймер ожидания разрешения на запрос. Теги: {@value #TAG_GROUP}. */
+    String PERMIT_WAIT = "tinkoff.openapi.permit.wait";
+
+    /** Гистограмма длительности запроса к брокеру. Теги: {@value #TAG_GROUP}, {@value #TAG_METHOD}, {@value #TAG_OUTCOME}. */
+    String UPSTREAM_LATENCY = "tinkoff.openapi.upstream.latency";
+
+    /** Количество выполняющихся запросов. Теги: {@value #TAG_GROUP}, {@value #TAG_METHOD}. */
+    String IN_FLIGHT = "tinkoff.openapi.in.flight";
+
+    /** Счётчик ошибок. Теги: {@value #TAG_GROUP}, {@value #TAG_METHOD}, {@value #TAG_EXCEPTION}. */
+    String ERRORS = "tinkoff.openapi.errors";
+
+    /** Длина очереди ожидающих разрешения в момент постановки запроса. Теги: {@value #TAG_GROUP}. */
+    String PERMIT_QUEUE = "tinkoff.openapi.permit.queue";
+
+    String TAG_GROUP = "group";
+    String TAG_METHOD = "method";
+    String TAG_OUTCOME = "outcome";
+    String TAG_EXCEPTION = "exception";
+
+    ContextMetrics NOOP = new ContextMetrics() {
+    };
+
+    /**
+     * Ожидание разрешения завершено.
+     *
+     * @param group Группа методов API.
+     * @param nanos Время ожидания.
+     */
+    default void recordPermitWait(@NotNull EndpointGroup group, long nanos) {
+    }
+
+    /**
+     * Запрос к брокеру завершён.
+     *
+     * @param group   Группа методов API.
+     * @param method  Имя метода контекста.
+     * @param nanos   Длительность запроса.
+     * @param success Признак успешного завершения.
+     */
+    default void recordUpstreamLatency(@NotNull EndpointGroup group, @NotNull String method, long nanos, boolean success) {
+    }
+
+    /**
+     * Изменение количества выполняющихся запросов.
+     *
+     * @param group  Группа методов API.
+     * @param method Имя метода контекста.
+     * @param delta  +1 при отправке запроса, -1 при завершении.
+     */
+    default void recordInFlight(@NotNull EndpointGroup group, @NotNull String method, int delta) {
+    }
+
+    /**
+     * Запрос завершился ошибкой.
+     *
+     * @param group  Группа методов API.
+     * @param method Имя метода контекста.
+     * @param error  Ошибка.
+     */
+    default void recordError(@NotNull EndpointGroup group, @NotNull String method, @NotNull Throwable error) {
+    }
+
+    /**
+     * Запрос встал в очередь за разрешением.
+     *
+     * @param group  Группа методов API.
+     * @param queued Количество запросов в очереди перед ним.
+     */
+    default void recordPermitQueue(@NotNull EndpointGroup group, int queued) {
+    }
+}
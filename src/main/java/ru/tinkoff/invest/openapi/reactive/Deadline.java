@@ -0,0 +1,94 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reactor.util.context.Context;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.function.Function;
+
+/**
+ * Крайний срок выполнения запроса, передаваемый через контекст подписки Reactor.
+ *
+ * Пример: {@code orders.placeLimitOrder(figi, request, account).contextWrite(Deadline.within(Duration.ofSeconds(5)))}.
+ * Запрос, который не успеет получить разрешение до крайнего срока, завершается
+ * {@link DeadlineExceededException} и к брокеру не отправляется. Если срок истекает после отправки,
+ * подписчик получает {@link OutcomeUnknownException}: запрос мог быть выполнен брокером.
+ */
+public final class Deadline {
+
+    private static final Object KEY = Deadline.class;
+
+    private final long expiresAtNanos;
+
+    private Deadline(long expiresAtNanos) {
+        this.expiresAtNanos = expiresAtNanos;
+    }
+
+    /**
+     * Крайний срок через заданное время от текущего момента.
+     *
+     * @param timeout Допустимое время выполнения.
+     *
+     * @return Крайний срок.
+     */
+    @NotNull
+    public static Deadline after(@NotNull Duration timeout) {
+        return new Deadline(System.nanoTime() + timeout.toNanos());
+    }
+
+    /**
+     * Установка крайнего срока для подписки. Время отсчитывается от момента подписки.
+     *
+     * @param timeout Допустимое время выполнения.
+     *
+     * @return Функция для {@code contextWrite}.
+     */
+    @NotNull
+    public static Function<Context, Context> within(@NotNull Duration timeout) {
+        return context -> context.put(KEY, after(timeout));
+    }
+
+    /**
+     * Получение крайнего срока из контекста подписки.
+     *
+     * @param context Контекст подписки.
+     *
+     * @return Крайний срок или null, если не задан.
+     */
+    @Nullable
+    public static Deadline from(@NotNull ContextView context) {
+        return context.getOrDefault(KEY, null);
+    }
+
+    /**
+     * Оставшееся время.
+     *
+     * @return Оставшееся время, отрицательное если срок прошёл.
+     */
+    @NotNull
+    public Duration remaining() {
+        return Duration.ofNanos(expiresAtNanos - System.nanoTime());
+    }
+
+    public boolean isExpired() {
+        return expiresAtNanos - System.nanoTime() <= 0;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+/**
+ * Группа методов API, на которую брокер накладывает общее ограничение частоты запросов.
+ */
+public enum EndpointGroup {
+
+    MARKET(2),
+    ORDERS(1.65),
+    PORTFOLIO(2),
+    OPERATIONS(2),
+    USER(2),
+    SANDBOX(2);
+
+    private final double defaultRate;
+
+    EndpointGroup(double defaultRate) {
+        this.defaultRate = defaultRate;
+    }
+
+    /**
+     * Ограничение по умолчанию.
+     *
+     * @return Допустимое количество запросов в секунду.
+     */
+    public double getDefaultRate() {
+        return defaultRate;
+    }
+}
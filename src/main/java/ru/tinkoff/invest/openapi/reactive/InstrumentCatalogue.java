@@ -0,0 +1,259 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import ru.tinkoff.invest.openapi.model.rest.MarketInstrument;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Кэш справочника инструментов (акции, облигации, фонды, валюты) с фоновым обновлением.
+ *
+ * Поиск по тикеру, FIGI и ISIN выполняется по хэш-индексам и не расходует лимит запросов.
+ * Если обновление не удалось, продолжает отдаваться предыдущая версия справочника, а следующая попытка
+ * по запросу делается не раньше, чем через экспоненциально растущую паузу (не дольше периода обновления),
+ * чтобы во время недоступности брокера поиск не расходовал лимит массовых запросов.
+ */
+public class InstrumentCatalogue implements Disposable {
+
+    private static final Logger logger = LoggerFactory.getLogger(InstrumentCatalogue.class);
+
+    private static final long MIN_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+
+    private final ReactiveMarketContext market;
+    private final Duration refreshPeriod;
+    private final Scheduler scheduler;
+    private final SingleFlight<Boolean, Snapshot> loads = new SingleFlight<>();
+
+    private volatile Snapshot snapshot;
+    private volatile Disposable refresher;
+    private volatile int failures;
+    private volatile long retryAt;
+
+    public InstrumentCatalogue(@NotNull ReactiveMarketContext market, @NotNull Duration refreshPeriod) {
+        this(market, refreshPeriod, Schedulers.parallel());
+    }
+
+    public InstrumentCatalogue(@NotNull ReactiveMarketContext market,
+                               @NotNull Duration refreshPeriod,
+                               @NotNull Scheduler scheduler) {
+        this.market = market;
+        this.refreshPeriod = refreshPeriod;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Запуск периодического фонового обновления справочника. Первая загрузка выполняется сразу.
+     *
+     * @return Этот же справочник.
+     */
+    @NotNull
+    public synchronized InstrumentCatalogue start() {
+        if (refresher == null) {
+            refresher = Flux.interval(Duration.ZERO, refreshPeriod, scheduler)
+                    .onBackpressureDrop()
+                    .concatMap(tick -> reload().onErrorResume(e -> Mono.empty()))
+                    .subscribe();
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if (refresher != null) {
+            refresher.dispose();
+            refresher = null;
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        Disposable current = refresher;
+        return current == null || current.isDisposed();
+    }
+
+    /**
+     * Список акций из кэша.
+     *
+     * @return Список акций.
+     */
+    @NotNull
+    public Flux<MarketInstrument> getMarketStocks() {
+        return current().flatMapIterable(s -> s.stocks);
+    }
+
+    /**
+     * Список облигаций из кэша.
+     *
+     * @return Список облигаций.
+     */
+    @NotNull
+    public Flux<MarketInstrument> getMarketBonds() {
+        return current().flatMapIterable(s -> s.bonds);
+    }
+
+    /**
+     * Список фондов из кэша.
+     *
+     * @return Список фондов.
+     */
+    @NotNull
+    public Flux<MarketInstrument> getMarketEtfs() {
+        return current().flatMapIterable(s -> s.etfs);
+    }
+
+    /**
+     * Список валют из кэша.
+     *
+     * @return Список валют.
+     */
+    @NotNull
+    public Flux<MarketInstrument> getMarketCurrencies() {
+        return current().flatMapIterable(s -> s.currencies);
+    }
+
+    /**
+     * Поиск инструментов по тикеру.
+     *
+     * @param ticker Искомый тикер.
+     *
+     * @return Список инструментов.
+     */
+    @NotNull
+    public Flux<MarketInstrument> searchMarketInstrumentsByTicker(@NotNull String ticker) {
+        return current().flatMapIterable(s -> s.byTicker.getOrDefault(ticker, Collections.emptyList()));
+    }
+
+    /**
+     * Поиск инструмента по идентификатору.
+     *
+     * @param figi Идентификатор инструмента.
+     *
+     * @return Найденный инструмент или ничего, если инструмент не найден.
+     */
+    @NotNull
+    public Mono<MarketInstrument> searchMarketInstrumentByFigi(@NotNull String figi) {
+        return current().flatMap(s -> Mono.justOrEmpty(s.byFigi.get(figi)));
+    }
+
+    /**
+     * Поиск инструмента по ISIN.
+     *
+     * @param isin Международный идентификационный код ценной бумаги.
+     *
+     * @return Найденный инструмент или ничего, если инструмент не найден.
+     */
+    @NotNull
+    public Mono<MarketInstrument> searchMarketInstrumentByIsin(@NotNull String isin) {
+        return current().flatMap(s -> Mono.justOrEmpty(s.byIsin.get(isin)));
+    }
+
+    private Mono<Snapshot> current() {
+        return Mono.defer(() -> {
+            Snapshot cached = snapshot;
+            long now = scheduler.now(TimeUnit.MILLISECONDS);
+            boolean backingOff = now < retryAt;
+            if (cached == null) {
+                return backingOff
+                        ? Mono.error(new IllegalStateException("Instrument catalogue is unavailable, next attempt in "
+                                + (retryAt - now) + " ms"))
+                        : reload();
+            }
+            if (!backingOff && now - cached.loadedAt > refreshPeriod.toMillis()) {
+                // Отдаём устаревшую версию сразу, обновление идёт в фоне.
+                reload().subscribe(s -> { }, e -> { });
+            }
+            return Mono.just(cached);
+        });
+    }
+
+    private Mono<Snapshot> reload() {
+        return loads.execute(Boolean.TRUE, () ->
+                Mono.zip(market.getMarketStocks().collectList(),
+                        market.getMarketBonds().collectList(),
+                        market.getMarketEtfs().collectList(),
+                        market.getMarketCurrencies().collectList())
+                        .map(t -> new Snapshot(t.getT1(), t.getT2(), t.getT3(), t.getT4(),
+                                scheduler.now(TimeUnit.MILLISECONDS)))
+                        .doOnNext(loaded -> {
+                            snapshot = loaded;
+                            failures = 0;
+                            retryAt = 0;
+                            logger.debug("Instrument catalogue loaded, {} instruments", loaded.byFigi.size());
+                        })
+                        .doOnError(e -> {
+                            int failed = ++failures;
+                            long delay = Math.min(refreshPeriod.toMillis(),
+                                    MIN_RETRY_DELAY_MILLIS << Math.min(failed - 1, 20));
+                            retryAt = scheduler.now(TimeUnit.MILLISECONDS) + delay;
+                            logger.warn("Instrument catalogue refresh failed, keeping previous version, retrying in {} ms",
+                                    delay, e);
+                        }));
+    }
+
+    private static final class Snapshot {
+
+        private final List<MarketInstrument> stocks;
+        private final List<MarketInstrument> bonds;
+        private final List<MarketInstrument> etfs;
+        private final List<MarketInstrument> currencies;
+        private final Map<String, MarketInstrument> byFigi = new HashMap<>();
+        private final Map<String, MarketInstrument> byIsin = new HashMap<>();
+        private final Map<String, List<MarketInstrument>> byTicker = new HashMap<>();
+        private final long loadedAt;
+
+        private Snapshot(List<MarketInstrument> stocks,
+                         List<MarketInstrument> bonds,
+                         List<MarketInstrument> etfs,
+                         List<MarketInstrument> currencies,
+                         long loadedAt) {
+            this.stocks = stocks;
+            this.bonds = bonds;
+            this.etfs = etfs;
+            this.currencies = currencies;
+            this.loadedAt = loadedAt;
+            index(stocks);
+            index(bonds);
+            index(etfs);
+            index(currencies);
+        }
+
+        private void index(List<MarketInstrument> instruments) {
+            for (MarketInstrument instrument : instruments) {
+                byFigi.put(instrument.getFigi(), instrument);
+                if (instrument.getIsin() != null) {
+                    byIsin.put(instrument.getIsin(), instrument);
+                }
+                byTicker.computeIfAbsent(instrument.getTicker(), t -> new ArrayList<>(1)).add(instrument);
+            }
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import ru.tinkoff.invest.openapi.model.rest.OrderResponse;
+import ru.tinkoff.invest.openapi.model.rest.Orderbook;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.math.BigDecimal;
+import java.util.List;
+
+/**
+ * Локальная копия "стакана" по одному инструменту.
+ *
+ * Уровни хранятся в массивах примитивов: цена в виде long с фиксированным масштабом, количество в лотах.
+ * Обновления выполняются одним писателем, читатели на любых потоках получают согласованное состояние без
+ * блокировок (seqlock) и без выделения памяти.
+ */
+public class LocalOrderBook {
+
+    /**
+     * Количество знаков после запятой в представлении цены.
+     */
+    public static final int PRICE_SCALE = 8;
+
+    private static final long PRICE_MULTIPLIER = 100_000_000L;
+
+    private static final VarHandle SEQUENCE;
+
+    static {
+        try {
+            SEQUENCE = MethodHandles.lookup().findVarHandle(LocalOrderBook.class, "sequence", long.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    private final String figi;
+    private final int capacity;
+
+    // Индекс 0 — лучший уровень. Цены заявок на покупку убывают, на продажу возрастают.
+    private final long[] bidPrices;
+    private final long[] bidQuantities;
+    private final long[] askPrices;
+    private final long[] askQuantities;
+    private int bidCount;
+    private int askCount;
+
+    private volatile long sequence;
+
+    public LocalOrderBook(@NotNull String figi, int capacity) {
+        this.figi = figi;
+        this.capacity = capacity;
+        this.bidPrices = new long[capacity];
+        this.bidQuantities = new long[capacity];
+        this.askPrices = new long[capacity];
+        this.askQuantities = new long[capacity];
+    }
+
+    @NotNull
+    public String getFigi() {
+        return figi;
+    }
+
+    /**
+     * Перевод цены в представление с фиксированным масштабом.
+     *
+     * @param price Цена.
+     *
+     * @return Цена, умноженная на 10^{@value #PRICE_SCALE}.
+     */
+    public static long scale(@NotNull BigDecimal price) {
+        return price.movePointRight(PRICE_SCALE).longValue();
+    }
+
+    /**
+     * Перевод цены из представления с фиксированным масштабом.
+     *
+     * @param scaledPrice Цена, умноженная на 10^{@value #PRICE_SCALE}.
+     *
+     * @return Цена.
+     */
+    public static double unscale(long scaledPrice) {
+        return (double) scaledPrice / PRICE_MULTIPLIER;
+    }
+
+    /**
+     * Замена состояния снимком, полученным через REST.
+     *
+     * @param orderbook Снимок "стакана".
+     */
+    public synchronized void update(@NotNull Orderbook orderbook) {
+        beginWrite();
+        try {
+            bidCount = copyResponses(orderbook.getBids(), bidPrices, bidQuantities);
+            askCount = copyResponses(orderbook.getAsks(), askPrices, askQuantities);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Замена состояния снимком из потока событий.
+     *
+     * @param orderbook Событие "стакана".
+     */
+    public synchronized void update(@NotNull StreamingEvent.Orderbook orderbook) {
+        beginWrite();
+        try {
+            bidCount = copyPairs(orderbook.getBids(), bidPrices, bidQuantities);
+            askCount = copyPairs(orderbook.getAsks(), askPrices, askQuantities);
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Инкрементальное изменение одного уровня. Нулевое количество удаляет уровень.
+     *
+     * @param bid         Сторона: true для заявок на покупку.
+     * @param scaledPrice Цена уровня в представлении с фиксированным масштабом.
+     * @param quantity    Новое количество лотов на уровне.
+     */
+    public synchronized void updateLevel(boolean bid, long scaledPrice, long quantity) {
+        beginWrite();
+        try {
+            if (bid) {
+                bidCount = updateSide(bidPrices, bidQuantities, bidCount, scaledPrice, quantity, true);
+            } else {
+                askCount = updateSide(askPrices, askQuantities, askCount, scaledPrice, quantity, false);
+            }
+        } finally {
+            endWrite();
+        }
+    }
+
+    /**
+     * Лучшая цена покупки.
+     *
+     * @return Цена в представлении с фиксированным масштабом или {@link Long#MIN_VALUE}, если заявок нет.
+     */
+    public long getBestBid() {
+        while (true) {
+            long seq = readBegin();
+            long result = bidCount > 0 ? bidPrices[0] : Long.MIN_VALUE;
+            if (readValidate(seq)) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Лучшая цена продажи.
+     *
+     * @return Цена в представлении с фиксированным масштабом или {@link Long#MAX_VALUE}, если заявок нет.
+     */
+    public long getBestAsk() {
+        while (true) {
+            long seq = readBegin();
+            long result = askCount > 0 ? askPrices[0] : Long.MAX_VALUE;
+            if (readValidate(seq)) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Разница между лучшими ценами продажи и покупки.
+     *
+     * @return Спред в представлении с фиксированным масштабом или -1, если одна из сторон пуста.
+     */
+    public long getSpread() {
+        while (true) {
+            long seq = readBegin();
+            long result = bidCount > 0 && askCount > 0 ? askPrices[0] - bidPrices[0] : -1;
+            if (readValidate(seq)) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Середина между лучшими ценами.
+     *
+     * @return Цена или {@link Double#NaN}, если одна из сторон пуста.
+     */
+    public double getMid() {
+        while (true) {
+            long seq = readBegin();
+            double result = bidCount > 0 && askCount > 0
+                    ? unscale(bidPrices[0]) / 2 + unscale(askPrices[0]) / 2
+                    : Double.NaN;
+            if (readValidate(seq)) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Дисбаланс объёмов на первых уровнях: (bid - ask) / (bid + ask).
+     *
+     * @param levels Количество учитываемых уровней.
+     *
+     * @return Значение от -1 до 1 или {@link Double#NaN}, если "стакан" пуст.
+     */
+    public double getImbalance(int levels) {
+        while (true) {
+            long seq = readBegin();
+            long bidVolume = 0;
+            long askVolume = 0;
+            int bids = Math.min(levels, Math.min(bidCount, capacity));
+            int asks = Math.min(levels, Math.min(askCount, capacity));
+            for (int i = 0; i < bids; i++) {
+                bidVolume += bidQuantities[i];
+            }
+            for (int i = 0; i < asks; i++) {
+                askVolume += askQuantities[i];
+            }
+            long total = bidVolume + askVolume;
+            double result = total == 0 ? Double.NaN : (double) (bidVolume - askVolume) / total;
+            if (readValidate(seq)) {
+                return result;
+            }
+        }
+    }
+
+    /**
+     * Средневзвешенная цена исполнения заданного количества лотов по встречной стороне.
+     *
+     * @param buy      Сторона заявки: true для покупки (исполняется по заявкам на продажу).
+     * @param quantity Количество лотов.
+     *
+     * @return Цена или {@link Double#NaN}, если объёма "стакана" не хватает.
+     */
+    public double getVwapToDepth(boolean buy, long quantity) {
+        while (true) {
+            long seq = readBegin();
+            long[] prices = buy ? askPrices : bidPrices;
+            long[] quantities = buy ? askQuantities : bidQuantities;
+            int count = Math.min(buy ? askCount : bidCount, capacity);
+            long remaining = quantity;
+            double notional = 0;
+            for (int i = 0; i < count && remaining > 0; i++) {
+                long filled = Math.min(remaining, quantities[i]);
+                notional += unscale(prices[i]) * filled;
+                remaining -= filled;
+            }
+            double result = remaining > 0 || quantity <= 0 ? Double.NaN : notional / quantity;
+            if (readValidate(seq)) {
+                return result;
+            }
+        }
+    }
+
+    private void beginWrite() {
+        SEQUENCE.setOpaque(this, sequence + 1);
+        VarHandle.storeStoreFence();
+    }
+
+    private void endWrite() {
+        SEQUENCE.setRelease(this, sequence + 1);
+    }
+
+    private long readBegin() {
+        long seq;
+        do {
+            seq = (long) SEQUENCE.getAcquire(this);
+        } while ((seq & 1) != 0);
+        return seq;
+    }
+
+    private boolean readValidate(long seq) {
+        VarHandle.loadLoadFence();
+        return (long) SEQUENCE.getOpaque(this) == seq;
+    }
+
+    private int copyResponses(List<OrderResponse> levels, long[] prices, long[] quantities) {
+        int n = Math.min(levels.size(), capacity);
+        for (int i = 0; i < n; i++) {
+            OrderResponse level = levels.get(i);
+            prices[i] = scale(level.getPrice());
+            quantities[i] = level.getQuantity();
+        }
+        return n;
+    }
+
+    private int copyPairs(List<BigDecimal[]> levels, long[] prices, long[] quantities) {
+        int n = Math.min(levels.size(), capacity);
+        for (int i = 0; i < n; i++) {
+            BigDecimal[] level = levels.get(i);
+            prices[i] = scale(level[0]);
+            quantities[i] = level[1].longValue();
+        }
+        return n;
+    }
+
+    private int updateSide(long[] prices, long[] quantities, int count, long price, long quantity, boolean descending) {
+        int i = 0;
+        while (i < count && (descending ? prices[i] > price : prices[i] < price)) {
+            i++;
+        }
+        if (i < count && prices[i] == price) {
+            if (quantity > 0) {
+                quantities[i] = quantity;
+                return count;
+            }
+            System.arraycopy(prices, i + 1, prices, i, count - i - 1);
+            System.arraycopy(quantities, i + 1, quantities, i, count - i - 1);
+            return count - 1;
+        }
+        if (quantity <= 0 || i >= capacity) {
+            return count;
+        }
+        int moved = Math.min(count, capacity - 1) - i;
+        System.arraycopy(prices, i, prices, i + 1, moved);
+        System.arraycopy(quantities, i, quantities, i + 1, moved);
+        prices[i] = price;
+        quantities[i] = quantity;
+        return Math.min(count + 1, capacity);
+    }
+}
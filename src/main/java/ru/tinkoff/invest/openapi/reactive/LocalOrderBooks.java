@@ -0,0 +1,100 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import ru.tinkoff.invest.openapi.model.rest.Orderbook;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Набор локальных "стаканов" по инструментам.
+ */
+public class LocalOrderBooks {
+
+    private final int capacity;
+    private final ConcurrentMap<String, LocalOrderBook> books = new ConcurrentHashMap<>();
+
+    /**
+     * @param capacity Максимальное количество уровней на каждой стороне.
+     */
+    public LocalOrderBooks(int capacity) {
+        this.capacity = capacity;
+    }
+
+    /**
+     * Получение "стакана" по инструменту с созданием пустого при отсутствии.
+     *
+     * @param figi Идентификатор инструмента.
+     *
+     * @return Локальный "стакан".
+     */
+    @NotNull
+    public LocalOrderBook get(@NotNull String figi) {
+        return books.computeIfAbsent(figi, f -> new LocalOrderBook(f, capacity));
+    }
+
+    /**
+     * Поиск "стакана" по инструменту.
+     *
+     * @param figi Идентификатор инструмента.
+     *
+     * @return Локальный "стакан" или null, если по инструменту ещё не было обновлений.
+     */
+    @Nullable
+    public LocalOrderBook find(@NotNull String figi) {
+        return books.get(figi);
+    }
+
+    /**
+     * Обновление из снимка, полученного через REST.
+     *
+     * @param orderbook Снимок "стакана".
+     */
+    public void update(@NotNull Orderbook orderbook) {
+        get(orderbook.getFigi()).update(orderbook);
+    }
+
+    /**
+     * Подключение потока снимков, например {@link ReactiveMarketContext#getMarketOrderbook} с повтором.
+     *
+     * @param orderbooks Поток снимков.
+     *
+     * @return Подписка на поток.
+     */
+    @NotNull
+    public Disposable feed(@NotNull Flux<Orderbook> orderbooks) {
+        return orderbooks.subscribe(this::update);
+    }
+
+    /**
+     * Подключение потока событий из {@link ReactiveStreamingContext#getOrderbook}.
+     *
+     * @param events Поток событий.
+     *
+     * @return Подписка на поток.
+     */
+    @NotNull
+    public Disposable feedEvents(@NotNull Flux<StreamingEvent.Orderbook> events) {
+        return events.subscribe(event -> get(event.getFigi()).update(event));
+    }
+}
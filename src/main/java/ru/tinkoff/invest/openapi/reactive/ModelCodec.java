@@ -0,0 +1,522 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+import ru.tinkoff.invest.openapi.model.rest.Currency;
+import ru.tinkoff.invest.openapi.model.rest.InstrumentType;
+import ru.tinkoff.invest.openapi.model.rest.MoneyAmount;
+import ru.tinkoff.invest.openapi.model.rest.Operation;
+import ru.tinkoff.invest.openapi.model.rest.OperationStatus;
+import ru.tinkoff.invest.openapi.model.rest.OperationTrade;
+import ru.tinkoff.invest.openapi.model.rest.OperationTypeWithCommission;
+import ru.tinkoff.invest.openapi.model.rest.OrderResponse;
+import ru.tinkoff.invest.openapi.model.rest.Orderbook;
+import ru.tinkoff.invest.openapi.model.rest.TradeStatus;
+
+import java.math.BigDecimal;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Компактное двоичное представление свечей, "стаканов" и операций.
+ *
+ * Файл состоит из заголовка и записей вида [длина][тип][поля]. Целые числа записываются в формате
+ * переменной длины с зигзаг-кодированием, десятичные — как масштаб и немасштабированное целое,
+ * моменты времени — разностью с предыдущим моментом того же потока. FIGI и названия значений
+ * перечислений заменяются номерами в словаре; новое слово словаря записывается отдельной записью
+ * перед первой использующей его записью, поэтому файл можно читать с начала без внешних данных.
+ */
+final class ModelCodec {
+
+    static final int MAGIC = 0x544D5231;
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 8;
+
+    private static final byte DICTIONARY = 0;
+    private static final byte CANDLE = 1;
+    private static final byte ORDERBOOK = 2;
+    private static final byte OPERATION = 3;
+
+    private static final int DECIMAL_AS_STRING = 65;
+
+    private ModelCodec() {
+    }
+
+    static boolean supports(Object value) {
+        return value instanceof Candle || value instanceof Orderbook || value instanceof Operation;
+    }
+
+    /**
+     * Кодировщик потока записей. Хранит словарь и предыдущие моменты времени, поэтому один экземпляр
+     * должен обслуживать весь файл.
+     */
+    static final class Writer {
+
+        private final Map<String, Integer> dictionary = new HashMap<>();
+        private final Output out = new Output(1 << 16);
+        private final Output record = new Output(1 << 10);
+        private long lastRecordTime;
+        private long lastModelTime;
+
+        /**
+         * Кодирование объекта в одну запись, которой при необходимости предшествуют записи словаря.
+         *
+         * @param value      Свеча, "стакан" или операция.
+         * @param recordTime Момент получения объекта в миллисекундах от начала эпохи.
+         */
+        void write(Object value, long recordTime) {
+            record.clear();
+            if (value instanceof Candle) {
+                record.writeByte(CANDLE);
+            } else if (value instanceof Orderbook) {
+                record.writeByte(ORDERBOOK);
+            } else if (value instanceof Operation) {
+                record.writeByte(OPERATION);
+            } else {
+                throw new IllegalArgumentException("Unsupported model type: " + value.getClass().getName());
+            }
+            record.writeVarLong(zigzag(recordTime - lastRecordTime));
+            lastRecordTime = recordTime;
+            if (value instanceof Candle) {
+                candle((Candle) value);
+            } else if (value instanceof Orderbook) {
+                orderbook((Orderbook) value);
+            } else {
+                operation((Operation) value);
+            }
+            out.writeVarLong(record.size);
+            out.write(record.bytes, 0, record.size);
+        }
+
+        byte[] bytes() {
+            return out.bytes;
+        }
+
+        int size() {
+            return out.size;
+        }
+
+        void clear() {
+            out.clear();
+        }
+
+        private void candle(Candle candle) {
+            symbol(candle.getFigi());
+            symbol(candle.getInterval());
+            time(candle.getTime());
+            decimal(candle.getO());
+            decimal(candle.getC());
+            decimal(candle.getH());
+            decimal(candle.getL());
+            integer(candle.getV());
+        }
+
+        private void orderbook(Orderbook orderbook) {
+            symbol(orderbook.getFigi());
+            integer(orderbook.getDepth());
+            levels(orderbook.getBids());
+            levels(orderbook.getAsks());
+            symbol(orderbook.getTradeStatus());
+            decimal(orderbook.getMinPriceIncrement());
+            decimal(orderbook.getFaceValue());
+            decimal(orderbook.getLastPrice());
+            decimal(orderbook.getClosePrice());
+            decimal(orderbook.getLimitUp());
+            decimal(orderbook.getLimitDown());
+        }
+
+        private void levels(List<OrderResponse> levels) {
+            if (levels == null) {
+                record.writeVarLong(0);
+                return;
+            }
+            record.writeVarLong(levels.size() + 1L);
+            for (OrderResponse level : levels) {
+                decimal(level.getPrice());
+                integer(level.getQuantity());
+            }
+        }
+
+        private void operation(Operation operation) {
+            string(operation.getId());
+            symbol(operation.getStatus());
+            List<OperationTrade> trades = operation.getTrades();
+            if (trades == null) {
+                record.writeVarLong(0);
+            } else {
+                record.writeVarLong(trades.size() + 1L);
+                for (OperationTrade trade : trades) {
+                    string(trade.getTradeId());
+                    time(trade.getDate());
+                    decimal(trade.getPrice());
+                    integer(trade.getQuantity());
+                }
+            }
+            MoneyAmount commission = operation.getCommission();
+            record.writeByte(commission == null ? 0 : 1);
+            if (commission != null) {
+                symbol(commission.getCurrency());
+                decimal(commission.getValue());
+            }
+            symbol(operation.getCurrency());
+            decimal(operation.getPayment());
+            decimal(operation.getPrice());
+            integer(operation.getQuantity());
+            integer(operation.getQuantityExecuted());
+            symbol(operation.getFigi());
+            symbol(operation.getInstrumentType());
+            Boolean marginCall = operation.isIsMarginCall();
+            record.writeByte(marginCall == null ? 0 : marginCall ? 2 : 1);
+            time(operation.getDate());
+            symbol(operation.getOperationType());
+        }
+
+        private void symbol(Enum<?> value) {
+            symbol(value == null ? null : value.name());
+        }
+
+        private void symbol(String value) {
+            if (value == null) {
+                record.writeVarLong(0);
+                return;
+            }
+            Integer id = dictionary.get(value);
+            if (id == null) {
+                id = dictionary.size();
+                dictionary.put(value, id);
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                Output entry = new Output(bytes.length + 8);
+                entry.writeByte(DICTIONARY);
+                entry.writeString(bytes);
+                out.writeVarLong(entry.size);
+                out.write(entry.bytes, 0, entry.size);
+            }
+            record.writeVarLong(id + 1L);
+        }
+
+        private void string(String value) {
+            if (value == null) {
+                record.writeVarLong(0);
+            } else {
+                byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+                record.writeVarLong(bytes.length + 1L);
+                record.write(bytes, 0, bytes.length);
+            }
+        }
+
+        private void integer(Integer value) {
+            record.writeVarLong(value == null ? 0 : zigzag(value) + 1);
+        }
+
+        private void decimal(BigDecimal value) {
+            if (value == null) {
+                record.writeVarLong(0);
+            } else if (value.scale() >= 0 && value.scale() < DECIMAL_AS_STRING - 1 && value.unscaledValue().bitLength() < 64) {
+                record.writeVarLong(value.scale() + 1L);
+                record.writeVarLong(zigzag(value.unscaledValue().longValue()));
+            } else {
+                record.writeVarLong(DECIMAL_AS_STRING);
+                string(value.toString());
+            }
+        }
+
+        private void time(OffsetDateTime value) {
+            if (value == null) {
+                record.writeVarLong(0);
+                return;
+            }
+            long millis = value.toInstant().toEpochMilli();
+            record.writeVarLong(zigzag(value.getOffset().getTotalSeconds()) + 1);
+            record.writeVarLong(zigzag(millis - lastModelTime));
+            lastModelTime = millis;
+        }
+    }
+
+    /**
+     * Декодировщик записей непосредственно из буфера, в том числе отображённого в память файла.
+     */
+    static final class Reader {
+
+        private final ByteBuffer data;
+        private final List<String> dictionary = new ArrayList<>();
+        private long recordTime;
+        private long lastModelTime;
+
+        /**
+         * @param data Буфер, позиция которого указывает на первую запись после заголовка.
+         */
+        Reader(ByteBuffer data) {
+            this.data = data;
+        }
+
+        /**
+         * Чтение очередного объекта. Оборванная последняя запись считается концом данных.
+         *
+         * @return Объект или null, если записи закончились.
+         */
+        Object next() {
+            while (data.hasRemaining()) {
+                int start = data.position();
+                long length;
+                try {
+                    length = readVarLong();
+                } catch (BufferUnderflowException e) {
+                    data.position(start);
+                    return null;
+                }
+                if (length > data.remaining()) {
+                    data.position(start);
+                    return null;
+                }
+                int end = data.position() + (int) length;
+                byte type = data.get();
+                Object value;
+                switch (type) {
+                    case DICTIONARY:
+                        dictionary.add(readString());
+                        data.position(end);
+                        continue;
+                    case CANDLE:
+                        recordTime += unzigzag(readVarLong());
+                        value = candle();
+                        break;
+                    case ORDERBOOK:
+                        recordTime += unzigzag(readVarLong());
+                        value = orderbook();
+                        break;
+                    case OPERATION:
+                        recordTime += unzigzag(readVarLong());
+                        value = operation();
+                        break;
+                    default:
+                        // Запись неизвестного типа из более новой версии формата пропускается.
+                        data.position(end);
+                        continue;
+                }
+                data.position(end);
+                return value;
+            }
+            return null;
+        }
+
+        /**
+         * @return Момент получения последнего прочитанного объекта в миллисекундах от начала эпохи.
+         */
+        long recordTime() {
+            return recordTime;
+        }
+
+        private Candle candle() {
+            return new Candle()
+                    .figi(symbol())
+                    .interval(symbol(CandleResolution.class))
+                    .time(time())
+                    .o(decimal())
+                    .c(decimal())
+                    .h(decimal())
+                    .l(decimal())
+                    .v(integer());
+        }
+
+        private Orderbook orderbook() {
+            return new Orderbook()
+                    .figi(symbol())
+                    .depth(integer())
+                    .bids(levels())
+                    .asks(levels())
+                    .tradeStatus(symbol(TradeStatus.class))
+                    .minPriceIncrement(decimal())
+                    .faceValue(decimal())
+                    .lastPrice(decimal())
+                    .closePrice(decimal())
+                    .limitUp(decimal())
+                    .limitDown(decimal());
+        }
+
+        private List<OrderResponse> levels() {
+            long count = readVarLong();
+            if (count == 0) {
+                return null;
+            }
+            List<OrderResponse> levels = new ArrayList<>((int) count - 1);
+            for (int i = 0; i < count - 1; i++) {
+                levels.add(new OrderResponse().price(decimal()).quantity(integer()));
+            }
+            return levels;
+        }
+
+        private Operation operation() {
+            Operation operation = new Operation()
+                    .id(string())
+                    .status(symbol(OperationStatus.class));
+            long trades = readVarLong();
+            if (trades > 0) {
+                List<OperationTrade> list = new ArrayList<>((int) trades - 1);
+                for (int i = 0; i < trades - 1; i++) {
+                    list.add(new OperationTrade().tradeId(string()).date(time()).price(decimal()).quantity(integer()));
+                }
+                operation.trades(list);
+            }
+            if (data.get() != 0) {
+                operation.commission(new MoneyAmount().currency(symbol(Currency.class)).value(decimal()));
+            }
+            operation.currency(symbol(Currency.class))
+                    .payment(decimal())
+                    .price(decimal())
+                    .quantity(integer())
+                    .quantityExecuted(integer())
+                    .figi(symbol())
+                    .instrumentType(symbol(InstrumentType.class));
+            byte marginCall = data.get();
+            return operation
+                    .isMarginCall(marginCall == 0 ? null : marginCall == 2)
+                    .date(time())
+                    .operationType(symbol(OperationTypeWithCommission.class));
+        }
+
+        private String symbol() {
+            long id = readVarLong();
+            return id == 0 ? null : dictionary.get((int) id - 1);
+        }
+
+        private <E extends Enum<E>> E symbol(Class<E> type) {
+            String name = symbol();
+            return name == null ? null : Enum.valueOf(type, name);
+        }
+
+        private String string() {
+            long length = readVarLong();
+            if (length == 0) {
+                return null;
+            }
+            byte[] bytes = new byte[(int) length - 1];
+            data.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private String readString() {
+            byte[] bytes = new byte[(int) readVarLong()];
+            data.get(bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private Integer integer() {
+            long value = readVarLong();
+            return value == 0 ? null : (int) unzigzag(value - 1);
+        }
+
+        private BigDecimal decimal() {
+            long scale = readVarLong();
+            if (scale == 0) {
+                return null;
+            }
+            if (scale == DECIMAL_AS_STRING) {
+                return new BigDecimal(string());
+            }
+            return BigDecimal.valueOf(unzigzag(readVarLong()), (int) scale - 1);
+        }
+
+        private OffsetDateTime time() {
+            long offset = readVarLong();
+            if (offset == 0) {
+                return null;
+            }
+            lastModelTime += unzigzag(readVarLong());
+            return OffsetDateTime.ofInstant(Instant.ofEpochMilli(lastModelTime),
+                    ZoneOffset.ofTotalSeconds((int) unzigzag(offset - 1)));
+        }
+
+        private long readVarLong() {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = data.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IllegalStateException("Malformed variable-length integer");
+        }
+    }
+
+    private static long zigzag(long value) {
+        return (value << 1) ^ (value >> 63);
+    }
+
+    private static long unzigzag(long value) {
+        return (value >>> 1) ^ -(value & 1);
+    }
+
+    /**
+     * Растущий массив байтов.
+     */
+    private static final class Output {
+
+        private byte[] bytes;
+        private int size;
+
+        Output(int capacity) {
+            this.bytes = new byte[capacity];
+        }
+
+        void clear() {
+            size = 0;
+        }
+
+        void writeByte(int value) {
+            ensure(1);
+            bytes[size++] = (byte) value;
+        }
+
+        void writeVarLong(long value) {
+            ensure(10);
+            while ((value & ~0x7FL) != 0) {
+                bytes[size++] = (byte) ((value & 0x7F) | 0x80);
+                value >>>= 7;
+            }
+            bytes[size++] = (byte) value;
+        }
+
+        void writeString(byte[] value) {
+            writeVarLong(value.length);
+            write(value, 0, value.length);
+        }
+
+        void write(byte[] value, int offset, int length) {
+            ensure(length);
+            System.arraycopy(value, offset, bytes, size, length);
+            size += length;
+        }
+
+        private void ensure(int extra) {
+            if (size + extra > bytes.length) {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, size + extra));
+            }
+        }
+    }
+}
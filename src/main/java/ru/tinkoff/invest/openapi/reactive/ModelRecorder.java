@@ -0,0 +1,270 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Запись свечей, "стаканов" и операций в компактный двоичный файл для аудита и последующего
+ * воспроизведения через {@link ModelReplay}.
+ *
+ * Подключается к любому потоку контекста: {@code market.getMarketCandles(...).transform(recorder::record)}.
+ * Объекты других типов проходят без записи. Этап записи только кодирует объект в буфер в памяти и не
+ * блокируется: на диск буфер сбрасывается собственным потоком записи при накоплении порога, завершении
+ * потока, периодически и синхронно при вызове {@link #flush()} и закрытии. Если диск не успевает и буфер
+ * превышает предел, новые объекты не записываются и считаются в {@link #getDroppedRecords()}.
+ *
+ * Ошибка записи не передаётся в поток: результат вызова важнее аудита. После первой ошибки запись
+ * прекращается, чтобы файл остался читаемым до последнего сброса, а пропущенные объекты считаются
+ * в {@link #getDroppedRecords()}.
+ */
+public class ModelRecorder implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ModelRecorder.class);
+
+    private static final int FLUSH_THRESHOLD = 1 << 16;
+    private static final int MAX_BUFFERED = 1 << 26;
+    private static final Duration DEFAULT_FLUSH_PERIOD = Duration.ofSeconds(1);
+
+    private final FileChannel channel;
+    private final ModelCodec.Writer writer = new ModelCodec.Writer();
+    private final Scheduler io;
+    private final Disposable periodicFlush;
+    private final Object ioLock = new Object();
+    private final AtomicBoolean drainScheduled = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile boolean failed;
+    private volatile IOException ioFailure;
+
+    /**
+     * Создание нового файла записи со сбросом буфера раз в секунду. Существующий файл не перезаписывается.
+     *
+     * @param file Путь к файлу.
+     */
+    public ModelRecorder(@NotNull Path file) throws IOException {
+        this(file, DEFAULT_FLUSH_PERIOD);
+    }
+
+    /**
+     * Создание нового файла записи. Существующий файл не перезаписывается.
+     *
+     * @param file Путь к файлу.
+     * @param flushPeriod Период сброса буфера на диск.
+     */
+    public ModelRecorder(@NotNull Path file, @NotNull Duration flushPeriod) throws IOException {
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(ModelCodec.HEADER_SIZE);
+        header.putInt(ModelCodec.MAGIC).putInt(ModelCodec.VERSION).flip();
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+        this.io = Schedulers.newSingle("model-recorder", true);
+        this.periodicFlush = io.schedulePeriodically(this::drainQuietly,
+                flushPeriod.toNanos(), flushPeriod.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Этап записи для потока.
+     *
+     * @param source Поток контекста.
+     *
+     * @return Тот же поток, элементы которого записываются по мере прохождения.
+     */
+    @NotNull
+    public <T> Flux<T> record(@NotNull Flux<T> source) {
+        return source.doOnNext(this::offer).doFinally(signal -> drainAsync());
+    }
+
+    /**
+     * Этап записи для одиночного результата.
+     *
+     * @param source Результат контекста.
+     *
+     * @return Тот же результат, записываемый при получении.
+     */
+    @NotNull
+    public <T> Mono<T> record(@NotNull Mono<T> source) {
+        return source.doOnNext(this::offer).doFinally(signal -> drainAsync());
+    }
+
+    /**
+     * Запись одного объекта с текущим временем получения. Объект только кодируется в буфер; в отличие
+     * от этапов {@code record}, ошибка кодирования передаётся вызывающему, а ошибка записи на диск
+     * сообщается вызовами {@link #flush()} и {@link #close()}.
+     *
+     * @param value Свеча, "стакан" или операция; объекты других типов пропускаются.
+     */
+    public void write(@NotNull Object value) {
+        if (!ModelCodec.supports(value)) {
+            logger.trace("Not recording {}", value.getClass().getName());
+            return;
+        }
+        boolean drain;
+        synchronized (this) {
+            if (failed || writer.size() >= MAX_BUFFERED) {
+                dropped.incrementAndGet();
+                return;
+            }
+            writer.write(value, System.currentTimeMillis());
+            drain = writer.size() >= FLUSH_THRESHOLD;
+        }
+        if (drain) {
+            drainAsync();
+        }
+    }
+
+    /**
+     * @return Количество объектов, не записанных из-за ошибки записи или переполнения буфера.
+     */
+    public long getDroppedRecords() {
+        return dropped.get();
+    }
+
+    /**
+     * Запись из этапа потока: ошибки записываются в журнал и не прерывают поток.
+     */
+    private void offer(Object value) {
+        try {
+            write(value);
+        } catch (RuntimeException e) {
+            fail(e);
+            dropped.incrementAndGet();
+        }
+    }
+
+    /**
+     * Сброс буфера в потоке записи; повторные запросы до начала сброса объединяются.
+     */
+    private void drainAsync() {
+        if (drainScheduled.compareAndSet(false, true)) {
+            try {
+                io.schedule(() -> {
+                    drainScheduled.set(false);
+                    drainQuietly();
+                });
+            } catch (RejectedExecutionException e) {
+                // Запись уже закрыта, буфер сброшен при закрытии.
+                drainScheduled.set(false);
+            }
+        }
+    }
+
+    private void drainQuietly() {
+        if (ioFailure != null) {
+            return;
+        }
+        try {
+            drain();
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(Exception e) {
+        synchronized (this) {
+            if (!failed) {
+                failed = true;
+                logger.error("Model recording failed, further records are dropped", e);
+            }
+            if (e instanceof IOException) {
+                writer.clear();
+                return;
+            }
+        }
+        // Ошибка кодирования: уже закодированные записи целы и сбрасываются.
+        drainAsync();
+    }
+
+    /**
+     * Сброс накопленных записей на диск.
+     */
+    public void flush() throws IOException {
+        synchronized (ioLock) {
+            drain();
+            channel.force(false);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            failed = true;
+        }
+        synchronized (ioLock) {
+            if (!channel.isOpen()) {
+                return;
+            }
+            periodicFlush.dispose();
+            io.dispose();
+            try {
+                drain();
+            } finally {
+                channel.close();
+            }
+        }
+    }
+
+    /**
+     * Запись буфера на диск. Буфер копируется под блокировкой записи объектов, а сама запись выполняется
+     * вне её, поэтому этапы потоков не ждут диск; порядок частей сохраняет блокировка ввода-вывода.
+     */
+    private void drain() throws IOException {
+        synchronized (ioLock) {
+            if (ioFailure != null) {
+                throw new IOException("Model recording failed earlier", ioFailure);
+            }
+            byte[] chunk;
+            synchronized (this) {
+                if (writer.size() == 0) {
+                    return;
+                }
+                chunk = Arrays.copyOf(writer.bytes(), writer.size());
+                writer.clear();
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(chunk);
+            try {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+            } catch (IOException e) {
+                ioFailure = e;
+                throw e;
+            }
+        }
+    }
+}
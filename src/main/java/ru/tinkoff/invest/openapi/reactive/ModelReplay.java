@@ -0,0 +1,140 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Воспроизведение файла, записанного {@link ModelRecorder}.
+ *
+ * Файл отображается в память целиком и декодируется прямо из отображения, без промежуточного чтения
+ * в буферы. Каждая подписка читает файл заново. Поддерживаются файлы размером до 2 ГБ.
+ */
+public final class ModelReplay {
+
+    private ModelReplay() {
+    }
+
+    /**
+     * Воспроизведение с максимальной скоростью.
+     *
+     * @param file Путь к файлу.
+     *
+     * @return Свечи, "стаканы" и операции в порядке записи.
+     */
+    @NotNull
+    public static Flux<Object> replay(@NotNull Path file) {
+        return Mono.fromCallable(() -> open(file)).flatMapMany(reader -> Flux.generate(sink -> {
+            Object value = reader.next();
+            if (value == null) {
+                sink.complete();
+            } else {
+                sink.next(value);
+            }
+        }));
+    }
+
+    /**
+     * Воспроизведение с исходными интервалами между записями, ускоренными в заданное число раз.
+     *
+     * @param file  Путь к файлу.
+     * @param speed Ускорение: 1 — исходная скорость, 10 — в десять раз быстрее.
+     * @param timer Планировщик ожидания.
+     *
+     * @return Свечи, "стаканы" и операции в порядке записи.
+     */
+    @NotNull
+    public static Flux<Object> replay(@NotNull Path file, double speed, @NotNull Scheduler timer) {
+        if (speed <= 0) {
+            throw new IllegalArgumentException("speed must be positive: " + speed);
+        }
+        return Mono.fromCallable(() -> open(file)).flatMapMany(reader -> {
+            long[] origin = {-1, 0};
+            return Flux.<Timed>generate(sink -> {
+                Object value = reader.next();
+                if (value == null) {
+                    sink.complete();
+                } else {
+                    sink.next(new Timed(value, reader.recordTime()));
+                }
+            }).concatMap(timed -> {
+                long now = timer.now(TimeUnit.MILLISECONDS);
+                if (origin[0] < 0) {
+                    origin[0] = timed.recordTime;
+                    origin[1] = now;
+                }
+                long due = origin[1] + (long) ((timed.recordTime - origin[0]) / speed);
+                return due <= now
+                        ? Mono.just(timed.value)
+                        : Mono.delay(Duration.ofMillis(due - now), timer).thenReturn(timed.value);
+            }, 1);
+        });
+    }
+
+    /**
+     * Воспроизведение с исходными интервалами между записями.
+     *
+     * @param file  Путь к файлу.
+     * @param speed Ускорение: 1 — исходная скорость.
+     *
+     * @return Свечи, "стаканы" и операции в порядке записи.
+     */
+    @NotNull
+    public static Flux<Object> replay(@NotNull Path file, double speed) {
+        return replay(file, speed, Schedulers.parallel());
+    }
+
+    private static ModelCodec.Reader open(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            // Отображение остаётся действительным после закрытия канала.
+            MappedByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            data.order(ByteOrder.BIG_ENDIAN);
+            if (data.limit() < ModelCodec.HEADER_SIZE || data.getInt(0) != ModelCodec.MAGIC) {
+                throw new IOException("Not a model recording: " + file);
+            }
+            if (data.getInt(4) != ModelCodec.VERSION) {
+                throw new IOException("Unsupported model recording version " + data.getInt(4) + ": " + file);
+            }
+            data.position(ModelCodec.HEADER_SIZE);
+            return new ModelCodec.Reader(data);
+        }
+    }
+
+    private static final class Timed {
+
+        private final Object value;
+        private final long recordTime;
+
+        private Timed(Object value, long recordTime) {
+            this.value = value;
+            this.recordTime = recordTime;
+        }
+    }
+}
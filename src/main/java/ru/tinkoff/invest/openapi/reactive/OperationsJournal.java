@@ -0,0 +1,365 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jdk8.Jdk8Module;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import ru.tinkoff.invest.openapi.model.rest.Operation;
+import ru.tinkoff.invest.openapi.model.rest.OperationStatus;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+/**
+ * Локальный журнал операций одного брокерского счёта.
+ *
+ * Операции дописываются в конец файла журнала по одной JSON-записи на строку. Рядом хранится индекс
+ * с моментом, смещением, идентификатором и FIGI каждой записи, поэтому при открытии журнал не разбирается
+ * целиком, а выборки по времени и инструменту читают с диска только подходящие записи. Повторно
+ * полученная операция с тем же идентификатором записывается только если она изменилась, при этом
+ * действующей считается последняя версия.
+ */
+public class OperationsJournal implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(OperationsJournal.class);
+
+    private static final ObjectMapper mapper = new ObjectMapper()
+            .registerModule(new JavaTimeModule())
+            .registerModule(new Jdk8Module())
+            .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+            .disable(DeserializationFeature.ADJUST_DATES_TO_CONTEXT_TIME_ZONE)
+            .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private static final Comparator<Entry> ORDER = Comparator.<Entry>comparingLong(e -> e.time).thenComparingLong(e -> e.offset);
+
+    private final FileChannel journal;
+    private final RandomAccessFile index;
+    private final Map<String, Entry> byId = new HashMap<>();
+    private final NavigableSet<Entry> byTime = new TreeSet<>(ORDER);
+    private final Map<String, NavigableSet<Entry>> byFigi = new HashMap<>();
+
+    /**
+     * Открытие журнала; при отсутствии файлы создаются.
+     *
+     * Если журнал содержит записи, которых нет в индексе (например, после аварийного завершения),
+     * они индексируются заново, а оборванная последняя строка отбрасывается. Если индекс не соответствует
+     * журналу, он строится заново по всему журналу. Строки, которые не удаётся разобрать, пропускаются
+     * с предупреждением и в индекс не попадают.
+     *
+     * @param directory Каталог журнала.
+     */
+    public OperationsJournal(@NotNull Path directory) throws IOException {
+        Files.createDirectories(directory);
+        this.journal = FileChannel.open(directory.resolve("operations.jsonl"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        this.index = new RandomAccessFile(directory.resolve("operations.idx").toFile(), "rw");
+        try {
+            Entry last = loadIndex();
+            long indexed = last == null ? 0 : last.offset + last.length + 1;
+            if (indexed > journal.size() || last != null && !matchesJournal(last)) {
+                logger.warn("Operations index does not match the journal, rebuilding it");
+                byId.clear();
+                byTime.clear();
+                byFigi.clear();
+                index.setLength(0);
+                indexed = 0;
+            }
+            if (indexed != journal.size()) {
+                recover(indexed);
+            }
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Запись новых и изменившихся операций.
+     *
+     * @param operations Операции в любом порядке.
+     *
+     * @return Количество записанных операций.
+     */
+    public synchronized int append(@NotNull Collection<Operation> operations) throws IOException {
+        int written = 0;
+        for (Operation operation : operations) {
+            byte[] json = mapper.writeValueAsBytes(operation);
+            int hash = Arrays.hashCode(json);
+            Entry existing = byId.get(operation.getId());
+            if (existing != null && existing.hash == hash && existing.length == json.length) {
+                continue;
+            }
+            long offset = journal.size();
+            ByteBuffer line = ByteBuffer.allocate(json.length + 1).put(json).put((byte) '\n').flip();
+            while (line.hasRemaining()) {
+                journal.write(line, offset + line.position());
+            }
+            add(new Entry(operation.getDate().toInstant().toEpochMilli(), offset, json.length, hash,
+                    operation.getId(), operation.getFigi(), operation.getStatus() == OperationStatus.PROGRESS), true);
+            written++;
+        }
+        if (written > 0) {
+            journal.force(false);
+            index.getFD().sync();
+        }
+        return written;
+    }
+
+    /**
+     * Выборка последних версий операций за отрезок [from, to) в порядке времени. Записи, повреждённые
+     * после индексации, пропускаются с предупреждением.
+     *
+     * @param from Начало отрезка.
+     * @param to   Конец отрезка.
+     * @param figi Идентификатор инструмента или null для всех операций.
+     *
+     * @return Операции.
+     */
+    @NotNull
+    public synchronized List<Operation> read(@NotNull Instant from, @NotNull Instant to, @Nullable String figi) throws IOException {
+        NavigableSet<Entry> source = figi == null ? byTime : byFigi.getOrDefault(figi, Collections.emptyNavigableSet());
+        NavigableSet<Entry> range = source.subSet(bound(from.toEpochMilli()), true, bound(to.toEpochMilli()), false);
+        List<Operation> operations = new ArrayList<>(range.size());
+        for (Entry entry : range) {
+            ByteBuffer buffer = ByteBuffer.allocate(entry.length);
+            while (buffer.hasRemaining()) {
+                if (journal.read(buffer, entry.offset + buffer.position()) < 0) {
+                    throw new EOFException("Operations journal is shorter than its index");
+                }
+            }
+            Operation operation = parse(buffer.array());
+            if (operation == null) {
+                logger.warn("Operations journal record {} at offset {} is corrupt, skipping it", entry.id, entry.offset);
+            } else {
+                operations.add(operation);
+            }
+        }
+        return operations;
+    }
+
+    /**
+     * Момент, начиная с которого нужно запрашивать операции при следующей синхронизации:
+     * самая поздняя сохранённая операция или самая ранняя незавершённая, если такие есть.
+     *
+     * @return Момент или null, если журнал пуст.
+     */
+    @Nullable
+    public synchronized Instant getWatermark() {
+        if (byTime.isEmpty()) {
+            return null;
+        }
+        long watermark = byTime.last().time;
+        for (Entry entry : byTime) {
+            if (entry.time >= watermark) {
+                break;
+            }
+            if (entry.pending) {
+                watermark = entry.time;
+                break;
+            }
+        }
+        return Instant.ofEpochMilli(watermark);
+    }
+
+    /**
+     * @return Количество операций в журнале.
+     */
+    public synchronized int size() {
+        return byId.size();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            journal.close();
+        } finally {
+            index.close();
+        }
+    }
+
+    /**
+     * Загрузка индекса в память.
+     *
+     * @return Последняя по смещению проиндексированная запись или null, если индекс пуст.
+     */
+    private Entry loadIndex() throws IOException {
+        Entry last = null;
+        long valid = 0;
+        index.seek(0);
+        try {
+            while (index.getFilePointer() < index.length()) {
+                Entry entry = new Entry(index.readLong(), index.readLong(), index.readInt(), index.readInt(),
+                        index.readUTF(), nullIfEmpty(index.readUTF()), index.readBoolean());
+                add(entry, false);
+                if (last == null || entry.offset > last.offset) {
+                    last = entry;
+                }
+                valid = index.getFilePointer();
+            }
+        } catch (EOFException e) {
+            logger.warn("Operations index ends with a partial record, dropping it");
+            index.setLength(valid);
+        }
+        return last;
+    }
+
+    /**
+     * Проверка, что запись индекса указывает на ту же строку журнала: журнал мог быть заменён
+     * или изменён после записи индекса.
+     */
+    private boolean matchesJournal(Entry entry) throws IOException {
+        ByteBuffer line = ByteBuffer.allocate(entry.length + 1);
+        while (line.hasRemaining()) {
+            if (journal.read(line, entry.offset + line.position()) < 0) {
+                return false;
+            }
+        }
+        byte[] bytes = line.array();
+        return bytes[entry.length] == '\n' && Arrays.hashCode(Arrays.copyOf(bytes, entry.length)) == entry.hash;
+    }
+
+    /**
+     * Индексация строк журнала после последней проиндексированной.
+     */
+    private void recover(long indexed) throws IOException {
+        ByteBuffer tail = ByteBuffer.allocate((int) (journal.size() - indexed));
+        while (tail.hasRemaining() && journal.read(tail, indexed + tail.position()) >= 0) {
+            // дочитываем хвост целиком
+        }
+        byte[] bytes = tail.array();
+        int start = 0;
+        int skipped = 0;
+        for (int i = 0; i < bytes.length; i++) {
+            if (bytes[i] != '\n') {
+                continue;
+            }
+            byte[] json = Arrays.copyOfRange(bytes, start, i);
+            Operation operation = parse(json);
+            if (operation == null) {
+                logger.warn("Operations journal line at offset {} is corrupt, skipping it", indexed + start);
+                skipped++;
+            } else {
+                add(new Entry(operation.getDate().toInstant().toEpochMilli(), indexed + start, json.length,
+                        Arrays.hashCode(json), operation.getId(), operation.getFigi(),
+                        operation.getStatus() == OperationStatus.PROGRESS), true);
+            }
+            start = i + 1;
+        }
+        if (start < bytes.length) {
+            logger.warn("Operations journal ends with a partial record, dropping it");
+            journal.truncate(indexed + start);
+        }
+        logger.info("Recovered {} bytes of operations journal, skipped {} corrupt lines", start, skipped);
+    }
+
+    /**
+     * Разбор одной записи журнала.
+     *
+     * @return Операция или null, если запись повреждена или в ней нет идентификатора или момента.
+     */
+    @Nullable
+    private static Operation parse(byte[] json) {
+        try {
+            Operation operation = mapper.readValue(json, Operation.class);
+            return operation == null || operation.getId() == null || operation.getDate() == null ? null : operation;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void add(Entry entry, boolean persist) throws IOException {
+        if (persist) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeLong(entry.time);
+            out.writeLong(entry.offset);
+            out.writeInt(entry.length);
+            out.writeInt(entry.hash);
+            out.writeUTF(entry.id);
+            out.writeUTF(entry.figi == null ? "" : entry.figi);
+            out.writeBoolean(entry.pending);
+            index.seek(index.length());
+            index.write(bytes.toByteArray());
+        }
+        Entry previous = byId.put(entry.id, entry);
+        if (previous != null) {
+            byTime.remove(previous);
+            if (previous.figi != null) {
+                byFigi.get(previous.figi).remove(previous);
+            }
+        }
+        byTime.add(entry);
+        if (entry.figi != null) {
+            byFigi.computeIfAbsent(entry.figi, key -> new TreeSet<>(ORDER)).add(entry);
+        }
+    }
+
+    private static Entry bound(long time) {
+        return new Entry(time, Long.MIN_VALUE, 0, 0, "", null, false);
+    }
+
+    private static String nullIfEmpty(String value) {
+        return value.isEmpty() ? null : value;
+    }
+
+    private static final class Entry {
+        final long time;
+        final long offset;
+        final int length;
+        final int hash;
+        final String id;
+        final String figi;
+        final boolean pending;
+
+        Entry(long time, long offset, int length, int hash, String id, String figi, boolean pending) {
+            this.time = time;
+            this.offset = offset;
+            this.length = length;
+            this.hash = hash;
+            this.id = id;
+            this.figi = figi;
+            this.pending = pending;
+        }
+    }
+}
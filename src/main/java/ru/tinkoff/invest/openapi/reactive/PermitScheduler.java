@@ -0,0 +1,418 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.MonoSink;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Неблокирующий планировщик разрешений по алгоритму "token bucket" (GCRA).
+ *
+ * Ожидающие подписчики разделены на очереди по {@link Priority}: свободное разрешение получает первый в
+ * очереди с наивысшим приоритетом, внутри очереди соблюдается порядок подписки. Подписчик, прождавший
+ * дольше порога голодания, обслуживается вне очереди независимо от приоритета. Вместо периодического опроса
+ * вычисляется точный момент освобождения следующего разрешения, и на это время ставится
+ * единственный таймер Reactor.
+ */
+public class PermitScheduler {
+
+    private static final Logger logger = LoggerFactory.getLogger(PermitScheduler.class);
+
+    private static final long ONE_SECOND_NANOS = TimeUnit.SECONDS.toNanos(1);
+    private static final Duration DEFAULT_STARVATION_THRESHOLD = Duration.ofSeconds(5);
+    private static final Priority[] PRIORITIES = Priority.values();
+
+    private final Scheduler timer;
+    private long intervalNanos;
+    private long burstToleranceNanos;
+    private final long starvationThresholdNanos;
+
+    private final Lane[] lanes = new Lane[PRIORITIES.length];
+    private long theoreticalArrivalNanos;
+    private Disposable drainTimer;
+    private long drainGeneration;
+
+    public PermitScheduler(double permitsPerSecond) {
+        this(permitsPerSecond, Schedulers.parallel());
+    }
+
+    public PermitScheduler(double permitsPerSecond, @NotNull Scheduler timer) {
+        this(permitsPerSecond, timer, DEFAULT_STARVATION_THRESHOLD);
+    }
+
+    public PermitScheduler(double permitsPerSecond, @NotNull Scheduler timer, @NotNull Duration starvationThreshold) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        this.timer = timer;
+        applyRate(permitsPerSecond);
+        this.starvationThresholdNanos = starvationThreshold.toNanos();
+        this.theoreticalArrivalNanos = timer.now(TimeUnit.NANOSECONDS);
+        for (Priority priority : PRIORITIES) {
+            lanes[priority.ordinal()] = new Lane();
+        }
+    }
+
+    /**
+     * Получение разрешения на выполнение одного запроса с обычным приоритетом.
+     *
+     * @return Завершается, как только разрешение выдано. Отмена подписки снимает подписчика с очереди.
+     */
+    @NotNull
+    public Mono<Void> acquire() {
+        return acquire(Priority.NORMAL);
+    }
+
+    /**
+     * Получение разрешения на выполнение одного запроса.
+     *
+     * @param priority Приоритет запроса.
+     *
+     * @return Завершается, как только разрешение выдано. Отмена подписки снимает подписчика с очереди.
+     */
+    @NotNull
+    public Mono<Void> acquire(@NotNull Priority priority) {
+        return Mono.create(sink -> enqueue(new Waiter(sink, priority), null));
+    }
+
+    /**
+     * Получение разрешения с ограничением времени ожидания.
+     *
+     * Если по текущей очереди разрешение заведомо не будет выдано вовремя, запрос отклоняется сразу.
+     *
+     * @param priority Приоритет запроса.
+     * @param maxWait  Максимальное время ожидания.
+     *
+     * @return Завершается, как только разрешение выдано, или {@link DeadlineExceededException} по истечении
+     * времени ожидания. Отмена подписки снимает подписчика с очереди.
+     */
+    @NotNull
+    public Mono<Void> acquire(@NotNull Priority priority, @NotNull Duration maxWait) {
+        return Mono.create(sink -> enqueue(new Waiter(sink, priority), maxWait));
+    }
+
+    private void enqueue(Waiter waiter, Duration maxWait) {
+        waiter.sink.onCancel(() -> cancel(waiter));
+        long rejectedEstimate = -1;
+        synchronized (this) {
+            long now = timer.now(TimeUnit.NANOSECONDS);
+            if (maxWait != null) {
+                long estimate = estimateWaitNanos(waiter.priority, now);
+                if (estimate > maxWait.toNanos()) {
+                    waiter.state = Waiter.DONE;
+                    rejectedEstimate = estimate;
+                }
+            }
+            if (rejectedEstimate < 0) {
+                if (maxWait != null) {
+                    waiter.expiry = timer.schedule(() -> expire(waiter), maxWait.toNanos(), TimeUnit.NANOSECONDS);
+                }
+                waiter.enqueuedAt = now;
+                lanes[waiter.priority.ordinal()].waiters.addLast(waiter);
+            }
+        }
+        if (rejectedEstimate >= 0) {
+            waiter.sink.error(new DeadlineExceededException("Permit would be granted in " + rejectedEstimate
+                    + " ns, deadline is in " + maxWait.toNanos() + " ns"));
+            return;
+        }
+        drain();
+    }
+
+    private long estimateWaitNanos(Priority priority, long now) {
+        int ahead = 0;
+        for (int i = 0; i <= priority.ordinal(); i++) {
+            ahead += lanes[i].waiters.size();
+        }
+        long nextPermit = Math.max(0, theoreticalArrivalNanos - burstToleranceNanos - now);
+        return nextPermit + ahead * intervalNanos;
+    }
+
+    private void expire(Waiter waiter) {
+        synchronized (this) {
+            if (waiter.state != Waiter.WAITING) {
+                return;
+            }
+            waiter.state = Waiter.DONE;
+            lanes[waiter.priority.ordinal()].waiters.remove(waiter);
+        }
+        waiter.sink.error(new DeadlineExceededException("Permit was not granted before the deadline"));
+    }
+
+    /**
+     * Текущее ограничение частоты.
+     *
+     * @return Количество разрешений в секунду.
+     */
+    public synchronized double getRate() {
+        return (double) ONE_SECOND_NANOS / Math.max(1, intervalNanos);
+    }
+
+    /**
+     * Изменение ограничения частоты. Ожидающие подписчики обслуживаются уже с новой частотой: таймер,
+     * поставленный по старой частоте, отменяется и ставится заново.
+     *
+     * @param permitsPerSecond Количество разрешений в секунду.
+     */
+    public void setRate(double permitsPerSecond) {
+        if (!(permitsPerSecond > 0)) {
+            throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+        }
+        Disposable pending;
+        synchronized (this) {
+            applyRate(permitsPerSecond);
+            pending = drainTimer;
+            drainTimer = null;
+            drainGeneration++;
+        }
+        if (pending != null) {
+            pending.dispose();
+        }
+        drain();
+    }
+
+    /**
+     * Количество подписчиков, ожидающих разрешения.
+     *
+     * @return Длина очереди по всем приоритетам.
+     */
+    public synchronized int getQueueLength() {
+        int length = 0;
+        for (Lane lane : lanes) {
+            length += lane.waiters.size();
+        }
+        return length;
+    }
+
+    /**
+     * Время до освобождения следующего разрешения без учёта очереди.
+     *
+     * @return Задержка в наносекундах, ноль если разрешение доступно сейчас.
+     */
+    public synchronized long getNanosUntilNextPermit() {
+        return Math.max(0, theoreticalArrivalNanos - burstToleranceNanos - timer.now(TimeUnit.NANOSECONDS));
+    }
+
+    /**
+     * Статистика очереди заданного приоритета.
+     *
+     * @param priority Приоритет.
+     *
+     * @return Снимок статистики.
+     */
+    @NotNull
+    public synchronized LaneStatistics getStatistics(@NotNull Priority priority) {
+        Lane lane = lanes[priority.ordinal()];
+        return new LaneStatistics(priority, lane.waiters.size(), lane.granted, lane.totalWaitNanos, lane.maxWaitNanos);
+    }
+
+    private void applyRate(double permitsPerSecond) {
+        intervalNanos = (long) (ONE_SECOND_NANOS / permitsPerSecond);
+        // Как и RateLimiter.create() из Guava, допускаем накопление разрешений за секунду простоя.
+        burstToleranceNanos = Math.max(0, ONE_SECOND_NANOS - intervalNanos);
+    }
+
+    private void cancel(Waiter waiter) {
+        boolean refunded = false;
+        synchronized (this) {
+            if (waiter.state == Waiter.WAITING) {
+                lanes[waiter.priority.ordinal()].waiters.remove(waiter);
+            } else if (waiter.state == Waiter.GRANTED) {
+                // Разрешение выдано, но ещё не передано подписчику: возвращаем его следующему в очереди.
+                theoreticalArrivalNanos -= intervalNanos;
+                refunded = true;
+            }
+            waiter.state = Waiter.DONE;
+        }
+        if (waiter.expiry != null) {
+            waiter.expiry.dispose();
+        }
+        if (refunded) {
+            drain();
+        }
+    }
+
+    private boolean hasWaiters() {
+        for (Lane lane : lanes) {
+            if (!lane.waiters.isEmpty()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Waiter next(long now) {
+        // Сначала голодающие, начиная с самого низкого приоритета, затем первый по приоритету.
+        for (int i = lanes.length - 1; i > 0; i--) {
+            Waiter head = lanes[i].waiters.peekFirst();
+            if (head != null && now - head.enqueuedAt >= starvationThresholdNanos) {
+                return lanes[i].waiters.pollFirst();
+            }
+        }
+        for (Lane lane : lanes) {
+            if (!lane.waiters.isEmpty()) {
+                return lane.waiters.pollFirst();
+            }
+        }
+        return null;
+    }
+
+    private void drain() {
+        List<Waiter> granted = null;
+        synchronized (this) {
+            long now = timer.now(TimeUnit.NANOSECONDS);
+            while (hasWaiters() && theoreticalArrivalNanos - burstToleranceNanos <= now) {
+                theoreticalArrivalNanos = Math.max(theoreticalArrivalNanos, now) + intervalNanos;
+                Waiter waiter = next(now);
+                Lane lane = lanes[waiter.priority.ordinal()];
+                long waited = now - waiter.enqueuedAt;
+                lane.granted++;
+                lane.totalWaitNanos += waited;
+                lane.maxWaitNanos = Math.max(lane.maxWaitNanos, waited);
+                if (granted == null) {
+                    granted = new ArrayList<>();
+                }
+                waiter.state = Waiter.GRANTED;
+                granted.add(waiter);
+            }
+            if (hasWaiters() && drainTimer == null) {
+                long delay = theoreticalArrivalNanos - burstToleranceNanos - now;
+                logger.debug("Not acquired. Next permit in {} ns, {} waiting", delay, getQueueLength());
+                long generation = ++drainGeneration;
+                try {
+                    drainTimer = timer.schedule(() -> onTimer(generation), delay, TimeUnit.NANOSECONDS);
+                } catch (RejectedExecutionException e) {
+                    logger.warn("Permit timer rejected the drain task", e);
+                }
+            }
+        }
+        if (granted != null) {
+            for (Waiter waiter : granted) {
+                if (waiter.expiry != null) {
+                    waiter.expiry.dispose();
+                }
+                synchronized (this) {
+                    if (waiter.state != Waiter.GRANTED) {
+                        continue;
+                    }
+                    waiter.state = Waiter.DONE;
+                }
+                logger.debug("Acquired successfully. Thread {}", Thread.currentThread().getName());
+                waiter.sink.success();
+            }
+        }
+    }
+
+    private void onTimer(long generation) {
+        synchronized (this) {
+            if (generation != drainGeneration) {
+                // Таймер отменён изменением частоты, но уже успел сработать.
+                return;
+            }
+            drainTimer = null;
+        }
+        drain();
+    }
+
+    /**
+     * Статистика очереди одного приоритета.
+     */
+    public static final class LaneStatistics {
+
+        private final Priority priority;
+        private final int queueLength;
+        private final long granted;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+
+        private LaneStatistics(Priority priority, int queueLength, long granted, long totalWaitNanos, long maxWaitNanos) {
+            this.priority = priority;
+            this.queueLength = queueLength;
+            this.granted = granted;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+        }
+
+        @NotNull
+        public Priority getPriority() {
+            return priority;
+        }
+
+        public int getQueueLength() {
+            return queueLength;
+        }
+
+        public long getGranted() {
+            return granted;
+        }
+
+        public long getTotalWaitNanos() {
+            return totalWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        @Override
+        public String toString() {
+            return "LaneStatistics{" + priority + ", queued=" + queueLength + ", granted=" + granted
+                    + ", avgWaitNanos=" + (granted == 0 ? 0 : totalWaitNanos / granted)
+                    + ", maxWaitNanos=" + maxWaitNanos + '}';
+        }
+    }
+
+    private static final class Lane {
+
+        private final Deque<Waiter> waiters = new ArrayDeque<>();
+        private long granted;
+        private long totalWaitNanos;
+        private long maxWaitNanos;
+    }
+
+    private static final class Waiter {
+
+        private static final int WAITING = 0;
+        private static final int GRANTED = 1;
+        private static final int DONE = 2;
+
+        private final MonoSink<Void> sink;
+        private final Priority priority;
+        private long enqueuedAt;
+        private int state = WAITING;
+        private Disposable expiry;
+
+        private Waiter(MonoSink<Void> sink, Priority priority) {
+            this.sink = sink;
+            this.priority = priority;
+        }
+    }
+}
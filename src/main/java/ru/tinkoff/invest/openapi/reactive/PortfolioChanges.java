@@ -0,0 +1,301 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import ru.tinkoff.invest.openapi.model.rest.Currency;
+import ru.tinkoff.invest.openapi.model.rest.CurrencyPosition;
+import ru.tinkoff.invest.openapi.model.rest.MoneyAmount;
+import ru.tinkoff.invest.openapi.model.rest.PortfolioPosition;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Поток изменений портфеля вместо полных снимков.
+ *
+ * Портфель и валютные остатки периодически запрашиваются и сравниваются с предыдущим состоянием по FIGI
+ * и валюте; наружу выдаются только появившиеся, исчезнувшие и изменившиеся позиции. Для каждого ответа
+ * сначала считается отпечаток, и ответ, совпадающий с предыдущим, не разбирается. Интервал опроса
+ * удваивается до наибольшего, пока портфель не меняется, и возвращается к наименьшему при изменении.
+ *
+ * Изменением считается изменение количества, заблокированного количества, лотов или средней цены.
+ * Ожидаемая доходность меняется вместе с рыночной ценой и не учитывается; для переоценки следует
+ * использовать {@link PortfolioSnapshotService}.
+ */
+public class PortfolioChanges {
+
+    private static final Logger logger = LoggerFactory.getLogger(PortfolioChanges.class);
+
+    /**
+     * Вид изменения.
+     */
+    public enum ChangeType {
+        ADDED,
+        REMOVED,
+        CHANGED
+    }
+
+    /**
+     * Изменение позиции по инструменту или валютного остатка.
+     */
+    public static final class Change {
+        private final ChangeType type;
+        private final PortfolioPosition previousPosition;
+        private final PortfolioPosition position;
+        private final CurrencyPosition previousCurrency;
+        private final CurrencyPosition currency;
+
+        private Change(ChangeType type,
+                       PortfolioPosition previousPosition,
+                       PortfolioPosition position,
+                       CurrencyPosition previousCurrency,
+                       CurrencyPosition currency) {
+            this.type = type;
+            this.previousPosition = previousPosition;
+            this.position = position;
+            this.previousCurrency = previousCurrency;
+            this.currency = currency;
+        }
+
+        @NotNull
+        public ChangeType getType() {
+            return type;
+        }
+
+        /**
+         * @return true, если изменился валютный остаток, а не позиция по инструменту.
+         */
+        public boolean isCurrency() {
+            return currency != null || previousCurrency != null;
+        }
+
+        /**
+         * @return Прежнее состояние позиции или null, если позиция появилась или изменение валютное.
+         */
+        @Nullable
+        public PortfolioPosition getPreviousPosition() {
+            return previousPosition;
+        }
+
+        /**
+         * @return Новое состояние позиции или null, если позиция исчезла или изменение валютное.
+         */
+        @Nullable
+        public PortfolioPosition getPosition() {
+            return position;
+        }
+
+        @Nullable
+        public CurrencyPosition getPreviousCurrency() {
+            return previousCurrency;
+        }
+
+        @Nullable
+        public CurrencyPosition getCurrency() {
+            return currency;
+        }
+    }
+
+    private final ReactivePortfolioContext portfolio;
+    private final Duration minInterval;
+    private final Duration maxInterval;
+    private final Scheduler timer;
+
+    public PortfolioChanges(@NotNull ReactivePortfolioContext portfolio) {
+        this(portfolio, Duration.ofSeconds(2), Duration.ofSeconds(30), Schedulers.parallel());
+    }
+
+    /**
+     * @param portfolio   Контекст портфеля.
+     * @param minInterval Интервал опроса после изменения.
+     * @param maxInterval Наибольший интервал опроса, пока портфель не меняется.
+     * @param timer       Планировщик ожидания между опросами.
+     */
+    public PortfolioChanges(@NotNull ReactivePortfolioContext portfolio,
+                            @NotNull Duration minInterval,
+                            @NotNull Duration maxInterval,
+                            @NotNull Scheduler timer) {
+        this.portfolio = portfolio;
+        this.minInterval = minInterval;
+        this.maxInterval = maxInterval;
+        this.timer = timer;
+    }
+
+    /**
+     * Поток изменений портфеля. Первый опрос выдаёт все позиции и остатки как появившиеся.
+     * Каждая подписка опрашивает портфель независимо; ошибки опроса не завершают поток,
+     * а увеличивают интервал.
+     *
+     * @param brokerAccountId Идентификатор брокерского счёта.
+     *
+     * @return Бесконечный поток изменений.
+     */
+    @NotNull
+    public Flux<Change> getChanges(@Nullable String brokerAccountId) {
+        return Flux.defer(() -> {
+            State state = new State(minInterval);
+            return poll(state, brokerAccountId)
+                    .flatMapIterable(changes -> changes)
+                    .concatWith(Mono.defer(() -> Mono.delay(state.interval, timer)).then(Mono.<Change>empty()))
+                    .repeat();
+        });
+    }
+
+    private Mono<List<Change>> poll(State state, String brokerAccountId) {
+        return Mono.zip(portfolio.getPortfolio(brokerAccountId).collectList(),
+                        portfolio.getPortfolioCurrencies(brokerAccountId).collectList())
+                .map(response -> {
+                    long fingerprint = fingerprint(response.getT1(), response.getT2());
+                    if (state.initialized && fingerprint == state.fingerprint) {
+                        state.backOff(maxInterval);
+                        return List.<Change>of();
+                    }
+                    state.fingerprint = fingerprint;
+                    state.initialized = true;
+                    List<Change> changes = diff(state, response.getT1(), response.getT2());
+                    if (changes.isEmpty()) {
+                        state.backOff(maxInterval);
+                    } else {
+                        state.interval = minInterval;
+                    }
+                    return changes;
+                })
+                .onErrorResume(e -> {
+                    logger.warn("Portfolio poll failed, next attempt in {}", state.interval, e);
+                    state.backOff(maxInterval);
+                    return Mono.just(List.of());
+                });
+    }
+
+    private static List<Change> diff(State state, List<PortfolioPosition> positions, List<CurrencyPosition> currencies) {
+        List<Change> changes = new ArrayList<>();
+        Map<String, PortfolioPosition> nextPositions = new HashMap<>();
+        for (PortfolioPosition position : positions) {
+            nextPositions.put(position.getFigi(), position);
+            PortfolioPosition previous = state.positions.remove(position.getFigi());
+            if (previous == null) {
+                changes.add(new Change(ChangeType.ADDED, null, position, null, null));
+            } else if (!same(previous, position)) {
+                changes.add(new Change(ChangeType.CHANGED, previous, position, null, null));
+            }
+        }
+        for (PortfolioPosition removed : state.positions.values()) {
+            changes.add(new Change(ChangeType.REMOVED, removed, null, null, null));
+        }
+        state.positions = nextPositions;
+
+        Map<Currency, CurrencyPosition> nextCurrencies = new EnumMap<>(Currency.class);
+        for (CurrencyPosition currency : currencies) {
+            nextCurrencies.put(currency.getCurrency(), currency);
+            CurrencyPosition previous = state.currencies.remove(currency.getCurrency());
+            if (previous == null) {
+                changes.add(new Change(ChangeType.ADDED, null, null, null, currency));
+            } else if (!equal(previous.getBalance(), currency.getBalance())
+                    || !equal(previous.getBlocked(), currency.getBlocked())) {
+                changes.add(new Change(ChangeType.CHANGED, null, null, previous, currency));
+            }
+        }
+        for (CurrencyPosition removed : state.currencies.values()) {
+            changes.add(new Change(ChangeType.REMOVED, null, null, removed, null));
+        }
+        state.currencies = nextCurrencies;
+        return changes;
+    }
+
+    private static boolean same(PortfolioPosition a, PortfolioPosition b) {
+        return equal(a.getBalance(), b.getBalance())
+                && equal(a.getBlocked(), b.getBlocked())
+                && Objects.equals(a.getLots(), b.getLots())
+                && equal(amount(a.getAveragePositionPrice()), amount(b.getAveragePositionPrice()));
+    }
+
+    /**
+     * Отпечаток ответа, не зависящий от порядка позиций и от масштаба десятичных чисел.
+     */
+    private static long fingerprint(List<PortfolioPosition> positions, List<CurrencyPosition> currencies) {
+        long hash = positions.size() * 31L + currencies.size();
+        for (PortfolioPosition position : positions) {
+            long item = Objects.hashCode(position.getFigi());
+            item = item * 31 + hash(position.getBalance());
+            item = item * 31 + hash(position.getBlocked());
+            item = item * 31 + Objects.hashCode(position.getLots());
+            item = item * 31 + hash(amount(position.getAveragePositionPrice()));
+            hash += mix(item);
+        }
+        for (CurrencyPosition currency : currencies) {
+            long item = Objects.hashCode(currency.getCurrency());
+            item = item * 31 + hash(currency.getBalance());
+            item = item * 31 + hash(currency.getBlocked());
+            hash += mix(item ^ 0x5DEECE66DL);
+        }
+        return hash;
+    }
+
+    private static long mix(long value) {
+        value ^= value >>> 33;
+        value *= 0xFF51AFD7ED558CCDL;
+        value ^= value >>> 33;
+        value *= 0xC4CEB9FE1A85EC53L;
+        return value ^ (value >>> 33);
+    }
+
+    private static int hash(BigDecimal value) {
+        return value == null || value.signum() == 0 ? 0 : value.stripTrailingZeros().hashCode();
+    }
+
+    private static boolean equal(BigDecimal a, BigDecimal b) {
+        if (a == null || b == null) {
+            return a == b;
+        }
+        return a.compareTo(b) == 0;
+    }
+
+    private static BigDecimal amount(MoneyAmount amount) {
+        return amount == null ? null : amount.getValue();
+    }
+
+    private static final class State {
+        Map<String, PortfolioPosition> positions = new HashMap<>();
+        Map<Currency, CurrencyPosition> currencies = new EnumMap<>(Currency.class);
+        boolean initialized;
+        long fingerprint;
+        Duration interval;
+
+        State(Duration interval) {
+            this.interval = interval;
+        }
+
+        void backOff(Duration max) {
+            Duration doubled = interval.multipliedBy(2);
+            interval = doubled.compareTo(max) > 0 ? max : doubled;
+        }
+    }
+}
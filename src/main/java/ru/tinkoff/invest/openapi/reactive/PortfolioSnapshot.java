@@ -0,0 +1,225 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import ru.tinkoff.invest.openapi.model.rest.Currency;
+import ru.tinkoff.invest.openapi.model.rest.CurrencyPosition;
+import ru.tinkoff.invest.openapi.model.rest.PortfolioPosition;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Согласованный снимок портфеля с оценкой позиций по текущим ценам.
+ *
+ * Снимок неизменяем. Изменение цены одного инструмента порождает новый снимок, в котором пересчитывается
+ * только эта позиция и итог по её валюте; массив ссылок на позиции при этом копируется, поэтому стоимость
+ * обновления линейна по числу позиций, но без пересчёта остальных оценок.
+ *
+ * Валютные позиции портфеля учитываются только через валютные остатки. Цена облигации задаётся в процентах
+ * от номинала, и её оценка пересчитывается через номинал. Позиция с неизвестной валютой не входит в итоги
+ * и считается неоценённой.
+ */
+public final class PortfolioSnapshot {
+
+    private final ValuedPosition[] positions;
+    private final Map<String, Integer> indexByFigi;
+    private final List<CurrencyPosition> currencies;
+    private final Map<Currency, BigDecimal> totals;
+    private final int unpriced;
+    private final Instant timestamp;
+
+    PortfolioSnapshot(ValuedPosition[] positions, List<CurrencyPosition> currencies, Instant timestamp) {
+        this.positions = positions;
+        this.currencies = currencies;
+        this.timestamp = timestamp;
+        this.indexByFigi = new HashMap<>(positions.length * 2);
+        Map<Currency, BigDecimal> sums = new EnumMap<>(Currency.class);
+        int missing = 0;
+        for (int i = 0; i < positions.length; i++) {
+            ValuedPosition position = positions[i];
+            indexByFigi.put(position.getFigi(), i);
+            if (position.value == null) {
+                missing++;
+            } else {
+                sums.merge(position.currency, position.value, BigDecimal::add);
+            }
+        }
+        for (CurrencyPosition currency : currencies) {
+            sums.merge(currency.getCurrency(), currency.getBalance(), BigDecimal::add);
+        }
+        this.totals = Collections.unmodifiableMap(sums);
+        this.unpriced = missing;
+    }
+
+    private PortfolioSnapshot(PortfolioSnapshot previous,
+                              ValuedPosition[] positions,
+                              Map<Currency, BigDecimal> totals,
+                              int unpriced,
+                              Instant timestamp) {
+        this.positions = positions;
+        this.indexByFigi = previous.indexByFigi;
+        this.currencies = previous.currencies;
+        this.totals = totals;
+        this.unpriced = unpriced;
+        this.timestamp = timestamp;
+    }
+
+    /**
+     * Снимок с новой ценой одного инструмента.
+     *
+     * @param figi  Идентификатор инструмента.
+     * @param price Новая цена.
+     *
+     * @return Новый снимок или этот же, если инструмента нет в портфеле, цена не изменилась
+     * или позицию нельзя оценить из-за неизвестных номинала или валюты.
+     */
+    @NotNull
+    public PortfolioSnapshot withPrice(@NotNull String figi, @NotNull BigDecimal price) {
+        Integer index = indexByFigi.get(figi);
+        if (index == null) {
+            return this;
+        }
+        ValuedPosition old = positions[index];
+        if (old.price != null && old.price.compareTo(price) == 0) {
+            return this;
+        }
+        ValuedPosition updated = old.withPrice(price);
+        if (updated.value == null) {
+            // Номинал облигации или валюта неизвестны, оценить позицию нельзя.
+            return this;
+        }
+        ValuedPosition[] copy = positions.clone();
+        copy[index] = updated;
+        Map<Currency, BigDecimal> changed = new EnumMap<>(Currency.class);
+        changed.putAll(totals);
+        BigDecimal delta = old.value == null ? updated.value : updated.value.subtract(old.value);
+        changed.merge(updated.currency, delta, BigDecimal::add);
+        return new PortfolioSnapshot(this, copy, Collections.unmodifiableMap(changed),
+                old.value == null ? unpriced - 1 : unpriced, Instant.now());
+    }
+
+    @NotNull
+    public List<ValuedPosition> getPositions() {
+        return Collections.unmodifiableList(Arrays.asList(positions));
+    }
+
+    @Nullable
+    public ValuedPosition getPosition(@NotNull String figi) {
+        Integer index = indexByFigi.get(figi);
+        return index == null ? null : positions[index];
+    }
+
+    @NotNull
+    public List<CurrencyPosition> getCurrencies() {
+        return currencies;
+    }
+
+    /**
+     * Суммарная оценка портфеля по валютам, включая валютные остатки.
+     *
+     * @return Оценка по каждой валюте.
+     */
+    @NotNull
+    public Map<Currency, BigDecimal> getTotals() {
+        return totals;
+    }
+
+    /**
+     * Количество позиций, для которых не удалось получить цену.
+     *
+     * @return Количество позиций без оценки.
+     */
+    public int getUnpricedCount() {
+        return unpriced;
+    }
+
+    @NotNull
+    public Instant getTimestamp() {
+        return timestamp;
+    }
+
+    /**
+     * Позиция портфеля с оценкой.
+     */
+    public static final class ValuedPosition {
+
+        private final PortfolioPosition position;
+        private final Currency currency;
+        private final BigDecimal price;
+        private final BigDecimal value;
+
+        private final BigDecimal multiplier;
+
+        /**
+         * @param position   Позиция портфеля.
+         * @param currency   Валюта инструмента или null, если она неизвестна.
+         * @param price      Цена или null, если она неизвестна.
+         * @param multiplier Стоимость единицы цены: 1 для акций и фондов, номинал / 100 для облигаций,
+         *                   null, если номинал неизвестен.
+         */
+        ValuedPosition(PortfolioPosition position,
+                       @Nullable Currency currency,
+                       @Nullable BigDecimal price,
+                       @Nullable BigDecimal multiplier) {
+            this.position = position;
+            this.currency = currency;
+            this.multiplier = multiplier;
+            this.price = multiplier == null ? null : price;
+            this.value = this.price == null || currency == null
+                    ? null
+                    : this.price.multiply(multiplier).multiply(position.getBalance());
+        }
+
+        private ValuedPosition withPrice(BigDecimal price) {
+            return new ValuedPosition(position, currency, price, multiplier);
+        }
+
+        @NotNull
+        public String getFigi() {
+            return position.getFigi();
+        }
+
+        @NotNull
+        public PortfolioPosition getPosition() {
+            return position;
+        }
+
+        @Nullable
+        public Currency getCurrency() {
+            return currency;
+        }
+
+        @Nullable
+        public BigDecimal getPrice() {
+            return price;
+        }
+
+        @Nullable
+        public BigDecimal getValue() {
+            return value;
+        }
+    }
+}
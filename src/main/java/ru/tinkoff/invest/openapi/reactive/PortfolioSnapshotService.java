@@ -0,0 +1,258 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import ru.tinkoff.invest.openapi.model.rest.Currency;
+import ru.tinkoff.invest.openapi.model.rest.InstrumentType;
+import ru.tinkoff.invest.openapi.model.rest.MoneyAmount;
+import ru.tinkoff.invest.openapi.model.rest.OrderResponse;
+import ru.tinkoff.invest.openapi.model.rest.Orderbook;
+import ru.tinkoff.invest.openapi.model.rest.PortfolioPosition;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.stream.Collectors;
+
+/**
+ * Получение оценённого снимка портфеля.
+ *
+ * Позиции и валютные остатки запрашиваются параллельно. Цены берутся из локальных "стаканов", если по
+ * инструменту уже есть котировки, остальные запрашиваются через {@link ReactiveMarketContext} с ограниченной
+ * параллельностью в пределах бюджета рыночных данных. Валютные позиции не оцениваются повторно, так как
+ * уже входят в валютные остатки. Номинал облигации берётся из "стакана", полученного через REST, и кэшируется.
+ * Валюта позиции берётся из её средней цены или доходности, а если брокер их не вернул — из справочника
+ * инструментов; позиция, валюту которой узнать не удалось, остаётся неоценённой.
+ */
+public class PortfolioSnapshotService {
+
+    private static final Logger logger = LoggerFactory.getLogger(PortfolioSnapshotService.class);
+
+    private final ReactivePortfolioContext portfolio;
+    private final ReactiveMarketContext market;
+    private final LocalOrderBooks quotes;
+    private final ReactiveStreamingContext streaming;
+    private final InstrumentCatalogue catalogue;
+    private final int priceConcurrency;
+    private final ConcurrentMap<String, BigDecimal> faceValues = new ConcurrentHashMap<>();
+
+    /**
+     * @param portfolio        Контекст портфеля.
+     * @param market           Контекст рыночных данных для цен, которых нет в локальных "стаканах".
+     * @param quotes           Локальные "стаканы"; пополняются ценами, полученными через REST.
+     * @param streaming        Контекст потоков для живой переоценки или null, если не используется.
+     * @param priceConcurrency Количество одновременных запросов цен.
+     */
+    public PortfolioSnapshotService(@NotNull ReactivePortfolioContext portfolio,
+                                    @NotNull ReactiveMarketContext market,
+                                    @NotNull LocalOrderBooks quotes,
+                                    @Nullable ReactiveStreamingContext streaming,
+                                    int priceConcurrency) {
+        this(portfolio, market, quotes, streaming, null, priceConcurrency);
+    }
+
+    /**
+     * @param portfolio        Контекст портфеля.
+     * @param market           Контекст рыночных данных для цен, которых нет в локальных "стаканах".
+     * @param quotes           Локальные "стаканы"; пополняются ценами, полученными через REST.
+     * @param streaming        Контекст потоков для живой переоценки или null, если не используется.
+     * @param catalogue        Справочник для валюты позиций без средней цены или null, если не используется.
+     * @param priceConcurrency Количество одновременных запросов цен.
+     */
+    public PortfolioSnapshotService(@NotNull ReactivePortfolioContext portfolio,
+                                    @NotNull ReactiveMarketContext market,
+                                    @NotNull LocalOrderBooks quotes,
+                                    @Nullable ReactiveStreamingContext streaming,
+                                    @Nullable InstrumentCatalogue catalogue,
+                                    int priceConcurrency) {
+        this.portfolio = portfolio;
+        this.market = market;
+        this.quotes = quotes;
+        this.streaming = streaming;
+        this.catalogue = catalogue;
+        this.priceConcurrency = priceConcurrency;
+    }
+
+    /**
+     * Получение оценённого снимка портфеля.
+     *
+     * @param brokerAccountId Идентификатор брокерского счёта.
+     *
+     * @return Снимок портфеля.
+     */
+    @NotNull
+    public Mono<PortfolioSnapshot> getSnapshot(@Nullable String brokerAccountId) {
+        return Mono.zip(portfolio.getPortfolio(brokerAccountId).collectList(),
+                        portfolio.getPortfolioCurrencies(brokerAccountId).collectList())
+                .flatMap(t -> {
+                    List<PortfolioPosition> positions = t.getT1().stream()
+                            .filter(position -> position.getInstrumentType() != InstrumentType.CURRENCY)
+                            .collect(Collectors.toList());
+                    return Mono.zip(price(positions), currencies(positions)).map(found -> {
+                        Map<String, BigDecimal> prices = found.getT1();
+                        Map<String, Currency> currencies = found.getT2();
+                        PortfolioSnapshot.ValuedPosition[] valued = new PortfolioSnapshot.ValuedPosition[positions.size()];
+                        for (int i = 0; i < valued.length; i++) {
+                            PortfolioPosition position = positions.get(i);
+                            valued[i] = new PortfolioSnapshot.ValuedPosition(position,
+                                    currencies.get(position.getFigi()), prices.get(position.getFigi()),
+                                    multiplier(position));
+                        }
+                        return new PortfolioSnapshot(valued, t.getT2(), Instant.now());
+                    });
+                });
+    }
+
+    /**
+     * Живой поток снимков: первый снимок строится через {@link #getSnapshot}, далее при каждом изменении
+     * цены инструмента из потока "стаканов" пересчитывается только его позиция. Требует контекст потоков.
+     *
+     * @param brokerAccountId Идентификатор брокерского счёта.
+     *
+     * @return Поток снимков.
+     */
+    @NotNull
+    public Flux<PortfolioSnapshot> getLiveSnapshots(@Nullable String brokerAccountId) {
+        if (streaming == null) {
+            return Flux.error(new IllegalStateException("Live snapshots require a ReactiveStreamingContext"));
+        }
+        return getSnapshot(brokerAccountId).flatMapMany(initial -> Flux.fromIterable(initial.getPositions())
+                .flatMap(position -> streaming.getOrderbook(position.getFigi(), 1))
+                .scan(initial, (snapshot, event) -> {
+                    LocalOrderBook book = quotes.get(event.getFigi());
+                    book.update(event);
+                    double mid = book.getMid();
+                    return Double.isNaN(mid) ? snapshot : snapshot.withPrice(event.getFigi(), BigDecimal.valueOf(mid));
+                })
+                .distinctUntilChanged());
+    }
+
+    private Mono<Map<String, BigDecimal>> price(List<PortfolioPosition> positions) {
+        Map<String, BigDecimal> prices = new HashMap<>();
+        return Flux.fromIterable(positions)
+                .filter(position -> {
+                    BigDecimal cached = cachedPrice(position.getFigi());
+                    boolean needsFaceValue = position.getInstrumentType() == InstrumentType.BOND
+                            && !faceValues.containsKey(position.getFigi());
+                    if (cached != null && !needsFaceValue) {
+                        prices.put(position.getFigi(), cached);
+                        return false;
+                    }
+                    return true;
+                })
+                .flatMap(position -> market.getMarketOrderbook(position.getFigi(), 1)
+                        .doOnNext(quotes::update)
+                        .doOnNext(orderbook -> {
+                            if (orderbook.getFaceValue() != null) {
+                                faceValues.put(position.getFigi(), orderbook.getFaceValue());
+                            }
+                        })
+                        .flatMap(orderbook -> Mono.justOrEmpty(restPrice(orderbook)))
+                        .map(price -> Map.entry(position.getFigi(), price))
+                        .onErrorResume(e -> {
+                            logger.warn("Cannot price {}", position.getFigi(), e);
+                            return Mono.empty();
+                        }), priceConcurrency)
+                .collectList()
+                .map(entries -> {
+                    entries.forEach(entry -> prices.put(entry.getKey(), entry.getValue()));
+                    return prices;
+                });
+    }
+
+    /**
+     * Валюты позиций: из денежных полей позиции, иначе из справочника инструментов.
+     */
+    private Mono<Map<String, Currency>> currencies(List<PortfolioPosition> positions) {
+        Map<String, Currency> currencies = new HashMap<>();
+        return Flux.fromIterable(positions)
+                .filter(position -> {
+                    Currency currency = currency(position.getAveragePositionPrice());
+                    if (currency == null) {
+                        currency = currency(position.getAveragePositionPriceNoNkd());
+                    }
+                    if (currency == null) {
+                        currency = currency(position.getExpectedYield());
+                    }
+                    if (currency != null) {
+                        currencies.put(position.getFigi(), currency);
+                        return false;
+                    }
+                    return catalogue != null;
+                })
+                .flatMap(position -> catalogue.searchMarketInstrumentByFigi(position.getFigi())
+                        .filter(instrument -> instrument.getCurrency() != null)
+                        .map(instrument -> Map.entry(position.getFigi(), instrument.getCurrency()))
+                        .onErrorResume(e -> {
+                            logger.warn("Cannot find currency of {}", position.getFigi(), e);
+                            return Mono.empty();
+                        }))
+                .collectList()
+                .map(entries -> {
+                    entries.forEach(entry -> currencies.put(entry.getKey(), entry.getValue()));
+                    return currencies;
+                });
+    }
+
+    @Nullable
+    private static Currency currency(@Nullable MoneyAmount amount) {
+        return amount == null ? null : amount.getCurrency();
+    }
+
+    /**
+     * Стоимость единицы цены: цена облигации задаётся в процентах от номинала.
+     */
+    private BigDecimal multiplier(PortfolioPosition position) {
+        if (position.getInstrumentType() != InstrumentType.BOND) {
+            return BigDecimal.ONE;
+        }
+        BigDecimal faceValue = faceValues.get(position.getFigi());
+        return faceValue == null ? null : faceValue.movePointLeft(2);
+    }
+
+    private BigDecimal cachedPrice(String figi) {
+        LocalOrderBook book = quotes.find(figi);
+        if (book == null) {
+            return null;
+        }
+        double mid = book.getMid();
+        return Double.isNaN(mid) ? null : BigDecimal.valueOf(mid);
+    }
+
+    private static BigDecimal restPrice(Orderbook orderbook) {
+        if (orderbook.getLastPrice() != null) {
+            return orderbook.getLastPrice();
+        }
+        List<OrderResponse> bids = orderbook.getBids();
+        List<OrderResponse> asks = orderbook.getAsks();
+        if (bids == null || asks == null || bids.isEmpty() || asks.isEmpty()) {
+            return null;
+        }
+        return bids.get(0).getPrice().add(asks.get(0).getPrice()).divide(BigDecimal.valueOf(2), RoundingMode.HALF_EVEN);
+    }
+}
@@ -0,0 +1,38 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+/**
+ * Приоритет запроса при ожидании разрешения. Объявлены в порядке убывания приоритета.
+ */
+public enum Priority {
+
+    /**
+     * Размещение и отмена заявок.
+     */
+    CRITICAL,
+
+    /**
+     * Обычные запросы: портфель, "стакан", поиск инструментов.
+     */
+    NORMAL,
+
+    /**
+     * Массовая загрузка: свечи, справочники инструментов, история операций.
+     */
+    BULK
+}
@@ -0,0 +1,313 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * Реестр ограничений частоты запросов по группам методов API.
+ *
+ * Все контексты, созданные с одним реестром, расходуют общий бюджет группы. Лимиты брокера действуют
+ * в пределах токена, поэтому для каждого токена следует заводить собственный реестр.
+ */
+public class RateLimitRegistry {
+
+    private static final RateLimitRegistry DEFAULT = builder().build();
+
+    private final Map<EndpointGroup, PermitScheduler> schedulers;
+    private final Map<EndpointGroup, AdaptiveRateController> adaptiveControllers;
+    private final Map<EndpointGroup, CircuitBreaker> circuitBreakers;
+    private final Map<EndpointGroup, Bulkhead> bulkheads;
+    private final ContextMetrics metrics;
+
+    private RateLimitRegistry(Builder builder) {
+        this.metrics = builder.metrics;
+        this.schedulers = new EnumMap<>(EndpointGroup.class);
+        this.adaptiveControllers = new EnumMap<>(EndpointGroup.class);
+        this.circuitBreakers = new EnumMap<>(EndpointGroup.class);
+        this.bulkheads = new EnumMap<>(EndpointGroup.class);
+        Predicate<Throwable> isThrottling = builder.throttlingPredicate;
+        Predicate<Throwable> isFailure = builder.failurePredicate != null
+                ? builder.failurePredicate
+                : error -> !isThrottling.test(error) && CircuitBreaker.DEFAULT_FAILURE_PREDICATE.test(error);
+        for (EndpointGroup group : EndpointGroup.values()) {
+            double rate = builder.rates.get(group);
+            PermitScheduler permits = new PermitScheduler(rate, builder.timer, builder.starvationThreshold);
+            schedulers.put(group, permits);
+            if (builder.adaptive) {
+                adaptiveControllers.put(group, new AdaptiveRateController(group, permits, builder.timer, rate,
+                        builder.probeInterval, builder.throttlingPredicate, builder.maxThrottledRetries));
+            }
+            if (builder.failureThreshold > 0) {
+                circuitBreakers.put(group, new CircuitBreaker(group, builder.failureThreshold, builder.openDuration,
+                        builder.trialCalls, isFailure));
+            }
+            Integer maxConcurrentCalls = builder.maxConcurrentCalls.get(group);
+            if (maxConcurrentCalls != null) {
+                bulkheads.put(group, new Bulkhead(maxConcurrentCalls));
+            }
+        }
+    }
+
+    /**
+     * Общий для JVM реестр с ограничениями по умолчанию. Используется конструкторами контекстов,
+     * которым реестр не передан явно.
+     *
+     * @return Реестр по умолчанию.
+     */
+    @NotNull
+    public static RateLimitRegistry getDefault() {
+        return DEFAULT;
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Получение планировщика разрешений группы.
+     *
+     * @param group Группа методов API.
+     *
+     * @return Планировщик разрешений.
+     */
+    @NotNull
+    public PermitScheduler get(@NotNull EndpointGroup group) {
+        return schedulers.get(group);
+    }
+
+    /**
+     * Получение контроллера адаптивного ограничения группы.
+     *
+     * @param group Группа методов API.
+     *
+     * @return Контроллер или null, если адаптивный режим выключен.
+     */
+    @Nullable
+    public AdaptiveRateController getAdaptiveController(@NotNull EndpointGroup group) {
+        return adaptiveControllers.get(group);
+    }
+
+    /**
+     * Получение размыкателя цепи группы.
+     *
+     * @param group Группа методов API.
+     *
+     * @return Размыкатель или null, если он не включён.
+     */
+    @Nullable
+    public CircuitBreaker getCircuitBreaker(@NotNull EndpointGroup group) {
+        return circuitBreakers.get(group);
+    }
+
+    /**
+     * Получение ограничения одновременных запросов группы.
+     *
+     * @param group Группа методов API.
+     *
+     * @return Ограничение или null, если оно не задано.
+     */
+    @Nullable
+    public Bulkhead getBulkhead(@NotNull EndpointGroup group) {
+        return bulkheads.get(group);
+    }
+
+    /**
+     * Получение точки подключения метрик.
+     *
+     * @return Метрики или {@link ContextMetrics#NOOP}, если не заданы.
+     */
+    @NotNull
+    public ContextMetrics getMetrics() {
+        return metrics;
+    }
+
+    public static class Builder {
+
+        private final Map<EndpointGroup, Double> rates = new EnumMap<>(EndpointGroup.class);
+        private Scheduler timer = Schedulers.parallel();
+        private ContextMetrics metrics = ContextMetrics.NOOP;
+        private Duration starvationThreshold = Duration.ofSeconds(5);
+        private boolean adaptive;
+        private Duration probeInterval = Duration.ofSeconds(5);
+        private Predicate<Throwable> throttlingPredicate = AdaptiveRateController.DEFAULT_THROTTLING_PREDICATE;
+        private int maxThrottledRetries = 5;
+        private int failureThreshold;
+        private Duration openDuration = Duration.ofSeconds(10);
+        private int trialCalls = 1;
+        private Predicate<Throwable> failurePredicate;
+        private final Map<EndpointGroup, Integer> maxConcurrentCalls = new EnumMap<>(EndpointGroup.class);
+
+        private Builder() {
+            for (EndpointGroup group : EndpointGroup.values()) {
+                rates.put(group, group.getDefaultRate());
+            }
+        }
+
+        /**
+         * Установка ограничения для группы.
+         *
+         * @param group Группа методов API.
+         * @param permitsPerSecond Допустимое количество запросов в секунду.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder rate(@NotNull EndpointGroup group, double permitsPerSecond) {
+            if (!(permitsPerSecond > 0)) {
+                throw new IllegalArgumentException("permitsPerSecond must be positive: " + permitsPerSecond);
+            }
+            rates.put(group, permitsPerSecond);
+            return this;
+        }
+
+        /**
+         * Установка планировщика, на котором ожидают разрешения.
+         *
+         * @param timer Планировщик Reactor.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder timer(@NotNull Scheduler timer) {
+            this.timer = timer;
+            return this;
+        }
+
+        /**
+         * Установка порога голодания: запрос, ожидающий дольше, обслуживается независимо от приоритета.
+         *
+         * @param starvationThreshold Максимальное ожидание до обслуживания вне очереди.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder starvationThreshold(@NotNull Duration starvationThreshold) {
+            this.starvationThreshold = starvationThreshold;
+            return this;
+        }
+
+        /**
+         * Включение адаптивного режима: заданные ограничения становятся потолком, фактическая частота
+         * снижается при отказах брокера по лимиту и постепенно возвращается к потолку.
+         *
+         * @param probeInterval Период без отказов, после которого частота увеличивается на шаг.
+         * @param maxThrottledRetries Количество прозрачных повторов запроса, отклонённого по лимиту.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder adaptive(@NotNull Duration probeInterval, int maxThrottledRetries) {
+            this.adaptive = true;
+            this.probeInterval = probeInterval;
+            this.maxThrottledRetries = maxThrottledRetries;
+            return this;
+        }
+
+        /**
+         * Установка признака ошибки превышения лимита для адаптивного режима.
+         *
+         * @param throttlingPredicate Признак ошибки.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder throttlingPredicate(@NotNull Predicate<Throwable> throttlingPredicate) {
+            this.throttlingPredicate = throttlingPredicate;
+            return this;
+        }
+
+        /**
+         * Включение размыкателей цепи для всех групп.
+         *
+         * @param failureThreshold Количество подряд сбоев, после которого цепь размыкается.
+         * @param openDuration Время, в течение которого запросы отклоняются без обращения к брокеру.
+         * @param trialCalls Количество пробных запросов, успех которых замыкает цепь.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder circuitBreaker(int failureThreshold, @NotNull Duration openDuration, int trialCalls) {
+            if (failureThreshold < 1 || trialCalls < 1) {
+                throw new IllegalArgumentException("failureThreshold and trialCalls must be positive");
+            }
+            this.failureThreshold = failureThreshold;
+            this.openDuration = openDuration;
+            this.trialCalls = trialCalls;
+            return this;
+        }
+
+        /**
+         * Установка признака сбоя для размыкателя цепи. По умолчанию сбоем считаются только ошибки транспорта
+         * и ответы 5xx ({@link CircuitBreaker#DEFAULT_FAILURE_PREDICATE}), кроме отказа по лимиту. Истечение
+         * крайнего срока сбоем не считается.
+         *
+         * @param failurePredicate Признак сбоя.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder failurePredicate(@NotNull Predicate<Throwable> failurePredicate) {
+            this.failurePredicate = failurePredicate;
+            return this;
+        }
+
+        /**
+         * Ограничение количества одновременно принятых запросов группы.
+         *
+         * @param group Группа методов API.
+         * @param maxConcurrentCalls Наибольшее количество ожидающих и выполняющихся запросов.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder bulkhead(@NotNull EndpointGroup group, int maxConcurrentCalls) {
+            if (maxConcurrentCalls < 1) {
+                throw new IllegalArgumentException("maxConcurrentCalls must be positive: " + maxConcurrentCalls);
+            }
+            this.maxConcurrentCalls.put(group, maxConcurrentCalls);
+            return this;
+        }
+
+        /**
+         * Установка метрик для всех контекстов, созданных с этим реестром.
+         *
+         * @param metrics Реализация метрик.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder metrics(@NotNull ContextMetrics metrics) {
+            this.metrics = metrics;
+            return this;
+        }
+
+        @NotNull
+        public RateLimitRegistry build() {
+            return new RateLimitRegistry(this);
+        }
+    }
+}
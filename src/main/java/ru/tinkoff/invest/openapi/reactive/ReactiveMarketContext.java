@@ -26,18 +26,26 @@ import ru.tinkoff.invest.openapi.OpenApi;
 import ru.tinkoff.invest.openapi.model.rest.*;
 
 import java.time.OffsetDateTime;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
-public class ReactiveMarketContext {
+public class ReactiveMarketContext implements CandleSource {
 
     private static final Logger logger = LoggerFactory.getLogger(ReactiveMarketContext.class);
 
-    private Mono<MarketContext> context;
+    private ReactorOpenApiContextProducer<MarketContext> context;
+    private final SingleFlight<String, SearchMarketInstrument> instrumentFlights = new SingleFlight<>();
+    private final ConcurrentMap<String, OrderbookFlight> orderbookFlights = new ConcurrentHashMap<>();
 
     public ReactiveMarketContext(OpenApi openApi) {
-        this.context = new ReactorOpenApiContextProducer<MarketContext>(2, () -> {
+        this(openApi, RateLimitRegistry.getDefault());
+    }
+
+    public ReactiveMarketContext(OpenApi openApi, RateLimitRegistry rateLimits) {
+        this.context = new ReactorOpenApiContextProducer<MarketContext>(EndpointGroup.MARKET, rateLimits, () -> {
             logger.debug("Creating MarketContext");
             return openApi.getMarketContext();
-        }).get();
+        });
     }
 
     /**
@@ -47,7 +55,7 @@ public class ReactiveMarketContext {
      */
     @NotNull
     public Flux<MarketInstrument> getMarketStocks() {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.getMarketStocks()))
+        return context.call("getMarketStocks", Priority.BULK, ctx -> ctx.getMarketStocks())
                 .flatMapIterable(list -> list.getInstruments());
     }
 
@@ -59,7 +67,7 @@ public class ReactiveMarketContext {
      */
     @NotNull
     public Flux<MarketInstrument> getMarketBonds() {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.getMarketBonds()))
+        return context.call("getMarketBonds", Priority.BULK, ctx -> ctx.getMarketBonds())
                 .flatMapIterable(list -> list.getInstruments());
     }
 
@@ -70,7 +78,7 @@ public class ReactiveMarketContext {
      */
     @NotNull
     public Flux<MarketInstrument> getMarketEtfs() {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.getMarketEtfs()))
+        return context.call("getMarketEtfs", Priority.BULK, ctx -> ctx.getMarketEtfs())
                 .flatMapIterable(list -> list.getInstruments());
     }
 
@@ -81,7 +89,7 @@ public class ReactiveMarketContext {
      */
     @NotNull
     public Flux<MarketInstrument> getMarketCurrencies() {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.getMarketCurrencies()))
+        return context.call("getMarketCurrencies", Priority.BULK, ctx -> ctx.getMarketCurrencies())
                 .flatMapIterable(list -> list.getInstruments());
     }
 
@@ -95,8 +103,28 @@ public class ReactiveMarketContext {
      */
     @NotNull
     public Mono<Orderbook> getMarketOrderbook(@NotNull String figi, int depth) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.getMarketOrderbook(figi, depth)))
-                .flatMap(val -> Mono.justOrEmpty(val));
+        return Mono.deferContextual(context -> {
+            while (true) {
+                OrderbookFlight created = new OrderbookFlight(depth);
+                OrderbookFlight flight = orderbookFlights.merge(figi, created,
+                        (current, candidate) -> current.depth >= candidate.depth ? current : candidate);
+                Mono<Orderbook> shared;
+                if (flight == created) {
+                    created.join();
+                    SingleFlight.start(created, fetchMarketOrderbook(figi, depth), context,
+                            () -> orderbookFlights.remove(figi, created));
+                    shared = SingleFlight.share(created, context);
+                } else if (flight.join()) {
+                    logger.debug("Joining in-flight orderbook request for {} with depth {}", figi, flight.depth);
+                    shared = SingleFlight.share(flight, context).onErrorResume(
+                            e -> SingleFlight.isForeignDeadline(e, context), e -> getMarketOrderbook(figi, depth));
+                } else {
+                    orderbookFlights.remove(figi, flight);
+                    continue;
+                }
+                return shared.map(orderbook -> truncate(orderbook, depth));
+            }
+        });
     }
 
     /**
@@ -109,12 +137,13 @@ public class ReactiveMarketContext {
      *
      * @return Данные по свечам инструмента или ничего, если инструмент не найден.
      */
+    @Override
     @NotNull
     public Flux<Candle> getMarketCandles(@NotNull String figi,
                                            @NotNull OffsetDateTime from,
                                            @NotNull OffsetDateTime to,
                                            @NotNull CandleResolution interval) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.getMarketCandles(figi, from, to, interval)))
+        return context.call("getMarketCandles", Priority.BULK, ctx -> ctx.getMarketCandles(figi, from, to, interval))
                 .flatMap(val -> Mono.justOrEmpty(val)).flatMapIterable(c -> c.getCandles());
     }
 
@@ -127,7 +156,7 @@ public class ReactiveMarketContext {
      */
     @NotNull
     public Flux<MarketInstrument> searchMarketInstrumentsByTicker(@NotNull String ticker) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.searchMarketInstrumentsByTicker(ticker)))
+        return context.call("searchMarketInstrumentsByTicker", ctx -> ctx.searchMarketInstrumentsByTicker(ticker))
                 .flatMapIterable(list -> list.getInstruments());
     }
 
@@ -140,8 +169,41 @@ public class ReactiveMarketContext {
      */
     @NotNull
     public Mono<SearchMarketInstrument> searchMarketInstrumentByFigi(@NotNull String figi) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.searchMarketInstrumentByFigi(figi)))
+        return instrumentFlights.execute(figi, () ->
+                context.call("searchMarketInstrumentByFigi", ctx -> ctx.searchMarketInstrumentByFigi(figi))
+                        .flatMap(val -> Mono.justOrEmpty(val)));
+    }
+
+    private Mono<Orderbook> fetchMarketOrderbook(String figi, int depth) {
+        return context.call("getMarketOrderbook", ctx -> ctx.getMarketOrderbook(figi, depth))
                 .flatMap(val -> Mono.justOrEmpty(val));
     }
 
+    private static Orderbook truncate(Orderbook orderbook, int depth) {
+        if (orderbook.getDepth() == null || orderbook.getDepth() <= depth) {
+            return orderbook;
+        }
+        return new Orderbook()
+                .figi(orderbook.getFigi())
+                .depth(depth)
+                .bids(orderbook.getBids().subList(0, Math.min(depth, orderbook.getBids().size())))
+                .asks(orderbook.getAsks().subList(0, Math.min(depth, orderbook.getAsks().size())))
+                .tradeStatus(orderbook.getTradeStatus())
+                .minPriceIncrement(orderbook.getMinPriceIncrement())
+                .faceValue(orderbook.getFaceValue())
+                .lastPrice(orderbook.getLastPrice())
+                .closePrice(orderbook.getClosePrice())
+                .limitUp(orderbook.getLimitUp())
+                .limitDown(orderbook.getLimitDown());
+    }
+
+    private static final class OrderbookFlight extends SingleFlight.Flight<Orderbook> {
+
+        private final int depth;
+
+        private OrderbookFlight(int depth) {
+            this.depth = depth;
+        }
+    }
+
 }
@@ -0,0 +1,93 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import ru.tinkoff.invest.openapi.OpenApi;
+
+/**
+ * Набор реактивных контекстов поверх одного {@link OpenApi} с общим бюджетом запросов.
+ */
+public class ReactiveOpenApi {
+
+    private final OpenApi openApi;
+    private final RateLimitRegistry rateLimits;
+    private final ReactiveMarketContext marketContext;
+    private final ReactiveOrdersContext ordersContext;
+    private final ReactiveOrdersListContext ordersListContext;
+    private final ReactivePortfolioContext portfolioContext;
+    private final ReactiveOperationsContext operationsContext;
+    private final ReactiveUserContext userContext;
+    private final ReactiveSandboxContext sandboxContext;
+
+    public ReactiveOpenApi(@NotNull OpenApi openApi, @NotNull RateLimitRegistry rateLimits) {
+        this.openApi = openApi;
+        this.rateLimits = rateLimits;
+        this.marketContext = new ReactiveMarketContext(openApi, rateLimits);
+        this.ordersContext = new ReactiveOrdersContext(openApi, rateLimits);
+        this.ordersListContext = new ReactiveOrdersListContext(openApi, rateLimits);
+        this.portfolioContext = new ReactivePortfolioContext(openApi, rateLimits);
+        this.operationsContext = new ReactiveOperationsContext(openApi, rateLimits);
+        this.userContext = new ReactiveUserContext(openApi, rateLimits);
+        this.sandboxContext = new ReactiveSandboxContext(openApi, rateLimits);
+    }
+
+    @NotNull
+    public OpenApi getOpenApi() {
+        return openApi;
+    }
+
+    @NotNull
+    public RateLimitRegistry getRateLimits() {
+        return rateLimits;
+    }
+
+    @NotNull
+    public ReactiveMarketContext getMarketContext() {
+        return marketContext;
+    }
+
+    @NotNull
+    public ReactiveOrdersContext getOrdersContext() {
+        return ordersContext;
+    }
+
+    @NotNull
+    public ReactiveOrdersListContext getOrdersListContext() {
+        return ordersListContext;
+    }
+
+    @NotNull
+    public ReactivePortfolioContext getPortfolioContext() {
+        return portfolioContext;
+    }
+
+    @NotNull
+    public ReactiveOperationsContext getOperationsContext() {
+        return operationsContext;
+    }
+
+    @NotNull
+    public ReactiveUserContext getUserContext() {
+        return userContext;
+    }
+
+    @NotNull
+    public ReactiveSandboxContext getSandboxContext() {
+        return sandboxContext;
+    }
+}
@@ -0,0 +1,311 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.model.rest.UserAccount;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+
+/**
+ * Пул подключений с разными токенами, у каждого из которых собственный бюджет запросов.
+ *
+ * Запросы без привязки к счёту (рыночные данные, портфель, операции) направляются в наименее загруженное
+ * работоспособное подключение. Запросы по счёту выполняются подключением, которому этот счёт принадлежит.
+ * Подключение, подряд вернувшее несколько ошибок транспорта, исключается из балансировки и возвращается
+ * в неё после успешной проверки. Отказы брокера по существу запроса и по лимиту показывают, что подключение
+ * работает, а истечение крайнего срока и локальные отказы размыкателя и ограничения запросов не учитываются.
+ * Списки счетов всех подключений периодически обновляются вместе с проверкой, а счёт, не найденный ни у одного
+ * подключения, вызывает внеочередное обновление.
+ */
+public class ReactiveOpenApiPool implements Disposable {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveOpenApiPool.class);
+
+    private static final int FAILURES_BEFORE_EVICTION = 3;
+
+    private final List<Member> members;
+    private final Duration probeInterval;
+    private final Scheduler scheduler;
+    private volatile Disposable prober;
+
+    public ReactiveOpenApiPool(@NotNull List<OpenApi> apis) {
+        this(apis, () -> RateLimitRegistry.builder().build(), Duration.ofSeconds(30), Schedulers.parallel());
+    }
+
+    /**
+     * @param apis          Подключения.
+     * @param rateLimits    Фабрика реестров ограничений, вызывается для каждого подключения.
+     * @param probeInterval Период проверки подключений и обновления списков их счетов.
+     * @param scheduler     Планировщик проверок.
+     */
+    public ReactiveOpenApiPool(@NotNull List<OpenApi> apis,
+                               @NotNull Supplier<RateLimitRegistry> rateLimits,
+                               @NotNull Duration probeInterval,
+                               @NotNull Scheduler scheduler) {
+        if (apis.isEmpty()) {
+            throw new IllegalArgumentException("At least one OpenApi instance is required");
+        }
+        List<Member> created = new ArrayList<>(apis.size());
+        for (OpenApi api : apis) {
+            created.add(new Member(new ReactiveOpenApi(api, rateLimits.get())));
+        }
+        this.members = Collections.unmodifiableList(created);
+        this.probeInterval = probeInterval;
+        this.scheduler = scheduler;
+    }
+
+    /**
+     * Загрузка списков счетов всех подключений и запуск их периодического обновления, которое
+     * также проверяет исключённые подключения.
+     *
+     * @return Завершается после загрузки списков счетов.
+     */
+    @NotNull
+    public Mono<Void> start() {
+        return probeAll()
+                .then(Mono.fromRunnable(() -> {
+                    synchronized (this) {
+                        if (prober == null) {
+                            prober = Flux.interval(probeInterval, scheduler)
+                                    .onBackpressureDrop()
+                                    .concatMap(tick -> probeAll())
+                                    .subscribe();
+                        }
+                    }
+                }));
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if (prober != null) {
+            prober.dispose();
+            prober = null;
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        Disposable current = prober;
+        return current == null || current.isDisposed();
+    }
+
+    /**
+     * Выполнение запроса без привязки к счёту наименее загруженным подключением.
+     *
+     * @param call Запрос.
+     *
+     * @return Результат запроса.
+     */
+    @NotNull
+    public <R> Mono<R> read(@NotNull Function<ReactiveOpenApi, Mono<R>> call) {
+        return Mono.defer(() -> executeMono(leastLoaded(), call));
+    }
+
+    /**
+     * Выполнение запроса без привязки к счёту наименее загруженным подключением.
+     *
+     * @param call Запрос.
+     *
+     * @return Результаты запроса.
+     */
+    @NotNull
+    public <R> Flux<R> readMany(@NotNull Function<ReactiveOpenApi, Flux<R>> call) {
+        return Flux.defer(() -> executeMany(leastLoaded(), call));
+    }
+
+    /**
+     * Выполнение запроса подключением, которому принадлежит счёт.
+     *
+     * @param brokerAccountId Идентификатор брокерского счёта; null — основное подключение пула.
+     * @param call            Запрос.
+     *
+     * @return Результат запроса.
+     */
+    @NotNull
+    public <R> Mono<R> forAccount(@Nullable String brokerAccountId,
+                                  @NotNull Function<ReactiveOpenApi, Mono<R>> call) {
+        return owner(brokerAccountId).flatMap(member -> executeMono(member, call));
+    }
+
+    /**
+     * Выполнение запроса подключением, которому принадлежит счёт.
+     *
+     * @param brokerAccountId Идентификатор брокерского счёта; null — основное подключение пула.
+     * @param call            Запрос.
+     *
+     * @return Результаты запроса.
+     */
+    @NotNull
+    public <R> Flux<R> forAccountMany(@Nullable String brokerAccountId,
+                                      @NotNull Function<ReactiveOpenApi, Flux<R>> call) {
+        return owner(brokerAccountId).flatMapMany(member -> executeMany(member, call));
+    }
+
+    /**
+     * Количество подключений, участвующих в балансировке.
+     *
+     * @return Количество работоспособных подключений.
+     */
+    public int getHealthyCount() {
+        int count = 0;
+        for (Member member : members) {
+            if (member.healthy) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private <R> Mono<R> executeMono(Member member, Function<ReactiveOpenApi, Mono<R>> call) {
+        return Mono.defer(() -> {
+                    member.inFlight.incrementAndGet();
+                    return call.apply(member.api);
+                })
+                .doOnSuccess(r -> member.onSuccess())
+                .doOnError(member::onError)
+                .doFinally(signal -> member.inFlight.decrementAndGet());
+    }
+
+    private <R> Flux<R> executeMany(Member member, Function<ReactiveOpenApi, Flux<R>> call) {
+        return Flux.defer(() -> {
+                    member.inFlight.incrementAndGet();
+                    return call.apply(member.api);
+                })
+                .doOnComplete(member::onSuccess)
+                .doOnError(member::onError)
+                .doFinally(signal -> member.inFlight.decrementAndGet());
+    }
+
+    private Member leastLoaded() {
+        Member best = null;
+        for (Member member : members) {
+            if (member.healthy && (best == null || member.inFlight.get() < best.inFlight.get())) {
+                best = member;
+            }
+        }
+        // Если исключены все, лучше попробовать любое подключение, чем отказать сразу.
+        return best != null ? best : members.get(0);
+    }
+
+    /**
+     * Поиск подключения, которому принадлежит счёт. Если счёт не найден, например открыт после последнего
+     * обновления, списки счетов обновляются и поиск повторяется.
+     */
+    private Mono<Member> owner(String brokerAccountId) {
+        return Mono.defer(() -> {
+            if (brokerAccountId == null) {
+                return Mono.just(members.get(0));
+            }
+            Member owner = findOwner(brokerAccountId);
+            if (owner != null) {
+                return Mono.just(owner);
+            }
+            return probeAll().then(Mono.fromCallable(() -> {
+                Member refreshed = findOwner(brokerAccountId);
+                if (refreshed == null) {
+                    throw new IllegalArgumentException("No pooled connection owns broker account " + brokerAccountId);
+                }
+                return refreshed;
+            }));
+        });
+    }
+
+    private Member findOwner(String brokerAccountId) {
+        for (Member member : members) {
+            if (member.accounts.contains(brokerAccountId)) {
+                return member;
+            }
+        }
+        return null;
+    }
+
+    private Mono<Void> probeAll() {
+        return Flux.fromIterable(members)
+                .flatMap(member -> probe(member).onErrorResume(e -> Mono.empty()))
+                .then();
+    }
+
+    private Mono<Void> probe(Member member) {
+        return member.api.getUserContext().getAccounts()
+                .map(UserAccount::getBrokerAccountId)
+                .collect(Collectors.toSet())
+                .doOnNext(accounts -> {
+                    member.accounts = accounts;
+                    if (!member.healthy) {
+                        logger.info("Connection {} passed health probe, re-admitting", members.indexOf(member));
+                    }
+                    member.failures.set(0);
+                    member.healthy = true;
+                })
+                .doOnError(e -> logger.warn("Health probe of connection {} failed", members.indexOf(member), e))
+                .then();
+    }
+
+    private static final class Member {
+
+        private final ReactiveOpenApi api;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger failures = new AtomicInteger();
+        private volatile boolean healthy = true;
+        private volatile Set<String> accounts = Collections.emptySet();
+
+        private Member(ReactiveOpenApi api) {
+            this.api = api;
+        }
+
+        private void onSuccess() {
+            failures.set(0);
+        }
+
+        private void onError(Throwable error) {
+            if (CircuitBreaker.TRANSPORT_FAILURE.test(error)) {
+                onFailure(error);
+            } else if (!(error instanceof DeadlineExceededException
+                    || error instanceof OutcomeUnknownException
+                    || error instanceof CircuitOpenException
+                    || error instanceof BulkheadFullException)) {
+                // Брокер ответил, подключение работает.
+                onSuccess();
+            }
+        }
+
+        private void onFailure(Throwable error) {
+            if (failures.incrementAndGet() >= FAILURES_BEFORE_EVICTION && healthy) {
+                logger.warn("Evicting connection after {} consecutive failures", FAILURES_BEFORE_EVICTION, error);
+                healthy = false;
+            }
+        }
+    }
+}
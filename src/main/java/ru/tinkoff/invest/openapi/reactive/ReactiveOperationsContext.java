@@ -21,7 +21,6 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
 import ru.tinkoff.invest.openapi.OpenApi;
 import ru.tinkoff.invest.openapi.OperationsContext;
 import ru.tinkoff.invest.openapi.model.rest.Operation;
@@ -32,13 +31,17 @@ public class ReactiveOperationsContext {
 
     private static final Logger logger = LoggerFactory.getLogger(ReactiveOperationsContext.class);
 
-    private Mono<OperationsContext> context;
+    private ReactorOpenApiContextProducer<OperationsContext> context;
 
     public ReactiveOperationsContext(OpenApi openApi) {
-        this.context = new ReactorOpenApiContextProducer<OperationsContext>(2, () -> {
+        this(openApi, RateLimitRegistry.getDefault());
+    }
+
+    public ReactiveOperationsContext(OpenApi openApi, RateLimitRegistry rateLimits) {
+        this.context = new ReactorOpenApiContextProducer<OperationsContext>(EndpointGroup.OPERATIONS, rateLimits, () -> {
             logger.debug("Creating OperationsContext");
             return openApi.getOperationsContext();
-        }).get();
+        });
     }
 
     /**
@@ -56,7 +59,7 @@ public class ReactiveOperationsContext {
                                          @NotNull OffsetDateTime to,
                                          @Nullable String figi,
                                          @Nullable String brokerAccountId) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.getOperations(from, to, figi, brokerAccountId)))
+        return context.call("getOperations", Priority.BULK, ctx -> ctx.getOperations(from, to, figi, brokerAccountId))
                 .flatMapIterable(list -> list.getOperations());
     }
 }
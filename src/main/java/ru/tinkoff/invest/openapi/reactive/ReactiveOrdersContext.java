@@ -20,25 +20,34 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
 import reactor.core.publisher.Mono;
 import ru.tinkoff.invest.openapi.OpenApi;
 import ru.tinkoff.invest.openapi.OrdersContext;
 import ru.tinkoff.invest.openapi.model.rest.LimitOrderRequest;
 import ru.tinkoff.invest.openapi.model.rest.MarketOrderRequest;
+import ru.tinkoff.invest.openapi.model.rest.Order;
+import ru.tinkoff.invest.openapi.model.rest.OrderStatus;
 import ru.tinkoff.invest.openapi.model.rest.PlacedLimitOrder;
 import ru.tinkoff.invest.openapi.model.rest.PlacedMarketOrder;
 
+import java.util.List;
+
 public class ReactiveOrdersContext {
 
     private static final Logger logger = LoggerFactory.getLogger(ReactiveOrdersContext.class);
 
-    private Mono<OrdersContext> context;
+    private ReactorOpenApiContextProducer<OrdersContext> context;
 
     public ReactiveOrdersContext(OpenApi openApi) {
-        this.context = new ReactorOpenApiContextProducer<OrdersContext>(0.83, () -> {
+        this(openApi, RateLimitRegistry.getDefault());
+    }
+
+    public ReactiveOrdersContext(OpenApi openApi, RateLimitRegistry rateLimits) {
+        this.context = new ReactorOpenApiContextProducer<OrdersContext>(EndpointGroup.ORDERS, rateLimits, () -> {
             logger.debug("Creating OrdersContext");
             return openApi.getOrdersContext();
-        }).get();
+        });
     }
 
     /**
@@ -54,7 +63,7 @@ public class ReactiveOrdersContext {
     public Mono<PlacedLimitOrder> placeLimitOrder(@NotNull String figi,
                                                     @NotNull LimitOrderRequest limitOrder,
                                                     @Nullable String brokerAccountId) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.placeLimitOrder(figi, limitOrder, brokerAccountId)));
+        return context.call("placeLimitOrder", Priority.CRITICAL, ctx -> ctx.placeLimitOrder(figi, limitOrder, brokerAccountId));
     }
 
     /**
@@ -70,7 +79,7 @@ public class ReactiveOrdersContext {
     public Mono<PlacedMarketOrder> placeMarketOrder(@NotNull String figi,
                                                       @NotNull MarketOrderRequest marketOrder,
                                                       @Nullable String brokerAccountId) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.placeMarketOrder(figi, marketOrder, brokerAccountId)));
+        return context.call("placeMarketOrder", Priority.CRITICAL, ctx -> ctx.placeMarketOrder(figi, marketOrder, brokerAccountId));
     }
 
     /**
@@ -83,6 +92,215 @@ public class ReactiveOrdersContext {
      */
     @NotNull
     public Mono<Void> cancelOrder(@NotNull String orderId, @Nullable String brokerAccountId) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.cancelOrder(orderId, brokerAccountId)));
+        return context.call("cancelOrder", Priority.CRITICAL, ctx -> ctx.cancelOrder(orderId, brokerAccountId));
+    }
+
+    /**
+     * Пакетное размещение заявок.
+     *
+     * Все заявки сразу встают в очередь лимита запросов и отправляются так быстро, как позволяет лимит.
+     * Заявки с одинаковым ключом последовательности ({@link BulkOrder#inSequence(String)}) отправляются
+     * строго по очереди в порядке списка: следующая — только после ответа на предыдущую. Ошибка одной
+     * заявки не прерывает остальные и возвращается в её результате.
+     *
+     * @param orders Заявки.
+     * @param brokerAccountId Идентификатор брокерского счёта.
+     *
+     * @return Результаты по мере получения ответов.
+     */
+    @NotNull
+    public Flux<BulkOrderResult> placeOrders(@NotNull List<BulkOrder> orders, @Nullable String brokerAccountId) {
+        return Flux.range(0, orders.size())
+                .groupBy(i -> {
+                    String sequence = orders.get(i).sequence;
+                    return sequence == null ? i : sequence;
+                })
+                .flatMap(group -> group.concatMap(i -> place(i, orders.get(i), brokerAccountId)), Integer.MAX_VALUE);
+    }
+
+    /**
+     * Отзыв всех активных заявок счёта, при необходимости только по одному инструменту.
+     * Отзывы отправляются с наивысшим приоритетом; ошибка отзыва одной заявки не прерывает остальные.
+     *
+     * @param figi Идентификатор инструмента или null для всех инструментов.
+     * @param brokerAccountId Идентификатор брокерского счёта.
+     *
+     * @return Результаты по мере получения ответов.
+     */
+    @NotNull
+    public Flux<CancelResult> cancelAllOrders(@Nullable String figi, @Nullable String brokerAccountId) {
+        return context.call("getOrders", Priority.CRITICAL, ctx -> ctx.getOrders(brokerAccountId))
+                .flatMapIterable(list -> list)
+                .filter(order -> figi == null || figi.equals(order.getFigi()))
+                .flatMap(order -> cancelOrder(order.getOrderId(), brokerAccountId)
+                        .thenReturn(new CancelResult(order, null))
+                        .onErrorResume(e -> {
+                            logger.warn("Cannot cancel order {}", order.getOrderId(), e);
+                            return Mono.just(new CancelResult(order, e));
+                        }), Integer.MAX_VALUE);
+    }
+
+    private Mono<BulkOrderResult> place(int index, BulkOrder order, String brokerAccountId) {
+        Mono<BulkOrderResult> placed = order.limit != null
+                ? placeLimitOrder(order.figi, order.limit, brokerAccountId)
+                        .map(result -> new BulkOrderResult(index, order, result.getOrderId(), result.getStatus(), result, null, null))
+                : placeMarketOrder(order.figi, order.market, brokerAccountId)
+                        .map(result -> new BulkOrderResult(index, order, result.getOrderId(), result.getStatus(), null, result, null));
+        return placed.onErrorResume(e -> {
+            logger.warn("Cannot place order #{} for {}", index, order.figi, e);
+            return Mono.just(new BulkOrderResult(index, order, null, null, null, null, e));
+        });
+    }
+
+    /**
+     * Заявка для пакетного размещения.
+     */
+    public static final class BulkOrder {
+        private final String figi;
+        private final LimitOrderRequest limit;
+        private final MarketOrderRequest market;
+        private final String sequence;
+
+        private BulkOrder(String figi, LimitOrderRequest limit, MarketOrderRequest market, String sequence) {
+            this.figi = figi;
+            this.limit = limit;
+            this.market = market;
+            this.sequence = sequence;
+        }
+
+        @NotNull
+        public static BulkOrder limit(@NotNull String figi, @NotNull LimitOrderRequest limitOrder) {
+            return new BulkOrder(figi, limitOrder, null, null);
+        }
+
+        @NotNull
+        public static BulkOrder market(@NotNull String figi, @NotNull MarketOrderRequest marketOrder) {
+            return new BulkOrder(figi, null, marketOrder, null);
+        }
+
+        /**
+         * Заявка с ключом последовательности: заявки с одинаковым ключом отправляются строго по очереди.
+         *
+         * @param sequence Ключ последовательности, например FIGI.
+         *
+         * @return Новая заявка.
+         */
+        @NotNull
+        public BulkOrder inSequence(@NotNull String sequence) {
+            return new BulkOrder(figi, limit, market, sequence);
+        }
+
+        @NotNull
+        public String getFigi() {
+            return figi;
+        }
+
+        @Nullable
+        public String getSequence() {
+            return sequence;
+        }
+    }
+
+    /**
+     * Результат размещения одной заявки из пакета.
+     */
+    public static final class BulkOrderResult {
+        private final int index;
+        private final BulkOrder order;
+        private final String orderId;
+        private final OrderStatus status;
+        private final PlacedLimitOrder limitOrder;
+        private final PlacedMarketOrder marketOrder;
+        private final Throwable error;
+
+        BulkOrderResult(int index,
+                        BulkOrder order,
+                        String orderId,
+                        OrderStatus status,
+                        PlacedLimitOrder limitOrder,
+                        PlacedMarketOrder marketOrder,
+                        Throwable error) {
+            this.index = index;
+            this.order = order;
+            this.orderId = orderId;
+            this.status = status;
+            this.limitOrder = limitOrder;
+            this.marketOrder = marketOrder;
+            this.error = error;
+        }
+
+        /**
+         * @return Позиция заявки в исходном списке.
+         */
+        public int getIndex() {
+            return index;
+        }
+
+        @NotNull
+        public BulkOrder getOrder() {
+            return order;
+        }
+
+        @Nullable
+        public String getOrderId() {
+            return orderId;
+        }
+
+        @Nullable
+        public OrderStatus getStatus() {
+            return status;
+        }
+
+        @Nullable
+        public PlacedLimitOrder getLimitOrder() {
+            return limitOrder;
+        }
+
+        @Nullable
+        public PlacedMarketOrder getMarketOrder() {
+            return marketOrder;
+        }
+
+        /**
+         * @return Ошибка размещения или null, если запрос выполнен.
+         */
+        @Nullable
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+    }
+
+    /**
+     * Результат отзыва одной заявки.
+     */
+    public static final class CancelResult {
+        private final Order order;
+        private final Throwable error;
+
+        CancelResult(Order order, Throwable error) {
+            this.order = order;
+            this.error = error;
+        }
+
+        @NotNull
+        public Order getOrder() {
+            return order;
+        }
+
+        /**
+         * @return Ошибка отзыва или null, если заявка отозвана.
+         */
+        @Nullable
+        public Throwable getError() {
+            return error;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
     }
 }
@@ -21,7 +21,6 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
 import ru.tinkoff.invest.openapi.OpenApi;
 import ru.tinkoff.invest.openapi.OrdersContext;
 import ru.tinkoff.invest.openapi.model.rest.Order;
@@ -30,13 +29,17 @@ public class ReactiveOrdersListContext {
 
     private static final Logger logger = LoggerFactory.getLogger(ReactiveOrdersListContext.class);
 
-    private Mono<OrdersContext> context;
+    private ReactorOpenApiContextProducer<OrdersContext> context;
 
     public ReactiveOrdersListContext(OpenApi openApi) {
-        this.context = new ReactorOpenApiContextProducer<OrdersContext>(1.65, () -> {
+        this(openApi, RateLimitRegistry.getDefault());
+    }
+
+    public ReactiveOrdersListContext(OpenApi openApi, RateLimitRegistry rateLimits) {
+        this.context = new ReactorOpenApiContextProducer<OrdersContext>(EndpointGroup.ORDERS, rateLimits, () -> {
             logger.debug("Creating OrdersContext");
             return openApi.getOrdersContext();
-        }).get();
+        });
     }
 
     /**
@@ -48,7 +51,7 @@ public class ReactiveOrdersListContext {
      */
     @NotNull
     public Flux<Order> getOrders(@Nullable String brokerAccountId) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.getOrders(brokerAccountId)))
+        return context.call("getOrders", ctx -> ctx.getOrders(brokerAccountId))
                 .flatMapIterable(list -> list);
     }
 }
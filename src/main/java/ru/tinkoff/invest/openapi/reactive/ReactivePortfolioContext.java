@@ -21,7 +21,6 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
 import ru.tinkoff.invest.openapi.OpenApi;
 import ru.tinkoff.invest.openapi.PortfolioContext;
 import ru.tinkoff.invest.openapi.model.rest.CurrencyPosition;
@@ -31,13 +30,17 @@ public class ReactivePortfolioContext {
 
     private static final Logger logger = LoggerFactory.getLogger(ReactivePortfolioContext.class);
 
-    private Mono<PortfolioContext> context;
+    private ReactorOpenApiContextProducer<PortfolioContext> context;
 
     public ReactivePortfolioContext(OpenApi openApi) {
-        this.context = new ReactorOpenApiContextProducer<PortfolioContext>(2, () -> {
+        this(openApi, RateLimitRegistry.getDefault());
+    }
+
+    public ReactivePortfolioContext(OpenApi openApi, RateLimitRegistry rateLimits) {
+        this.context = new ReactorOpenApiContextProducer<PortfolioContext>(EndpointGroup.PORTFOLIO, rateLimits, () -> {
             logger.debug("Creating PortfolioContext");
             return openApi.getPortfolioContext();
-        }).get();
+        });
     }
 
     /**
@@ -49,7 +52,7 @@ public class ReactivePortfolioContext {
      */
     @NotNull
     public Flux<PortfolioPosition> getPortfolio(@Nullable String brokerAccountId) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.getPortfolio(brokerAccountId)))
+        return context.call("getPortfolio", ctx -> ctx.getPortfolio(brokerAccountId))
                 .flatMapIterable(p -> p.getPositions());
     }
 
@@ -62,7 +65,7 @@ public class ReactivePortfolioContext {
      */
     @NotNull
     public Flux<CurrencyPosition> getPortfolioCurrencies(@Nullable String brokerAccountId) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.getPortfolioCurrencies(brokerAccountId)))
+        return context.call("getPortfolioCurrencies", ctx -> ctx.getPortfolioCurrencies(brokerAccountId))
                 .flatMapIterable(c -> c.getCurrencies());
     }
 }
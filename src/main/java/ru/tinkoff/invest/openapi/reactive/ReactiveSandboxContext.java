@@ -32,13 +32,17 @@ public class ReactiveSandboxContext {
 
     private static final Logger logger = LoggerFactory.getLogger(ReactiveSandboxContext.class);
 
-    private Mono<SandboxContext> context;
+    private ReactorOpenApiContextProducer<SandboxContext> context;
 
     public ReactiveSandboxContext(OpenApi openApi) {
-        this.context = new ReactorOpenApiContextProducer<SandboxContext>(2, () -> {
+        this(openApi, RateLimitRegistry.getDefault());
+    }
+
+    public ReactiveSandboxContext(OpenApi openApi, RateLimitRegistry rateLimits) {
+        this.context = new ReactorOpenApiContextProducer<SandboxContext>(EndpointGroup.SANDBOX, rateLimits, () -> {
             logger.debug("Creating SandboxContext");
             return openApi.getSandboxContext();
-        }).get();
+        });
     }
 
     /**
@@ -50,7 +54,7 @@ public class ReactiveSandboxContext {
      */
     @NotNull
     public Mono<SandboxAccount> performRegistration(@NotNull SandboxRegisterRequest registerRequest) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.performRegistration(registerRequest)));
+        return context.call("performRegistration", ctx -> ctx.performRegistration(registerRequest));
     }
 
     /**
@@ -64,7 +68,7 @@ public class ReactiveSandboxContext {
     @NotNull
     public Mono<Void> setCurrencyBalance(@NotNull SandboxSetCurrencyBalanceRequest balanceRequest,
                                           @Nullable String brokerAccountId) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.setCurrencyBalance(balanceRequest, brokerAccountId)));
+        return context.call("setCurrencyBalance", ctx -> ctx.setCurrencyBalance(balanceRequest, brokerAccountId));
     }
 
     /**
@@ -78,7 +82,7 @@ public class ReactiveSandboxContext {
     @NotNull
     public Mono<Void> setPositionBalance(@NotNull SandboxSetPositionBalanceRequest balanceRequest,
                                           @Nullable String brokerAccountId) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.setPositionBalance(balanceRequest, brokerAccountId)));
+        return context.call("setPositionBalance", ctx -> ctx.setPositionBalance(balanceRequest, brokerAccountId));
     }
 
     /**
@@ -90,7 +94,7 @@ public class ReactiveSandboxContext {
      */
     @NotNull
     public Mono<Void> removeAccount(@Nullable String brokerAccountId) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.removeAccount(brokerAccountId)));
+        return context.call("removeAccount", ctx -> ctx.removeAccount(brokerAccountId));
     }
 
     /**
@@ -102,6 +106,6 @@ public class ReactiveSandboxContext {
      */
     @NotNull
     public Mono<Void> clearAll(@Nullable String brokerAccountId) {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.clearAll(brokerAccountId)));
+        return context.call("clearAll", ctx -> ctx.clearAll(brokerAccountId));
     }
 }
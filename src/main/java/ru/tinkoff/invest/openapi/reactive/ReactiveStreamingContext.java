@@ -0,0 +1,161 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.SignalType;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.StreamingContext;
+import ru.tinkoff.invest.openapi.model.streaming.CandleInterval;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Predicate;
+
+/**
+ * Потоки событий по инструментам поверх одного соединения {@link StreamingContext}.
+ *
+ * Запрос подписки отправляется на сервер при появлении первого подписчика на поток, запрос отписки —
+ * после ухода последнего. Одно и то же событие раздаётся всем подписчикам без копирования.
+ */
+public class ReactiveStreamingContext {
+
+    private static final Logger logger = LoggerFactory.getLogger(ReactiveStreamingContext.class);
+
+    private final StreamingContext context;
+    private final Flux<StreamingEvent> events;
+    private final ConcurrentMap<StreamKey, Flux<? extends StreamingEvent>> streams = new ConcurrentHashMap<>();
+
+    public ReactiveStreamingContext(OpenApi openApi) {
+        this(openApi.getStreamingContext());
+    }
+
+    public ReactiveStreamingContext(StreamingContext context) {
+        this.context = context;
+        this.events = Flux.from(context)
+                .doOnNext(event -> {
+                    if (event instanceof StreamingEvent.Error) {
+                        logger.warn("Streaming error: {}", ((StreamingEvent.Error) event).getError());
+                    }
+                })
+                .share();
+    }
+
+    /**
+     * Поток свечей по инструменту.
+     *
+     * @param figi     Идентификатор инструмента.
+     * @param interval Разрешающий интервал свечей.
+     *
+     * @return Поток обновлений свечей.
+     */
+    @NotNull
+    public Flux<StreamingEvent.Candle> getCandles(@NotNull String figi, @NotNull CandleInterval interval) {
+        return stream(new StreamKey("candle", figi, interval),
+                StreamingEvent.Candle.class,
+                event -> figi.equals(event.getFigi()) && interval == event.getInterval(),
+                StreamingRequest.subscribeCandle(figi, interval),
+                StreamingRequest.unsubscribeCandle(figi, interval));
+    }
+
+    /**
+     * Поток состояний торгового "стакана" по инструменту.
+     *
+     * @param figi  Идентификатор инструмента.
+     * @param depth Глубина стакана.
+     *
+     * @return Поток "стаканов".
+     */
+    @NotNull
+    public Flux<StreamingEvent.Orderbook> getOrderbook(@NotNull String figi, int depth) {
+        return stream(new StreamKey("orderbook", figi, depth),
+                StreamingEvent.Orderbook.class,
+                event -> figi.equals(event.getFigi()) && depth == event.getDepth(),
+                StreamingRequest.subscribeOrderbook(figi, depth),
+                StreamingRequest.unsubscribeOrderbook(figi, depth));
+    }
+
+    /**
+     * Поток изменений информации об инструменте.
+     *
+     * @param figi Идентификатор инструмента.
+     *
+     * @return Поток информации об инструменте.
+     */
+    @NotNull
+    public Flux<StreamingEvent.InstrumentInfo> getInstrumentInfo(@NotNull String figi) {
+        return stream(new StreamKey("instrumentInfo", figi),
+                StreamingEvent.InstrumentInfo.class,
+                event -> figi.equals(event.getFigi()),
+                StreamingRequest.subscribeInstrumentInfo(figi),
+                StreamingRequest.unsubscribeInstrumentInfo(figi));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <E extends StreamingEvent> Flux<E> stream(StreamKey key,
+                                                      Class<E> type,
+                                                      Predicate<E> filter,
+                                                      StreamingRequest subscribe,
+                                                      StreamingRequest unsubscribe) {
+        return (Flux<E>) streams.computeIfAbsent(key, k -> events
+                .filter(type::isInstance)
+                .map(type::cast)
+                .filter(filter)
+                .doOnSubscribe(s -> {
+                    logger.debug("Subscribing to {}", key);
+                    context.sendRequest(subscribe);
+                })
+                .doFinally(signal -> {
+                    if (signal == SignalType.CANCEL) {
+                        logger.debug("Unsubscribing from {}", key);
+                        context.sendRequest(unsubscribe);
+                    }
+                })
+                .publish()
+                .refCount());
+    }
+
+    private static final class StreamKey {
+
+        private final Object[] parts;
+
+        private StreamKey(Object... parts) {
+            this.parts = parts;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof StreamKey && Arrays.equals(parts, ((StreamKey) o).parts);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(parts);
+        }
+
+        @Override
+        public String toString() {
+            return Arrays.toString(parts);
+        }
+    }
+}
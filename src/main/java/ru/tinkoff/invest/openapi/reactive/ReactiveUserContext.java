@@ -20,7 +20,6 @@ import org.jetbrains.annotations.NotNull;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import reactor.core.publisher.Flux;
-import reactor.core.publisher.Mono;
 import ru.tinkoff.invest.openapi.OpenApi;
 import ru.tinkoff.invest.openapi.UserContext;
 import ru.tinkoff.invest.openapi.model.rest.UserAccount;
@@ -29,13 +28,17 @@ public class ReactiveUserContext {
 
     private static final Logger logger = LoggerFactory.getLogger(ReactiveUserContext.class);
 
-    private Mono<UserContext> context;
+    private ReactorOpenApiContextProducer<UserContext> context;
 
     public ReactiveUserContext(OpenApi openApi) {
-        this.context = new ReactorOpenApiContextProducer<UserContext>(2, () -> {
+        this(openApi, RateLimitRegistry.getDefault());
+    }
+
+    public ReactiveUserContext(OpenApi openApi, RateLimitRegistry rateLimits) {
+        this.context = new ReactorOpenApiContextProducer<UserContext>(EndpointGroup.USER, rateLimits, () -> {
             logger.debug("Creating UserContext");
             return openApi.getUserContext();
-        }).get();
+        });
     }
 
     /**
@@ -45,7 +48,7 @@ public class ReactiveUserContext {
      */
     @NotNull
     public Flux<UserAccount> getAccounts() {
-        return context.flatMap(ctx -> Mono.fromFuture(ctx.getAccounts()))
+        return context.call("getAccounts", ctx -> ctx.getAccounts())
                 .flatMapIterable(a -> a.getAccounts());
     }
 }
@@ -16,39 +16,253 @@ limitations under the License.
 
 package ru.tinkoff.invest.openapi.reactive;
 
-import com.google.common.util.concurrent.RateLimiter;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
+import org.jetbrains.annotations.NotNull;
 import reactor.core.publisher.Mono;
-import reactor.util.retry.Retry;
 import ru.tinkoff.invest.openapi.Context;
 
 import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.function.Supplier;
 
 public class ReactorOpenApiContextProducer <T extends Context> {
 
-    private static final Logger logger = LoggerFactory.getLogger(ReactorOpenApiContextProducer.class);
+    private static final int SLOT_FREE = 0;
+    private static final int SLOT_HELD = 1;
+    private static final int SLOT_SENT = 2;
+    private static final int SLOT_RELEASED = 3;
 
-    private RateLimiter limiter;
-    private Supplier<T> contextSupplier;
+    private final EndpointGroup group;
+    private final PermitScheduler permits;
+    private final ContextMetrics metrics;
+    private final AdaptiveRateController adaptive;
+    private final CircuitBreaker breaker;
+    private final Bulkhead bulkhead;
+    private final Supplier<T> contextSupplier;
 
     public ReactorOpenApiContextProducer(double rateLimit, Supplier<T> contextSupplier) {
-        this.limiter = RateLimiter.create(rateLimit);
+        this(new PermitScheduler(rateLimit), contextSupplier);
+    }
+
+    public ReactorOpenApiContextProducer(@NotNull PermitScheduler permits, Supplier<T> contextSupplier) {
+        this(null, permits, ContextMetrics.NOOP, null, null, null, contextSupplier);
+    }
+
+    public ReactorOpenApiContextProducer(@NotNull EndpointGroup group,
+                                         @NotNull RateLimitRegistry rateLimits,
+                                         Supplier<T> contextSupplier) {
+        this(group, rateLimits.get(group), rateLimits.getMetrics(), rateLimits.getAdaptiveController(group),
+                rateLimits.getCircuitBreaker(group), rateLimits.getBulkhead(group), contextSupplier);
+    }
+
+    private ReactorOpenApiContextProducer(EndpointGroup group,
+                                          PermitScheduler permits,
+                                          ContextMetrics metrics,
+                                          AdaptiveRateController adaptive,
+                                          CircuitBreaker breaker,
+                                          Bulkhead bulkhead,
+                                          Supplier<T> contextSupplier) {
+        this.group = group;
+        this.permits = permits;
+        this.metrics = group == null ? ContextMetrics.NOOP : metrics;
+        this.adaptive = adaptive;
+        this.breaker = breaker;
+        this.bulkhead = bulkhead;
         this.contextSupplier = contextSupplier;
     }
 
     public Mono<T> get() {
+        return get(Priority.NORMAL);
+    }
+
+    public Mono<T> get(@NotNull Priority priority) {
+        return permits.acquire(priority).then(Mono.fromSupplier(contextSupplier));
+    }
+
+    /**
+     * Выполнение запроса к контексту с обычным приоритетом после получения разрешения.
+     *
+     * @param method Имя метода для метрик.
+     * @param call   Запрос к контексту.
+     *
+     * @return Результат запроса.
+     */
+    @NotNull
+    public <R> Mono<R> call(@NotNull String method, @NotNull Function<T, CompletableFuture<R>> call) {
+        return call(method, Priority.NORMAL, call);
+    }
+
+    /**
+     * Выполнение запроса к контексту после получения разрешения.
+     *
+     * @param method   Имя метода для метрик.
+     * @param priority Приоритет ожидания разрешения.
+     * @param call     Запрос к контексту.
+     *
+     * @return Результат запроса.
+     */
+    @NotNull
+    public <R> Mono<R> call(@NotNull String method,
+                            @NotNull Priority priority,
+                            @NotNull Function<T, CompletableFuture<R>> call) {
+        Mono<R> attempt = breaker == null && bulkhead == null
+                ? deadlined(method, priority, Mono.empty(), call)
+                : guarded(method, priority, call);
+        return adaptive == null ? attempt : adaptive.apply(attempt);
+    }
+
+    /**
+     * Запрос через размыкатель цепи и ограничение одновременных запросов. Разомкнутая цепь проверяется
+     * до постановки в очередь разрешений, а место в ограничении и пробный запрос занимаются только после
+     * получения разрешения, непосредственно перед отправкой. Поэтому ожидающие разрешения запросы не
+     * считаются выполняющимися, а вставшие в очередь до размыкания цепи завершаются без обращения к брокеру.
+     */
+    private <R> Mono<R> guarded(String method, Priority priority, Function<T, CompletableFuture<R>> call) {
         return Mono.defer(() -> {
-            if (limiter.tryAcquire()) {
-                logger.debug("Acquired successfully. Thread {}", Thread.currentThread().getName());
-                return Mono.just(contextSupplier.get());
-            } else {
-                logger.debug("Not acquired. Thread {}", Thread.currentThread().getName());
+            if (breaker != null && breaker.isOpen()) {
+                return Mono.error(new CircuitOpenException("Circuit for " + group + " is open, " + method + " rejected"));
+            }
+            AtomicInteger slot = new AtomicInteger(SLOT_FREE);
+            AtomicLong ticket = new AtomicLong(-1);
+            Mono<Void> admit = Mono.defer(() -> {
+                if (bulkhead != null) {
+                    if (!bulkhead.tryAcquire()) {
+                        return Mono.error(new BulkheadFullException(group + " already has "
+                                + bulkhead.getMaxConcurrentCalls() + " calls in flight, " + method + " rejected"));
+                    }
+                    slot.set(SLOT_HELD);
+                }
+                if (breaker != null) {
+                    long acquired = breaker.tryAcquire();
+                    if (acquired < 0) {
+                        return Mono.error(new CircuitOpenException("Circuit for " + group + " is open, " + method + " rejected"));
+                    }
+                    ticket.set(acquired);
+                }
                 return Mono.empty();
+            });
+            Function<T, CompletableFuture<R>> sent = bulkhead == null ? call : holdingSlot(slot, call);
+            Mono<R> result = deadlined(method, priority, admit, sent);
+            if (breaker != null) {
+                result = result
+                        .doOnSuccess(r -> {
+                            long acquired = ticket.getAndSet(-1);
+                            if (acquired >= 0) {
+                                breaker.onSuccess(acquired);
+                            }
+                        })
+                        .doOnError(e -> {
+                            long acquired = ticket.getAndSet(-1);
+                            if (acquired >= 0) {
+                                breaker.onFailure(acquired, e);
+                            }
+                        })
+                        .doOnCancel(() -> {
+                            long acquired = ticket.getAndSet(-1);
+                            if (acquired >= 0) {
+                                breaker.onCancel(acquired);
+                            }
+                        });
             }
-        })
-         .retryWhen(Retry.fixedDelay(Long.MAX_VALUE, Duration.ofMillis(1000)));
+            return bulkhead == null ? result : result.doFinally(signal -> releaseUnsent(slot));
+        });
+    }
+
+    /**
+     * Место в ограничении одновременных запросов освобождается по завершении самого запроса к брокеру,
+     * а не подписчика: запрос, прерванный крайним сроком или отпиской, продолжает выполняться.
+     */
+    private <R> Function<T, CompletableFuture<R>> holdingSlot(AtomicInteger slot, Function<T, CompletableFuture<R>> call) {
+        return ctx -> {
+            if (!slot.compareAndSet(SLOT_HELD, SLOT_SENT)) {
+                // Подписчик уже ушёл, и место освобождено.
+                CompletableFuture<R> cancelled = new CompletableFuture<>();
+                cancelled.cancel(false);
+                return cancelled;
+            }
+            CompletableFuture<R> future;
+            try {
+                future = call.apply(ctx);
+            } catch (RuntimeException e) {
+                bulkhead.release();
+                throw e;
+            }
+            future.whenComplete((r, e) -> bulkhead.release());
+            return future;
+        };
+    }
+
+    /**
+     * Освобождение места, если оно было занято, но запрос так и не был отправлен.
+     */
+    private void releaseUnsent(AtomicInteger slot) {
+        if (bulkhead != null && slot.compareAndSet(SLOT_HELD, SLOT_RELEASED)) {
+            bulkhead.release();
+        }
+    }
+
+    /**
+     * Крайний срок ограничивает ожидание разрешения: не получив его вовремя, запрос завершается
+     * {@link DeadlineExceededException} и к брокеру не отправляется. Если срок истекает уже после отправки,
+     * запрос продолжает выполняться, а подписчик получает {@link OutcomeUnknownException}.
+     */
+    private <R> Mono<R> deadlined(String method,
+                                  Priority priority,
+                                  Mono<Void> admit,
+                                  Function<T, CompletableFuture<R>> call) {
+        return Mono.deferContextual(view -> {
+            Deadline deadline = Deadline.from(view);
+            if (deadline == null) {
+                return attempt(method, permits.acquire(priority).then(admit), call, null);
+            }
+            Duration remaining = deadline.remaining();
+            if (remaining.isNegative() || remaining.isZero()) {
+                return Mono.error(new DeadlineExceededException("Deadline expired before " + method + " was queued"));
+            }
+            return attempt(method, permits.acquire(priority, remaining).then(admit), call, deadline);
+        });
+    }
+
+    private <R> Mono<R> attempt(String method,
+                                Mono<Void> permit,
+                                Function<T, CompletableFuture<R>> call,
+                                Deadline deadline) {
+        Mono<T> context = permit.then(Mono.fromSupplier(contextSupplier));
+        if (metrics == ContextMetrics.NOOP) {
+            return context.flatMap(ctx -> awaitOutcome(method, Mono.fromFuture(call.apply(ctx)), deadline));
+        }
+        return Mono.defer(() -> {
+            long queuedAt = System.nanoTime();
+            metrics.recordPermitQueue(group, permits.getQueueLength());
+            return context.flatMap(ctx -> {
+                long sentAt = System.nanoTime();
+                metrics.recordPermitWait(group, sentAt - queuedAt);
+                metrics.recordInFlight(group, method, 1);
+                Mono<R> sent = Mono.fromFuture(call.apply(ctx))
+                        .doOnSuccess(r -> metrics.recordUpstreamLatency(group, method, System.nanoTime() - sentAt, true))
+                        .doOnError(e -> {
+                            metrics.recordUpstreamLatency(group, method, System.nanoTime() - sentAt, false);
+                            metrics.recordError(group, method, e);
+                        })
+                        .doFinally(signal -> metrics.recordInFlight(group, method, -1));
+                return awaitOutcome(method, sent, deadline);
+            });
+        });
+    }
+
+    /**
+     * Ожидание ответа на отправленный запрос не дольше оставшегося до крайнего срока времени. Сам запрос
+     * при этом не отменяется: {@code Mono.fromFuture} не отменяет future при отписке.
+     */
+    private static <R> Mono<R> awaitOutcome(String method, Mono<R> sent, Deadline deadline) {
+        if (deadline == null) {
+            return sent;
+        }
+        Duration remaining = deadline.remaining();
+        return sent.timeout(remaining.isNegative() ? Duration.ZERO : remaining, Mono.error(() ->
+                new OutcomeUnknownException(method + " was sent but did not complete before the deadline")));
     }
 
 }
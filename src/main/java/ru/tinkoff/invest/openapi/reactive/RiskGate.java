@@ -0,0 +1,816 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import ru.tinkoff.invest.openapi.model.rest.Currency;
+import ru.tinkoff.invest.openapi.model.rest.LimitOrderRequest;
+import ru.tinkoff.invest.openapi.model.rest.MarketInstrument;
+import ru.tinkoff.invest.openapi.model.rest.MarketOrderRequest;
+import ru.tinkoff.invest.openapi.model.rest.OperationType;
+import ru.tinkoff.invest.openapi.model.rest.Order;
+import ru.tinkoff.invest.openapi.model.rest.OrderStatus;
+import ru.tinkoff.invest.openapi.model.rest.PlacedLimitOrder;
+import ru.tinkoff.invest.openapi.model.rest.PlacedMarketOrder;
+import ru.tinkoff.invest.openapi.model.rest.PortfolioPosition;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Предторговая проверка заявок одного брокерского счёта без обращения к серверу.
+ *
+ * Для каждого инструмента ведутся позиция и наихудшие длинная и короткая позиции с учётом активных
+ * заявок, для каждой валюты — стоимость активных заявок и общая стоимость позиций и заявок. Все счётчики
+ * разнесены по инструментам и валютам и меняются только атомарными сравнением с обменом: проверка
+ * ограничения и резервирование выполняются одной операцией, поэтому одновременные заявки из разных
+ * потоков не могут вместе превысить ограничение. Если заявка не проходит очередную проверку, уже
+ * сделанные резервы снимаются, и заявка отклоняется {@link RiskLimitException}. Валютные пределы
+ * проверяются только для части заявки, увеличивающей позицию: закрытие позиции разрешено и при исчерпанном
+ * пределе.
+ *
+ * Счётчики обновляются по ответам на размещение и отзыв заявок, сделанных через проверку, и выравниваются
+ * по портфелю и списку активных заявок при обновлении ({@link #refresh()} или фоновое после {@link #start()}).
+ * Стоимость заявки считается по цене лимитной заявки, для рыночной — по лучшей цене локального "стакана".
+ */
+public class RiskGate implements Disposable {
+
+    private static final Logger logger = LoggerFactory.getLogger(RiskGate.class);
+
+    /** Стоимости хранятся в сотых долях валюты. */
+    private static final int NOTIONAL_SCALE = 2;
+
+    private final ReactiveOrdersContext orders;
+    private final ReactivePortfolioContext portfolio;
+    private final ReactiveOrdersListContext ordersList;
+    private final InstrumentCatalogue catalogue;
+    private final LocalOrderBooks quotes;
+    private final String brokerAccountId;
+    private final Map<String, Long> maxPositions;
+    private final long defaultMaxPosition;
+    private final Map<Currency, CurrencyExposure> currencies;
+    private final Duration refreshPeriod;
+    private final Scheduler timer;
+
+    private final ConcurrentMap<String, FigiExposure> figis = new ConcurrentHashMap<>();
+    private final ConcurrentMap<Long, Reservation> reservations = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Reservation> reservationsByOrderId = new ConcurrentHashMap<>();
+    private final AtomicLong nextReservation = new AtomicLong();
+
+    private volatile Disposable refresher;
+
+    private RiskGate(Builder builder) {
+        this.orders = builder.orders;
+        this.portfolio = builder.portfolio;
+        this.ordersList = builder.ordersList;
+        this.catalogue = builder.catalogue;
+        this.quotes = builder.quotes;
+        this.brokerAccountId = builder.brokerAccountId;
+        this.maxPositions = new HashMap<>(builder.maxPositions);
+        this.defaultMaxPosition = builder.defaultMaxPosition;
+        this.refreshPeriod = builder.refreshPeriod;
+        this.timer = builder.timer;
+        Map<Currency, CurrencyExposure> exposures = new EnumMap<>(Currency.class);
+        for (Currency currency : Currency.values()) {
+            exposures.put(currency, new CurrencyExposure(
+                    builder.maxOpenOrderNotional.getOrDefault(currency, Long.MAX_VALUE),
+                    builder.maxGrossExposure.getOrDefault(currency, Long.MAX_VALUE)));
+        }
+        this.currencies = exposures;
+    }
+
+    /**
+     * @param orders    Контекст заявок.
+     * @param portfolio Контекст портфеля для выравнивания позиций.
+     * @param catalogue Справочник инструментов для размера лота и валюты.
+     *
+     * @return Построитель.
+     */
+    @NotNull
+    public static Builder builder(@NotNull ReactiveOrdersContext orders,
+                                  @NotNull ReactivePortfolioContext portfolio,
+                                  @NotNull InstrumentCatalogue catalogue) {
+        return new Builder(orders, portfolio, catalogue);
+    }
+
+    /**
+     * Запуск периодического выравнивания по портфелю. Первое выравнивание выполняется сразу.
+     *
+     * @return Эта же проверка.
+     */
+    @NotNull
+    public synchronized RiskGate start() {
+        if (refresher == null) {
+            refresher = Flux.interval(Duration.ZERO, refreshPeriod, timer)
+                    .onBackpressureDrop()
+                    .concatMap(tick -> refresh().onErrorResume(e -> {
+                        logger.warn("Risk gate refresh failed", e);
+                        return Mono.empty();
+                    }))
+                    .subscribe();
+        }
+        return this;
+    }
+
+    @Override
+    public synchronized void dispose() {
+        if (refresher != null) {
+            refresher.dispose();
+            refresher = null;
+        }
+    }
+
+    @Override
+    public boolean isDisposed() {
+        Disposable current = refresher;
+        return current == null || current.isDisposed();
+    }
+
+    /**
+     * Размещение лимитной заявки после проверки ограничений.
+     *
+     * @param figi Идентификатор инструмента.
+     * @param limitOrder Параметры отправляемой заявки.
+     *
+     * @return Размещённая заявка или {@link RiskLimitException}, если заявка нарушает ограничения.
+     */
+    @NotNull
+    public Mono<PlacedLimitOrder> placeLimitOrder(@NotNull String figi, @NotNull LimitOrderRequest limitOrder) {
+        return instrument(figi)
+                .map(instrument -> reserve(instrument, limitOrder.getOperation(), limitOrder.getLots(),
+                        limitOrder.getPrice(), true))
+                .flatMap(reservation -> orders.placeLimitOrder(figi, limitOrder, brokerAccountId)
+                        .doOnSuccess(placed -> {
+                            if (placed == null) {
+                                abandon(reservation);
+                            } else {
+                                settle(reservation, placed.getOrderId(), placed.getStatus(), placed.getExecutedLots());
+                            }
+                        })
+                        .doOnError(e -> {
+                            if (isUnsent(e)) {
+                                release(reservation);
+                            } else {
+                                abandon(reservation);
+                            }
+                        })
+                        .doOnCancel(() -> abandon(reservation)));
+    }
+
+    /**
+     * Размещение рыночной заявки после проверки ограничений. Стоимость оценивается по лучшей цене
+     * противоположной стороны локального "стакана"; без неё заявка отклоняется.
+     *
+     * @param figi Идентификатор инструмента.
+     * @param marketOrder Параметры отправляемой заявки.
+     *
+     * @return Размещённая заявка или {@link RiskLimitException}, если заявка нарушает ограничения.
+     */
+    @NotNull
+    public Mono<PlacedMarketOrder> placeMarketOrder(@NotNull String figi, @NotNull MarketOrderRequest marketOrder) {
+        return instrument(figi)
+                .map(instrument -> reserve(instrument, marketOrder.getOperation(), marketOrder.getLots(),
+                        referencePrice(figi, marketOrder.getOperation()), false))
+                .flatMap(reservation -> orders.placeMarketOrder(figi, marketOrder, brokerAccountId)
+                        .doOnSuccess(placed -> {
+                            if (placed == null) {
+                                abandon(reservation);
+                            } else {
+                                settle(reservation, placed.getOrderId(), placed.getStatus(), placed.getExecutedLots());
+                            }
+                        })
+                        .doOnError(e -> {
+                            if (isUnsent(e)) {
+                                release(reservation);
+                            } else {
+                                abandon(reservation);
+                            }
+                        })
+                        .doOnCancel(() -> abandon(reservation)));
+    }
+
+    /**
+     * Отзыв лимитной заявки с освобождением её резерва.
+     *
+     * @param orderId Идентификатор заявки.
+     *
+     * @return Ничего.
+     */
+    @NotNull
+    public Mono<Void> cancelOrder(@NotNull String orderId) {
+        return orders.cancelOrder(orderId, brokerAccountId)
+                .doOnSuccess(ignored -> {
+                    Reservation reservation = reservationsByOrderId.get(orderId);
+                    if (reservation != null) {
+                        release(reservation);
+                    }
+                });
+    }
+
+    /**
+     * Выравнивание счётчиков по портфелю и, если задан контекст списка заявок, по активным заявкам.
+     * Инструменты, валюты и заявки, изменившиеся локально после отправки запроса, не пересчитываются;
+     * заявки, ответ на размещение которых ещё не получен, не трогаются.
+     *
+     * @return Завершение выравнивания.
+     */
+    @NotNull
+    public Mono<Void> refresh() {
+        return Mono.defer(() -> {
+            long startedAt = System.nanoTime();
+            Mono<Optional<List<Order>>> active = ordersList == null
+                    ? Mono.just(Optional.empty())
+                    : ordersList.getOrders(brokerAccountId).collectList().map(Optional::of);
+            return Mono.zip(portfolio.getPortfolio(brokerAccountId).collectList(), active)
+                    .doOnNext(t -> {
+                        applyPortfolio(t.getT1(), startedAt);
+                        t.getT2().ifPresent(list -> applyOrders(list, startedAt));
+                    })
+                    .then();
+        });
+    }
+
+    /**
+     * @param figi Идентификатор инструмента.
+     *
+     * @return Известная позиция в штуках.
+     */
+    public long getPosition(@NotNull String figi) {
+        FigiExposure exposure = figis.get(figi);
+        return exposure == null ? 0 : exposure.position.get();
+    }
+
+    /**
+     * @param currency Валюта.
+     *
+     * @return Стоимость активных заявок, увеличивающих позиции.
+     */
+    @NotNull
+    public BigDecimal getOpenOrderNotional(@NotNull Currency currency) {
+        return BigDecimal.valueOf(currencies.get(currency).openOrders.get(), NOTIONAL_SCALE);
+    }
+
+    /**
+     * @param currency Валюта.
+     *
+     * @return Общая стоимость позиций и активных заявок, увеличивающих позиции.
+     */
+    @NotNull
+    public BigDecimal getGrossExposure(@NotNull Currency currency) {
+        return BigDecimal.valueOf(currencies.get(currency).gross.get(), NOTIONAL_SCALE);
+    }
+
+    private Mono<MarketInstrument> instrument(String figi) {
+        return catalogue.searchMarketInstrumentByFigi(figi)
+                .switchIfEmpty(Mono.error(() -> new RiskLimitException("Unknown instrument " + figi)));
+    }
+
+    private BigDecimal referencePrice(String figi, OperationType operation) {
+        LocalOrderBook book = quotes == null ? null : quotes.find(figi);
+        if (book != null) {
+            long price = operation == OperationType.BUY ? book.getBestAsk() : book.getBestBid();
+            if (price != Long.MAX_VALUE && price != Long.MIN_VALUE) {
+                return BigDecimal.valueOf(price, LocalOrderBook.PRICE_SCALE);
+            }
+        }
+        throw new RiskLimitException("No reference price for market order in " + figi);
+    }
+
+    private Reservation reserve(MarketInstrument instrument, OperationType operation, int lots, BigDecimal price,
+                                boolean limit) {
+        String figi = instrument.getFigi();
+        boolean buy = operation == OperationType.BUY;
+        long quantity = (long) lots * instrument.getLot();
+        FigiExposure figiExposure = figi(figi);
+        CurrencyExposure currencyExposure = currencies.get(instrument.getCurrency());
+        AtomicLong worst = buy ? figiExposure.worstLong : figiExposure.worstShort;
+        AtomicLong closable = buy ? figiExposure.shortToCover : figiExposure.longToClose;
+
+        if (!tryAdd(worst, quantity, figiExposure.maxPosition)) {
+            throw new RiskLimitException("Position limit " + figiExposure.maxPosition + " exceeded for " + figi);
+        }
+        // Часть заявки, сокращающая позицию, не увеличивает стоимость и валютными пределами не ограничивается.
+        long closing = claim(closable, quantity);
+        long opening = quantity - closing;
+        long openingNotional = notional(price.multiply(BigDecimal.valueOf(opening)));
+        long closingNotional = notional(price.multiply(BigDecimal.valueOf(closing)));
+        if (!tryAdd(currencyExposure.openOrders, openingNotional, currencyExposure.maxOpenOrders)) {
+            closable.addAndGet(closing);
+            worst.addAndGet(-quantity);
+            throw new RiskLimitException("Open order notional limit exceeded in " + instrument.getCurrency());
+        }
+        if (!tryAdd(currencyExposure.gross, openingNotional, currencyExposure.maxGross)) {
+            currencyExposure.openOrders.addAndGet(-openingNotional);
+            closable.addAndGet(closing);
+            worst.addAndGet(-quantity);
+            throw new RiskLimitException("Gross exposure limit exceeded in " + instrument.getCurrency());
+        }
+        Reservation reservation = new Reservation(nextReservation.incrementAndGet(), figi, figiExposure,
+                currencyExposure, operation, instrument.getLot(), lots, limit ? price : null,
+                closing, closingNotional, opening, openingNotional);
+        reservations.put(reservation.id, reservation);
+        return reservation;
+    }
+
+    private void settle(Reservation reservation, String orderId, OrderStatus status, Integer executedLots) {
+        if (orderId != null) {
+            reservation.orderId = orderId;
+            reservationsByOrderId.put(orderId, reservation);
+        }
+        long executed = executedLots == null ? 0 : (long) executedLots * reservation.lot;
+        if (executed > 0) {
+            fill(reservation, executed);
+        }
+        if (status == OrderStatus.REJECTED || status == OrderStatus.CANCELLED || status == OrderStatus.FILL) {
+            release(reservation);
+        } else {
+            reservation.placedAt = System.nanoTime();
+            reservation.placed = true;
+        }
+    }
+
+    /**
+     * Исход размещения неизвестен: подписчик отменил его до ответа, или запрос завершился ошибкой, которая
+     * не доказывает, что заявка не дошла до брокера. Без списка активных заявок исход не узнать, и резерв
+     * освобождается; иначе он остаётся до выравнивания, которое найдёт заявку среди активных или освободит его.
+     */
+    private void abandon(Reservation reservation) {
+        if (ordersList == null) {
+            release(reservation);
+        } else {
+            reservation.placedAt = System.nanoTime();
+            reservation.placed = true;
+        }
+    }
+
+    /**
+     * Ошибки, при которых запрос на размещение гарантированно не отправлялся: отказ локальных ограничений
+     * или крайний срок, истёкший в очереди за разрешением.
+     */
+    private static boolean isUnsent(Throwable error) {
+        return error instanceof RiskLimitException
+                || error instanceof CircuitOpenException
+                || error instanceof BulkheadFullException
+                || error instanceof DeadlineExceededException;
+    }
+
+    /**
+     * Перенос исполненной части заявки из резерва в позицию. Исполнение сначала сокращает позицию,
+     * затем увеличивает её; увеличившая часть переходит из стоимости заявок в стоимость позиций.
+     */
+    private void fill(Reservation reservation, long quantity) {
+        long closing;
+        long closingNotional;
+        long opening;
+        long openingNotional;
+        synchronized (reservation) {
+            closing = Math.min(quantity, reservation.closing);
+            closingNotional = share(reservation.closingNotional, closing, reservation.closing);
+            opening = Math.min(quantity - closing, reservation.opening);
+            openingNotional = share(reservation.openingNotional, opening, reservation.opening);
+            reservation.closing -= closing;
+            reservation.closingNotional -= closingNotional;
+            reservation.opening -= opening;
+            reservation.openingNotional -= openingNotional;
+        }
+        quantity = closing + opening;
+        if (quantity == 0) {
+            return;
+        }
+        boolean buy = reservation.buy();
+        FigiExposure figi = reservation.figi;
+        figi.position.addAndGet(buy ? quantity : -quantity);
+        // Наихудшая позиция по стороне заявки уже включала исполненное количество, меняется противоположная.
+        (buy ? figi.worstShort : figi.worstLong).addAndGet(-quantity);
+        (buy ? figi.longToClose : figi.shortToCover).addAndGet(opening);
+        figi.localUpdate = System.nanoTime();
+
+        CurrencyExposure currency = reservation.currency;
+        currency.openOrders.addAndGet(-openingNotional);
+        currency.positions.addAndGet(openingNotional - closingNotional);
+        currency.gross.addAndGet(-closingNotional);
+        currency.localUpdate = System.nanoTime();
+    }
+
+    private void release(Reservation reservation) {
+        long closing;
+        long opening;
+        long openingNotional;
+        synchronized (reservation) {
+            closing = reservation.closing;
+            opening = reservation.opening;
+            openingNotional = reservation.openingNotional;
+            reservation.closing = 0;
+            reservation.closingNotional = 0;
+            reservation.opening = 0;
+            reservation.openingNotional = 0;
+        }
+        reservations.remove(reservation.id);
+        if (reservation.orderId != null) {
+            reservationsByOrderId.remove(reservation.orderId);
+        }
+        boolean buy = reservation.buy();
+        (buy ? reservation.figi.worstLong : reservation.figi.worstShort).addAndGet(-(closing + opening));
+        (buy ? reservation.figi.shortToCover : reservation.figi.longToClose).addAndGet(closing);
+        reservation.currency.openOrders.addAndGet(-openingNotional);
+        reservation.currency.gross.addAndGet(-openingNotional);
+    }
+
+    private void applyPortfolio(List<PortfolioPosition> positions, long startedAt) {
+        Map<String, Long> balances = new HashMap<>();
+        Map<Currency, Long> values = new EnumMap<>(Currency.class);
+        for (PortfolioPosition position : positions) {
+            balances.put(position.getFigi(), position.getBalance() == null ? 0 : position.getBalance().longValue());
+            if (position.getAveragePositionPrice() != null && position.getBalance() != null) {
+                BigDecimal value = position.getAveragePositionPrice().getValue().multiply(position.getBalance());
+                if (position.getExpectedYield() != null) {
+                    value = value.add(position.getExpectedYield().getValue());
+                }
+                values.merge(position.getAveragePositionPrice().getCurrency(), Math.abs(notional(value)), Long::sum);
+            }
+        }
+        balances.keySet().forEach(this::figi);
+        for (Map.Entry<String, FigiExposure> entry : figis.entrySet()) {
+            FigiExposure figi = entry.getValue();
+            if (figi.localUpdate - startedAt > 0) {
+                continue;
+            }
+            long balance = balances.getOrDefault(entry.getKey(), 0L);
+            long previous = figi.position.getAndSet(balance);
+            long delta = balance - previous;
+            if (delta != 0) {
+                figi.worstLong.addAndGet(delta);
+                figi.worstShort.addAndGet(-delta);
+                figi.longToClose.addAndGet(Math.max(0, balance) - Math.max(0, previous));
+                figi.shortToCover.addAndGet(Math.max(0, -balance) - Math.max(0, -previous));
+            }
+        }
+        for (Map.Entry<Currency, CurrencyExposure> entry : currencies.entrySet()) {
+            CurrencyExposure exposure = entry.getValue();
+            if (exposure.localUpdate - startedAt > 0) {
+                continue;
+            }
+            long value = values.getOrDefault(entry.getKey(), 0L);
+            exposure.gross.addAndGet(value - exposure.positions.getAndSet(value));
+        }
+    }
+
+    private void applyOrders(List<Order> active, long startedAt) {
+        Map<String, Order> byId = new HashMap<>();
+        Map<String, Order> unclaimed = new HashMap<>();
+        for (Order order : active) {
+            byId.put(order.getOrderId(), order);
+            if (!reservationsByOrderId.containsKey(order.getOrderId())) {
+                unclaimed.put(order.getOrderId(), order);
+            }
+        }
+        for (Reservation reservation : reservations.values()) {
+            // Ответ на размещение ещё не получен или получен после запроса: снимок мог не застать заявку.
+            if (!reservation.placed || reservation.placedAt - startedAt > 0) {
+                continue;
+            }
+            Order order = reservation.orderId == null
+                    ? adopt(reservation, unclaimed)
+                    : byId.get(reservation.orderId);
+            if (order == null) {
+                // Заявка исполнена, снята или не была размещена: исполненное уже учтено в портфеле.
+                release(reservation);
+                continue;
+            }
+            long remaining = (long) (order.getRequestedLots() - order.getExecutedLots()) * reservation.lot;
+            reconcile(reservation, remaining);
+        }
+    }
+
+    /**
+     * Поиск среди активных заявок, не привязанных к резервам, заявки с параметрами размещения, исход
+     * которого неизвестен.
+     */
+    private Order adopt(Reservation reservation, Map<String, Order> unclaimed) {
+        for (Order order : unclaimed.values()) {
+            if (reservation.figiId.equals(order.getFigi())
+                    && reservation.operation == order.getOperation()
+                    && order.getRequestedLots() != null && order.getRequestedLots() == reservation.lots
+                    && (reservation.price == null
+                        || (order.getPrice() != null && order.getPrice().compareTo(reservation.price) == 0))) {
+                unclaimed.remove(order.getOrderId());
+                reservation.orderId = order.getOrderId();
+                reservationsByOrderId.put(order.getOrderId(), reservation);
+                return order;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Уменьшение резерва до неисполненного остатка без изменения позиции: исполненное уже учтено в портфеле.
+     */
+    private void reconcile(Reservation reservation, long remaining) {
+        long closing;
+        long opening;
+        long openingNotional;
+        synchronized (reservation) {
+            long filled = Math.max(0, reservation.closing + reservation.opening - remaining);
+            closing = Math.min(filled, reservation.closing);
+            opening = Math.min(filled - closing, reservation.opening);
+            openingNotional = share(reservation.openingNotional, opening, reservation.opening);
+            reservation.closingNotional -= share(reservation.closingNotional, closing, reservation.closing);
+            reservation.closing -= closing;
+            reservation.opening -= opening;
+            reservation.openingNotional -= openingNotional;
+        }
+        if (closing + opening > 0) {
+            boolean buy = reservation.buy();
+            (buy ? reservation.figi.worstLong : reservation.figi.worstShort).addAndGet(-(closing + opening));
+            // Портфель уже уменьшил закрываемую позицию, поэтому исполненная закрывающая часть возвращается.
+            (buy ? reservation.figi.shortToCover : reservation.figi.longToClose).addAndGet(closing);
+            reservation.currency.openOrders.addAndGet(-openingNotional);
+            reservation.currency.gross.addAndGet(-openingNotional);
+        }
+    }
+
+    private FigiExposure figi(String figi) {
+        return figis.computeIfAbsent(figi, key -> new FigiExposure(maxPositions.getOrDefault(key, defaultMaxPosition)));
+    }
+
+    /**
+     * Атомарное увеличение счётчика, если результат не превышает ограничение.
+     */
+    private static boolean tryAdd(AtomicLong counter, long delta, long limit) {
+        while (true) {
+            long current = counter.get();
+            long next = current + delta;
+            if (next > limit || next < current) {
+                return false;
+            }
+            if (counter.compareAndSet(current, next)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Атомарное взятие из счётчика не более {@code quantity}.
+     *
+     * @return Взятое количество.
+     */
+    private static long claim(AtomicLong counter, long quantity) {
+        while (true) {
+            long current = counter.get();
+            long taken = Math.min(quantity, Math.max(0, current));
+            if (taken == 0 || counter.compareAndSet(current, current - taken)) {
+                return taken;
+            }
+        }
+    }
+
+    private static long share(long total, long part, long whole) {
+        return whole == 0 ? 0 : BigDecimal.valueOf(total).multiply(BigDecimal.valueOf(part))
+                .divide(BigDecimal.valueOf(whole), 0, RoundingMode.DOWN).longValueExact();
+    }
+
+    private static long notional(BigDecimal amount) {
+        return amount.setScale(NOTIONAL_SCALE, RoundingMode.UP).unscaledValue().longValueExact();
+    }
+
+    /**
+     * Счётчики инструмента. Наихудшая длинная позиция — позиция плюс активные покупки, наихудшая
+     * короткая — минус позиция плюс активные продажи; обе ограничены одним пределом. Доступные для
+     * закрытия количества — часть позиции, ещё не занятая активными заявками противоположной стороны.
+     */
+    private static final class FigiExposure {
+        final long maxPosition;
+        final AtomicLong position = new AtomicLong();
+        final AtomicLong worstLong = new AtomicLong();
+        final AtomicLong worstShort = new AtomicLong();
+        final AtomicLong longToClose = new AtomicLong();
+        final AtomicLong shortToCover = new AtomicLong();
+        volatile long localUpdate = System.nanoTime() - Long.MAX_VALUE / 2;
+
+        FigiExposure(long maxPosition) {
+            this.maxPosition = maxPosition;
+        }
+    }
+
+    private static final class CurrencyExposure {
+        final long maxOpenOrders;
+        final long maxGross;
+        final AtomicLong openOrders = new AtomicLong();
+        final AtomicLong positions = new AtomicLong();
+        final AtomicLong gross = new AtomicLong();
+        volatile long localUpdate = System.nanoTime() - Long.MAX_VALUE / 2;
+
+        CurrencyExposure(long maxOpenOrders, long maxGross) {
+            this.maxOpenOrders = maxOpenOrders;
+            this.maxGross = maxGross;
+        }
+    }
+
+    /**
+     * Резерв заявки, разделённый на сокращающую позицию часть и увеличивающую её.
+     */
+    private static final class Reservation {
+        final long id;
+        final String figiId;
+        final FigiExposure figi;
+        final CurrencyExposure currency;
+        final OperationType operation;
+        final int lot;
+        final int lots;
+        final BigDecimal price;
+        volatile String orderId;
+        volatile boolean placed;
+        volatile long placedAt;
+        long closing;
+        long closingNotional;
+        long opening;
+        long openingNotional;
+
+        Reservation(long id, String figiId, FigiExposure figi, CurrencyExposure currency, OperationType operation,
+                    int lot, int lots, BigDecimal price,
+                    long closing, long closingNotional, long opening, long openingNotional) {
+            this.id = id;
+            this.figiId = figiId;
+            this.figi = figi;
+            this.currency = currency;
+            this.operation = operation;
+            this.lot = lot;
+            this.lots = lots;
+            this.price = price;
+            this.closing = closing;
+            this.closingNotional = closingNotional;
+            this.opening = opening;
+            this.openingNotional = openingNotional;
+        }
+
+        boolean buy() {
+            return operation == OperationType.BUY;
+        }
+    }
+
+    public static class Builder {
+        private final ReactiveOrdersContext orders;
+        private final ReactivePortfolioContext portfolio;
+        private final InstrumentCatalogue catalogue;
+        private ReactiveOrdersListContext ordersList;
+        private LocalOrderBooks quotes;
+        private String brokerAccountId;
+        private final Map<String, Long> maxPositions = new HashMap<>();
+        private long defaultMaxPosition = Long.MAX_VALUE;
+        private final Map<Currency, Long> maxOpenOrderNotional = new EnumMap<>(Currency.class);
+        private final Map<Currency, Long> maxGrossExposure = new EnumMap<>(Currency.class);
+        private Duration refreshPeriod = Duration.ofSeconds(30);
+        private Scheduler timer = Schedulers.parallel();
+
+        private Builder(ReactiveOrdersContext orders, ReactivePortfolioContext portfolio, InstrumentCatalogue catalogue) {
+            this.orders = orders;
+            this.portfolio = portfolio;
+            this.catalogue = catalogue;
+        }
+
+        /**
+         * @param brokerAccountId Идентификатор брокерского счёта.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder brokerAccountId(@Nullable String brokerAccountId) {
+            this.brokerAccountId = brokerAccountId;
+            return this;
+        }
+
+        /**
+         * Выравнивание резервов по активным заявкам при обновлении. Без него резерв лимитной заявки,
+         * исполненной на бирже, снимается только при её отзыве через проверку.
+         *
+         * @param ordersList Контекст списка заявок.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder ordersList(@NotNull ReactiveOrdersListContext ordersList) {
+            this.ordersList = ordersList;
+            return this;
+        }
+
+        /**
+         * @param quotes Локальные "стаканы" для оценки рыночных заявок.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder quotes(@NotNull LocalOrderBooks quotes) {
+            this.quotes = quotes;
+            return this;
+        }
+
+        /**
+         * Предел позиции по инструменту в штуках в каждую сторону с учётом активных заявок.
+         *
+         * @param figi Идентификатор инструмента.
+         * @param maxPosition Предел позиции.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder maxPosition(@NotNull String figi, long maxPosition) {
+            maxPositions.put(figi, maxPosition);
+            return this;
+        }
+
+        /**
+         * Предел позиции для инструментов без собственного предела.
+         *
+         * @param maxPosition Предел позиции в штуках.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder defaultMaxPosition(long maxPosition) {
+            this.defaultMaxPosition = maxPosition;
+            return this;
+        }
+
+        /**
+         * @param currency Валюта.
+         * @param maxNotional Наибольшая стоимость активных заявок.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder maxOpenOrderNotional(@NotNull Currency currency, @NotNull BigDecimal maxNotional) {
+            maxOpenOrderNotional.put(currency, notional(maxNotional));
+            return this;
+        }
+
+        /**
+         * @param currency Валюта.
+         * @param maxExposure Наибольшая общая стоимость позиций и активных заявок.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder maxGrossExposure(@NotNull Currency currency, @NotNull BigDecimal maxExposure) {
+            maxGrossExposure.put(currency, notional(maxExposure));
+            return this;
+        }
+
+        /**
+         * @param refreshPeriod Период фонового выравнивания по портфелю.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder refreshPeriod(@NotNull Duration refreshPeriod) {
+            this.refreshPeriod = refreshPeriod;
+            return this;
+        }
+
+        /**
+         * @param timer Планировщик фонового выравнивания.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder timer(@NotNull Scheduler timer) {
+            this.timer = timer;
+            return this;
+        }
+
+        @NotNull
+        public RiskGate build() {
+            return new RiskGate(this);
+        }
+    }
+}
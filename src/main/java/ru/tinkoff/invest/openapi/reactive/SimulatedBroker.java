@@ -0,0 +1,1028 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.scheduler.Scheduler;
+import reactor.core.scheduler.Schedulers;
+import ru.tinkoff.invest.openapi.MarketContext;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.OperationsContext;
+import ru.tinkoff.invest.openapi.OrdersContext;
+import ru.tinkoff.invest.openapi.PortfolioContext;
+import ru.tinkoff.invest.openapi.SandboxContext;
+import ru.tinkoff.invest.openapi.StreamingContext;
+import ru.tinkoff.invest.openapi.UserContext;
+import ru.tinkoff.invest.openapi.model.rest.*;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Локальный имитатор брокера для нагрузочного и детерминированного тестирования без сети.
+ *
+ * {@link #toOpenApi()} возвращает {@link OpenApi}, контексты которого обслуживаются имитатором,
+ * поэтому все {@code Reactive*Context} работают с ним без изменений. Рыночные данные подаются вызовами
+ * {@link #onCandle(Candle)} и {@link #onOrderbook(Orderbook)}: по ним двигаются часы имитатора и исполняются
+ * лимитные заявки. Остатки задаются методами песочницы {@code setCurrencyBalance} и {@code setPositionBalance}
+ * и меняются при исполнении заявок. Задержка ответов и ограничение частоты запросов настраиваются.
+ *
+ * Все изменения состояния выполняются под одной блокировкой в порядке поступления запросов, поэтому
+ * при одинаковой последовательности вызовов результат одинаков.
+ */
+public class SimulatedBroker {
+
+    private static final Logger logger = LoggerFactory.getLogger(SimulatedBroker.class);
+
+    private static final String DEFAULT_ACCOUNT = "SimulatedBrokerAccount";
+
+    private final Duration latency;
+    private final Map<EndpointGroup, Double> throttling;
+    private final BigDecimal commissionRate;
+    private final Scheduler timer;
+
+    private final Map<String, MarketInstrument> instruments = new LinkedHashMap<>();
+    private final Map<String, Orderbook> orderbooks = new HashMap<>();
+    private final Map<String, BigDecimal> lastPrices = new HashMap<>();
+    private final Map<String, NavigableMap<OffsetDateTime, Candle>> candles = new HashMap<>();
+    private final Map<String, Account> accounts = new LinkedHashMap<>();
+    private final Map<String, RestingOrder> restingOrders = new LinkedHashMap<>();
+    private final Map<EndpointGroup, long[]> throttlingWindows = new EnumMap<>(EndpointGroup.class);
+
+    private OffsetDateTime now;
+    private long nextId = 1;
+
+    private SimulatedBroker(Builder builder) {
+        this.latency = builder.latency;
+        this.throttling = new EnumMap<>(builder.throttling);
+        this.commissionRate = builder.commissionRate;
+        this.timer = builder.timer;
+        this.now = builder.start;
+        accounts.put(DEFAULT_ACCOUNT, new Account(DEFAULT_ACCOUNT));
+    }
+
+    @NotNull
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Создание {@link OpenApi}, обслуживаемого имитатором. Потоковый контекст не поддерживается.
+     *
+     * @return Подключение к имитатору.
+     */
+    @NotNull
+    public OpenApi toOpenApi() {
+        return new SimulatedOpenApi();
+    }
+
+    /**
+     * Добавление инструмента в справочник.
+     *
+     * @param instrument Инструмент.
+     */
+    public synchronized void addInstrument(@NotNull MarketInstrument instrument) {
+        instruments.put(instrument.getFigi(), instrument);
+    }
+
+    /**
+     * Подача очередной свечи: свеча становится доступна через {@code getMarketCandles}, часы имитатора
+     * переводятся на её время, а лимитные заявки, цена которых попала в диапазон свечи, исполняются целиком
+     * по цене заявки или по цене открытия, если она лучше.
+     *
+     * @param candle Свеча.
+     */
+    public synchronized void onCandle(@NotNull Candle candle) {
+        candles.computeIfAbsent(candle.getFigi() + '/' + candle.getInterval(), key -> new TreeMap<>())
+                .put(candle.getTime(), candle);
+        advance(candle.getTime());
+        lastPrices.put(candle.getFigi(), candle.getC());
+        Iterator<RestingOrder> orders = restingOrders.values().iterator();
+        while (orders.hasNext()) {
+            RestingOrder order = orders.next();
+            if (!order.figi.equals(candle.getFigi())) {
+                continue;
+            }
+            boolean buy = order.operation == OperationType.BUY;
+            if (buy ? candle.getL().compareTo(order.price) <= 0 : candle.getH().compareTo(order.price) >= 0) {
+                boolean gap = buy ? candle.getO().compareTo(order.price) < 0 : candle.getO().compareTo(order.price) > 0;
+                fill(order, order.requestedLots - order.executedLots, gap ? candle.getO() : order.price);
+                orders.remove();
+            }
+        }
+    }
+
+    /**
+     * Подача очередного "стакана": он заменяет предыдущий по инструменту, а лимитные заявки, пересекающиеся
+     * с ним, исполняются по ценам уровней в пределах их объёма.
+     *
+     * @param orderbook "Стакан".
+     */
+    public synchronized void onOrderbook(@NotNull Orderbook orderbook) {
+        Orderbook copy = new Orderbook()
+                .figi(orderbook.getFigi())
+                .depth(orderbook.getDepth())
+                .bids(levels(orderbook.getBids()))
+                .asks(levels(orderbook.getAsks()))
+                .tradeStatus(orderbook.getTradeStatus())
+                .minPriceIncrement(orderbook.getMinPriceIncrement())
+                .lastPrice(orderbook.getLastPrice())
+                .closePrice(orderbook.getClosePrice());
+        orderbooks.put(orderbook.getFigi(), copy);
+        if (orderbook.getLastPrice() != null) {
+            lastPrices.put(orderbook.getFigi(), orderbook.getLastPrice());
+        }
+        Iterator<RestingOrder> orders = restingOrders.values().iterator();
+        while (orders.hasNext()) {
+            RestingOrder order = orders.next();
+            if (order.figi.equals(orderbook.getFigi())) {
+                match(order, copy, order.price);
+                if (order.executedLots == order.requestedLots) {
+                    orders.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Перевод часов имитатора. Часы не двигаются назад.
+     *
+     * @param time Новое время.
+     */
+    public synchronized void advance(@NotNull OffsetDateTime time) {
+        if (time.isAfter(now)) {
+            now = time;
+        }
+    }
+
+    /**
+     * Выполнение запроса под блокировкой имитатора с учётом ограничения частоты и задержки ответа.
+     */
+    private <T> CompletableFuture<T> respond(EndpointGroup group, Supplier<T> call) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        T result;
+        try {
+            synchronized (this) {
+                throttle(group);
+                result = call.get();
+            }
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+            return future;
+        }
+        if (latency.isZero()) {
+            future.complete(result);
+        } else {
+            timer.schedule(() -> future.complete(result), latency.toNanos(), TimeUnit.NANOSECONDS);
+        }
+        return future;
+    }
+
+    private void throttle(EndpointGroup group) {
+        Double rate = throttling.get(group);
+        if (rate == null) {
+            return;
+        }
+        long second = timer.now(TimeUnit.SECONDS);
+        long[] window = throttlingWindows.computeIfAbsent(group, key -> new long[2]);
+        if (window[0] != second) {
+            window[0] = second;
+            window[1] = 0;
+        }
+        if (++window[1] > rate) {
+            throw new ThrottledException(group);
+        }
+    }
+
+    private MarketInstrumentList instruments(InstrumentType type) {
+        List<MarketInstrument> list = new ArrayList<>();
+        for (MarketInstrument instrument : instruments.values()) {
+            if (instrument.getType() == type) {
+                list.add(instrument);
+            }
+        }
+        return new MarketInstrumentList().total(BigDecimal.valueOf(list.size())).instruments(list);
+    }
+
+    private MarketInstrumentList searchByTicker(String ticker) {
+        List<MarketInstrument> list = new ArrayList<>();
+        for (MarketInstrument instrument : instruments.values()) {
+            if (ticker.equals(instrument.getTicker())) {
+                list.add(instrument);
+            }
+        }
+        return new MarketInstrumentList().total(BigDecimal.valueOf(list.size())).instruments(list);
+    }
+
+    private Optional<SearchMarketInstrument> searchByFigi(String figi) {
+        MarketInstrument instrument = instruments.get(figi);
+        return Optional.ofNullable(instrument).map(found -> new SearchMarketInstrument()
+                .figi(found.getFigi())
+                .ticker(found.getTicker())
+                .isin(found.getIsin())
+                .minPriceIncrement(found.getMinPriceIncrement())
+                .lot(found.getLot())
+                .currency(found.getCurrency())
+                .name(found.getName())
+                .type(found.getType()));
+    }
+
+    private Optional<Orderbook> getMarketOrderbook(String figi, int depth) {
+        Orderbook orderbook = orderbooks.get(figi);
+        if (orderbook == null) {
+            BigDecimal last = lastPrices.get(figi);
+            if (last == null) {
+                return Optional.empty();
+            }
+            return Optional.of(new Orderbook()
+                    .figi(figi)
+                    .depth(depth)
+                    .bids(new ArrayList<>())
+                    .asks(new ArrayList<>())
+                    .tradeStatus(TradeStatus.NORMALTRADING)
+                    .lastPrice(last));
+        }
+        return Optional.of(new Orderbook()
+                .figi(figi)
+                .depth(depth)
+                .bids(levels(orderbook.getBids().subList(0, Math.min(depth, orderbook.getBids().size()))))
+                .asks(levels(orderbook.getAsks().subList(0, Math.min(depth, orderbook.getAsks().size()))))
+                .tradeStatus(orderbook.getTradeStatus())
+                .minPriceIncrement(orderbook.getMinPriceIncrement())
+                .lastPrice(lastPrices.get(figi))
+                .closePrice(orderbook.getClosePrice()));
+    }
+
+    private Optional<Candles> getMarketCandles(String figi, OffsetDateTime from, OffsetDateTime to, CandleResolution interval) {
+        NavigableMap<OffsetDateTime, Candle> series = candles.get(figi + '/' + interval);
+        List<Candle> list = series == null ? new ArrayList<>() : new ArrayList<>(series.subMap(from, true, to, false).values());
+        return Optional.of(new Candles().figi(figi).interval(interval).candles(list));
+    }
+
+    private List<Order> getOrders(String brokerAccountId) {
+        String account = accountId(brokerAccountId);
+        List<Order> list = new ArrayList<>();
+        for (RestingOrder order : restingOrders.values()) {
+            if (order.account.equals(account)) {
+                list.add(new Order()
+                        .orderId(order.orderId)
+                        .figi(order.figi)
+                        .operation(order.operation)
+                        .status(order.executedLots > 0 ? OrderStatus.PARTIALLYFILL : OrderStatus.NEW)
+                        .requestedLots(order.requestedLots)
+                        .executedLots(order.executedLots)
+                        .type(OrderType.LIMIT)
+                        .price(order.price));
+            }
+        }
+        return list;
+    }
+
+    private PlacedLimitOrder placeLimitOrder(String figi, LimitOrderRequest request, String brokerAccountId) {
+        MarketInstrument instrument = instrument(figi);
+        Account account = account(brokerAccountId);
+        RestingOrder order = new RestingOrder(String.valueOf(nextId++), account.id, figi, request.getOperation(),
+                request.getLots(), request.getPrice());
+        BigDecimal quantity = BigDecimal.valueOf((long) request.getLots() * instrument.getLot());
+        String reject = order.operation == OperationType.BUY
+                ? account.block(instrument.getCurrency(), withCommission(request.getPrice().multiply(quantity)))
+                : account.block(figi, quantity);
+        PlacedLimitOrder placed = new PlacedLimitOrder()
+                .orderId(order.orderId)
+                .operation(order.operation)
+                .requestedLots(order.requestedLots);
+        if (reject != null) {
+            return placed.status(OrderStatus.REJECTED).executedLots(0).rejectReason(reject).message(reject);
+        }
+        order.blocked = order.operation == OperationType.BUY ? withCommission(request.getPrice().multiply(quantity)) : quantity;
+        Orderbook orderbook = orderbooks.get(figi);
+        if (orderbook != null) {
+            match(order, orderbook, order.price);
+        } else {
+            BigDecimal last = lastPrices.get(figi);
+            if (last != null && (order.operation == OperationType.BUY ? last.compareTo(order.price) <= 0 : last.compareTo(order.price) >= 0)) {
+                fill(order, order.requestedLots, last);
+            }
+        }
+        if (order.executedLots < order.requestedLots) {
+            restingOrders.put(order.orderId, order);
+        }
+        return placed
+                .status(order.executedLots == 0 ? OrderStatus.NEW
+                        : order.executedLots < order.requestedLots ? OrderStatus.PARTIALLYFILL : OrderStatus.FILL)
+                .executedLots(order.executedLots)
+                .commission(new MoneyAmount().currency(instrument.getCurrency()).value(order.commission));
+    }
+
+    private PlacedMarketOrder placeMarketOrder(String figi, MarketOrderRequest request, String brokerAccountId) {
+        MarketInstrument instrument = instrument(figi);
+        Account account = account(brokerAccountId);
+        RestingOrder order = new RestingOrder(String.valueOf(nextId++), account.id, figi, request.getOperation(),
+                request.getLots(), null);
+        PlacedMarketOrder placed = new PlacedMarketOrder()
+                .orderId(order.orderId)
+                .operation(order.operation)
+                .requestedLots(order.requestedLots);
+        BigDecimal quantity = BigDecimal.valueOf((long) request.getLots() * instrument.getLot());
+        BigDecimal required = order.operation == OperationType.BUY
+                ? withCommission(estimateCost(figi, true, request.getLots(), instrument.getLot()))
+                : quantity;
+        String reject = order.operation == OperationType.BUY
+                ? account.block(instrument.getCurrency(), required)
+                : account.block(figi, quantity);
+        if (reject != null) {
+            return placed.status(OrderStatus.REJECTED).executedLots(0).rejectReason(reject).message(reject);
+        }
+        order.blocked = required;
+        Orderbook orderbook = orderbooks.get(figi);
+        if (orderbook != null) {
+            match(order, orderbook, null);
+        }
+        BigDecimal last = lastPrices.get(figi);
+        if (order.executedLots < order.requestedLots && last != null) {
+            fill(order, order.requestedLots - order.executedLots, last);
+        }
+        // Рыночная заявка исполняется сразу, блокировка нужна только для проверки остатка.
+        release(order, order.blocked);
+        if (order.executedLots == 0) {
+            String reason = "No market data for " + figi;
+            return placed.status(OrderStatus.REJECTED).executedLots(0).rejectReason(reason).message(reason);
+        }
+        return placed
+                .status(order.executedLots < order.requestedLots ? OrderStatus.PARTIALLYFILL : OrderStatus.FILL)
+                .executedLots(order.executedLots)
+                .commission(new MoneyAmount().currency(instrument.getCurrency()).value(order.commission));
+    }
+
+    private Void cancelOrder(String orderId, String brokerAccountId) {
+        RestingOrder order = restingOrders.get(orderId);
+        if (order == null || !order.account.equals(accountId(brokerAccountId))) {
+            throw new IllegalArgumentException("Order " + orderId + " not found");
+        }
+        restingOrders.remove(orderId);
+        release(order, order.blocked);
+        return null;
+    }
+
+    private Operations getOperations(OffsetDateTime from, OffsetDateTime to, String figi, String brokerAccountId) {
+        List<Operation> list = new ArrayList<>();
+        for (Operation operation : account(brokerAccountId).operations) {
+            if (!operation.getDate().isBefore(from) && operation.getDate().isBefore(to)
+                    && (figi == null || figi.equals(operation.getFigi()))) {
+                list.add(operation);
+            }
+        }
+        return new Operations().operations(list);
+    }
+
+    private UserAccounts getAccounts() {
+        List<UserAccount> list = new ArrayList<>();
+        for (Account account : accounts.values()) {
+            list.add(new UserAccount().brokerAccountType(BrokerAccountType.TINKOFF).brokerAccountId(account.id));
+        }
+        return new UserAccounts().accounts(list);
+    }
+
+    private SandboxAccount register(SandboxRegisterRequest request) {
+        String id = "SimulatedBrokerAccount" + nextId++;
+        accounts.put(id, new Account(id));
+        return new SandboxAccount()
+                .brokerAccountType(request == null || request.getBrokerAccountType() == null
+                        ? BrokerAccountType.TINKOFF : request.getBrokerAccountType())
+                .brokerAccountId(id);
+    }
+
+    private Void setCurrencyBalance(SandboxSetCurrencyBalanceRequest request, String brokerAccountId) {
+        Currency currency = Currency.valueOf(request.getCurrency().name());
+        account(brokerAccountId).currency(currency).balance = request.getBalance();
+        return null;
+    }
+
+    private Void setPositionBalance(SandboxSetPositionBalanceRequest request, String brokerAccountId) {
+        Holding holding = account(brokerAccountId).holding(request.getFigi());
+        holding.balance = request.getBalance();
+        if (holding.averagePrice == null) {
+            holding.averagePrice = lastPrices.get(request.getFigi());
+        }
+        return null;
+    }
+
+    private Void removeAccount(String brokerAccountId) {
+        String id = accountId(brokerAccountId);
+        restingOrders.values().removeIf(order -> order.account.equals(id));
+        accounts.remove(id);
+        if (id.equals(DEFAULT_ACCOUNT)) {
+            accounts.put(DEFAULT_ACCOUNT, new Account(DEFAULT_ACCOUNT));
+        }
+        return null;
+    }
+
+    private Void clearAll(String brokerAccountId) {
+        String id = accountId(brokerAccountId);
+        restingOrders.values().removeIf(order -> order.account.equals(id));
+        accounts.put(id, new Account(id));
+        return null;
+    }
+
+    /**
+     * Исполнение заявки по уровням "стакана" в пределах цены; исполненный объём снимается со "стакана",
+     * чтобы одна и та же ликвидность не досталась нескольким заявкам до следующего обновления.
+     */
+    private void match(RestingOrder order, Orderbook orderbook, @Nullable BigDecimal limit) {
+        boolean buy = order.operation == OperationType.BUY;
+        Iterator<OrderResponse> levels = (buy ? orderbook.getAsks() : orderbook.getBids()).iterator();
+        while (order.executedLots < order.requestedLots && levels.hasNext()) {
+            OrderResponse level = levels.next();
+            if (limit != null && (buy ? level.getPrice().compareTo(limit) > 0 : level.getPrice().compareTo(limit) < 0)) {
+                break;
+            }
+            int lots = Math.min(order.requestedLots - order.executedLots, level.getQuantity());
+            fill(order, lots, level.getPrice());
+            level.setQuantity(level.getQuantity() - lots);
+            if (level.getQuantity() == 0) {
+                levels.remove();
+            }
+        }
+    }
+
+    /**
+     * Оценка стоимости рыночной заявки по текущему "стакану" без его изменения; остаток сверх
+     * "стакана" оценивается по последней цене.
+     */
+    private BigDecimal estimateCost(String figi, boolean buy, int lots, int lot) {
+        BigDecimal cost = BigDecimal.ZERO;
+        int remaining = lots;
+        Orderbook orderbook = orderbooks.get(figi);
+        if (orderbook != null) {
+            for (OrderResponse level : buy ? orderbook.getAsks() : orderbook.getBids()) {
+                if (remaining == 0) {
+                    break;
+                }
+                int taken = Math.min(remaining, level.getQuantity());
+                cost = cost.add(level.getPrice().multiply(BigDecimal.valueOf((long) taken * lot)));
+                remaining -= taken;
+            }
+        }
+        BigDecimal last = lastPrices.get(figi);
+        if (remaining > 0 && last != null) {
+            cost = cost.add(last.multiply(BigDecimal.valueOf((long) remaining * lot)));
+        }
+        return cost;
+    }
+
+    private void fill(RestingOrder order, int lots, BigDecimal price) {
+        MarketInstrument instrument = instrument(order.figi);
+        Account account = account(order.account);
+        boolean buy = order.operation == OperationType.BUY;
+        BigDecimal quantity = BigDecimal.valueOf((long) lots * instrument.getLot());
+        BigDecimal amount = price.multiply(quantity);
+        BigDecimal commission = amount.multiply(commissionRate).setScale(2, RoundingMode.HALF_UP);
+
+        if (order.price != null) {
+            BigDecimal blocked = buy ? withCommission(order.price.multiply(quantity)) : quantity;
+            release(order, blocked.min(order.blocked));
+        }
+        Balance cash = account.currency(instrument.getCurrency());
+        cash.balance = cash.balance.add(buy ? amount.negate() : amount).subtract(commission);
+        Holding holding = account.holding(order.figi);
+        BigDecimal balance = holding.balance.add(buy ? quantity : quantity.negate());
+        if (holding.averagePrice == null || holding.balance.signum() == 0
+                || holding.balance.signum() != balance.signum()) {
+            holding.averagePrice = price;
+        } else if (balance.abs().compareTo(holding.balance.abs()) > 0) {
+            holding.averagePrice = holding.averagePrice.multiply(holding.balance).add(price.multiply(buy ? quantity : quantity.negate()))
+                    .divide(balance, 8, RoundingMode.HALF_EVEN);
+        }
+        holding.balance = balance;
+
+        order.executedLots += lots;
+        order.commission = order.commission.add(commission);
+        String id = String.valueOf(nextId++);
+        account.operations.add(new Operation()
+                .id(id)
+                .status(OperationStatus.DONE)
+                .trades(Collections.singletonList(new OperationTrade()
+                        .tradeId(id)
+                        .date(now)
+                        .price(price)
+                        .quantity(quantity.intValueExact())))
+                .commission(new MoneyAmount().currency(instrument.getCurrency()).value(commission.negate()))
+                .currency(instrument.getCurrency())
+                .payment(buy ? amount.negate() : amount)
+                .price(price)
+                .quantity(quantity.intValueExact())
+                .quantityExecuted(quantity.intValueExact())
+                .figi(order.figi)
+                .instrumentType(instrument.getType())
+                .isMarginCall(false)
+                .date(now)
+                .operationType(buy ? OperationTypeWithCommission.BUY : OperationTypeWithCommission.SELL));
+        logger.trace("Filled {} lots of order {} at {}", lots, order.orderId, price);
+    }
+
+    private void release(RestingOrder order, BigDecimal amount) {
+        order.blocked = order.blocked.subtract(amount);
+        Account account = accounts.get(order.account);
+        if (account == null) {
+            return;
+        }
+        if (order.operation == OperationType.BUY) {
+            Balance cash = account.currency(instrument(order.figi).getCurrency());
+            cash.blocked = cash.blocked.subtract(amount);
+        } else {
+            Holding holding = account.holding(order.figi);
+            holding.blocked = holding.blocked.subtract(amount);
+        }
+    }
+
+    private BigDecimal withCommission(BigDecimal amount) {
+        return amount.add(amount.multiply(commissionRate)).setScale(2, RoundingMode.UP);
+    }
+
+    private MarketInstrument instrument(String figi) {
+        MarketInstrument instrument = instruments.get(figi);
+        if (instrument == null) {
+            throw new IllegalArgumentException("Unknown instrument " + figi);
+        }
+        return instrument;
+    }
+
+    private Account account(String brokerAccountId) {
+        Account account = accounts.get(accountId(brokerAccountId));
+        if (account == null) {
+            throw new IllegalArgumentException("Unknown broker account " + brokerAccountId);
+        }
+        return account;
+    }
+
+    private static String accountId(String brokerAccountId) {
+        return brokerAccountId == null ? DEFAULT_ACCOUNT : brokerAccountId;
+    }
+
+    private static List<OrderResponse> levels(@Nullable List<OrderResponse> levels) {
+        List<OrderResponse> copy = new ArrayList<>();
+        if (levels != null) {
+            for (OrderResponse level : levels) {
+                copy.add(new OrderResponse().price(level.getPrice()).quantity(level.getQuantity()));
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Подключение к имитатору: каждый контекст обслуживает запросы своей группы методов API.
+     */
+    private final class SimulatedOpenApi extends OpenApi {
+
+        private final MarketContext market = new SimulatedMarketContext();
+        private final OrdersContext orders = new SimulatedOrdersContext();
+        private final PortfolioContext portfolio = new SimulatedPortfolioContext();
+        private final OperationsContext operations = new SimulatedOperationsContext();
+        private final UserContext user = new SimulatedUserContext();
+        private final SandboxContext sandbox = new SimulatedSandboxContext();
+
+        private SimulatedOpenApi() {
+            super("simulated", true);
+        }
+
+        @Override
+        public SandboxContext getSandboxContext() {
+            return sandbox;
+        }
+
+        @Override
+        public OrdersContext getOrdersContext() {
+            return orders;
+        }
+
+        @Override
+        public PortfolioContext getPortfolioContext() {
+            return portfolio;
+        }
+
+        @Override
+        public MarketContext getMarketContext() {
+            return market;
+        }
+
+        @Override
+        public OperationsContext getOperationsContext() {
+            return operations;
+        }
+
+        @Override
+        public UserContext getUserContext() {
+            return user;
+        }
+
+        @Override
+        public StreamingContext getStreamingContext() {
+            throw new UnsupportedOperationException("SimulatedBroker does not support streaming");
+        }
+
+        @Override
+        public void close() {
+        }
+
+        @Override
+        public String toString() {
+            return "SimulatedOpenApi";
+        }
+    }
+
+    private final class SimulatedMarketContext implements MarketContext {
+
+        @Override
+        public String getPath() {
+            return "market";
+        }
+
+        @Override
+        public CompletableFuture<MarketInstrumentList> getMarketStocks() {
+            return respond(EndpointGroup.MARKET, () -> instruments(InstrumentType.STOCK));
+        }
+
+        @Override
+        public CompletableFuture<MarketInstrumentList> getMarketBonds() {
+            return respond(EndpointGroup.MARKET, () -> instruments(InstrumentType.BOND));
+        }
+
+        @Override
+        public CompletableFuture<MarketInstrumentList> getMarketEtfs() {
+            return respond(EndpointGroup.MARKET, () -> instruments(InstrumentType.ETF));
+        }
+
+        @Override
+        public CompletableFuture<MarketInstrumentList> getMarketCurrencies() {
+            return respond(EndpointGroup.MARKET, () -> instruments(InstrumentType.CURRENCY));
+        }
+
+        @Override
+        public CompletableFuture<Optional<Orderbook>> getMarketOrderbook(String figi, int depth) {
+            return respond(EndpointGroup.MARKET, () -> SimulatedBroker.this.getMarketOrderbook(figi, depth));
+        }
+
+        @Override
+        public CompletableFuture<Optional<Candles>> getMarketCandles(String figi,
+                                                                    OffsetDateTime from,
+                                                                    OffsetDateTime to,
+                                                                    CandleResolution interval) {
+            return respond(EndpointGroup.MARKET, () -> SimulatedBroker.this.getMarketCandles(figi, from, to, interval));
+        }
+
+        @Override
+        public CompletableFuture<MarketInstrumentList> searchMarketInstrumentsByTicker(String ticker) {
+            return respond(EndpointGroup.MARKET, () -> searchByTicker(ticker));
+        }
+
+        @Override
+        public CompletableFuture<Optional<SearchMarketInstrument>> searchMarketInstrumentByFigi(String figi) {
+            return respond(EndpointGroup.MARKET, () -> searchByFigi(figi));
+        }
+    }
+
+    private final class SimulatedOrdersContext implements OrdersContext {
+
+        @Override
+        public String getPath() {
+            return "orders";
+        }
+
+        @Override
+        public CompletableFuture<List<Order>> getOrders(String brokerAccountId) {
+            return respond(EndpointGroup.ORDERS, () -> SimulatedBroker.this.getOrders(brokerAccountId));
+        }
+
+        @Override
+        public CompletableFuture<PlacedLimitOrder> placeLimitOrder(String figi,
+                                                                   LimitOrderRequest limitOrder,
+                                                                   String brokerAccountId) {
+            return respond(EndpointGroup.ORDERS, () -> SimulatedBroker.this.placeLimitOrder(figi, limitOrder, brokerAccountId));
+        }
+
+        @Override
+        public CompletableFuture<PlacedMarketOrder> placeMarketOrder(String figi,
+                                                                     MarketOrderRequest marketOrder,
+                                                                     String brokerAccountId) {
+            return respond(EndpointGroup.ORDERS, () -> SimulatedBroker.this.placeMarketOrder(figi, marketOrder, brokerAccountId));
+        }
+
+        @Override
+        public CompletableFuture<Void> cancelOrder(String orderId, String brokerAccountId) {
+            return respond(EndpointGroup.ORDERS, () -> SimulatedBroker.this.cancelOrder(orderId, brokerAccountId));
+        }
+    }
+
+    private final class SimulatedPortfolioContext implements PortfolioContext {
+
+        @Override
+        public String getPath() {
+            return "portfolio";
+        }
+
+        @Override
+        public CompletableFuture<Portfolio> getPortfolio(String brokerAccountId) {
+            return respond(EndpointGroup.PORTFOLIO, () -> account(brokerAccountId).portfolio());
+        }
+
+        @Override
+        public CompletableFuture<Currencies> getPortfolioCurrencies(String brokerAccountId) {
+            return respond(EndpointGroup.PORTFOLIO, () -> account(brokerAccountId).currencies());
+        }
+    }
+
+    private final class SimulatedOperationsContext implements OperationsContext {
+
+        @Override
+        public String getPath() {
+            return "operations";
+        }
+
+        @Override
+        public CompletableFuture<Operations> getOperations(OffsetDateTime from,
+                                                           OffsetDateTime to,
+                                                           String figi,
+                                                           String brokerAccountId) {
+            return respond(EndpointGroup.OPERATIONS, () -> SimulatedBroker.this.getOperations(from, to, figi, brokerAccountId));
+        }
+    }
+
+    private final class SimulatedUserContext implements UserContext {
+
+        @Override
+        public String getPath() {
+            return "user";
+        }
+
+        @Override
+        public CompletableFuture<UserAccounts> getAccounts() {
+            return respond(EndpointGroup.USER, SimulatedBroker.this::getAccounts);
+        }
+    }
+
+    private final class SimulatedSandboxContext implements SandboxContext {
+
+        @Override
+        public String getPath() {
+            return "sandbox";
+        }
+
+        @Override
+        public CompletableFuture<SandboxAccount> performRegistration(SandboxRegisterRequest registerRequest) {
+            return respond(EndpointGroup.SANDBOX, () -> register(registerRequest));
+        }
+
+        @Override
+        public CompletableFuture<Void> setCurrencyBalance(SandboxSetCurrencyBalanceRequest balanceRequest,
+                                                          String brokerAccountId) {
+            return respond(EndpointGroup.SANDBOX, () -> SimulatedBroker.this.setCurrencyBalance(balanceRequest, brokerAccountId));
+        }
+
+        @Override
+        public CompletableFuture<Void> setPositionBalance(SandboxSetPositionBalanceRequest balanceRequest,
+                                                          String brokerAccountId) {
+            return respond(EndpointGroup.SANDBOX, () -> SimulatedBroker.this.setPositionBalance(balanceRequest, brokerAccountId));
+        }
+
+        @Override
+        public CompletableFuture<Void> removeAccount(String brokerAccountId) {
+            return respond(EndpointGroup.SANDBOX, () -> SimulatedBroker.this.removeAccount(brokerAccountId));
+        }
+
+        @Override
+        public CompletableFuture<Void> clearAll(String brokerAccountId) {
+            return respond(EndpointGroup.SANDBOX, () -> SimulatedBroker.this.clearAll(brokerAccountId));
+        }
+    }
+
+    /**
+     * Ошибка имитатора при превышении настроенной частоты запросов. Текст совпадает с ответом брокера,
+     * поэтому ошибка распознаётся {@link AdaptiveRateController#DEFAULT_THROTTLING_PREDICATE}.
+     */
+    public static class ThrottledException extends RuntimeException {
+        ThrottledException(EndpointGroup group) {
+            super("429 Too Many Requests: " + group);
+        }
+    }
+
+    public static class Builder {
+        private Duration latency = Duration.ZERO;
+        private final Map<EndpointGroup, Double> throttling = new EnumMap<>(EndpointGroup.class);
+        private BigDecimal commissionRate = new BigDecimal("0.0005");
+        private Scheduler timer = Schedulers.parallel();
+        private OffsetDateTime start = OffsetDateTime.of(2021, 1, 4, 7, 0, 0, 0, ZoneOffset.UTC);
+
+        private Builder() {
+        }
+
+        /**
+         * Задержка каждого ответа. По умолчанию ответы возвращаются сразу.
+         *
+         * @param latency Задержка.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder latency(@NotNull Duration latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * Ограничение частоты запросов группы: сверх него запросы завершаются {@link ThrottledException}.
+         * По умолчанию ограничений нет.
+         *
+         * @param group Группа методов API.
+         * @param requestsPerSecond Допустимое количество запросов в секунду.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder throttle(@NotNull EndpointGroup group, double requestsPerSecond) {
+            throttling.put(group, requestsPerSecond);
+            return this;
+        }
+
+        /**
+         * @param commissionRate Комиссия брокера в долях от суммы сделки.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder commissionRate(@NotNull BigDecimal commissionRate) {
+            this.commissionRate = commissionRate;
+            return this;
+        }
+
+        /**
+         * @param timer Планировщик, по которому отсчитываются задержки ответов и окна ограничения частоты.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder timer(@NotNull Scheduler timer) {
+            this.timer = timer;
+            return this;
+        }
+
+        /**
+         * @param start Начальное время часов имитатора.
+         *
+         * @return Этот же построитель.
+         */
+        @NotNull
+        public Builder start(@NotNull OffsetDateTime start) {
+            this.start = start;
+            return this;
+        }
+
+        @NotNull
+        public SimulatedBroker build() {
+            return new SimulatedBroker(this);
+        }
+    }
+
+    private static final class RestingOrder {
+        final String orderId;
+        final String account;
+        final String figi;
+        final OperationType operation;
+        final int requestedLots;
+        final BigDecimal price;
+        int executedLots;
+        BigDecimal blocked = BigDecimal.ZERO;
+        BigDecimal commission = BigDecimal.ZERO;
+
+        RestingOrder(String orderId, String account, String figi, OperationType operation, int requestedLots, BigDecimal price) {
+            this.orderId = orderId;
+            this.account = account;
+            this.figi = figi;
+            this.operation = operation;
+            this.requestedLots = requestedLots;
+            this.price = price;
+        }
+    }
+
+    private static final class Balance {
+        BigDecimal balance = BigDecimal.ZERO;
+        BigDecimal blocked = BigDecimal.ZERO;
+    }
+
+    private static final class Holding {
+        BigDecimal balance = BigDecimal.ZERO;
+        BigDecimal blocked = BigDecimal.ZERO;
+        BigDecimal averagePrice;
+    }
+
+    private final class Account {
+        final String id;
+        final Map<Currency, Balance> currencies = new EnumMap<>(Currency.class);
+        final Map<String, Holding> holdings = new LinkedHashMap<>();
+        final List<Operation> operations = new ArrayList<>();
+
+        Account(String id) {
+            this.id = id;
+        }
+
+        Balance currency(Currency currency) {
+            return currencies.computeIfAbsent(currency, key -> new Balance());
+        }
+
+        Holding holding(String figi) {
+            return holdings.computeIfAbsent(figi, key -> new Holding());
+        }
+
+        String block(Currency currency, BigDecimal amount) {
+            Balance cash = currency(currency);
+            if (cash.balance.subtract(cash.blocked).compareTo(amount) < 0) {
+                return "Insufficient " + currency + " balance";
+            }
+            cash.blocked = cash.blocked.add(amount);
+            return null;
+        }
+
+        String block(String figi, BigDecimal quantity) {
+            Holding holding = holding(figi);
+            if (holding.balance.subtract(holding.blocked).compareTo(quantity) < 0) {
+                return "Insufficient position in " + figi;
+            }
+            holding.blocked = holding.blocked.add(quantity);
+            return null;
+        }
+
+        Portfolio portfolio() {
+            List<PortfolioPosition> positions = new ArrayList<>();
+            for (Map.Entry<String, Holding> entry : holdings.entrySet()) {
+                Holding holding = entry.getValue();
+                if (holding.balance.signum() == 0) {
+                    continue;
+                }
+                MarketInstrument instrument = instrument(entry.getKey());
+                BigDecimal last = lastPrices.get(entry.getKey());
+                PortfolioPosition position = new PortfolioPosition()
+                        .figi(instrument.getFigi())
+                        .ticker(instrument.getTicker())
+                        .isin(instrument.getIsin())
+                        .instrumentType(instrument.getType())
+                        .name(instrument.getName())
+                        .balance(holding.balance)
+                        .blocked(holding.blocked)
+                        .lots(holding.balance.intValue() / instrument.getLot());
+                if (holding.averagePrice != null) {
+                    position.averagePositionPrice(new MoneyAmount().currency(instrument.getCurrency()).value(holding.averagePrice));
+                    if (last != null) {
+                        position.expectedYield(new MoneyAmount().currency(instrument.getCurrency())
+                                .value(last.subtract(holding.averagePrice).multiply(holding.balance)));
+                    }
+                }
+                positions.add(position);
+            }
+            return new Portfolio().positions(positions);
+        }
+
+        Currencies currencies() {
+            List<CurrencyPosition> list = new ArrayList<>();
+            for (Map.Entry<Currency, Balance> entry : currencies.entrySet()) {
+                list.add(new CurrencyPosition()
+                        .currency(entry.getKey())
+                        .balance(entry.getValue().balance)
+                        .blocked(entry.getValue().blocked));
+            }
+            return new Currencies().currencies(list);
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.util.context.ContextView;
+
+import java.time.Duration;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import java.util.function.Supplier;
+
+/**
+ * Объединение одновременных одинаковых запросов: пока запрос с ключом выполняется, все новые подписчики
+ * получают результат того же {@link CompletableFuture}.
+ *
+ * Запрос выполняется с контекстом подписки первого участника, поэтому на него действует крайний срок
+ * {@link Deadline} этого участника. Каждый участник ждёт результат не дольше своего крайнего срока, а если
+ * запрос завершился по крайнему сроку первого участника, остальные участники, чей срок ещё не истёк,
+ * выполняют запрос заново. Когда отписываются все участники, запрос отменяется, и ожидающее разрешение
+ * возвращается в бюджет.
+ *
+ * @param <K> Тип ключа запроса.
+ * @param <V> Тип результата.
+ */
+class SingleFlight<K, V> {
+
+    private final ConcurrentMap<K, Flight<V>> inFlight = new ConcurrentHashMap<>();
+
+    @NotNull
+    Mono<V> execute(@NotNull K key, @NotNull Supplier<Mono<V>> call) {
+        return Mono.deferContextual(context -> {
+            while (true) {
+                Flight<V> created = new Flight<>();
+                Flight<V> flight = inFlight.putIfAbsent(key, created);
+                if (flight == null) {
+                    created.join();
+                    start(created, call.get(), context, () -> inFlight.remove(key, created));
+                    return share(created, context);
+                }
+                if (flight.join()) {
+                    return share(flight, context)
+                            .onErrorResume(e -> isForeignDeadline(e, context), e -> execute(key, call));
+                }
+                // Запрос уже завершён или все участники отписались, но он ещё не удалён.
+                inFlight.remove(key, flight);
+            }
+        });
+    }
+
+    static <V> void start(Flight<V> flight, Mono<V> call, ContextView context, Runnable onDone) {
+        flight.future.whenComplete((v, e) -> onDone.run());
+        flight.lead(call.contextWrite(context)
+                .subscribe(flight.future::complete, flight.future::completeExceptionally, () -> flight.future.complete(null)));
+    }
+
+    /**
+     * Результат запроса для участника, уже учтённого {@link Flight#join()}, не позже крайнего срока
+     * этого участника.
+     */
+    static <V> Mono<V> share(Flight<V> flight, ContextView context) {
+        // Отмена зависимого future не затрагивает общий; запрос отменяется, только когда уходит последний участник.
+        Mono<V> shared = Mono.fromFuture(flight.future.thenApply(Function.identity()))
+                .doFinally(signal -> flight.leave());
+        Deadline deadline = Deadline.from(context);
+        if (deadline == null) {
+            return shared;
+        }
+        Duration remaining = deadline.remaining();
+        return shared.timeout(remaining.isNegative() ? Duration.ZERO : remaining, Mono.error(() ->
+                new DeadlineExceededException("Shared call did not complete before the deadline")));
+    }
+
+    /**
+     * Проверка, что присоединившийся участник получил ошибку крайнего срока первого участника, а его
+     * собственный срок ещё не истёк, и запрос нужно выполнить заново.
+     */
+    static boolean isForeignDeadline(Throwable error, ContextView context) {
+        if (!(error instanceof DeadlineExceededException || error instanceof OutcomeUnknownException)) {
+            return false;
+        }
+        Deadline own = Deadline.from(context);
+        return own == null || !own.isExpired();
+    }
+
+    /**
+     * Выполняющийся запрос и число его участников.
+     *
+     * @param <V> Тип результата.
+     */
+    static class Flight<V> {
+
+        final CompletableFuture<V> future = new CompletableFuture<>();
+
+        private int participants;
+        private boolean abandoned;
+        private Disposable leader;
+
+        /**
+         * @return false, если запрос уже завершён или все участники отписались, и к нему нельзя присоединиться.
+         */
+        synchronized boolean join() {
+            if (abandoned || future.isDone()) {
+                return false;
+            }
+            participants++;
+            return true;
+        }
+
+        private void lead(Disposable subscription) {
+            synchronized (this) {
+                if (!abandoned) {
+                    leader = subscription;
+                    return;
+                }
+            }
+            subscription.dispose();
+        }
+
+        private void leave() {
+            Disposable subscription;
+            synchronized (this) {
+                if (--participants > 0 || future.isDone()) {
+                    return;
+                }
+                abandoned = true;
+                subscription = leader;
+            }
+            if (subscription != null) {
+                subscription.dispose();
+            }
+            future.completeExceptionally(new CancellationException("All subscribers cancelled"));
+        }
+    }
+}
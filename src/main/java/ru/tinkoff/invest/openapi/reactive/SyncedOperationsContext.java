@@ -0,0 +1,175 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.tinkoff.invest.openapi.model.rest.Operation;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Получение операций через локальные журналы счетов: с сервера запрашиваются только операции,
+ * появившиеся после последней синхронизации, а выборки выполняются по индексу журнала.
+ */
+public class SyncedOperationsContext implements Closeable {
+
+    private static final Logger logger = LoggerFactory.getLogger(SyncedOperationsContext.class);
+
+    private static final String DEFAULT_ACCOUNT = "default";
+
+    private final ReactiveOperationsContext operations;
+    private final Path directory;
+    private final OffsetDateTime historyStart;
+    private final Duration overlap;
+    private final ConcurrentMap<String, OperationsJournal> journals = new ConcurrentHashMap<>();
+    private final SingleFlight<String, Integer> syncs = new SingleFlight<>();
+
+    /**
+     * @param operations   Контекст операций.
+     * @param directory    Каталог журналов; для каждого счёта создаётся свой подкаталог.
+     * @param historyStart Начало истории, загружаемой при первой синхронизации счёта.
+     * @param overlap      Перекрытие с последней синхронизацией, в которое попадают поздно изменившиеся операции.
+     */
+    public SyncedOperationsContext(@NotNull ReactiveOperationsContext operations,
+                                   @NotNull Path directory,
+                                   @NotNull OffsetDateTime historyStart,
+                                   @NotNull Duration overlap) throws IOException {
+        this.operations = operations;
+        this.directory = Files.createDirectories(directory);
+        this.historyStart = historyStart;
+        this.overlap = overlap;
+    }
+
+    /**
+     * Дозагрузка операций, появившихся после последней синхронизации счёта.
+     * Одновременные вызовы для одного счёта объединяются в один запрос.
+     *
+     * @param brokerAccountId Идентификатор брокерского счёта.
+     *
+     * @return Количество новых и изменившихся операций.
+     */
+    @NotNull
+    public Mono<Integer> sync(@Nullable String brokerAccountId) {
+        String account = brokerAccountId == null ? DEFAULT_ACCOUNT : brokerAccountId;
+        return syncs.execute(account, () -> Mono.fromCallable(() -> journal(account))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMap(journal -> {
+                    Instant watermark = journal.getWatermark();
+                    OffsetDateTime from = watermark == null
+                            ? historyStart
+                            : OffsetDateTime.ofInstant(watermark.minus(overlap), ZoneOffset.UTC);
+                    OffsetDateTime to = OffsetDateTime.now(ZoneOffset.UTC);
+                    logger.debug("Syncing operations of {} since {}", account, from);
+                    return operations.getOperations(from, to, null, brokerAccountId)
+                            .collectList()
+                            .publishOn(Schedulers.boundedElastic())
+                            .map(fetched -> {
+                                try {
+                                    return journal.append(fetched);
+                                } catch (IOException e) {
+                                    throw new UncheckedIOException(e);
+                                }
+                            });
+                }));
+    }
+
+    /**
+     * Асинхронное получение списка прошедших операций: журнал счёта синхронизируется,
+     * после чего выборка выполняется локально.
+     *
+     * @param from            Дата/время начала промежутка времени.
+     * @param to              Дата/время конца промежутка времени.
+     * @param figi            Идентификатор инструмента.
+     * @param brokerAccountId Идентификатор брокерского счёта.
+     *
+     * @return Список операций в порядке времени.
+     */
+    @NotNull
+    public Flux<Operation> getOperations(@NotNull OffsetDateTime from,
+                                         @NotNull OffsetDateTime to,
+                                         @Nullable String figi,
+                                         @Nullable String brokerAccountId) {
+        return sync(brokerAccountId).thenMany(getJournalled(from, to, figi, brokerAccountId));
+    }
+
+    /**
+     * Выборка операций только из локального журнала, без обращения к серверу.
+     *
+     * @param from            Дата/время начала промежутка времени.
+     * @param to              Дата/время конца промежутка времени.
+     * @param figi            Идентификатор инструмента.
+     * @param brokerAccountId Идентификатор брокерского счёта.
+     *
+     * @return Список операций в порядке времени.
+     */
+    @NotNull
+    public Flux<Operation> getJournalled(@NotNull OffsetDateTime from,
+                                         @NotNull OffsetDateTime to,
+                                         @Nullable String figi,
+                                         @Nullable String brokerAccountId) {
+        String account = brokerAccountId == null ? DEFAULT_ACCOUNT : brokerAccountId;
+        return Mono.fromCallable(() -> journal(account).read(from.toInstant(), to.toInstant(), figi))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapIterable(list -> list);
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException failure = null;
+        for (OperationsJournal journal : journals.values()) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                failure = e;
+            }
+        }
+        journals.clear();
+        if (failure != null) {
+            throw failure;
+        }
+    }
+
+    private OperationsJournal journal(String account) throws IOException {
+        try {
+            return journals.computeIfAbsent(account, key -> {
+                try {
+                    return new OperationsJournal(directory.resolve(key));
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+    }
+}
@@ -0,0 +1,284 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.scheduler.Schedulers;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Загрузка свечей по множеству инструментов.
+ *
+ * Одновременно загружается ограниченное число инструментов, и у каждого в очереди лимита стоит не больше
+ * одного запроса, поэтому очередь разрешений обслуживает инструменты по кругу и ни один из них не ждёт,
+ * пока другой загрузит всю историю. Инструменты, полностью покрытые локальным хранилищем, выдаются
+ * первыми и не расходуют лимит; остальные обрабатываются начиная с требующих меньше запросов, чтобы
+ * результаты начинали приходить как можно раньше. Результаты выдаются по мере готовности с учётом
+ * запросов подписчика.
+ */
+public class UniverseScanner {
+
+    private static final Logger logger = LoggerFactory.getLogger(UniverseScanner.class);
+
+    private final CandleSource remote;
+    private final CandleStore store;
+    private final CandleSource cached;
+    private final int concurrency;
+
+    /**
+     * @param remote      Источник свечей, расходующий лимит запросов, например {@link ReactiveMarketContext}.
+     * @param store       Локальное хранилище или null, если загружать всё с сервера.
+     * @param concurrency Количество одновременно загружаемых инструментов.
+     */
+    public UniverseScanner(@NotNull CandleSource remote, @Nullable CandleStore store, int concurrency) {
+        if (concurrency < 1) {
+            throw new IllegalArgumentException("concurrency must be positive: " + concurrency);
+        }
+        this.remote = remote;
+        this.store = store;
+        this.cached = store == null ? null : new CachedCandlesContext(remote, store);
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * Загрузка свечей по инструментам.
+     *
+     * @param figis    Идентификаторы инструментов.
+     * @param from     Начальный момент отрезка.
+     * @param to       Конечный момент отрезка.
+     * @param interval Разрешающий интервал свечей.
+     *
+     * @return Результаты по инструментам в порядке готовности.
+     */
+    @NotNull
+    public Flux<Result> scan(@NotNull Collection<String> figis,
+                             @NotNull OffsetDateTime from,
+                             @NotNull OffsetDateTime to,
+                             @NotNull CandleResolution interval) {
+        return scan(figis, from, to, interval, progress -> { });
+    }
+
+    /**
+     * Загрузка свечей по инструментам с отчётом о ходе загрузки.
+     *
+     * @param figis    Идентификаторы инструментов.
+     * @param from     Начальный момент отрезка.
+     * @param to       Конечный момент отрезка.
+     * @param interval Разрешающий интервал свечей.
+     * @param progress Получатель отчётов, вызывается после каждого готового инструмента.
+     *
+     * @return Результаты по инструментам в порядке готовности.
+     */
+    @NotNull
+    public Flux<Result> scan(@NotNull Collection<String> figis,
+                             @NotNull OffsetDateTime from,
+                             @NotNull OffsetDateTime to,
+                             @NotNull CandleResolution interval,
+                             @NotNull Consumer<Progress> progress) {
+        return Mono.fromCallable(() -> plan(figis, from, to, interval))
+                .subscribeOn(Schedulers.boundedElastic())
+                .flatMapMany(tasks -> {
+                    long totalRequests = tasks.stream().mapToLong(task -> task.requests).sum();
+                    logger.debug("Scanning {} instruments, {} requests to the server", tasks.size(), totalRequests);
+                    Instant started = Instant.now();
+                    AtomicInteger completed = new AtomicInteger();
+                    AtomicLong completedRequests = new AtomicLong();
+                    return Flux.fromIterable(tasks)
+                            .flatMap(task -> load(task, from, to, interval), concurrency)
+                            .doOnNext(result -> {
+                                long requests = completedRequests.addAndGet(result.requests);
+                                progress.accept(new Progress(completed.incrementAndGet(), tasks.size(),
+                                        requests, totalRequests, started));
+                            });
+                });
+    }
+
+    private List<Task> plan(Collection<String> figis, OffsetDateTime from, OffsetDateTime to, CandleResolution interval)
+            throws IOException {
+        List<Task> tasks = new ArrayList<>(figis.size());
+        int fullRange = CandleResolutions.windows(from, to, interval).size();
+        for (String figi : figis) {
+            if (store == null) {
+                tasks.add(new Task(figi, fullRange));
+                continue;
+            }
+            int requests = 0;
+            for (long[] gap : store.missing(figi, interval, from, to)) {
+                requests += CandleResolutions.windows(time(gap[0]), time(gap[1]), interval).size();
+            }
+            tasks.add(new Task(figi, requests));
+        }
+        tasks.sort(Comparator.comparingInt(task -> task.requests));
+        return tasks;
+    }
+
+    private Mono<Result> load(Task task, OffsetDateTime from, OffsetDateTime to, CandleResolution interval) {
+        Flux<Candle> candles = cached != null
+                ? cached.getMarketCandles(task.figi, from, to, interval)
+                : Flux.fromIterable(CandleResolutions.windows(from, to, interval))
+                        .concatMap(window -> remote.getMarketCandles(task.figi, window[0], window[1], interval));
+        return candles.collectList()
+                .map(list -> new Result(task.figi, list, null, task.requests))
+                .onErrorResume(e -> {
+                    logger.warn("Cannot scan {}", task.figi, e);
+                    return Mono.just(new Result(task.figi, List.of(), e, task.requests));
+                });
+    }
+
+    private static OffsetDateTime time(long millis) {
+        return OffsetDateTime.ofInstant(Instant.ofEpochMilli(millis), ZoneOffset.UTC);
+    }
+
+    /**
+     * Результат загрузки одного инструмента.
+     */
+    public static final class Result {
+
+        private final String figi;
+        private final List<Candle> candles;
+        private final Throwable error;
+        private final int requests;
+
+        private Result(String figi, List<Candle> candles, Throwable error, int requests) {
+            this.figi = figi;
+            this.candles = candles;
+            this.error = error;
+            this.requests = requests;
+        }
+
+        @NotNull
+        public String getFigi() {
+            return figi;
+        }
+
+        /**
+         * @return Свечи в порядке времени; пустой список при ошибке.
+         */
+        @NotNull
+        public List<Candle> getCandles() {
+            return candles;
+        }
+
+        /**
+         * @return Ошибка загрузки или null.
+         */
+        @Nullable
+        public Throwable getError() {
+            return error;
+        }
+
+        /**
+         * @return true, если данные полностью взяты из локального хранилища.
+         */
+        public boolean isCached() {
+            return requests == 0;
+        }
+    }
+
+    /**
+     * Ход загрузки.
+     */
+    public static final class Progress {
+
+        private final int completedInstruments;
+        private final int totalInstruments;
+        private final long completedRequests;
+        private final long totalRequests;
+        private final Instant started;
+
+        private Progress(int completedInstruments,
+                         int totalInstruments,
+                         long completedRequests,
+                         long totalRequests,
+                         Instant started) {
+            this.completedInstruments = completedInstruments;
+            this.totalInstruments = totalInstruments;
+            this.completedRequests = completedRequests;
+            this.totalRequests = totalRequests;
+            this.started = started;
+        }
+
+        public int getCompletedInstruments() {
+            return completedInstruments;
+        }
+
+        public int getTotalInstruments() {
+            return totalInstruments;
+        }
+
+        /**
+         * @return Количество выполненных запросов к серверу.
+         */
+        public long getCompletedRequests() {
+            return completedRequests;
+        }
+
+        /**
+         * @return Количество запросов к серверу, необходимых для всей загрузки.
+         */
+        public long getTotalRequests() {
+            return totalRequests;
+        }
+
+        /**
+         * Оценка оставшегося времени по наблюдаемой скорости выполнения запросов.
+         *
+         * @return Оценка или null, если ни один запрос к серверу ещё не выполнен.
+         */
+        @Nullable
+        public Duration getEta() {
+            if (completedRequests == totalRequests) {
+                return Duration.ZERO;
+            }
+            if (completedRequests == 0) {
+                return null;
+            }
+            Duration elapsed = Duration.between(started, Instant.now());
+            return elapsed.multipliedBy(totalRequests - completedRequests).dividedBy(completedRequests);
+        }
+    }
+
+    private static final class Task {
+
+        private final String figi;
+        private final int requests;
+
+        private Task(String figi, int requests) {
+            this.figi = figi;
+            this.requests = requests;
+        }
+    }
+}
@@ -0,0 +1,232 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.core.publisher.Sinks;
+import reactor.test.scheduler.VirtualTimeScheduler;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.model.rest.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка {@link ActiveOrders} на имитаторе брокера: ответы сверки, задержанные относительно локальных
+ * изменений и друг друга, не откатывают реестр к устаревшему состоянию.
+ */
+class ActiveOrdersTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final String FIGI = "BBG000B9XRY4";
+
+    private OpenApi api;
+    private HeldOrdersListContext ordersList;
+    private ActiveOrders activeOrders;
+
+    @BeforeEach
+    void setUp() {
+        SimulatedBroker broker = SimulatedBroker.builder().commissionRate(BigDecimal.ZERO).build();
+        broker.addInstrument(new MarketInstrument()
+                .figi(FIGI)
+                .ticker("AAPL")
+                .lot(1)
+                .currency(Currency.USD)
+                .type(InstrumentType.STOCK)
+                .minPriceIncrement(new BigDecimal("0.01"))
+                .name("Apple"));
+        api = broker.toOpenApi();
+        api.getSandboxContext().setCurrencyBalance(new SandboxSetCurrencyBalanceRequest()
+                .currency(SandboxCurrency.USD).balance(new BigDecimal("1000000")), null).join();
+        RateLimitRegistry.Builder registry = RateLimitRegistry.builder();
+        for (EndpointGroup group : EndpointGroup.values()) {
+            registry.rate(group, 10_000);
+        }
+        RateLimitRegistry rateLimits = registry.build();
+        ordersList = new HeldOrdersListContext(api, rateLimits);
+        activeOrders = new ActiveOrders(new ReactiveOrdersContext(api, rateLimits), ordersList, null);
+    }
+
+    @AfterEach
+    void tearDown() {
+        activeOrders.dispose();
+    }
+
+    @Test
+    void cancelDuringReconciliationIsNotUndoneByStaleResponse() throws Exception {
+        String orderId = place(activeOrders);
+        ordersList.hold = true;
+        CompletableFuture<Integer> reconciled = activeOrders.reconcile().toFuture();
+        assertEquals(1, ordersList.pending.size());
+
+        activeOrders.cancelOrder(orderId).block(TIMEOUT);
+        assertNull(activeOrders.getOrder(orderId));
+
+        ordersList.releaseNext();
+        assertEquals(0, reconciled.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        assertNull(activeOrders.getOrder(orderId));
+        assertTrue(activeOrders.getOrders(FIGI).isEmpty());
+    }
+
+    @Test
+    void olderResponseAfterNewerIsIgnored() throws Exception {
+        String orderId = place(activeOrders);
+        ordersList.hold = true;
+        CompletableFuture<Integer> older = activeOrders.reconcile().toFuture();
+        api.getOrdersContext().cancelOrder(orderId, null).join();
+        CompletableFuture<Integer> newer = activeOrders.reconcile().toFuture();
+        assertEquals(2, ordersList.pending.size());
+
+        ordersList.releaseLast();
+        assertEquals(1, newer.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        assertNull(activeOrders.getOrder(orderId));
+
+        ordersList.releaseNext();
+        assertEquals(0, older.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        assertNull(activeOrders.getOrder(orderId));
+    }
+
+    @Test
+    void orderPlacedDuringReconciliationIsKept() throws Exception {
+        ordersList.hold = true;
+        CompletableFuture<Integer> reconciled = activeOrders.reconcile().toFuture();
+
+        String orderId = place(activeOrders);
+
+        ordersList.releaseNext();
+        assertEquals(0, reconciled.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS));
+        assertNotNull(activeOrders.getOrder(orderId));
+    }
+
+    @Test
+    void serverSideChangesAreReportedAsReconciled() {
+        String ownId = place(activeOrders);
+        String foreignId = api.getOrdersContext().placeLimitOrder(FIGI, request(), null).join().getOrderId();
+        api.getOrdersContext().cancelOrder(ownId, null).join();
+        List<ActiveOrders.Change> changes = new CopyOnWriteArrayList<>();
+        activeOrders.changes().subscribe(changes::add);
+
+        assertEquals(2, activeOrders.reconcile().block(TIMEOUT));
+
+        assertEquals(2, changes.size());
+        assertTrue(changes.stream().allMatch(ActiveOrders.Change::isReconciled));
+        assertEquals(ActiveOrders.ChangeType.ADDED, changes.get(0).getType());
+        assertEquals(foreignId, changes.get(0).getOrder().getOrderId());
+        assertEquals(ActiveOrders.ChangeType.REMOVED, changes.get(1).getType());
+        assertEquals(ownId, changes.get(1).getOrder().getOrderId());
+        assertEquals(0, activeOrders.reconcile().block(TIMEOUT));
+    }
+
+    @Test
+    void suspicionTriggersReconciliationWithoutWaiting() {
+        VirtualTimeScheduler scheduler = VirtualTimeScheduler.create();
+        ActiveOrders background = new ActiveOrders(new ReactiveOrdersContext(api, RateLimitRegistry.builder()
+                .rate(EndpointGroup.ORDERS, 10_000).build()), ordersList, null,
+                Duration.ofHours(1), Duration.ofHours(2), scheduler);
+        try {
+            background.start();
+            assertEquals(1, ordersList.calls);
+            String orderId = api.getOrdersContext().placeLimitOrder(FIGI, request(), null).join().getOrderId();
+
+            background.suspect();
+
+            assertEquals(2, ordersList.calls);
+            assertNotNull(background.getOrder(orderId));
+        } finally {
+            background.dispose();
+            scheduler.dispose();
+        }
+    }
+
+    private static String place(ActiveOrders activeOrders) {
+        PlacedLimitOrder placed = activeOrders.placeLimitOrder(FIGI, request()).block(TIMEOUT);
+        assertNotNull(placed);
+        assertEquals(OrderStatus.NEW, placed.getStatus());
+        return placed.getOrderId();
+    }
+
+    private static LimitOrderRequest request() {
+        return new LimitOrderRequest().lots(1).operation(OperationType.BUY).price(new BigDecimal("100"));
+    }
+
+    /**
+     * Контекст списка заявок, который снимает состояние сервера в момент запроса, но может задержать ответ.
+     */
+    private static final class HeldOrdersListContext extends ReactiveOrdersListContext {
+
+        final Queue<Held> pending = new ConcurrentLinkedQueue<>();
+        volatile boolean hold;
+        volatile int calls;
+
+        HeldOrdersListContext(OpenApi openApi, RateLimitRegistry rateLimits) {
+            super(openApi, rateLimits);
+        }
+
+        @Override
+        public Flux<Order> getOrders(String brokerAccountId) {
+            calls++;
+            if (!hold) {
+                return super.getOrders(brokerAccountId);
+            }
+            Held held = new Held(super.getOrders(brokerAccountId).collectList().block(TIMEOUT));
+            pending.add(held);
+            return held.response.asMono().flatMapIterable(orders -> orders);
+        }
+
+        void releaseNext() {
+            pending.remove().release();
+        }
+
+        void releaseLast() {
+            Held last = null;
+            for (Held held : pending) {
+                last = held;
+            }
+            pending.remove(last);
+            last.release();
+        }
+    }
+
+    private static final class Held {
+        final List<Order> snapshot;
+        final Sinks.One<List<Order>> response = Sinks.one();
+
+        Held(List<Order> snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        void release() {
+            response.tryEmitValue(snapshot);
+        }
+    }
+}
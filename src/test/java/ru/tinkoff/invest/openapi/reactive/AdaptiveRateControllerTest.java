@@ -0,0 +1,148 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка {@link AdaptiveRateController} против локальной заглушки брокера, детерминированно
+ * отвечающей 429 сверх заданного числа запросов в секунду виртуального времени.
+ */
+class AdaptiveRateControllerTest {
+
+    private static final double CEILING = 10;
+    private static final Duration PROBE_INTERVAL = Duration.ofSeconds(5);
+
+    private VirtualTimeScheduler time;
+    private PermitScheduler permits;
+    private AdaptiveRateController controller;
+
+    @BeforeEach
+    void setUp() {
+        time = VirtualTimeScheduler.create();
+        permits = new PermitScheduler(CEILING, time);
+        controller = new AdaptiveRateController(EndpointGroup.MARKET, permits, time, CEILING, PROBE_INTERVAL,
+                AdaptiveRateController.DEFAULT_THROTTLING_PREDICATE, 20);
+    }
+
+    @Test
+    void burstOfThrottledResponsesDecreasesRateOnce() {
+        for (int i = 0; i < 10; i++) {
+            controller.onThrottled();
+        }
+
+        assertEquals(CEILING / 2, controller.getRate());
+        assertEquals(CEILING / 2, permits.getRate(), 1e-6);
+    }
+
+    @Test
+    void throttlingAfterProbeIntervalDecreasesAgain() {
+        controller.onThrottled();
+        time.advanceTimeBy(PROBE_INTERVAL.dividedBy(2));
+        controller.onThrottled();
+        assertEquals(CEILING / 2, controller.getRate());
+
+        time.advanceTimeBy(PROBE_INTERVAL);
+        controller.onThrottled();
+        assertEquals(CEILING / 4, controller.getRate());
+    }
+
+    @Test
+    void rateIsProbedUpOnlyAfterQuietInterval() {
+        controller.onThrottled();
+        time.advanceTimeBy(PROBE_INTERVAL.minusMillis(1));
+        controller.onSuccess();
+        assertEquals(CEILING / 2, controller.getRate());
+
+        time.advanceTimeBy(Duration.ofMillis(1));
+        controller.onSuccess();
+        assertEquals(CEILING / 2 + CEILING / 10, controller.getRate());
+        assertEquals(CEILING / 2 + CEILING / 10, permits.getRate(), 1e-6);
+    }
+
+    @Test
+    void throttledCallIsRetriedTransparently() {
+        ThrottlingBroker broker = new ThrottlingBroker(time, 0);
+
+        StepVerifier.withVirtualTime(() -> controller.apply(permits.acquire().then(broker.call())),
+                        () -> time, Long.MAX_VALUE)
+                .expectSubscription()
+                .thenAwait(Duration.ofSeconds(2))
+                .expectNext(1)
+                .verifyComplete();
+        assertEquals(CEILING / 2, controller.getRate());
+    }
+
+    @Test
+    void sustainedThrottlingConvergesWithoutCollapsingToFloor() {
+        ThrottlingBroker broker = new ThrottlingBroker(time, 4);
+
+        StepVerifier.withVirtualTime(() -> Flux.range(0, 40)
+                                .flatMap(i -> controller.apply(permits.acquire().then(broker.call()))),
+                        () -> time, Long.MAX_VALUE)
+                .expectSubscription()
+                .thenAwait(Duration.ofMinutes(1))
+                .expectNextCount(40)
+                .verifyComplete();
+        assertTrue(controller.getRate() < CEILING, "rate was not lowered: " + controller.getRate());
+        assertTrue(controller.getRate() > CEILING / 20, "rate collapsed to the floor: " + controller.getRate());
+    }
+
+    /**
+     * Заглушка брокера: в каждой секунде виртуального времени пропускает не более {@code perSecond}
+     * запросов, остальные завершает ошибкой 429. При {@code perSecond == 0} отказывает только в первую секунду.
+     */
+    private static final class ThrottlingBroker {
+
+        private final VirtualTimeScheduler time;
+        private final int perSecond;
+        private long window = -1;
+        private int calls;
+        private int served;
+
+        private ThrottlingBroker(VirtualTimeScheduler time, int perSecond) {
+            this.time = time;
+            this.perSecond = perSecond;
+        }
+
+        Mono<Integer> call() {
+            return Mono.defer(() -> {
+                long second = time.now(TimeUnit.SECONDS);
+                if (second != window) {
+                    window = second;
+                    calls = 0;
+                }
+                boolean allowed = perSecond == 0 ? second > 0 : ++calls <= perSecond;
+                if (!allowed) {
+                    return Mono.error(new RuntimeException("429 Too Many Requests"));
+                }
+                return Mono.just(++served);
+            });
+        }
+    }
+}
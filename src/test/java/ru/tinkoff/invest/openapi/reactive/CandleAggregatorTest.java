@@ -0,0 +1,132 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.EnumSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Проверка {@link CandleAggregator}: смена отрезков, замена незакрытой свечи и ограничение объёма.
+ */
+class CandleAggregatorTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final String FIGI = "BBG000B9XRY4";
+    private static final OffsetDateTime T0 = OffsetDateTime.of(2021, 3, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+
+    @Test
+    void rollsOverToNextBucket() {
+        Flux<Candle> minutes = Flux.range(0, 7).map(i -> minute(i, 100 + i, 100 + i + 0.5, 99 + i, 100 + i + 0.25, 10));
+
+        List<Candle> result = aggregate(minutes, false);
+
+        assertEquals(2, result.size());
+        assertCandle(result.get(0), T0, "100", "104.5", "99", "104.25", 50);
+        assertCandle(result.get(1), T0.plusMinutes(5), "105", "106.5", "104", "106.25", 20);
+    }
+
+    @Test
+    void sameTimeCandleReplacesPrevious() {
+        Flux<Candle> minutes = Flux.just(
+                minute(0, 100, 101, 99, 100, 10),
+                minute(1, 100, 105, 100, 104, 5),
+                minute(1, 100, 102, 95, 101, 7),
+                minute(2, 101, 101, 100, 100.5, 3));
+
+        List<Candle> result = aggregate(minutes, false);
+
+        assertEquals(1, result.size());
+        assertCandle(result.get(0), T0, "100", "102", "95", "100.5", 20);
+    }
+
+    @Test
+    void partialUpdatesKeepBucketTime() {
+        Flux<Candle> minutes = Flux.just(
+                minute(0, 100, 101, 99, 100, 10),
+                minute(1, 100, 103, 100, 102, 5),
+                minute(1, 100, 104, 100, 103, 6),
+                minute(5, 103, 103, 103, 103, 1));
+
+        List<Candle> result = aggregate(minutes, true);
+
+        assertEquals(4, result.size());
+        assertCandle(result.get(0), T0, "100", "101", "99", "100", 10);
+        assertCandle(result.get(1), T0, "100", "103", "99", "102", 15);
+        assertCandle(result.get(2), T0, "100", "104", "99", "103", 16);
+        assertCandle(result.get(3), T0.plusMinutes(5), "103", "103", "103", "103", 1);
+    }
+
+    @Test
+    void clampsVolumeBeyondIntRange() {
+        Flux<Candle> minutes = Flux.range(0, 3).map(i -> minute(i, 100, 100, 100, 100, Integer.MAX_VALUE / 2 + 1));
+
+        List<Candle> result = aggregate(minutes, false);
+
+        assertEquals(Integer.MAX_VALUE, result.get(0).getV());
+    }
+
+    @Test
+    void rejectsTargetThatIsNotMultipleOfSource() {
+        Flux<Candle> candles = Flux.just(minute(0, 100, 100, 100, 100, 1).interval(CandleResolution._10MIN));
+
+        StepVerifier.create(CandleAggregator.aggregate(candles, EnumSet.of(CandleResolution._15MIN), ZoneOffset.UTC, false))
+                .expectError(IllegalArgumentException.class)
+                .verify(TIMEOUT);
+    }
+
+    private static List<Candle> aggregate(Flux<Candle> minutes, boolean partial) {
+        return CandleAggregator.aggregate(minutes, EnumSet.of(CandleResolution._5MIN), ZoneOffset.UTC, partial)
+                .collectList()
+                .block(TIMEOUT);
+    }
+
+    private static Candle minute(int offset, double o, double h, double l, double c, int v) {
+        return new Candle()
+                .figi(FIGI)
+                .interval(CandleResolution._1MIN)
+                .time(T0.plusMinutes(offset))
+                .o(BigDecimal.valueOf(o))
+                .h(BigDecimal.valueOf(h))
+                .l(BigDecimal.valueOf(l))
+                .c(BigDecimal.valueOf(c))
+                .v(v);
+    }
+
+    private static void assertCandle(Candle candle, OffsetDateTime time, String o, String h, String l, String c, int v) {
+        assertEquals(FIGI, candle.getFigi());
+        assertEquals(CandleResolution._5MIN, candle.getInterval());
+        assertEquals(time.toInstant(), candle.getTime().toInstant());
+        assertEquals(0, new BigDecimal(o).compareTo(candle.getO()), "open");
+        assertEquals(0, new BigDecimal(h).compareTo(candle.getH()), "high");
+        assertEquals(0, new BigDecimal(l).compareTo(candle.getL()), "low");
+        assertEquals(0, new BigDecimal(c).compareTo(candle.getC()), "close");
+        assertEquals(v, candle.getV(), "volume");
+    }
+}
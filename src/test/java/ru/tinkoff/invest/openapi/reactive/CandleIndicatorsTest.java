@@ -0,0 +1,176 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.Test;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+
+import java.math.BigDecimal;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка {@link CandleIndicators}: значения на длинном ряду с обновлениями незакрытых свечей
+ * совпадают с прямым пересчётом по окну.
+ */
+class CandleIndicatorsTest {
+
+    private static final int PERIOD = 20;
+    private static final int CANDLES = 20_000;
+    private static final OffsetDateTime T0 = OffsetDateTime.of(2021, 3, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+
+    @Test
+    void smaOfShortSeries() {
+        CandleIndicators.Sma sma = new CandleIndicators.Sma(3);
+
+        assertTrue(Double.isNaN(sma.update(candle(0, 1, 1, 1, 1))));
+        assertTrue(Double.isNaN(sma.update(candle(1, 2, 2, 2, 1))));
+        assertFalse(sma.isReady());
+        assertEquals(2.0, sma.update(candle(2, 3, 3, 3, 1)), 1e-12);
+        assertEquals(3.0, sma.update(candle(3, 4, 4, 4, 1)), 1e-12);
+        assertEquals(4.0, sma.update(candle(3, 7, 7, 7, 1)), 1e-12);
+    }
+
+    @Test
+    void matchesReferenceOnLongSeriesWithRevisions() {
+        CandleIndicators.Sma sma = new CandleIndicators.Sma(PERIOD);
+        CandleIndicators.Ema ema = new CandleIndicators.Ema(PERIOD);
+        CandleIndicators.Vwap vwap = new CandleIndicators.Vwap(PERIOD);
+        CandleIndicators.Atr atr = new CandleIndicators.Atr(PERIOD);
+        CandleIndicators.Bollinger bollinger = new CandleIndicators.Bollinger(PERIOD, 2);
+
+        Random random = new Random(42);
+        List<Candle> series = new ArrayList<>();
+        double price = 10_000;
+        for (int i = 0; i < CANDLES; i++) {
+            int revisions = random.nextInt(3);
+            for (int r = 0; r <= revisions; r++) {
+                price = Math.max(1, price + random.nextGaussian() * 5);
+                double high = price + random.nextDouble() * 3;
+                double low = price - random.nextDouble() * 3;
+                Candle candle = candle(i, high, low, price, 1 + random.nextInt(1_000_000));
+                if (r == 0) {
+                    series.add(candle);
+                } else {
+                    series.set(series.size() - 1, candle);
+                }
+                sma.update(candle);
+                ema.update(candle);
+                vwap.update(candle);
+                atr.update(candle);
+                bollinger.update(candle);
+            }
+            if (series.size() < PERIOD) {
+                assertFalse(sma.isReady());
+                assertFalse(vwap.isReady());
+                assertFalse(bollinger.isReady());
+                continue;
+            }
+            List<Candle> window = series.subList(series.size() - PERIOD, series.size());
+            assertClose(referenceSma(window), sma.getValue(), "SMA at " + i);
+            assertClose(referenceVwap(window), vwap.getValue(), "VWAP at " + i);
+            assertClose(referenceSma(window), bollinger.getValue(), "Bollinger at " + i);
+            assertClose(referenceSma(window) + 2 * referenceDeviation(window), bollinger.getUpper(), "upper at " + i);
+            assertClose(referenceSma(window) - 2 * referenceDeviation(window), bollinger.getLower(), "lower at " + i);
+        }
+        assertClose(referenceEma(series, 2.0 / (PERIOD + 1), false), ema.getValue(), "EMA");
+        assertClose(referenceEma(series, 1.0 / PERIOD, true), atr.getValue(), "ATR");
+    }
+
+    private static double referenceSma(List<Candle> window) {
+        double sum = 0;
+        for (Candle candle : window) {
+            sum += candle.getC().doubleValue();
+        }
+        return sum / window.size();
+    }
+
+    private static double referenceDeviation(List<Candle> window) {
+        double mean = referenceSma(window);
+        double sum = 0;
+        for (Candle candle : window) {
+            double d = candle.getC().doubleValue() - mean;
+            sum += d * d;
+        }
+        return Math.sqrt(sum / window.size());
+    }
+
+    private static double referenceVwap(List<Candle> window) {
+        double priceVolume = 0;
+        double volume = 0;
+        for (Candle candle : window) {
+            double typical = (candle.getH().doubleValue() + candle.getL().doubleValue() + candle.getC().doubleValue()) / 3;
+            priceVolume += typical * candle.getV();
+            volume += candle.getV();
+        }
+        return priceVolume / volume;
+    }
+
+    /**
+     * Сглаживание по всему ряду с затравкой простым средним первых {@link #PERIOD} значений: цен закрытия
+     * либо истинных диапазонов.
+     */
+    private static double referenceEma(List<Candle> series, double alpha, boolean trueRange) {
+        double seed = 0;
+        double value = Double.NaN;
+        for (int i = 0; i < series.size(); i++) {
+            Candle candle = series.get(i);
+            double x = candle.getC().doubleValue();
+            if (trueRange) {
+                double high = candle.getH().doubleValue();
+                double low = candle.getL().doubleValue();
+                x = high - low;
+                if (i > 0) {
+                    double previousClose = series.get(i - 1).getC().doubleValue();
+                    x = Math.max(x, Math.max(Math.abs(high - previousClose), Math.abs(low - previousClose)));
+                }
+            }
+            if (i < PERIOD) {
+                seed += x;
+                value = i == PERIOD - 1 ? seed / PERIOD : Double.NaN;
+            } else {
+                value += alpha * (x - value);
+            }
+        }
+        return value;
+    }
+
+    private static void assertClose(double expected, double actual, String message) {
+        assertEquals(expected, actual, Math.abs(expected) * 1e-9, message);
+    }
+
+    private static Candle candle(int minute, double high, double low, double close, int volume) {
+        return new Candle()
+                .figi("BBG000B9XRY4")
+                .interval(CandleResolution._1MIN)
+                .time(T0.plusMinutes(minute))
+                .o(BigDecimal.valueOf(close))
+                .h(BigDecimal.valueOf(high))
+                .l(BigDecimal.valueOf(low))
+                .c(BigDecimal.valueOf(close))
+                .v(volume);
+    }
+}
@@ -0,0 +1,157 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+
+import java.math.BigDecimal;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка {@link CandleStore}: чтение видит данные, дописанные после предыдущих чтений, покрытие
+ * учитывает все записи, а более поздняя запись свечи побеждает.
+ */
+class CandleStoreTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final String FIGI = "BBG000B9XRY4";
+    private static final CandleResolution INTERVAL = CandleResolution._1MIN;
+    private static final OffsetDateTime T0 = OffsetDateTime.of(2021, 3, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void readsAppendsMadeAfterEarlierReads() throws Exception {
+        try (CandleStore store = new CandleStore(directory)) {
+            store.append(FIGI, INTERVAL, candles(0, 10, 100), T0, T0.plusMinutes(10));
+            assertEquals(10, read(store, T0, T0.plusHours(1)).size());
+
+            for (int batch = 1; batch <= 20; batch++) {
+                store.append(FIGI, INTERVAL, candles(batch * 10, 10, 100), T0.plusMinutes(batch * 10), T0.plusMinutes(batch * 10 + 10));
+                assertEquals(10 * (batch + 1), read(store, T0, T0.plusDays(1)).size());
+            }
+
+            List<Candle> slice = read(store, T0.plusMinutes(95), T0.plusMinutes(105));
+            assertEquals(10, slice.size());
+            assertEquals(T0.plusMinutes(95).toInstant(), slice.get(0).getTime().toInstant());
+            assertEquals(0, new BigDecimal("195").compareTo(slice.get(0).getC()));
+            assertEquals(95, slice.get(0).getV());
+        }
+    }
+
+    @Test
+    void reportsGapsBetweenCoveredRanges() throws Exception {
+        try (CandleStore store = new CandleStore(directory)) {
+            assertGaps(store.missing(FIGI, INTERVAL, T0, T0.plusMinutes(60)), 0, 60);
+
+            store.append(FIGI, INTERVAL, candles(10, 10, 100), T0.plusMinutes(10), T0.plusMinutes(20));
+            store.missing(FIGI, INTERVAL, T0, T0.plusMinutes(60));
+            store.append(FIGI, INTERVAL, List.of(), T0.plusMinutes(30), T0.plusMinutes(40));
+
+            assertGaps(store.missing(FIGI, INTERVAL, T0, T0.plusMinutes(60)), 0, 10, 20, 30, 40, 60);
+            assertTrue(store.missing(FIGI, INTERVAL, T0.plusMinutes(10), T0.plusMinutes(20)).isEmpty());
+        }
+    }
+
+    @Test
+    void laterWriteWinsAndSurvivesReopen() throws Exception {
+        try (CandleStore store = new CandleStore(directory)) {
+            store.append(FIGI, INTERVAL, candles(0, 5, 100), T0, T0.plusMinutes(5));
+            read(store, T0, T0.plusMinutes(5));
+            store.append(FIGI, INTERVAL, candles(2, 1, 500), T0.plusMinutes(2), T0.plusMinutes(3));
+        }
+        try (CandleStore store = new CandleStore(directory)) {
+            List<Candle> candles = read(store, T0, T0.plusMinutes(5));
+            assertEquals(5, candles.size());
+            assertEquals(0, new BigDecimal("502").compareTo(candles.get(2).getC()));
+            assertEquals(0, new BigDecimal("103").compareTo(candles.get(3).getC()));
+            assertTrue(store.missing(FIGI, INTERVAL, T0, T0.plusMinutes(5)).isEmpty());
+        }
+    }
+
+    @Test
+    void readsFileMappedInSeveralSegments() throws Exception {
+        Path file = directory.resolve("segments.candles");
+        try (CandleSeriesFile series = new CandleSeriesFile(file, 1500)) {
+            for (int batch = 0; batch < 12; batch++) {
+                series.append(candles(batch * 10, 10, 100), millis(batch * 10), millis(batch * 10 + 10));
+                assertEquals(10 * (batch + 1), series.read(millis(0), millis(1000)).size);
+            }
+        }
+        // Заново открытый файл отображается сразу целиком, и границы отображений ищутся по заголовкам блоков.
+        try (CandleSeriesFile series = new CandleSeriesFile(file, 1500)) {
+            CandleSeriesFile.Columns columns = series.read(millis(0), millis(1000));
+            assertEquals(120, columns.size);
+            for (int i = 0; i < columns.size; i++) {
+                assertEquals(millis(i), columns.time[i]);
+                assertEquals(100 + i, columns.close[i]);
+                assertEquals(i, columns.volume[i]);
+            }
+            assertGaps(series.missing(millis(0), millis(130)), 120, 130);
+        }
+    }
+
+    private static List<Candle> read(CandleStore store, OffsetDateTime from, OffsetDateTime to) {
+        return store.read(FIGI, INTERVAL, from, to).collectList().block(TIMEOUT);
+    }
+
+    private static List<Candle> candles(int fromMinute, int count, int basePrice) {
+        List<Candle> candles = new ArrayList<>();
+        for (int i = fromMinute; i < fromMinute + count; i++) {
+            BigDecimal price = BigDecimal.valueOf(basePrice + i);
+            candles.add(new Candle()
+                    .figi(FIGI)
+                    .interval(INTERVAL)
+                    .time(T0.plusMinutes(i))
+                    .o(price)
+                    .c(price)
+                    .h(price.add(BigDecimal.ONE))
+                    .l(price.subtract(BigDecimal.ONE))
+                    .v(i));
+        }
+        return candles;
+    }
+
+    private static void assertGaps(List<long[]> gaps, int... minutes) {
+        List<long[]> expected = new ArrayList<>();
+        for (int i = 0; i < minutes.length; i += 2) {
+            expected.add(new long[] {millis(minutes[i]), millis(minutes[i + 1])});
+        }
+        assertEquals(expected.size(), gaps.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertArrayEquals(expected.get(i), gaps.get(i));
+        }
+    }
+
+    private static long millis(int minute) {
+        return T0.plusMinutes(minute).toInstant().toEpochMilli();
+    }
+}
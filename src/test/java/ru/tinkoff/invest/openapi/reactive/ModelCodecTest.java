@@ -0,0 +1,195 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.Test;
+import ru.tinkoff.invest.openapi.model.rest.*;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Проверка {@link ModelCodec}: закодированные объекты читаются без потерь, включая граничные значения,
+ * а оборванная последняя запись считается концом данных.
+ */
+class ModelCodecTest {
+
+    private static final OffsetDateTime TIME = OffsetDateTime.of(2021, 3, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+
+    @Test
+    void decimalsRoundTripAtEveryEncoding() {
+        List<BigDecimal> values = Arrays.asList(
+                BigDecimal.ZERO,
+                new BigDecimal("-123.4500"),
+                BigDecimal.valueOf(Long.MAX_VALUE, 2),
+                BigDecimal.valueOf(Long.MIN_VALUE, 2),
+                BigDecimal.valueOf(1, 62),
+                BigDecimal.valueOf(1, 63),
+                BigDecimal.valueOf(1, 64),
+                BigDecimal.valueOf(-7, 200),
+                new BigDecimal("1E+5"),
+                new BigDecimal("-25E+3"),
+                new BigDecimal(BigInteger.ONE.shiftLeft(64), 3),
+                new BigDecimal(BigInteger.ONE.shiftLeft(100).negate(), 0));
+        List<Object> models = new ArrayList<>();
+        for (BigDecimal value : values) {
+            models.add(candle("FIGI", TIME).o(value).c(value.negate()).h(value).l(value));
+        }
+
+        assertEquals(models, roundTrip(models));
+    }
+
+    @Test
+    void nullFieldsRoundTrip() {
+        List<Object> models = Arrays.asList(
+                new Candle(),
+                new Orderbook().figi("FIGI"),
+                new Orderbook()
+                        .figi("FIGI")
+                        .depth(0)
+                        .bids(Collections.emptyList())
+                        .asks(Collections.singletonList(new OrderResponse()))
+                        .lastPrice(BigDecimal.ONE),
+                new Operation(),
+                new Operation()
+                        .id("1")
+                        .trades(Collections.singletonList(new OperationTrade()))
+                        .commission(new MoneyAmount())
+                        .isMarginCall(false));
+
+        assertEquals(models, roundTrip(models));
+    }
+
+    @Test
+    void fullModelsRoundTrip() {
+        List<Object> models = Arrays.asList(
+                new Orderbook()
+                        .figi("FIGI")
+                        .depth(2)
+                        .bids(Arrays.asList(level("99.5", 10), level("99.25", Integer.MAX_VALUE)))
+                        .asks(Collections.singletonList(level("100", Integer.MIN_VALUE)))
+                        .tradeStatus(TradeStatus.NORMALTRADING)
+                        .minPriceIncrement(new BigDecimal("0.25"))
+                        .faceValue(new BigDecimal("1000"))
+                        .lastPrice(new BigDecimal("99.75"))
+                        .closePrice(new BigDecimal("98"))
+                        .limitUp(new BigDecimal("120"))
+                        .limitDown(new BigDecimal("80")),
+                new Operation()
+                        .id("op-1")
+                        .status(OperationStatus.DONE)
+                        .trades(Collections.singletonList(new OperationTrade()
+                                .tradeId("trade-1")
+                                .date(TIME)
+                                .price(new BigDecimal("99.75"))
+                                .quantity(3)))
+                        .commission(new MoneyAmount().currency(Currency.RUB).value(new BigDecimal("-0.15")))
+                        .currency(Currency.RUB)
+                        .payment(new BigDecimal("-299.25"))
+                        .price(new BigDecimal("99.75"))
+                        .quantity(3)
+                        .quantityExecuted(3)
+                        .figi("FIGI")
+                        .instrumentType(InstrumentType.STOCK)
+                        .isMarginCall(true)
+                        .date(TIME.withOffsetSameInstant(ZoneOffset.ofHours(3)))
+                        .operationType(OperationTypeWithCommission.BUY));
+
+        assertEquals(models, roundTrip(models));
+    }
+
+    @Test
+    void timestampDeltasSpanFigisAndGoBackwards() {
+        ModelCodec.Writer writer = new ModelCodec.Writer();
+        List<Object> models = Arrays.asList(
+                candle("A", TIME.plusHours(5)),
+                candle("B", TIME.minusYears(10)),
+                candle("A", TIME.plusHours(5).plusMinutes(1)),
+                candle("C", TIME.withOffsetSameInstant(ZoneOffset.ofHoursMinutes(-9, -30))),
+                candle("B", TIME.minusYears(10).plusMinutes(1)));
+        long[] recordTimes = {5_000, 1_000, 9_000, 9_000, 0};
+        for (int i = 0; i < models.size(); i++) {
+            writer.write(models.get(i), recordTimes[i]);
+        }
+
+        ModelCodec.Reader reader = new ModelCodec.Reader(ByteBuffer.wrap(writer.bytes(), 0, writer.size()));
+        for (int i = 0; i < models.size(); i++) {
+            assertEquals(models.get(i), reader.next());
+            assertEquals(recordTimes[i], reader.recordTime());
+        }
+        assertNull(reader.next());
+    }
+
+    @Test
+    void truncatedTailEndsTheStream() {
+        ModelCodec.Writer writer = new ModelCodec.Writer();
+        writer.write(candle("A", TIME), 1);
+        writer.write(candle("B", TIME), 2);
+        int complete = writer.size();
+        // Последняя запись вводит новое слово словаря, поэтому обрыв возможен и в записи словаря.
+        writer.write(candle("C", TIME.plusMinutes(1)), 3);
+        byte[] bytes = Arrays.copyOf(writer.bytes(), writer.size());
+
+        for (int length = complete; length < bytes.length; length++) {
+            ModelCodec.Reader reader = new ModelCodec.Reader(ByteBuffer.wrap(bytes, 0, length));
+            assertEquals("A", ((Candle) reader.next()).getFigi());
+            assertEquals("B", ((Candle) reader.next()).getFigi());
+            assertNull(reader.next(), "truncated at " + length);
+        }
+    }
+
+    private static List<Object> roundTrip(List<Object> models) {
+        ModelCodec.Writer writer = new ModelCodec.Writer();
+        for (Object model : models) {
+            writer.write(model, 0);
+        }
+        ModelCodec.Reader reader = new ModelCodec.Reader(ByteBuffer.wrap(writer.bytes(), 0, writer.size()));
+        List<Object> decoded = new ArrayList<>();
+        Object next;
+        while ((next = reader.next()) != null) {
+            decoded.add(next);
+        }
+        return decoded;
+    }
+
+    private static Candle candle(String figi, OffsetDateTime time) {
+        return new Candle()
+                .figi(figi)
+                .interval(CandleResolution._1MIN)
+                .time(time)
+                .o(new BigDecimal("100.5"))
+                .c(new BigDecimal("101"))
+                .h(new BigDecimal("101.25"))
+                .l(new BigDecimal("99.75"))
+                .v(1200);
+    }
+
+    private static OrderResponse level(String price, int quantity) {
+        return new OrderResponse().price(new BigDecimal(price)).quantity(quantity);
+    }
+}
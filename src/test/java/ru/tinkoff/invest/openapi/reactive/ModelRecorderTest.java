@@ -0,0 +1,89 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import reactor.core.publisher.Flux;
+import ru.tinkoff.invest.openapi.model.rest.Candle;
+import ru.tinkoff.invest.openapi.model.rest.CandleResolution;
+
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка {@link ModelRecorder}: записи сбрасываются на диск потоком записи, а не этапом потока.
+ */
+class ModelRecorderTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final OffsetDateTime TIME = OffsetDateTime.of(2021, 3, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void completedStreamIsFlushedInBackground() throws Exception {
+        Path file = directory.resolve("model.bin");
+        List<Candle> candles = Arrays.asList(candle(0), candle(1), candle(2));
+        try (ModelRecorder recorder = new ModelRecorder(file, Duration.ofHours(1))) {
+            assertEquals(candles, Flux.fromIterable(candles).transform(recorder::record).collectList().block(TIMEOUT));
+
+            long deadline = System.nanoTime() + TIMEOUT.toNanos();
+            while (Files.size(file) == ModelCodec.HEADER_SIZE && System.nanoTime() < deadline) {
+                Thread.sleep(10);
+            }
+            assertEquals(candles, ModelReplay.replay(file).collectList().block(TIMEOUT));
+        }
+    }
+
+    @Test
+    void closeFlushesBufferAndLaterRecordsAreDropped() throws Exception {
+        Path file = directory.resolve("model.bin");
+        ModelRecorder recorder = new ModelRecorder(file, Duration.ofHours(1));
+        recorder.write(candle(0));
+        recorder.write(candle(1));
+        recorder.close();
+
+        Flux.just(candle(2)).transform(recorder::record).blockLast(TIMEOUT);
+        assertEquals(1, recorder.getDroppedRecords());
+        assertEquals(Arrays.asList(candle(0), candle(1)), ModelReplay.replay(file).collectList().block(TIMEOUT));
+        assertTrue(Files.size(file) > ModelCodec.HEADER_SIZE);
+    }
+
+    private static Candle candle(int minute) {
+        return new Candle()
+                .figi("FIGI")
+                .interval(CandleResolution._1MIN)
+                .time(TIME.plusMinutes(minute))
+                .o(new BigDecimal("100"))
+                .c(new BigDecimal("101"))
+                .h(new BigDecimal("102"))
+                .l(new BigDecimal("99"))
+                .v(10);
+    }
+}
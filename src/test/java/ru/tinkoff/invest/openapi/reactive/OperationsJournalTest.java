@@ -0,0 +1,184 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import ru.tinkoff.invest.openapi.model.rest.Currency;
+import ru.tinkoff.invest.openapi.model.rest.Operation;
+import ru.tinkoff.invest.openapi.model.rest.OperationStatus;
+import ru.tinkoff.invest.openapi.model.rest.OperationTypeWithCommission;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * Проверка {@link OperationsJournal}: запись только изменившихся операций, выборки по индексу
+ * и восстановление после аварийного завершения и повреждения файлов.
+ */
+class OperationsJournalTest {
+
+    private static final OffsetDateTime START = OffsetDateTime.of(2021, 3, 1, 10, 0, 0, 0, ZoneOffset.UTC);
+    private static final Instant FROM = START.minusDays(1).toInstant();
+    private static final Instant TO = START.plusDays(1).toInstant();
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void unchangedOperationsAreNotWrittenTwice() throws IOException {
+        try (OperationsJournal journal = new OperationsJournal(directory)) {
+            assertEquals(2, journal.append(Arrays.asList(
+                    operation("1", "A", 0, OperationStatus.PROGRESS),
+                    operation("2", "B", 1, OperationStatus.DONE))));
+            assertEquals(0, journal.append(Arrays.asList(
+                    operation("2", "B", 1, OperationStatus.DONE),
+                    operation("1", "A", 0, OperationStatus.PROGRESS))));
+            assertEquals(1, journal.append(Arrays.asList(operation("1", "A", 0, OperationStatus.DONE))));
+
+            assertEquals(2, journal.size());
+            List<Operation> operations = journal.read(FROM, TO, null);
+            assertEquals(Arrays.asList("1", "2"), ids(operations));
+            assertEquals(OperationStatus.DONE, operations.get(0).getStatus());
+            assertEquals(Arrays.asList("2"), ids(journal.read(FROM, TO, "B")));
+            assertEquals(Arrays.asList("1"), ids(journal.read(START.toInstant(), START.plusMinutes(1).toInstant(), null)));
+        }
+        assertEquals(3, lines().size());
+    }
+
+    @Test
+    void watermarkStopsAtEarliestPendingOperation() throws IOException {
+        try (OperationsJournal journal = new OperationsJournal(directory)) {
+            assertNull(journal.getWatermark());
+            journal.append(Arrays.asList(
+                    operation("1", "A", 0, OperationStatus.DONE),
+                    operation("2", "A", 5, OperationStatus.PROGRESS),
+                    operation("3", "A", 10, OperationStatus.DONE)));
+            assertEquals(START.plusMinutes(5).toInstant(), journal.getWatermark());
+
+            journal.append(Arrays.asList(operation("2", "A", 5, OperationStatus.DONE)));
+            assertEquals(START.plusMinutes(10).toInstant(), journal.getWatermark());
+        }
+    }
+
+    @Test
+    void reopenedJournalKeepsIndexAndDeduplication() throws IOException {
+        try (OperationsJournal journal = new OperationsJournal(directory)) {
+            journal.append(Arrays.asList(operation("1", "A", 0, OperationStatus.DONE), operation("2", "B", 1, OperationStatus.DONE)));
+        }
+        try (OperationsJournal journal = new OperationsJournal(directory)) {
+            assertEquals(2, journal.size());
+            assertEquals(Arrays.asList("1", "2"), ids(journal.read(FROM, TO, null)));
+            assertEquals(0, journal.append(Arrays.asList(operation("1", "A", 0, OperationStatus.DONE))));
+        }
+    }
+
+    @Test
+    void unindexedTailIsRecoveredAndPartialLineDropped() throws IOException {
+        List<String> lines = write(operation("1", "A", 0, OperationStatus.DONE),
+                operation("2", "A", 1, OperationStatus.DONE),
+                operation("3", "B", 2, OperationStatus.DONE));
+        // Индекс записан только для первой операции, а последняя строка оборвана.
+        try (OperationsJournal journal = new OperationsJournal(directory.resolve("first"))) {
+            journal.append(Arrays.asList(operation("1", "A", 0, OperationStatus.DONE)));
+        }
+        Files.copy(directory.resolve("first").resolve("operations.idx"), directory.resolve("operations.idx"),
+                StandardCopyOption.REPLACE_EXISTING);
+        String partial = lines.get(2).substring(0, lines.get(2).length() / 2);
+        Files.write(directory.resolve("operations.jsonl"),
+                (lines.get(0) + '\n' + lines.get(1) + '\n' + partial).getBytes(StandardCharsets.UTF_8));
+
+        try (OperationsJournal journal = new OperationsJournal(directory)) {
+            assertEquals(Arrays.asList("1", "2"), ids(journal.read(FROM, TO, null)));
+        }
+        assertEquals(lines.subList(0, 2), lines());
+    }
+
+    @Test
+    void corruptLineIsSkippedWhenIndexIsRebuilt() throws IOException {
+        List<String> lines = write(operation("1", "A", 0, OperationStatus.DONE),
+                operation("2", "A", 1, OperationStatus.DONE),
+                operation("3", "B", 2, OperationStatus.DONE));
+        Files.write(directory.resolve("operations.jsonl"), Arrays.asList(
+                lines.get(0), "{\"id\":\"broken\",", "", "{}", lines.get(1), lines.get(2)), StandardCharsets.UTF_8);
+
+        // Индекс ссылается за конец журнала другого содержания и строится заново.
+        try (OperationsJournal journal = new OperationsJournal(directory)) {
+            assertEquals(3, journal.size());
+            assertEquals(Arrays.asList("1", "2", "3"), ids(journal.read(FROM, TO, null)));
+            assertEquals(1, journal.append(Arrays.asList(operation("4", "B", 3, OperationStatus.DONE))));
+        }
+        try (OperationsJournal journal = new OperationsJournal(directory)) {
+            assertEquals(Arrays.asList("1", "2", "3", "4"), ids(journal.read(FROM, TO, null)));
+        }
+    }
+
+    @Test
+    void recordCorruptedAfterIndexingIsSkippedOnRead() throws IOException {
+        List<String> lines = write(operation("1", "A", 0, OperationStatus.DONE),
+                operation("2", "A", 1, OperationStatus.DONE),
+                operation("3", "A", 2, OperationStatus.DONE));
+        char[] garbage = new char[lines.get(1).length()];
+        Arrays.fill(garbage, 'x');
+        Files.write(directory.resolve("operations.jsonl"),
+                Arrays.asList(lines.get(0), new String(garbage), lines.get(2)), StandardCharsets.UTF_8);
+
+        try (OperationsJournal journal = new OperationsJournal(directory)) {
+            assertEquals(Arrays.asList("1", "3"), ids(journal.read(FROM, TO, "A")));
+        }
+    }
+
+    private List<String> write(Operation... operations) throws IOException {
+        try (OperationsJournal journal = new OperationsJournal(directory)) {
+            journal.append(Arrays.asList(operations));
+        }
+        return lines();
+    }
+
+    private List<String> lines() throws IOException {
+        return Files.readAllLines(directory.resolve("operations.jsonl"), StandardCharsets.UTF_8);
+    }
+
+    private static List<String> ids(List<Operation> operations) {
+        return operations.stream().map(Operation::getId).collect(Collectors.toList());
+    }
+
+    private static Operation operation(String id, String figi, int minute, OperationStatus status) {
+        return new Operation()
+                .id(id)
+                .figi(figi)
+                .status(status)
+                .date(START.plusMinutes(minute))
+                .currency(Currency.RUB)
+                .payment(new BigDecimal("-100.50"))
+                .operationType(OperationTypeWithCommission.BUY);
+    }
+}
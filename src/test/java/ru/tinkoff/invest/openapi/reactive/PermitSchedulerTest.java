@@ -0,0 +1,196 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Проверка {@link PermitScheduler} в виртуальном времени: при 10 разрешениях в секунду после исчерпания
+ * запаса каждое следующее разрешение освобождается ровно через 100 мс, и ожидающий получает его в тот же
+ * момент, не раньше и не позже.
+ */
+class PermitSchedulerTest {
+
+    private static final Duration INTERVAL = Duration.ofMillis(100);
+    private static final Duration JUST_BEFORE = INTERVAL.minusMillis(1);
+
+    private VirtualTimeScheduler time;
+    private PermitScheduler permits;
+
+    @BeforeEach
+    void setUp() {
+        time = VirtualTimeScheduler.create();
+        permits = new PermitScheduler(10, time, Duration.ofSeconds(1));
+    }
+
+    @Test
+    void grantsBurstImmediatelyAndThenExactlyOnePermitPerInterval() {
+        StepVerifier.withVirtualTime(() -> Flux.range(0, 12).concatMap(i -> permits.acquire().thenReturn(i)),
+                        () -> time, Long.MAX_VALUE)
+                .expectSubscription()
+                .expectNextCount(10)
+                .expectNoEvent(JUST_BEFORE)
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext(10)
+                .expectNoEvent(JUST_BEFORE)
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext(11)
+                .verifyComplete();
+    }
+
+    @Test
+    void concurrentWaitersAreGrantedWithoutExtraDelay() {
+        exhaustBurst();
+
+        StepVerifier.withVirtualTime(() -> Flux.range(0, 3).flatMap(i -> permits.acquire().thenReturn(i)),
+                        () -> time, Long.MAX_VALUE)
+                .expectSubscription()
+                .expectNoEvent(JUST_BEFORE)
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext(0)
+                .expectNoEvent(JUST_BEFORE)
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext(1)
+                .expectNoEvent(JUST_BEFORE)
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext(2)
+                .verifyComplete();
+        assertEquals(0, permits.getQueueLength());
+    }
+
+    @Test
+    void higherPriorityLaneIsServedFirst() {
+        exhaustBurst();
+
+        StepVerifier.withVirtualTime(() -> Flux.merge(
+                                permits.acquire(Priority.BULK).thenReturn(Priority.BULK),
+                                permits.acquire(Priority.NORMAL).thenReturn(Priority.NORMAL),
+                                permits.acquire(Priority.CRITICAL).thenReturn(Priority.CRITICAL)),
+                        () -> time, Long.MAX_VALUE)
+                .expectSubscription()
+                .thenAwait(INTERVAL)
+                .expectNext(Priority.CRITICAL)
+                .thenAwait(INTERVAL)
+                .expectNext(Priority.NORMAL)
+                .thenAwait(INTERVAL)
+                .expectNext(Priority.BULK)
+                .verifyComplete();
+    }
+
+    @Test
+    void cancelledWaiterDoesNotDelayTheNextOne() {
+        exhaustBurst();
+        Disposable cancelled = permits.acquire().subscribe();
+
+        StepVerifier.withVirtualTime(() -> permits.acquire().thenReturn("granted"), () -> time, Long.MAX_VALUE)
+                .expectSubscription()
+                .then(cancelled::dispose)
+                .expectNoEvent(JUST_BEFORE)
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext("granted")
+                .verifyComplete();
+        assertEquals(0, permits.getQueueLength());
+    }
+
+    @Test
+    void cancelledWaitersReturnTheirPermits() {
+        exhaustBurst();
+        Disposable first = permits.acquire().subscribe();
+        Disposable second = permits.acquire().subscribe();
+        first.dispose();
+        second.dispose();
+
+        assertEquals(0, permits.getQueueLength());
+        assertEquals(INTERVAL.toNanos(), permits.getNanosUntilNextPermit());
+    }
+
+    @Test
+    void starvingLowPriorityWaiterIsServedAfterThreshold() {
+        exhaustBurst();
+
+        StepVerifier.withVirtualTime(() -> Flux.merge(
+                                permits.acquire(Priority.BULK).thenReturn(Priority.BULK),
+                                Flux.range(0, 20).flatMap(i -> permits.acquire(Priority.CRITICAL).thenReturn(Priority.CRITICAL))),
+                        () -> time, Long.MAX_VALUE)
+                .expectSubscription()
+                .thenAwait(INTERVAL.multipliedBy(9))
+                .expectNextCount(9)
+                .expectNoEvent(JUST_BEFORE)
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext(Priority.BULK)
+                .thenAwait(INTERVAL)
+                .expectNext(Priority.CRITICAL)
+                .thenCancel()
+                .verify();
+        assertEquals(0, permits.getQueueLength());
+    }
+
+    @Test
+    void rateIncreaseReschedulesQueuedWaiters() {
+        exhaustBurst();
+        Duration fastInterval = Duration.ofMillis(10);
+
+        StepVerifier.withVirtualTime(() -> Flux.range(0, 3).flatMap(i -> permits.acquire().thenReturn(i)),
+                        () -> time, Long.MAX_VALUE)
+                .expectSubscription()
+                .then(() -> permits.setRate(100))
+                .expectNoEvent(fastInterval.minusMillis(1))
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext(0)
+                .expectNoEvent(fastInterval.minusMillis(1))
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext(1)
+                .expectNoEvent(fastInterval.minusMillis(1))
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext(2)
+                .verifyComplete();
+    }
+
+    @Test
+    void rateDecreaseDelaysQueuedWaiters() {
+        exhaustBurst();
+
+        StepVerifier.withVirtualTime(() -> permits.acquire().thenReturn("granted"), () -> time, Long.MAX_VALUE)
+                .expectSubscription()
+                .then(() -> permits.setRate(5))
+                .expectNoEvent(Duration.ofMillis(199))
+                .thenAwait(Duration.ofMillis(1))
+                .expectNext("granted")
+                .verifyComplete();
+    }
+
+    /**
+     * Расходует накопленный за секунду простоя запас разрешений.
+     */
+    private void exhaustBurst() {
+        while (permits.getNanosUntilNextPermit() == 0) {
+            permits.acquire().subscribe();
+        }
+        assertEquals(INTERVAL.toNanos(), permits.getNanosUntilNextPermit());
+        assertEquals(0, time.now(TimeUnit.NANOSECONDS));
+    }
+}
@@ -0,0 +1,232 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Flux;
+import reactor.test.scheduler.VirtualTimeScheduler;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.model.rest.Currency;
+import ru.tinkoff.invest.openapi.model.rest.CurrencyPosition;
+import ru.tinkoff.invest.openapi.model.rest.InstrumentType;
+import ru.tinkoff.invest.openapi.model.rest.MoneyAmount;
+import ru.tinkoff.invest.openapi.model.rest.PortfolioPosition;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка {@link PortfolioChanges}: выдаются только изменения между опросами, а интервал опроса
+ * растёт, пока портфель не меняется.
+ */
+class PortfolioChangesTest {
+
+    private static final String AAPL = "BBG000B9XRY4";
+    private static final String SBER = "BBG004730N88";
+    private static final Duration MIN = Duration.ofSeconds(1);
+    private static final Duration MAX = Duration.ofSeconds(4);
+
+    private ScriptedPortfolioContext portfolio;
+    private VirtualTimeScheduler scheduler;
+    private List<PortfolioChanges.Change> changes;
+    private Disposable subscription;
+
+    @BeforeEach
+    void setUp() {
+        OpenApi api = SimulatedBroker.builder().build().toOpenApi();
+        portfolio = new ScriptedPortfolioContext(api, RateLimitRegistry.builder().build());
+        scheduler = VirtualTimeScheduler.create();
+        changes = new CopyOnWriteArrayList<>();
+    }
+
+    @AfterEach
+    void tearDown() {
+        if (subscription != null) {
+            subscription.dispose();
+        }
+        scheduler.dispose();
+    }
+
+    @Test
+    void firstPollReportsEverythingAsAdded() {
+        portfolio.positions = List.of(position(AAPL, "10", "150"), position(SBER, "100", "250"));
+        portfolio.currencies = List.of(currency(Currency.USD, "500"));
+
+        start();
+
+        assertEquals(3, changes.size());
+        assertTrue(changes.stream().allMatch(change -> change.getType() == PortfolioChanges.ChangeType.ADDED));
+        assertEquals(2, changes.stream().filter(change -> !change.isCurrency()).count());
+        PortfolioChanges.Change cash = changes.get(2);
+        assertTrue(cash.isCurrency());
+        assertNull(cash.getPreviousCurrency());
+        assertEquals(Currency.USD, cash.getCurrency().getCurrency());
+    }
+
+    @Test
+    void reportsOnlyDifferences() {
+        PortfolioPosition aapl = position(AAPL, "10", "150");
+        PortfolioPosition sber = position(SBER, "100", "250");
+        CurrencyPosition usd = currency(Currency.USD, "500");
+        portfolio.positions = List.of(aapl, sber);
+        portfolio.currencies = List.of(usd, currency(Currency.RUB, "1000"));
+        start();
+        changes.clear();
+
+        PortfolioPosition moreAapl = position(AAPL, "12", "151");
+        PortfolioPosition gazp = position("BBG004730RP0", "5", "230");
+        portfolio.positions = List.of(gazp, moreAapl);
+        CurrencyPosition lessUsd = currency(Currency.USD, "200");
+        // Тот же остаток в другом масштабе изменением не считается.
+        portfolio.currencies = List.of(lessUsd, currency(Currency.RUB, "1000.00"));
+        scheduler.advanceTimeBy(MIN);
+
+        assertEquals(4, changes.size());
+        PortfolioChanges.Change added = changes.get(0);
+        assertEquals(PortfolioChanges.ChangeType.ADDED, added.getType());
+        assertSame(gazp, added.getPosition());
+        assertNull(added.getPreviousPosition());
+        PortfolioChanges.Change changed = changes.get(1);
+        assertEquals(PortfolioChanges.ChangeType.CHANGED, changed.getType());
+        assertSame(aapl, changed.getPreviousPosition());
+        assertSame(moreAapl, changed.getPosition());
+        PortfolioChanges.Change removed = changes.get(2);
+        assertEquals(PortfolioChanges.ChangeType.REMOVED, removed.getType());
+        assertSame(sber, removed.getPreviousPosition());
+        assertNull(removed.getPosition());
+        PortfolioChanges.Change cash = changes.get(3);
+        assertEquals(PortfolioChanges.ChangeType.CHANGED, cash.getType());
+        assertSame(usd, cash.getPreviousCurrency());
+        assertSame(lessUsd, cash.getCurrency());
+    }
+
+    @Test
+    void ignoresExpectedYieldAndOrder() {
+        portfolio.positions = List.of(position(AAPL, "10", "150"), position(SBER, "100", "250"));
+        start();
+        changes.clear();
+
+        PortfolioPosition repriced = position(AAPL, "10", "150")
+                .expectedYield(new MoneyAmount().currency(Currency.USD).value(new BigDecimal("42")));
+        portfolio.positions = List.of(position(SBER, "100.0", "250.00"), repriced);
+        scheduler.advanceTimeBy(MIN);
+
+        assertTrue(changes.isEmpty());
+    }
+
+    @Test
+    void backsOffWhileUnchangedAndResetsOnChange() {
+        portfolio.positions = List.of(position(AAPL, "10", "150"));
+        start();
+        assertEquals(1, portfolio.polls);
+
+        scheduler.advanceTimeBy(MIN);
+        assertEquals(2, portfolio.polls);
+        scheduler.advanceTimeBy(Duration.ofSeconds(2));
+        assertEquals(3, portfolio.polls);
+        scheduler.advanceTimeBy(Duration.ofSeconds(3));
+        assertEquals(3, portfolio.polls);
+        scheduler.advanceTimeBy(MIN);
+        assertEquals(4, portfolio.polls);
+        scheduler.advanceTimeBy(MAX);
+        assertEquals(5, portfolio.polls);
+
+        portfolio.positions = List.of(position(AAPL, "11", "150"));
+        scheduler.advanceTimeBy(MAX);
+        assertEquals(6, portfolio.polls);
+        assertEquals(2, changes.size());
+        scheduler.advanceTimeBy(MIN);
+        assertEquals(7, portfolio.polls);
+    }
+
+    @Test
+    void pollErrorDoesNotEndStream() {
+        portfolio.positions = List.of(position(AAPL, "10", "150"));
+        start();
+        changes.clear();
+
+        portfolio.failure = new IllegalStateException("500 Internal Server Error");
+        scheduler.advanceTimeBy(MIN);
+        assertTrue(changes.isEmpty());
+        assertFalse(subscription.isDisposed());
+
+        portfolio.failure = null;
+        portfolio.positions = List.of();
+        scheduler.advanceTimeBy(MAX);
+        assertEquals(1, changes.size());
+        assertEquals(PortfolioChanges.ChangeType.REMOVED, changes.get(0).getType());
+    }
+
+    private void start() {
+        subscription = new PortfolioChanges(portfolio, MIN, MAX, scheduler)
+                .getChanges(null)
+                .subscribe(changes::add);
+    }
+
+    private static PortfolioPosition position(String figi, String balance, String averagePrice) {
+        return new PortfolioPosition()
+                .figi(figi)
+                .instrumentType(InstrumentType.STOCK)
+                .balance(new BigDecimal(balance))
+                .lots(new BigDecimal(balance).intValue())
+                .averagePositionPrice(new MoneyAmount().currency(Currency.USD).value(new BigDecimal(averagePrice)));
+    }
+
+    private static CurrencyPosition currency(Currency currency, String balance) {
+        return new CurrencyPosition().currency(currency).balance(new BigDecimal(balance));
+    }
+
+    /**
+     * Контекст портфеля, отвечающий заданными позициями.
+     */
+    private static final class ScriptedPortfolioContext extends ReactivePortfolioContext {
+
+        volatile List<PortfolioPosition> positions = List.of();
+        volatile List<CurrencyPosition> currencies = List.of();
+        volatile RuntimeException failure;
+        volatile int polls;
+
+        ScriptedPortfolioContext(OpenApi openApi, RateLimitRegistry rateLimits) {
+            super(openApi, rateLimits);
+        }
+
+        @Override
+        public Flux<PortfolioPosition> getPortfolio(String brokerAccountId) {
+            return Flux.defer(() -> {
+                polls++;
+                return failure != null ? Flux.error(failure) : Flux.fromIterable(positions);
+            });
+        }
+
+        @Override
+        public Flux<CurrencyPosition> getPortfolioCurrencies(String brokerAccountId) {
+            return Flux.defer(() -> Flux.fromIterable(currencies));
+        }
+    }
+}
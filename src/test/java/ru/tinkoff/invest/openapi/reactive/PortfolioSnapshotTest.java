@@ -0,0 +1,174 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.Test;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.model.rest.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка {@link PortfolioSnapshot}: итоги по валютам, переоценка одной позиции и учёт позиций без оценки.
+ */
+class PortfolioSnapshotTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    @Test
+    void totalsIncludeCurrencyBalancesAndPricedPositions() {
+        PortfolioSnapshot snapshot = snapshot(
+                valued("A", Currency.USD, "5", "10", BigDecimal.ONE),
+                valued("B", Currency.RUB, "2", "100", BigDecimal.ONE));
+
+        assertTotal(snapshot, Currency.USD, "1050");
+        assertTotal(snapshot, Currency.RUB, "700");
+        assertEquals(0, snapshot.getUnpricedCount());
+    }
+
+    @Test
+    void withPriceRevaluesOnlyThatPositionAndCurrency() {
+        PortfolioSnapshot snapshot = snapshot(
+                valued("A", Currency.USD, "5", "10", BigDecimal.ONE),
+                valued("B", Currency.RUB, "2", "100", BigDecimal.ONE));
+
+        PortfolioSnapshot repriced = snapshot.withPrice("A", new BigDecimal("12"));
+        assertTotal(repriced, Currency.USD, "1060");
+        assertTotal(repriced, Currency.RUB, "700");
+        assertEquals(0, new BigDecimal("60").compareTo(repriced.getPosition("A").getValue()));
+        assertSame(snapshot.getPosition("B"), repriced.getPosition("B"));
+        // Исходный снимок не меняется.
+        assertTotal(snapshot, Currency.USD, "1050");
+
+        assertSame(repriced, repriced.withPrice("A", new BigDecimal("12.00")));
+        assertSame(repriced, repriced.withPrice("C", BigDecimal.ONE));
+    }
+
+    @Test
+    void firstPriceOfUnpricedPositionAddsItsWholeValue() {
+        PortfolioSnapshot snapshot = snapshot(
+                valued("A", Currency.USD, "5", null, BigDecimal.ONE),
+                valued("B", Currency.USD, "1", null, BigDecimal.ONE));
+        assertEquals(2, snapshot.getUnpricedCount());
+        assertTotal(snapshot, Currency.USD, "1000");
+
+        PortfolioSnapshot priced = snapshot.withPrice("A", new BigDecimal("10"));
+        assertEquals(1, priced.getUnpricedCount());
+        assertTotal(priced, Currency.USD, "1050");
+
+        PortfolioSnapshot repriced = priced.withPrice("A", new BigDecimal("9"));
+        assertEquals(1, repriced.getUnpricedCount());
+        assertTotal(repriced, Currency.USD, "1045");
+    }
+
+    @Test
+    void bondsAreValuedThroughFaceValue() {
+        PortfolioSnapshot snapshot = snapshot(valued("BOND", Currency.RUB, "3", "98.5", new BigDecimal("10")));
+
+        assertTotal(snapshot, Currency.RUB, "3455");
+
+        PortfolioSnapshot withoutFaceValue = snapshot(valued("BOND", Currency.RUB, "3", "98.5", null));
+        assertEquals(1, withoutFaceValue.getUnpricedCount());
+        assertSame(withoutFaceValue, withoutFaceValue.withPrice("BOND", new BigDecimal("99")));
+    }
+
+    @Test
+    void positionWithoutCurrencyIsUnpriced() {
+        PortfolioSnapshot snapshot = snapshot(
+                valued("A", null, "5", "10", BigDecimal.ONE),
+                valued("B", Currency.USD, "1", "10", BigDecimal.ONE));
+
+        assertEquals(1, snapshot.getUnpricedCount());
+        assertNull(snapshot.getPosition("A").getValue());
+        assertTotal(snapshot, Currency.USD, "1010");
+        assertSame(snapshot, snapshot.withPrice("A", new BigDecimal("11")));
+    }
+
+    @Test
+    void serviceTakesCurrencyFromCatalogueWhenAveragePriceIsMissing() {
+        SimulatedBroker broker = SimulatedBroker.builder().build();
+        broker.addInstrument(new MarketInstrument()
+                .figi("A")
+                .ticker("A")
+                .lot(1)
+                .currency(Currency.USD)
+                .type(InstrumentType.STOCK)
+                .name("A"));
+        OpenApi api = broker.toOpenApi();
+        // Позиция задана до появления цены, поэтому брокер не возвращает её среднюю цену.
+        api.getSandboxContext().setPositionBalance(new SandboxSetPositionBalanceRequest()
+                .figi("A").balance(new BigDecimal("5")), null).join();
+        broker.onOrderbook(new Orderbook()
+                .figi("A")
+                .depth(1)
+                .bids(Collections.singletonList(new OrderResponse().price(new BigDecimal("99")).quantity(1)))
+                .asks(Collections.singletonList(new OrderResponse().price(new BigDecimal("101")).quantity(1)))
+                .lastPrice(new BigDecimal("100")));
+        RateLimitRegistry.Builder registry = RateLimitRegistry.builder();
+        for (EndpointGroup group : EndpointGroup.values()) {
+            registry.rate(group, 10_000);
+        }
+        RateLimitRegistry rateLimits = registry.build();
+        ReactivePortfolioContext portfolio = new ReactivePortfolioContext(api, rateLimits);
+        ReactiveMarketContext market = new ReactiveMarketContext(api, rateLimits);
+
+        PortfolioSnapshot withoutCatalogue = new PortfolioSnapshotService(portfolio, market,
+                new LocalOrderBooks(16), null, 4).getSnapshot(null).block(TIMEOUT);
+        assertNull(withoutCatalogue.getPosition("A").getPosition().getAveragePositionPrice());
+        assertEquals(1, withoutCatalogue.getUnpricedCount());
+        assertTrue(withoutCatalogue.getTotals().isEmpty());
+
+        PortfolioSnapshot withCatalogue = new PortfolioSnapshotService(portfolio, market, new LocalOrderBooks(16), null,
+                new InstrumentCatalogue(market, Duration.ofHours(1)), 4).getSnapshot(null).block(TIMEOUT);
+        assertEquals(0, withCatalogue.getUnpricedCount());
+        assertEquals(Currency.USD, withCatalogue.getPosition("A").getCurrency());
+        assertTotal(withCatalogue, Currency.USD, "500");
+    }
+
+    private static PortfolioSnapshot snapshot(PortfolioSnapshot.ValuedPosition... positions) {
+        List<CurrencyPosition> currencies = Arrays.asList(
+                new CurrencyPosition().currency(Currency.USD).balance(new BigDecimal("1000")),
+                new CurrencyPosition().currency(Currency.RUB).balance(new BigDecimal("500")));
+        return new PortfolioSnapshot(positions, currencies, Instant.now());
+    }
+
+    private static PortfolioSnapshot.ValuedPosition valued(String figi, Currency currency, String balance,
+                                                           String price, BigDecimal multiplier) {
+        PortfolioPosition position = new PortfolioPosition()
+                .figi(figi)
+                .balance(new BigDecimal(balance));
+        return new PortfolioSnapshot.ValuedPosition(position, currency, price == null ? null : new BigDecimal(price),
+                multiplier);
+    }
+
+    private static void assertTotal(PortfolioSnapshot snapshot, Currency currency, String expected) {
+        Map<Currency, BigDecimal> totals = snapshot.getTotals();
+        assertEquals(0, new BigDecimal(expected).compareTo(totals.get(currency)), currency + " total " + totals.get(currency));
+    }
+}
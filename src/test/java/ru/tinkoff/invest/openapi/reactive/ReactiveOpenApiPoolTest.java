@@ -0,0 +1,104 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+import reactor.util.retry.Retry;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.model.rest.SandboxRegisterRequest;
+
+import java.time.Duration;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Проверка {@link ReactiveOpenApiPool} на двух имитаторах брокера: поиск владельца счёта по актуальным
+ * спискам счетов.
+ */
+class ReactiveOpenApiPoolTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration PROBE_INTERVAL = Duration.ofSeconds(30);
+
+    private final VirtualTimeScheduler time = VirtualTimeScheduler.create();
+
+    private OpenApi first;
+    private OpenApi second;
+    private ReactiveOpenApiPool pool;
+
+    @BeforeEach
+    void setUp() {
+        first = SimulatedBroker.builder().build().toOpenApi();
+        second = SimulatedBroker.builder().build().toOpenApi();
+        pool = new ReactiveOpenApiPool(Arrays.asList(first, second), () -> {
+            RateLimitRegistry.Builder registry = RateLimitRegistry.builder();
+            for (EndpointGroup group : EndpointGroup.values()) {
+                registry.rate(group, 10_000);
+            }
+            return registry.build();
+        }, PROBE_INTERVAL, time);
+    }
+
+    @Test
+    void accountOpenedAfterStartIsFoundOnMiss() {
+        pool.start().block(TIMEOUT);
+        String account = register(second);
+
+        StepVerifier.create(pool.forAccountMany(account, api -> api.getPortfolioContext().getPortfolio(account)))
+                .verifyComplete();
+        pool.dispose();
+    }
+
+    @Test
+    void unknownAccountFailsAfterRefresh() {
+        pool.start().block(TIMEOUT);
+
+        StepVerifier.create(pool.forAccount("missing", api -> api.getUserContext().getAccounts().then()))
+                .expectError(IllegalArgumentException.class)
+                .verify(TIMEOUT);
+        pool.dispose();
+    }
+
+    @Test
+    void periodicRefreshUpdatesAccountsOfHealthyMembers() {
+        String account = register(second);
+        pool.start().block(TIMEOUT);
+
+        // Счёт переходит к первому подключению; оба подключения работоспособны.
+        second.getSandboxContext().removeAccount(account).join();
+        assertEquals(account, register(first));
+        StepVerifier.create(pool.forAccountMany(account, api -> api.getPortfolioContext().getPortfolio(account)))
+                .expectErrorMessage("Unknown broker account " + account)
+                .verify(TIMEOUT);
+        assertEquals(2, pool.getHealthyCount());
+
+        time.advanceTimeBy(PROBE_INTERVAL);
+        StepVerifier.create(pool.forAccountMany(account, api -> api.getPortfolioContext().getPortfolio(account))
+                        .retryWhen(Retry.fixedDelay(50, Duration.ofMillis(20))))
+                .verifyComplete();
+        pool.dispose();
+    }
+
+    private static String register(OpenApi api) {
+        return api.getSandboxContext().performRegistration(new SandboxRegisterRequest()).join().getBrokerAccountId();
+    }
+}
@@ -0,0 +1,141 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.Test;
+import org.reactivestreams.Subscriber;
+import reactor.core.Disposable;
+import reactor.core.publisher.Sinks;
+import ru.tinkoff.invest.openapi.StreamingContext;
+import ru.tinkoff.invest.openapi.model.streaming.CandleInterval;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingEvent;
+import ru.tinkoff.invest.openapi.model.streaming.StreamingRequest;
+
+import java.math.BigDecimal;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * Проверка {@link ReactiveStreamingContext}: подписка на сервере ведётся по счётчику подписчиков потока.
+ */
+class ReactiveStreamingContextTest {
+
+    private static final String SUBSCRIBE = "CandleSubscribeRequest";
+    private static final String UNSUBSCRIBE = "CandleUnsubscribeRequest";
+
+    private final StubStreamingContext stub = new StubStreamingContext();
+    private final ReactiveStreamingContext streaming = new ReactiveStreamingContext(stub);
+
+    @Test
+    void subscribersOfOneStreamShareOneSubscription() {
+        List<StreamingEvent.Candle> first = new ArrayList<>();
+        List<StreamingEvent.Candle> second = new ArrayList<>();
+        Disposable a = streaming.getCandles("A", CandleInterval._1MIN).subscribe(first::add);
+        Disposable b = streaming.getCandles("A", CandleInterval._1MIN).subscribe(second::add);
+
+        assertEquals(Collections.singletonList(SUBSCRIBE + " A"), stub.requests());
+
+        StreamingEvent.Candle candle = candle("A", CandleInterval._1MIN);
+        stub.emit(candle("B", CandleInterval._1MIN));
+        stub.emit(candle("A", CandleInterval._5MIN));
+        stub.emit(candle);
+        assertEquals(Collections.singletonList(candle), first);
+        assertEquals(Collections.singletonList(candle), second);
+
+        a.dispose();
+        b.dispose();
+    }
+
+    @Test
+    void lastCancelSendsExactlyOneUnsubscribe() {
+        Disposable a = streaming.getCandles("A", CandleInterval._1MIN).subscribe();
+        Disposable b = streaming.getCandles("A", CandleInterval._1MIN).subscribe();
+
+        a.dispose();
+        assertEquals(Collections.singletonList(SUBSCRIBE + " A"), stub.requests());
+
+        b.dispose();
+        b.dispose();
+        assertEquals(Arrays.asList(SUBSCRIBE + " A", UNSUBSCRIBE + " A"), stub.requests());
+    }
+
+    @Test
+    void resubscribeAfterLastCancelSubscribesAgain() {
+        streaming.getCandles("A", CandleInterval._1MIN).subscribe().dispose();
+
+        List<StreamingEvent.Candle> received = new ArrayList<>();
+        Disposable again = streaming.getCandles("A", CandleInterval._1MIN).subscribe(received::add);
+        assertEquals(Arrays.asList(SUBSCRIBE + " A", UNSUBSCRIBE + " A", SUBSCRIBE + " A"), stub.requests());
+
+        StreamingEvent.Candle candle = candle("A", CandleInterval._1MIN);
+        stub.emit(candle);
+        assertEquals(Collections.singletonList(candle), received);
+        again.dispose();
+    }
+
+    @Test
+    void differentStreamsAreSubscribedSeparately() {
+        Disposable a = streaming.getCandles("A", CandleInterval._1MIN).subscribe();
+        Disposable b = streaming.getCandles("B", CandleInterval._1MIN).subscribe();
+
+        a.dispose();
+        assertEquals(Arrays.asList(SUBSCRIBE + " A", SUBSCRIBE + " B", UNSUBSCRIBE + " A"), stub.requests());
+        b.dispose();
+    }
+
+    private static StreamingEvent.Candle candle(String figi, CandleInterval interval) {
+        BigDecimal price = BigDecimal.TEN;
+        return new StreamingEvent.Candle(price, price, price, price, BigDecimal.ONE, ZonedDateTime.now(), interval, figi);
+    }
+
+    /**
+     * Соединение, которое запоминает отправленные запросы и раздаёт события, переданные тестом.
+     */
+    private static final class StubStreamingContext implements StreamingContext {
+
+        private final Sinks.Many<StreamingEvent> events = Sinks.many().multicast().directBestEffort();
+        private final List<String> requests = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void sendRequest(StreamingRequest request) {
+            String figi = request instanceof StreamingRequest.CandleSubscribeRequest
+                    ? ((StreamingRequest.CandleSubscribeRequest) request).getFigi()
+                    : ((StreamingRequest.CandleUnsubscribeRequest) request).getFigi();
+            requests.add(request.getClass().getSimpleName() + " " + figi);
+        }
+
+        @Override
+        public void subscribe(Subscriber<? super StreamingEvent> subscriber) {
+            events.asFlux().subscribe(subscriber);
+        }
+
+        void emit(StreamingEvent event) {
+            events.tryEmitNext(event).orThrow();
+        }
+
+        List<String> requests() {
+            return new ArrayList<>(requests);
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Flux;
+import reactor.test.StepVerifier;
+import reactor.test.scheduler.VirtualTimeScheduler;
+import ru.tinkoff.invest.openapi.Context;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * Проверка {@link ReactorOpenApiContextProducer}: крайний срок ограничивает только ожидание разрешения,
+ * а истечение срока после отправки запроса отличимо от отказа до отправки; место в {@link Bulkhead}
+ * занимают только отправленные запросы.
+ */
+class ReactorOpenApiContextProducerTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+    private static final Context CONTEXT = () -> "test";
+
+    private final AtomicInteger sent = new AtomicInteger();
+
+    private VirtualTimeScheduler time;
+
+    @BeforeEach
+    void setUp() {
+        time = VirtualTimeScheduler.create();
+    }
+
+    @Test
+    void deadlineWhileWaitingForPermitRejectsWithoutSending() {
+        ReactorOpenApiContextProducer<Context> producer =
+                new ReactorOpenApiContextProducer<>(new PermitScheduler(1, time), () -> CONTEXT);
+        producer.call("first", ctx -> send(CompletableFuture.completedFuture("done"))).block(TIMEOUT);
+
+        StepVerifier.create(producer.call("second", ctx -> send(CompletableFuture.completedFuture("done")))
+                        .contextWrite(Deadline.within(Duration.ofMillis(100))))
+                .expectError(DeadlineExceededException.class)
+                .verify(TIMEOUT);
+        assertEquals(1, sent.get());
+    }
+
+    @Test
+    void deadlineAfterSendReportsUnknownOutcomeAndLeavesCallRunning() {
+        ReactorOpenApiContextProducer<Context> producer =
+                new ReactorOpenApiContextProducer<>(new PermitScheduler(10, time), () -> CONTEXT);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+
+        StepVerifier.create(producer.call("placeLimitOrder", ctx -> send(pending))
+                        .contextWrite(Deadline.within(Duration.ofMillis(50))))
+                .expectError(OutcomeUnknownException.class)
+                .verify(TIMEOUT);
+        assertEquals(1, sent.get());
+        assertFalse(pending.isDone());
+    }
+
+    @Test
+    void queuedCallsDoNotOccupyBulkheadSlots() {
+        RateLimitRegistry registry = RateLimitRegistry.builder()
+                .timer(time)
+                .rate(EndpointGroup.ORDERS, 2)
+                .bulkhead(EndpointGroup.ORDERS, 1)
+                .build();
+        ReactorOpenApiContextProducer<Context> producer =
+                new ReactorOpenApiContextProducer<>(EndpointGroup.ORDERS, registry, () -> CONTEXT);
+
+        StepVerifier.withVirtualTime(() -> Flux.range(0, 5)
+                                .flatMap(i -> producer.call("placeLimitOrder", ctx -> send(CompletableFuture.completedFuture(i)))),
+                        () -> time, Long.MAX_VALUE)
+                .expectSubscription()
+                .thenAwait(Duration.ofSeconds(5))
+                .expectNextCount(5)
+                .verifyComplete();
+        assertEquals(5, sent.get());
+        assertEquals(0, registry.getBulkhead(EndpointGroup.ORDERS).getInFlight());
+    }
+
+    @Test
+    void bulkheadRejectsOnlyWhenCallsAreInFlight() {
+        RateLimitRegistry registry = RateLimitRegistry.builder()
+                .timer(time)
+                .rate(EndpointGroup.ORDERS, 100)
+                .bulkhead(EndpointGroup.ORDERS, 1)
+                .build();
+        ReactorOpenApiContextProducer<Context> producer =
+                new ReactorOpenApiContextProducer<>(EndpointGroup.ORDERS, registry, () -> CONTEXT);
+        CompletableFuture<String> pending = new CompletableFuture<>();
+        producer.call("placeLimitOrder", ctx -> send(pending)).subscribe();
+
+        StepVerifier.create(producer.call("placeLimitOrder", ctx -> send(CompletableFuture.completedFuture("done"))))
+                .expectError(BulkheadFullException.class)
+                .verify(TIMEOUT);
+        assertEquals(1, sent.get());
+
+        pending.complete("done");
+        assertEquals(0, registry.getBulkhead(EndpointGroup.ORDERS).getInFlight());
+    }
+
+    @Test
+    void clientDeadlinesDoNotOpenTheCircuit() {
+        RateLimitRegistry registry = RateLimitRegistry.builder()
+                .timer(time)
+                .rate(EndpointGroup.ORDERS, 100)
+                .circuitBreaker(1, Duration.ofMinutes(1), 1)
+                .build();
+        ReactorOpenApiContextProducer<Context> producer =
+                new ReactorOpenApiContextProducer<>(EndpointGroup.ORDERS, registry, () -> CONTEXT);
+        CircuitBreaker breaker = registry.getCircuitBreaker(EndpointGroup.ORDERS);
+
+        StepVerifier.create(producer.call("placeLimitOrder", ctx -> send(new CompletableFuture<String>()))
+                        .contextWrite(Deadline.within(Duration.ofMillis(50))))
+                .expectError(OutcomeUnknownException.class)
+                .verify(TIMEOUT);
+        assertSame(CircuitBreaker.State.CLOSED, breaker.getState());
+
+        CompletableFuture<String> broken = new CompletableFuture<>();
+        broken.completeExceptionally(new IOException("connection reset"));
+        StepVerifier.create(producer.call("placeLimitOrder", ctx -> send(broken)))
+                .expectError(IOException.class)
+                .verify(TIMEOUT);
+        assertSame(CircuitBreaker.State.OPEN, breaker.getState());
+    }
+
+    private <R> CompletableFuture<R> send(CompletableFuture<R> response) {
+        sent.incrementAndGet();
+        return response;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.model.rest.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка {@link RiskGate} на имитаторе брокера: атомарное резервирование при одновременных заявках,
+ * освобождение резерва только для заявок, которые точно не отправлялись, и привязка заявок с неизвестным
+ * исходом при выравнивании.
+ */
+class RiskGateTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(10);
+    private static final String FIGI = "BBG000B9XRY4";
+    private static final BigDecimal PRICE = new BigDecimal("100");
+
+    private OpenApi api;
+    private RateLimitRegistry rateLimits;
+    private ScriptedOrdersContext orders;
+    private InstrumentCatalogue catalogue;
+
+    @BeforeEach
+    void setUp() {
+        SimulatedBroker broker = SimulatedBroker.builder().commissionRate(BigDecimal.ZERO).build();
+        broker.addInstrument(new MarketInstrument()
+                .figi(FIGI)
+                .ticker("AAPL")
+                .lot(1)
+                .currency(Currency.USD)
+                .type(InstrumentType.STOCK)
+                .minPriceIncrement(new BigDecimal("0.01"))
+                .name("Apple"));
+        api = broker.toOpenApi();
+        api.getSandboxContext().setCurrencyBalance(new SandboxSetCurrencyBalanceRequest()
+                .currency(SandboxCurrency.USD).balance(new BigDecimal("1000000")), null).join();
+        RateLimitRegistry.Builder registry = RateLimitRegistry.builder();
+        for (EndpointGroup group : EndpointGroup.values()) {
+            registry.rate(group, 10_000);
+        }
+        rateLimits = registry.build();
+        orders = new ScriptedOrdersContext(api, rateLimits);
+        catalogue = new InstrumentCatalogue(new ReactiveMarketContext(api, rateLimits), Duration.ofHours(1));
+    }
+
+    @Test
+    void concurrentReservationsNeverExceedLimitsAndRollBack() throws Exception {
+        RiskGate gate = gate(false)
+                .maxPosition(FIGI, 60)
+                .maxOpenOrderNotional(Currency.USD, new BigDecimal("5000"))
+                .build();
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<String>> results = new ArrayList<>();
+        try {
+            for (int i = 0; i < 200; i++) {
+                results.add(executor.submit(() -> {
+                    start.await();
+                    return gate.placeLimitOrder(FIGI, limit(1, PRICE))
+                            .map(PlacedLimitOrder::getOrderId)
+                            .onErrorResume(RiskLimitException.class, e -> Mono.empty())
+                            .block(TIMEOUT);
+                }));
+            }
+            start.countDown();
+            List<String> placed = new ArrayList<>();
+            for (Future<String> result : results) {
+                String orderId = result.get(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS);
+                if (orderId != null) {
+                    placed.add(orderId);
+                }
+            }
+
+            // Связывает предел стоимости: 50 заявок, а позиция остаётся в пределе.
+            assertEquals(50, placed.size());
+            assertEquals(0, new BigDecimal("5000").compareTo(gate.getOpenOrderNotional(Currency.USD)));
+
+            for (String orderId : placed) {
+                gate.cancelOrder(orderId).block(TIMEOUT);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        assertEquals(0, gate.getOpenOrderNotional(Currency.USD).signum());
+        assertEquals(0, gate.getGrossExposure(Currency.USD).signum());
+
+        // Отклонённые по стоимости заявки откатили наихудшую позицию: предел позиции доступен целиком.
+        StepVerifier.create(gate.placeLimitOrder(FIGI, limit(61, new BigDecimal("50"))))
+                .expectError(RiskLimitException.class)
+                .verify(TIMEOUT);
+        StepVerifier.create(gate.placeLimitOrder(FIGI, limit(60, new BigDecimal("50"))))
+                .expectNextMatches(placed -> placed.getStatus() == OrderStatus.NEW)
+                .verifyComplete();
+    }
+
+    @Test
+    void unsentOrdersReleaseReservation() {
+        RiskGate gate = gate(true).build();
+        for (RuntimeException error : Arrays.asList(
+                new RiskLimitException("rejected"),
+                new CircuitOpenException("open"),
+                new BulkheadFullException("full"),
+                new DeadlineExceededException("expired while waiting for a permit"))) {
+            orders.script = placement -> Mono.error(error);
+            StepVerifier.create(gate.placeLimitOrder(FIGI, limit(1, PRICE)))
+                    .expectErrorMatches(e -> e == error)
+                    .verify(TIMEOUT);
+            assertEquals(0, gate.getOpenOrderNotional(Currency.USD).signum(), error.getMessage());
+        }
+    }
+
+    @Test
+    void orderWithUnknownOutcomeIsAdoptedOnRefresh() {
+        RiskGate gate = gate(true).build();
+        orders.script = placement -> placement.then(Mono.error(new OutcomeUnknownException("sent")));
+
+        StepVerifier.create(gate.placeLimitOrder(FIGI, limit(3, PRICE)))
+                .expectError(OutcomeUnknownException.class)
+                .verify(TIMEOUT);
+        assertEquals(0, new BigDecimal("300").compareTo(gate.getOpenOrderNotional(Currency.USD)));
+
+        // Выравнивание находит выставленную заявку по параметрам и оставляет резерв за ней.
+        gate.refresh().block(TIMEOUT);
+        assertEquals(0, new BigDecimal("300").compareTo(gate.getOpenOrderNotional(Currency.USD)));
+
+        String orderId = api.getOrdersContext().getOrders(null).join().get(0).getOrderId();
+        gate.cancelOrder(orderId).block(TIMEOUT);
+        assertEquals(0, gate.getOpenOrderNotional(Currency.USD).signum());
+    }
+
+    @Test
+    void orderWithUnknownOutcomeIsReleasedWhenRefreshDoesNotFindIt() {
+        RiskGate gate = gate(true).build();
+        orders.script = placement -> Mono.error(new OutcomeUnknownException("lost"));
+
+        StepVerifier.create(gate.placeLimitOrder(FIGI, limit(3, PRICE)))
+                .expectError(OutcomeUnknownException.class)
+                .verify(TIMEOUT);
+        assertEquals(0, new BigDecimal("300").compareTo(gate.getOpenOrderNotional(Currency.USD)));
+
+        gate.refresh().block(TIMEOUT);
+        assertEquals(0, gate.getOpenOrderNotional(Currency.USD).signum());
+    }
+
+    @Test
+    void orderWithUnknownOutcomeIsReleasedWithoutOrdersList() {
+        RiskGate gate = gate(false).build();
+        orders.script = placement -> placement.then(Mono.error(new OutcomeUnknownException("sent")));
+
+        StepVerifier.create(gate.placeLimitOrder(FIGI, limit(3, PRICE)))
+                .expectError(OutcomeUnknownException.class)
+                .verify(TIMEOUT);
+        assertEquals(0, gate.getOpenOrderNotional(Currency.USD).signum());
+    }
+
+    private RiskGate.Builder gate(boolean withOrdersList) {
+        RiskGate.Builder builder = RiskGate.builder(orders, new ReactivePortfolioContext(api, rateLimits), catalogue);
+        if (withOrdersList) {
+            builder.ordersList(new ReactiveOrdersListContext(api, rateLimits));
+        }
+        return builder;
+    }
+
+    private static LimitOrderRequest limit(int lots, BigDecimal price) {
+        return new LimitOrderRequest().operation(OperationType.BUY).lots(lots).price(price);
+    }
+
+    /**
+     * Контекст заявок, ответ которого на размещение лимитной заявки подменяется сценарием теста.
+     */
+    private static final class ScriptedOrdersContext extends ReactiveOrdersContext {
+
+        volatile UnaryOperator<Mono<PlacedLimitOrder>> script = UnaryOperator.identity();
+
+        ScriptedOrdersContext(OpenApi openApi, RateLimitRegistry rateLimits) {
+            super(openApi, rateLimits);
+        }
+
+        @Override
+        public Mono<PlacedLimitOrder> placeLimitOrder(String figi, LimitOrderRequest limitOrder, String brokerAccountId) {
+            return script.apply(super.placeLimitOrder(figi, limitOrder, brokerAccountId));
+        }
+    }
+}
@@ -0,0 +1,215 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.Test;
+import reactor.test.scheduler.VirtualTimeScheduler;
+import ru.tinkoff.invest.openapi.OpenApi;
+import ru.tinkoff.invest.openapi.model.rest.*;
+
+import java.math.BigDecimal;
+import java.time.Duration;
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка {@link SimulatedBroker}: исполнение лимитных заявок по свечам и "стакану", блокировка остатков
+ * и ограничение частоты запросов.
+ */
+class SimulatedBrokerTest {
+
+    private static final String FIGI = "BBG000B9XRY4";
+    private static final OffsetDateTime START = OffsetDateTime.of(2021, 1, 4, 7, 0, 0, 0, ZoneOffset.UTC);
+
+    private final VirtualTimeScheduler time = VirtualTimeScheduler.create();
+
+    @Test
+    void limitOrdersFillWhenCandleReachesPrice() {
+        SimulatedBroker broker = broker(SimulatedBroker.builder());
+        OpenApi api = broker.toOpenApi();
+        setCash(api, "10000");
+
+        PlacedLimitOrder buy = api.getOrdersContext().placeLimitOrder(FIGI, limit(OperationType.BUY, 10, "100"), null).join();
+        assertEquals(OrderStatus.NEW, buy.getStatus());
+
+        broker.onCandle(candle(0, "102", "103", "101"));
+        assertEquals(1, api.getOrdersContext().getOrders(null).join().size());
+
+        broker.onCandle(candle(1, "101", "102", "99"));
+        assertTrue(api.getOrdersContext().getOrders(null).join().isEmpty());
+        assertPosition(api, "10", "0");
+        assertCash(api, "8999.50", "0");
+
+        // При открытии с разрывом заявка исполняется по лучшей цене открытия.
+        api.getOrdersContext().placeLimitOrder(FIGI, limit(OperationType.BUY, 10, "100"), null).join();
+        broker.onCandle(candle(2, "95", "96", "94"));
+        assertPosition(api, "20", "0");
+        assertCash(api, "8049.02", "0");
+    }
+
+    @Test
+    void limitOrderFillsAgainstOrderbookLevelsWithinPrice() {
+        SimulatedBroker broker = broker(SimulatedBroker.builder().commissionRate(BigDecimal.ZERO));
+        OpenApi api = broker.toOpenApi();
+        api.getSandboxContext().setPositionBalance(new SandboxSetPositionBalanceRequest()
+                .figi(FIGI).balance(BigDecimal.TEN), null).join();
+
+        broker.onOrderbook(orderbook(level("101", 3), level("100", 1), level("99", 10)));
+        PlacedLimitOrder sell = api.getOrdersContext().placeLimitOrder(FIGI, limit(OperationType.SELL, 5, "100"), null).join();
+        assertEquals(OrderStatus.PARTIALLYFILL, sell.getStatus());
+        assertEquals(4, sell.getExecutedLots());
+        assertPosition(api, "6", "1");
+        assertCash(api, "403", "0");
+
+        // Исполненный объём снят со "стакана": повторная заявка по той же цене не исполняется.
+        PlacedLimitOrder another = api.getOrdersContext().placeLimitOrder(FIGI, limit(OperationType.SELL, 1, "100"), null).join();
+        assertEquals(OrderStatus.NEW, another.getStatus());
+
+        broker.onOrderbook(orderbook(level("100", 5)));
+        assertTrue(api.getOrdersContext().getOrders(null).join().isEmpty());
+        assertPosition(api, "4", "0");
+        assertCash(api, "603", "0");
+    }
+
+    @Test
+    void cancelReleasesBlockedBalance() {
+        SimulatedBroker broker = broker(SimulatedBroker.builder());
+        OpenApi api = broker.toOpenApi();
+        setCash(api, "1000");
+
+        PlacedLimitOrder first = api.getOrdersContext().placeLimitOrder(FIGI, limit(OperationType.BUY, 5, "100"), null).join();
+        assertEquals(OrderStatus.NEW, first.getStatus());
+        assertCash(api, "1000", "500.25");
+
+        PlacedLimitOrder rejected = api.getOrdersContext().placeLimitOrder(FIGI, limit(OperationType.BUY, 5, "100"), null).join();
+        assertEquals(OrderStatus.REJECTED, rejected.getStatus());
+
+        api.getOrdersContext().cancelOrder(first.getOrderId(), null).join();
+        assertCash(api, "1000", "0");
+        assertTrue(api.getOrdersContext().getOrders(null).join().isEmpty());
+
+        PlacedLimitOrder second = api.getOrdersContext().placeLimitOrder(FIGI, limit(OperationType.BUY, 5, "100"), null).join();
+        assertEquals(OrderStatus.NEW, second.getStatus());
+    }
+
+    @Test
+    void requestsBeyondThrottlingRateFailWithTooManyRequests() {
+        SimulatedBroker broker = broker(SimulatedBroker.builder().throttle(EndpointGroup.MARKET, 2));
+        OpenApi api = broker.toOpenApi();
+
+        api.getMarketContext().getMarketStocks().join();
+        api.getMarketContext().getMarketStocks().join();
+        CompletionException error = assertThrows(CompletionException.class,
+                () -> api.getMarketContext().getMarketStocks().join());
+        assertTrue(error.getCause() instanceof SimulatedBroker.ThrottledException);
+        assertTrue(AdaptiveRateController.DEFAULT_THROTTLING_PREDICATE.test(error.getCause()));
+
+        // Ограничение действует на группу методов, а в следующую секунду счётчик сбрасывается.
+        api.getOrdersContext().getOrders(null).join();
+        time.advanceTimeBy(Duration.ofSeconds(1));
+        assertEquals(1, api.getMarketContext().getMarketStocks().join().getInstruments().size());
+    }
+
+    @Test
+    void responsesArriveAfterConfiguredLatency() {
+        SimulatedBroker broker = broker(SimulatedBroker.builder().latency(Duration.ofMillis(100)));
+        OpenApi api = broker.toOpenApi();
+
+        CompletableFuture<MarketInstrumentList> stocks = api.getMarketContext().getMarketStocks();
+        time.advanceTimeBy(Duration.ofMillis(99));
+        assertFalse(stocks.isDone());
+        time.advanceTimeBy(Duration.ofMillis(1));
+        assertEquals(1, stocks.join().getInstruments().size());
+    }
+
+    private SimulatedBroker broker(SimulatedBroker.Builder builder) {
+        SimulatedBroker broker = builder.timer(time).start(START).build();
+        broker.addInstrument(new MarketInstrument()
+                .figi(FIGI)
+                .ticker("AAPL")
+                .lot(1)
+                .currency(Currency.USD)
+                .type(InstrumentType.STOCK)
+                .minPriceIncrement(new BigDecimal("0.01"))
+                .name("Apple"));
+        return broker;
+    }
+
+    private static void setCash(OpenApi api, String balance) {
+        api.getSandboxContext().setCurrencyBalance(new SandboxSetCurrencyBalanceRequest()
+                .currency(SandboxCurrency.USD).balance(new BigDecimal(balance)), null).join();
+    }
+
+    private static void assertCash(OpenApi api, String balance, String blocked) {
+        CurrencyPosition position = api.getPortfolioContext().getPortfolioCurrencies(null).join().getCurrencies().stream()
+                .filter(currency -> currency.getCurrency() == Currency.USD)
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertEquals(0, new BigDecimal(balance).compareTo(position.getBalance()), "balance " + position.getBalance());
+        assertEquals(0, new BigDecimal(blocked).compareTo(position.getBlocked()), "blocked " + position.getBlocked());
+    }
+
+    private static void assertPosition(OpenApi api, String balance, String blocked) {
+        PortfolioPosition position = api.getPortfolioContext().getPortfolio(null).join().getPositions().stream()
+                .filter(candidate -> FIGI.equals(candidate.getFigi()))
+                .findFirst()
+                .orElseThrow(AssertionError::new);
+        assertEquals(0, new BigDecimal(balance).compareTo(position.getBalance()), "balance " + position.getBalance());
+        assertEquals(0, new BigDecimal(blocked).compareTo(position.getBlocked()), "blocked " + position.getBlocked());
+    }
+
+    private static LimitOrderRequest limit(OperationType operation, int lots, String price) {
+        return new LimitOrderRequest().operation(operation).lots(lots).price(new BigDecimal(price));
+    }
+
+    private static Candle candle(int minute, String open, String high, String low) {
+        return new Candle()
+                .figi(FIGI)
+                .interval(CandleResolution._1MIN)
+                .time(START.plusMinutes(minute))
+                .o(new BigDecimal(open))
+                .h(new BigDecimal(high))
+                .l(new BigDecimal(low))
+                .c(new BigDecimal(open))
+                .v(100);
+    }
+
+    private static Orderbook orderbook(OrderResponse... bids) {
+        List<OrderResponse> levels = Arrays.asList(bids);
+        return new Orderbook()
+                .figi(FIGI)
+                .depth(levels.size())
+                .bids(levels)
+                .asks(List.of())
+                .tradeStatus(TradeStatus.NORMALTRADING)
+                .minPriceIncrement(new BigDecimal("0.01"));
+    }
+
+    private static OrderResponse level(String price, int quantity) {
+        return new OrderResponse().price(new BigDecimal(price)).quantity(quantity);
+    }
+}
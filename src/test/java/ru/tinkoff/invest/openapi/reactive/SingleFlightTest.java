@@ -0,0 +1,116 @@
+/*
+Copyright 2021 Mikhail Rumyantsev <michael.rumyantsev@gmail.com>
+
+Licensed under the Apache License, Version 2.0 (the "License");
+you may not use this file except in compliance with the License.
+You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+Unless required by applicable law or agreed to in writing, software
+distributed under the License is distributed on an "AS IS" BASIS,
+WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+See the License for the specific language governing permissions and
+limitations under the License.
+*/
+
+package ru.tinkoff.invest.openapi.reactive;
+
+import org.junit.jupiter.api.Test;
+import reactor.core.Disposable;
+import reactor.core.publisher.Mono;
+import reactor.test.StepVerifier;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * Проверка {@link SingleFlight}: одновременные участники разделяют один запрос, но каждый ждёт его
+ * не дольше собственного крайнего срока.
+ */
+class SingleFlightTest {
+
+    private static final Duration TIMEOUT = Duration.ofSeconds(5);
+
+    private final SingleFlight<String, String> flights = new SingleFlight<>();
+    private final AtomicInteger calls = new AtomicInteger();
+
+    @Test
+    void concurrentParticipantsShareOneCall() {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        AtomicReference<String> leader = new AtomicReference<>();
+        flights.execute("figi", () -> call(response)).subscribe(leader::set);
+
+        StepVerifier.create(flights.execute("figi", () -> call(response)))
+                .then(() -> response.complete("orderbook"))
+                .expectNext("orderbook")
+                .verifyComplete();
+        assertEquals("orderbook", leader.get());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void followerWithTighterDeadlineTimesOutWithoutCancellingTheCall() {
+        CompletableFuture<String> response = new CompletableFuture<>();
+        AtomicReference<String> leader = new AtomicReference<>();
+        flights.execute("figi", () -> call(response)).subscribe(leader::set);
+
+        StepVerifier.create(flights.execute("figi", () -> call(response))
+                        .contextWrite(Deadline.within(Duration.ofMillis(50))))
+                .expectError(DeadlineExceededException.class)
+                .verify(TIMEOUT);
+
+        response.complete("orderbook");
+        assertEquals("orderbook", leader.get());
+        assertEquals(1, calls.get());
+    }
+
+    @Test
+    void followerReissuesCallAfterLeaderDeadline() {
+        CompletableFuture<String> first = new CompletableFuture<>();
+        AtomicReference<Throwable> leader = new AtomicReference<>();
+        flights.execute("figi", () -> call(first))
+                .contextWrite(Deadline.within(Duration.ofSeconds(1)))
+                .subscribe(v -> { }, leader::set);
+
+        StepVerifier.create(flights.execute("figi", () -> calls.get() == 0
+                                ? call(first)
+                                : call(CompletableFuture.completedFuture("fresh")))
+                        .contextWrite(Deadline.within(TIMEOUT)))
+                .then(() -> first.completeExceptionally(new DeadlineExceededException("leader deadline")))
+                .expectNext("fresh")
+                .verifyComplete();
+        assertTrue(leader.get() instanceof DeadlineExceededException);
+        assertEquals(2, calls.get());
+    }
+
+    @Test
+    void callIsCancelledWhenAllParticipantsLeave() {
+        AtomicInteger cancelled = new AtomicInteger();
+        CompletableFuture<String> response = new CompletableFuture<>();
+        Disposable first = flights.execute("figi", () -> call(response).doOnCancel(cancelled::incrementAndGet)).subscribe();
+        Disposable second = flights.execute("figi", () -> call(response)).subscribe();
+
+        first.dispose();
+        assertEquals(0, cancelled.get());
+        second.dispose();
+        assertEquals(1, cancelled.get());
+
+        StepVerifier.create(flights.execute("figi", () -> call(CompletableFuture.completedFuture("again"))))
+                .expectNext("again")
+                .verifyComplete();
+        assertEquals(2, calls.get());
+    }
+
+    private Mono<String> call(CompletableFuture<String> response) {
+        return Mono.defer(() -> {
+            calls.incrementAndGet();
+            return Mono.fromFuture(response);
+        });
+    }
+}